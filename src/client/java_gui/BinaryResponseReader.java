@@ -0,0 +1,517 @@
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+
+import data_structures.BasicPath;
+import data_structures.CodeOffsets;
+import data_structures.Conjunct;
+import data_structures.Counterexample;
+import data_structures.Function;
+import data_structures.Location;
+import data_structures.PiError;
+import data_structures.Step;
+import data_structures.Termination;
+import data_structures.VerificationAtom;
+import data_structures.VerificationAtomCollection;
+import data_structures.VerificationCondition;
+import data_structures.VerificationResult;
+import data_structures.VerificationResult.validityT;
+
+/**
+ * Reads the binary encoding of a server response (see xml_spec.txt)
+ * straight into our own data structures, without building any xml.
+ * The server only sends it if we asked for it with accept_format;
+ * anything else is xml and goes through the ServerResponseParser.
+ */
+public class BinaryResponseReader {
+
+	public static final String ACCEPT_FORMAT = "binary1";
+
+	private static final byte[] MAGIC = {'P', 'I', 'V', 'B'};
+	private static final int VERSION = 1;
+
+	// Tag numbers.  These must match binary_tags in xml_generator.ml.
+	private static final int TAG_OTHER = 0;
+	private static final int TAG_TRANSMISSION = 1;
+	private static final int TAG_MESSAGES = 2;
+	private static final int TAG_MESSAGE = 3;
+	private static final int TAG_RESULT = 4;
+	private static final int TAG_FUNCTION = 5;
+	private static final int TAG_CORRECTNESS = 6;
+	private static final int TAG_TERMINATION = 7;
+	private static final int TAG_DECREASING = 8;
+	private static final int TAG_NONNEGATIVE = 9;
+	private static final int TAG_VERIFICATION_ATOM = 10;
+	private static final int TAG_BASIC_PATH = 11;
+	private static final int TAG_STEP = 12;
+	private static final int TAG_TEXT = 13;
+	private static final int TAG_LOCATION = 14;
+	private static final int TAG_START = 15;
+	private static final int TAG_END = 16;
+	private static final int TAG_VC = 17;
+	private static final int TAG_IMPLIES = 18;
+	private static final int TAG_CONJUNCT = 19;
+	private static final int TAG_COUNTEREXAMPLE = 20;
+	private static final int TAG_VAR = 21;
+	private static final int TAG_ERROR = 22;
+
+	// Attribute numbers.  These must match binary_attributes in xml_generator.ml.
+	private static final int ATTR_OTHER = 0;
+	private static final int ATTR_TYPE = 1;
+	private static final int ATTR_STATUS = 2;
+	private static final int ATTR_NAME = 3;
+	private static final int ATTR_TEXT = 4;
+	private static final int ATTR_IN_INDUCTIVE_CORE = 5;
+	private static final int ATTR_ROW = 6;
+	private static final int ATTR_COL = 7;
+	private static final int ATTR_BYTE = 8;
+
+	private static final int CONTENT_EMPTY = 0;
+	private static final int CONTENT_TEXT = 1;
+	private static final int CONTENT_CHILDREN = 2;
+
+	private byte[] bytes;
+	private int pos;
+	private String[] strings;
+	private CodeOffsets codeOffsets;  // translates the server's byte offsets
+
+	/**
+	 * Returns whether the given response is in the binary encoding.
+	 */
+	public static boolean isBinary(byte[] bytes) {
+		if (bytes.length < MAGIC.length + 1)
+			return false;
+		for (int i = 0; i < MAGIC.length; i++)
+			if (bytes[i] != MAGIC[i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Reads a binary response.  A reader holds its place in fields while it
+	 * reads, so threads that read at the same time each need their own.
+	 * @param filename the name of the currently-opened file
+	 * or null if it has no name.
+	 * @param codeOffsets the offsets of the code we sent.
+	 */
+	public ServerResponse read(byte[] bytes, String filename, CodeOffsets codeOffsets) {
+		this.bytes = bytes;
+		this.codeOffsets = codeOffsets;
+		this.pos = MAGIC.length;
+		try {
+			int version = readByte();
+			if (version != VERSION)
+				throw new RuntimeException("Unsupported binary response version " + version);
+			readStringTable();
+			Element root = readElement();
+			if (root.tag != TAG_TRANSMISSION)
+				throw new RuntimeException("Binary response does not start with a transmission");
+			String[] messages = null;
+			ServerResponse result = new ServerResponse(null);
+			for (int i = 0; i < root.numChildren; i++) {
+				Element child = readElement();
+				if (child.tag == TAG_MESSAGES)
+					messages = readMessages(child);
+				else if (child.tag == TAG_RESULT)
+					readResult(child, filename, result);
+				else
+					skipChildren(child);
+			}
+			ServerResponse response = new ServerResponse(messages);
+			response.setVerificationResult(result.getVerificationResult());
+			response.setErrors(result.getErrors());
+			response.setCompilerError(result.getCompilerError());
+			return response;
+		} finally {
+			this.bytes = null;
+			this.strings = null;
+			this.codeOffsets = null;
+		}
+	}
+
+	private void readResult(Element result, String filename, ServerResponse response) {
+		String status = result.status;
+		if ("error".equals(status)) {
+			ArrayList<PiError> errors = new ArrayList<PiError>();
+			for (int i = 0; i < result.numChildren; i++) {
+				Element child = readElement();
+				if (child.tag == TAG_ERROR)
+					errors.add(readError(child));
+				else
+					skipChildren(child);
+			}
+			response.setErrors(errors);
+		} else if ("compiler_error".equals(status)) {
+			PiError error = null;
+			for (int i = 0; i < result.numChildren; i++) {
+				Element child = readElement();
+				if (child.tag == TAG_ERROR)
+					error = readError(child);
+				else
+					skipChildren(child);
+			}
+			if (error == null)
+				throw new RuntimeException("Invalid compiler_error tag");
+			response.setCompilerError(error);
+		} else {
+			validityT validity = ServerResponseParser.validityStringToValidity(status);
+			ArrayList<Function> functions = new ArrayList<Function>();
+			for (int i = 0; i < result.numChildren; i++) {
+				Element child = readElement();
+				if (child.tag == TAG_FUNCTION)
+					functions.add(readFunction(child));
+				else
+					skipChildren(child);
+			}
+			response.setVerificationResult(new VerificationResult(filename, validity, functions));
+		}
+	}
+
+	private String[] readMessages(Element messagesElement) {
+		ArrayList<String> messages = new ArrayList<String>();
+		for (int i = 0; i < messagesElement.numChildren; i++) {
+			Element child = readElement();
+			if (child.tag == TAG_MESSAGE)
+				messages.add(child.textContent());
+			else
+				skipChildren(child);
+		}
+		return messages.toArray(new String[0]);
+	}
+
+	private Function readFunction(Element function) {
+		VerificationAtomCollection correctness = null;
+		Termination termination = null;
+		Location location = null;
+		for (int i = 0; i < function.numChildren; i++) {
+			Element child = readElement();
+			if (child.tag == TAG_CORRECTNESS)
+				correctness = readVerificationAtomCollection(child, "Correctness");
+			else if (child.tag == TAG_TERMINATION)
+				termination = readTermination(child);
+			else if (child.tag == TAG_LOCATION)
+				location = readLocation(child);
+			else
+				skipChildren(child);
+		}
+		if (correctness == null || location == null)
+			throw new RuntimeException("Invalid function tag");
+		return new Function(function.name, function.validity(), correctness, termination, location);
+	}
+
+	private VerificationAtomCollection readVerificationAtomCollection(Element collection, String label) {
+		ArrayList<VerificationAtom> atoms = new ArrayList<VerificationAtom>();
+		for (int i = 0; i < collection.numChildren; i++) {
+			Element child = readElement();
+			if (child.tag == TAG_VERIFICATION_ATOM)
+				atoms.add(readVerificationAtom(child));
+			else
+				skipChildren(child);
+		}
+		if (atoms.size() == 0)
+			throw new RuntimeException("List of atoms is empty");
+		return new VerificationAtomCollection(collection.validity(), atoms, label);
+	}
+
+	private Termination readTermination(Element termination) {
+		VerificationAtomCollection decreasing = null;
+		VerificationAtomCollection nonnegative = null;
+		for (int i = 0; i < termination.numChildren; i++) {
+			Element child = readElement();
+			if (child.tag == TAG_DECREASING)
+				decreasing = readVerificationAtomCollection(child, "Decreasing");
+			else if (child.tag == TAG_NONNEGATIVE)
+				nonnegative = readVerificationAtomCollection(child, "Nonnegative");
+			else
+				skipChildren(child);
+		}
+		if (decreasing == null || nonnegative == null)
+			throw new RuntimeException("Invalid termination tag");
+		return new Termination(termination.validity(), decreasing, nonnegative);
+	}
+
+	private VerificationAtom readVerificationAtom(Element atom) {
+		validityT validity = atom.validity();
+		BasicPath bp = null;
+		VerificationCondition vc = null;
+		Counterexample counterexample = null;
+		Location location = null;
+		for (int i = 0; i < atom.numChildren; i++) {
+			Element child = readElement();
+			if (child.tag == TAG_BASIC_PATH)
+				bp = readBasicPath(child);
+			else if (child.tag == TAG_VC)
+				vc = readVerificationCondition(child, validity);
+			else if (child.tag == TAG_COUNTEREXAMPLE)
+				counterexample = readCounterexample(child);
+			else if (child.tag == TAG_LOCATION)
+				location = readLocation(child);
+			else
+				skipChildren(child);
+		}
+		if (vc == null || (vc.getValidity() == validityT.INVALID && counterexample == null))
+			throw new RuntimeException("Invalid verification_atom tag");
+		return new VerificationAtom(bp, vc, validity, counterexample, atom.name, location);
+	}
+
+	private VerificationCondition readVerificationCondition(Element vc, validityT validity) {
+		ArrayList<Conjunct[]> implies = new ArrayList<Conjunct[]>();
+		for (int i = 0; i < vc.numChildren; i++) {
+			Element impliesElement = readElement();
+			if (impliesElement.tag != TAG_IMPLIES) {
+				skipChildren(impliesElement);
+				continue;
+			}
+			ArrayList<Conjunct> conjuncts = new ArrayList<Conjunct>();
+			for (int c = 0; c < impliesElement.numChildren; c++) {
+				Element conjunct = readElement();
+				if (conjunct.tag == TAG_CONJUNCT)
+					conjuncts.add(readConjunct(conjunct));
+				else
+					skipChildren(conjunct);
+			}
+			implies.add(conjuncts.toArray(new Conjunct[0]));
+		}
+		return new VerificationCondition(implies.toArray(new Conjunct[0][]), validity);
+	}
+
+	private Conjunct readConjunct(Element conjunct) {
+		String str = null;
+		Location loc = null;
+		for (int i = 0; i < conjunct.numChildren; i++) {
+			Element child = readElement();
+			if (child.tag == TAG_TEXT)
+				str = child.textContent();
+			else if (child.tag == TAG_LOCATION)
+				loc = readLocation(child);
+			else
+				skipChildren(child);
+		}
+		if (str == null)
+			throw new RuntimeException("No text node in VC conjunct");
+		if (loc == null)
+			throw new RuntimeException("No location node in VC conjunct");
+		validityT status = (conjunct.status == null ? null : ServerResponseParser.conjunctValidity(conjunct.status));
+		Boolean inInductiveCore = (conjunct.inInductiveCore == null ? null : Boolean.valueOf(conjunct.inInductiveCore));
+		return new Conjunct(str, status, inInductiveCore, loc);
+	}
+
+	private BasicPath readBasicPath(Element path) {
+		ArrayList<Step> steps = new ArrayList<Step>();
+		for (int i = 0; i < path.numChildren; i++) {
+			Element child = readElement();
+			if (child.tag == TAG_STEP)
+				steps.add(readStep(child));
+			else
+				skipChildren(child);
+		}
+		return new BasicPath(steps);
+	}
+
+	private Step readStep(Element step) {
+		String text = null;
+		Location location = null;
+		for (int i = 0; i < step.numChildren; i++) {
+			Element child = readElement();
+			if (child.tag == TAG_LOCATION)
+				location = readLocation(child);
+			else if (child.tag == TAG_TEXT)
+				text = child.textContent();
+			else
+				skipChildren(child);
+		}
+		if (step.type == null || text == null || location == null)
+			throw new RuntimeException("Invalid step tag");
+		return new Step(step.type, text, location);
+	}
+
+	private Counterexample readCounterexample(Element counterexample) {
+		ArrayList<Counterexample.Variable> variables = new ArrayList<Counterexample.Variable>();
+		for (int i = 0; i < counterexample.numChildren; i++) {
+			Element child = readElement();
+			if (child.tag == TAG_VAR)
+				variables.add(readVariable(child));
+			else
+				skipChildren(child);
+		}
+		return new Counterexample(variables);
+	}
+
+	private Counterexample.Variable readVariable(Element var) {
+		Location location = null;
+		for (int i = 0; i < var.numChildren; i++) {
+			Element child = readElement();
+			if (child.tag == TAG_LOCATION)
+				location = readLocation(child);
+			else
+				skipChildren(child);
+		}
+		if (var.text == null)
+			throw new RuntimeException("Invalid var tag");
+		return new Counterexample.Variable(var.text, location);
+	}
+
+	private Location readLocation(Element location) {
+		Element start = null, end = null;
+		for (int i = 0; i < location.numChildren; i++) {
+			Element child = readElement();
+			if (child.tag == TAG_START)
+				start = child;
+			else if (child.tag == TAG_END)
+				end = child;
+			skipChildren(child);
+		}
+		if (start == null || end == null || start.row == -1 || start.col == -1 || start.byteNum == -1
+				|| end.row == -1 || end.col == -1 || end.byteNum == -1)
+			throw new RuntimeException("Invalid location tag");
+		return codeOffsets.makeLocation(start.byteNum, start.row, start.col, end.byteNum, end.row, end.col);
+	}
+
+	private PiError readError(Element error) {
+		String msg = null;
+		Location location = null;
+		for (int i = 0; i < error.numChildren; i++) {
+			Element child = readElement();
+			if (child.tag == TAG_LOCATION)
+				location = readLocation(child);
+			else if (child.tag == TAG_MESSAGE)
+				msg = child.textContent();
+			else
+				skipChildren(child);
+		}
+		if (error.type == null || msg == null || (!error.type.equals("compiler_error") && location == null))
+			throw new RuntimeException("Invalid error tag");
+		return PiError.makeError(error.type, msg, location);
+	}
+
+	/**
+	 * Reads an element's tag, attributes and text, leaving
+	 * the stream positioned at its first child (if any).
+	 */
+	private Element readElement() {
+		Element element = new Element();
+		element.tag = readVarint();
+		if (element.tag == TAG_OTHER)
+			readVarint();  // We don't care about the names of tags we don't know.
+		int numAttributes = readVarint();
+		for (int i = 0; i < numAttributes; i++) {
+			int attribute = readVarint();
+			switch (attribute) {
+			case ATTR_ROW:
+				element.row = readZigzagVarint();
+				break;
+			case ATTR_COL:
+				element.col = readZigzagVarint();
+				break;
+			case ATTR_BYTE:
+				element.byteNum = readZigzagVarint();
+				break;
+			case ATTR_TYPE:
+				element.type = readString();
+				break;
+			case ATTR_STATUS:
+				element.status = readString();
+				break;
+			case ATTR_NAME:
+				element.name = readString();
+				break;
+			case ATTR_TEXT:
+				element.text = readString();
+				break;
+			case ATTR_IN_INDUCTIVE_CORE:
+				element.inInductiveCore = readString();
+				break;
+			case ATTR_OTHER:
+				readVarint();
+				readVarint();
+				break;
+			default:
+				throw new RuntimeException("Unrecognized attribute " + attribute + " in binary response");
+			}
+		}
+		int content = readVarint();
+		if (content == CONTENT_TEXT)
+			element.content = readString();
+		else if (content == CONTENT_CHILDREN)
+			element.numChildren = readVarint();
+		else if (content != CONTENT_EMPTY)
+			throw new RuntimeException("Unrecognized content type " + content + " in binary response");
+		return element;
+	}
+
+	/**
+	 * Skips over all the descendants of an element we don't care about.
+	 */
+	private void skipChildren(Element element) {
+		for (int i = 0; i < element.numChildren; i++)
+			skipChildren(readElement());
+	}
+
+	/**
+	 * Reads the string table.  The server has already made each
+	 * string in it distinct, so every repeat shares one String.
+	 */
+	private void readStringTable() {
+		int count = readVarint();
+		strings = new String[count];
+		try {
+			for (int i = 0; i < count; i++) {
+				int len = readVarint();
+				if (pos + len > bytes.length)
+					throw new RuntimeException("Truncated binary response");
+				strings[i] = new String(bytes, pos, len, "UTF-8");
+				pos += len;
+			}
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private String readString() {
+		int index = readVarint();
+		if (index >= strings.length)
+			throw new RuntimeException("Bad string index in binary response");
+		return strings[index];
+	}
+
+	private int readByte() {
+		if (pos >= bytes.length)
+			throw new RuntimeException("Truncated binary response");
+		return bytes[pos++] & 0xff;
+	}
+
+	private int readVarint() {
+		int result = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = readByte();
+			result |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return result;
+		}
+		throw new RuntimeException("Malformed varint in binary response");
+	}
+
+	private int readZigzagVarint() {
+		int n = readVarint();
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	/**
+	 * The tag, attributes and text of one element.
+	 */
+	private static class Element {
+		private int tag;
+		private String type, status, name, text, inInductiveCore;
+		private int row = -1, col = -1, byteNum = -1;
+		private String content;
+		private int numChildren;
+
+		private validityT validity() {
+			return ServerResponseParser.validityStringToValidity(status);
+		}
+
+		private String textContent() {
+			return (content == null ? "" : content);
+		}
+	}
+
+}
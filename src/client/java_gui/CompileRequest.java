@@ -0,0 +1,238 @@
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import data_structures.CodeOffsets;
+
+/**
+ * One request to the server and its round trip.  The settings that go
+ * into the request are read when it is made, on the Swing thread; the
+ * rest runs on a compile thread.  Documents and the ProjectVerifier
+ * both compile through this class, so the same code always makes the
+ * same request and they share cached answers.
+ */
+public class CompileRequest {
+
+	private final String code;
+	private final String serverAddress;
+	private final boolean generateRuntimeAssertions, findInductiveCore;
+	private final String userName, userEmail;
+	private final boolean wantsXml;  // for the Raw XML tab
+	private String[] submitTo;  // null unless this is also a submission
+	private String submissionComment;
+	private PiReport.ReportType reportType;  // null unless this is a report
+	private String reportComment;
+
+	private RequestWriter writer;
+	private String cacheKey;
+	private boolean fromCache;
+	private String responseText;
+	private volatile Socket toServer;
+	private final AtomicBoolean abandoned = new AtomicBoolean();
+
+	/**
+	 * Makes a request to verify the given code with the given options.
+	 */
+	public CompileRequest(String code, boolean generateRuntimeAssertions, boolean findInductiveCore) {
+		this.code = code;
+		this.generateRuntimeAssertions = generateRuntimeAssertions;
+		this.findInductiveCore = findInductiveCore;
+		this.serverAddress = Config.getValueWithEnvironmentOverride("server_address");
+		this.userName = Config.getValue("name");
+		this.userEmail = Config.getValue("email_address");
+		this.wantsXml = Config.getBooleanValue("show_raw_xml");
+	}
+
+	/**
+	 * Makes a request that reports a problem to the server, with the
+	 * code if it is not null.
+	 */
+	public CompileRequest(PiReport.ReportType reportType, String code, String comment) {
+		this(code, false, false);
+		this.reportType = reportType;
+		this.reportComment = comment;
+	}
+
+	/**
+	 * Makes the request submit the code as well as verify it.
+	 */
+	public void submit(String comment) {
+		submitTo = Config.getValueWithEnvironmentOverride("submit_to_email_address").split(",");
+		submissionComment = comment;
+	}
+
+	public String getCode() {
+		return code;
+	}
+
+	public String getServerAddress() {
+		return serverAddress;
+	}
+
+	/**
+	 * Returns true if the answer depends only on the request,
+	 * so it is safe to reuse for an identical one.
+	 */
+	public boolean isCacheable() {
+		return reportType == null && submitTo == null;
+	}
+
+	/**
+	 * Writes the request, if we haven't yet.  The server's xml parser
+	 * is not a full xml parser, so we write exactly what it understands.
+	 */
+	public void build() {
+		if (writer != null)
+			return;
+		writer = RequestWriter.obtain();
+		String type = (reportType != null ? "report" : "program_submission_request");
+		// The Raw XML tab shows what the server sent, so while
+		// it is open we ask for compact xml instead of the binary encoding.
+		writer.startElement("piVC_transmission", "type", type,
+				"accept_encoding", Transmission.ACCEPT_ENCODING,
+				"accept_format", (wantsXml ? "compact" : BinaryResponseReader.ACCEPT_FORMAT));
+		if (code != null)
+			writer.startElement("code", "xml:space", "preserve").verbatim(code).endElement("code");
+		if (reportType != null)
+			writer.textElement("report_type", PiReport.stringOfReportType(reportType));
+		if (reportComment != null)
+			writer.textElement("comment", reportComment);
+
+		if (userName.length() > 0 || userEmail.length() > 0)
+			writer.emptyElement("user", "name", userName, "email_addr", userEmail);
+
+		writer.startElement("options");
+		if (generateRuntimeAssertions)
+			writer.emptyElement("generate_runtime_assertions");
+		if (findInductiveCore)
+			writer.emptyElement("find_inductive_core");
+		if (submitTo != null) {
+			writer.startElement("submit").startElement("to_addrs");
+			for (String addr: submitTo)
+				writer.textElement("addr", addr.trim());
+			writer.endElement("to_addrs");
+			if (submissionComment != null)
+				writer.textElement("comment", submissionComment);
+			writer.endElement("submit");
+		}
+		writer.endElement("options");
+		writer.endElement("piVC_transmission");
+		if (isCacheable())
+			cacheKey = VerificationService.keyOf(serverAddress, writer);
+	}
+
+	/**
+	 * Returns the server's answer to an identical earlier request, or
+	 * null if we don't have it.  This may read from disk.
+	 */
+	public byte[] getCachedResult() {
+		build();
+		byte[] bytes = (cacheKey != null ? VerificationService.getCachedResult(cacheKey) : null);
+		fromCache = (bytes != null);
+		return bytes;
+	}
+
+	/**
+	 * Sends the request and returns the server's answer, timing each
+	 * phase on the stopwatch.
+	 */
+	public byte[] send(PerformanceMetrics.Stopwatch stopwatch) throws IOException {
+		build();
+		String[] parts = serverAddress.split(":");
+		toServer = new Socket(parts[0].trim(), Integer.parseInt(parts[1].trim()));
+		if (abandoned.get())
+			toServer.close();
+		stopwatch.lap(PerformanceMetrics.Phase.CONNECT);
+		byte[] bytes;
+		try {
+			Transmission.send(toServer.getOutputStream(), serverAddress, writer);
+			stopwatch.lap(PerformanceMetrics.Phase.SEND);
+			bytes = Transmission.receive(new DataInputStream(toServer.getInputStream()), serverAddress, stopwatch);
+		} catch (IOException e) {
+			// Whatever now answers at this address may not read compressed frames.
+			Transmission.forgetServer(serverAddress);
+			throw e;
+		}
+		stopwatch.lap(PerformanceMetrics.Phase.RECEIVE);
+		fromCache = false;
+		return bytes;
+	}
+
+	/**
+	 * Reads the server's answer, which is in the binary encoding if the
+	 * server understood our accept_format and in xml otherwise.  If the
+	 * server would give the same answer again, we remember it for
+	 * identical requests.  Returns null if the answer is not valid xml.
+	 */
+	public ServerResponse read(byte[] bytes, String filename) {
+		CodeOffsets codeOffsets = new CodeOffsets(code == null ? "" : code);
+		ServerResponse response;
+		if (BinaryResponseReader.isBinary(bytes)) {
+			responseText = "(Binary response, " + bytes.length + " bytes)";
+			response = VerificationService.getBinaryResponseReader().read(bytes, filename, codeOffsets);
+		} else {
+			try {
+				responseText = new String(bytes, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new RuntimeException(e);
+			}
+			response = VerificationService.getServerResponseParser().parse(responseText, filename, codeOffsets);
+		}
+		if (cacheKey != null && !fromCache && VerificationService.isRepeatable(response))
+			VerificationService.cacheResult(cacheKey, bytes);
+		return response;
+	}
+
+	/**
+	 * Returns the text of the last answer read, for the Raw XML tab.
+	 */
+	public String getResponseText() {
+		return responseText;
+	}
+
+	/**
+	 * Gives up on the request: closes the connection so a blocked
+	 * read returns.  This may be called from any thread.
+	 */
+	public void abandon() {
+		abandoned.set(true);
+		Socket socket = toServer;
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException ignored) { }
+		}
+	}
+
+	public boolean isAbandoned() {
+		return abandoned.get();
+	}
+
+	/**
+	 * Returns the flag abandon sets, for work done on the request's
+	 * behalf to stop early.
+	 */
+	public AtomicBoolean getAbandonedFlag() {
+		return abandoned;
+	}
+
+	/**
+	 * Closes the connection and hands back the request's buffer.
+	 * Called on the compile thread once it is done with the request.
+	 */
+	public void close() {
+		if (writer != null) {
+			writer.release();
+			writer = null;
+		}
+		Socket socket = toServer;
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException ignored) { }
+		}
+	}
+
+}
@@ -21,6 +21,19 @@ public class Config {
 								{"email_address", ""},
 								{"submit_to_email_address", ""},
 								{"auto_save_compile", "false"},
+								{"auto_verify", "false"},
+								{"auto_verify_delay_ms", "1000"},
+								{"cache_line_images", "false"},
+								{"verify_threads", "4"},
+								{"result_cache_size", "8388608"},
+								{"undo_history_size", "4194304"},
+								{"result_store_location", System.getProperty("user.home")+"/.pivc-client-results"},
+								{"result_store_size", "67108864"},
+								{"performance_file", System.getProperty("user.home")+"/.pivc-client-performance.json"},
+								{"check_syntax_locally", "true"},
+								{"check_types_locally", "true"},
+								{"test_contracts_locally", "true"},
+								{"test_contracts_ms", "10"},
 	};
 	
 	private static Map<String,String> settings;
@@ -0,0 +1,129 @@
+/**
+ * A histogram of durations in the style of HdrHistogram: values are
+ * counted in buckets whose width grows with their size, so every value
+ * from a microsecond to hours is kept to within about 6% in a fixed,
+ * small array.  Recording is cheap enough to do on every compile.
+ */
+public class LatencyHistogram implements LatencyHistogramMBean {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;  // buckets per power of two
+	private static final int NUM_BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final String name;
+	private final long[] counts;
+	private long count;
+	private long totalMicros;
+	private long maxMicros;
+
+	public LatencyHistogram(String name) {
+		this.name = name;
+		this.counts = new long[NUM_BUCKETS];
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public synchronized void recordNanos(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+		counts[bucketOf(micros)]++;
+		count++;
+		totalMicros += micros;
+		maxMicros = Math.max(maxMicros, micros);
+	}
+
+	public synchronized long getCount() {
+		return count;
+	}
+
+	public synchronized double getMeanMillis() {
+		return (count == 0 ? 0 : totalMicros / (double)count / 1000);
+	}
+
+	public double getMedianMillis() {
+		return getPercentileMillis(50);
+	}
+
+	public double get90thPercentileMillis() {
+		return getPercentileMillis(90);
+	}
+
+	public double get99thPercentileMillis() {
+		return getPercentileMillis(99);
+	}
+
+	public synchronized double getMaxMillis() {
+		return maxMicros / 1000.0;
+	}
+
+	/**
+	 * Returns the value below which the given percentage of the recorded
+	 * values fall, to within the width of a bucket.
+	 */
+	public synchronized double getPercentileMillis(double percentile) {
+		if (count == 0)
+			return 0;
+		long rank = Math.max(1, (long)Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.min(upperBoundOf(i), maxMicros) / 1000.0;
+		}
+		return maxMicros / 1000.0;
+	}
+
+	public synchronized void reset() {
+		java.util.Arrays.fill(counts, 0);
+		count = 0;
+		totalMicros = 0;
+		maxMicros = 0;
+	}
+
+	/**
+	 * Writes the histogram as a JSON object.  Besides the summary it lists
+	 * the non-empty buckets as [lowest microsecond value, count] pairs, so
+	 * histograms from many clients can be added together later.
+	 */
+	public synchronized void appendJson(StringBuilder json) {
+		json.append("{\"count\": ").append(count);
+		json.append(", \"mean_ms\": ").append(getMeanMillis());
+		json.append(", \"p50_ms\": ").append(getMedianMillis());
+		json.append(", \"p90_ms\": ").append(get90thPercentileMillis());
+		json.append(", \"p99_ms\": ").append(get99thPercentileMillis());
+		json.append(", \"max_ms\": ").append(getMaxMillis());
+		json.append(", \"buckets_us\": [");
+		boolean first = true;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			if (counts[i] == 0)
+				continue;
+			if (!first)
+				json.append(", ");
+			json.append('[').append(lowerBoundOf(i)).append(", ").append(counts[i]).append(']');
+			first = false;
+		}
+		json.append("]}");
+	}
+
+	private static int bucketOf(long micros) {
+		if (micros < SUB_BUCKETS)
+			return (int)micros;
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		int subBucket = (int)(micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long lowerBoundOf(int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+		int subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+		return (long)(SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+	}
+
+	private static long upperBoundOf(int bucket) {
+		return (bucket + 1 < NUM_BUCKETS ? lowerBoundOf(bucket + 1) - 1 : Long.MAX_VALUE);
+	}
+
+}
@@ -0,0 +1,21 @@
+/**
+ * The management interface through which a LatencyHistogram
+ * is exposed over JMX.
+ */
+public interface LatencyHistogramMBean {
+
+	public long getCount();
+
+	public double getMeanMillis();
+
+	public double getMedianMillis();
+
+	public double get90thPercentileMillis();
+
+	public double get99thPercentileMillis();
+
+	public double getMaxMillis();
+
+	public void reset();
+
+}
@@ -0,0 +1,133 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Where the time goes in a compile.  We keep a LatencyHistogram for each
+ * phase of a round trip to the server, which can be looked at in the
+ * Performance window, read over JMX (as piVC:type=Latency,phase=...)
+ * and are written to a JSON file when the program exits.
+ */
+public class PerformanceMetrics {
+
+	public enum Phase {
+		BUILD("Build request"),
+		TEST("Test contracts"),
+		CONNECT("Connect"),
+		SEND("Send"),
+		SERVER("Wait for server"),  // includes the network latency back to us
+		RECEIVE("Receive"),
+		PARSE("Parse"),
+		DISPLAY("Display"),
+		TOTAL("Total"),  // only compiles that went to the server
+		LOCAL_TOTAL("Total, answered locally");  // cache hits and counterexamples found by testing
+
+		private final String description;
+
+		private Phase(String description) {
+			this.description = description;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+	}
+
+	private static final EnumMap<Phase,LatencyHistogram> histograms = new EnumMap<Phase,LatencyHistogram>(Phase.class);
+	static {
+		for (Phase phase: Phase.values())
+			histograms.put(phase, new LatencyHistogram(phase.getDescription()));
+	}
+
+	public static LatencyHistogram getHistogram(Phase phase) {
+		return histograms.get(phase);
+	}
+
+	public static void reset() {
+		for (LatencyHistogram histogram: histograms.values())
+			histogram.reset();
+	}
+
+	/**
+	 * Makes the histograms visible to JMX clients such as jconsole.
+	 */
+	public static void registerMBeans() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			for (Phase phase: Phase.values())
+				server.registerMBean(histograms.get(phase), new ObjectName("piVC:type=Latency,phase=" + phase.name().toLowerCase()));
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	public static String toJson() {
+		StringBuilder json = new StringBuilder("{\"time\": ").append(System.currentTimeMillis());
+		String serverAddress = Config.getValueWithEnvironmentOverride("server_address");
+		if (serverAddress != null)
+			json.append(", \"server_address\": \"").append(serverAddress.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+		for (Phase phase: Phase.values()) {
+			json.append(",\n \"").append(phase.name().toLowerCase()).append("\": ");
+			histograms.get(phase).appendJson(json);
+		}
+		return json.append("}\n").toString();
+	}
+
+	/**
+	 * Writes the histograms to the file named by performance_file,
+	 * unless it is empty or nothing has been compiled.
+	 */
+	public static void dump() {
+		String filename = Config.getValue("performance_file");
+		if (filename.length() == 0 || histograms.get(Phase.TOTAL).getCount() + histograms.get(Phase.LOCAL_TOTAL).getCount() == 0)
+			return;
+		try {
+			FileWriter writer = new FileWriter(new File(filename));
+			try {
+				writer.write(toJson());
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Times the phases of one compile.  Each lap records the time since
+	 * the previous one, so the phases add up to the total.  Compiles
+	 * that never connect to the server are totalled separately, so
+	 * they don't hide how long the server takes.
+	 */
+	public static class Stopwatch {
+		private final long start;
+		private long last;
+		private boolean connected;
+
+		public Stopwatch() {
+			start = last = System.nanoTime();
+		}
+
+		public void lap(Phase phase) {
+			long now = System.nanoTime();
+			histograms.get(phase).recordNanos(now - last);
+			last = now;
+			if (phase == Phase.CONNECT)
+				connected = true;
+		}
+
+		/**
+		 * Records the last phase and the total.
+		 */
+		public void finish(Phase phase) {
+			lap(phase);
+			histograms.get(connected ? Phase.TOTAL : Phase.LOCAL_TOTAL).recordNanos(last - start);
+		}
+	}
+
+}
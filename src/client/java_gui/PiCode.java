@@ -11,17 +11,16 @@ import java.util.ArrayList;
 import javax.swing.JEditorPane;
 import javax.swing.event.CaretEvent;
 import javax.swing.event.CaretListener;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
-import javax.swing.event.UndoableEditEvent;
-import javax.swing.event.UndoableEditListener;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultHighlighter;
 import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.StyleConstants;
 import javax.swing.text.TabSet;
 import javax.swing.text.TabStop;
-import javax.swing.undo.UndoManager;
 
 import org.syntax.jedit.JEditTextArea;
 import org.syntax.jedit.tokenmarker.JavaTokenMarker;
@@ -42,17 +41,22 @@ public class PiCode extends JEditTextArea implements DocumentListener, DirtyChan
 	public static Color yellowHP = Color.YELLOW;
 	public static Color redHP = Color.RED;
 	
-	private PiGui piGui;
+	private PiDocument piDocument;
 	private boolean justLoaded;
-	private UndoManager undo;
+	private UndoJournal undo;
+	private int revision;  // Incremented on every edit so we can tell stale verification results apart.
 	
-	public PiCode(PiGui pGui) {
+	public PiCode(PiDocument pDocument) {
 		super();
+		// The text area defaults share one document; each tab needs its own,
+		// which records its changes for undo.
+		undo = new UndoJournal();
+		setDocument(undo.getDocument());
 		setTokenMarker(new PiTokenMarker());
-		this.piGui = pGui;
+		getPainter().setLineImageCacheEnabled(Config.getBooleanValue("cache_line_images"));
+		this.piDocument = pDocument;
 		justLoaded = false;
-		undo = new UndoManager();
-		piGui.addDirtyChangedListener(this);
+		piDocument.addDirtyChangedListener(this);
 		initCodePane();
 		//setBackground(Color.YELLOW);
 		//setTabSize(4);
@@ -108,31 +112,48 @@ public class PiCode extends JEditTextArea implements DocumentListener, DirtyChan
 	 * Initializes the text pane.
 	 */
 	private void initCodePane() {
-		// Listen for edits for undo.
-		
-		getDocument().addUndoableEditListener(new UndoableEditListener() {
-		    public void undoableEditHappened(UndoableEditEvent e) {
-		    	//style changes are done automatically by the text pane. it doesn't make sense to undo them
-		    	if(!e.getEdit().getPresentationName().equals("style change")){
-		    		undo.addEdit(e.getEdit());
-		    		piGui.undoChangeHappened(undo);
-		    	}
-		    }
+		// Count edits and let the gui know, so it can verify in the background.
+		getDocument().addDocumentListener(new DocumentListener() {
+			public void insertUpdate(DocumentEvent e) {
+				revisionChanged();
+			}
+			public void removeUpdate(DocumentEvent e) {
+				revisionChanged();
+			}
+			public void changedUpdate(DocumentEvent e) {
+				// Attribute changes do not change the program.
+			}
+		});
+
+		// Let the gui know when what can be undone changes.
+		undo.setChangeListener(new ChangeListener() {
+			public void stateChanged(ChangeEvent e) {
+				piDocument.undoChangeHappened(undo);
+			}
 		});
 		// Listen for selection changes so we can enable/disable cut/copy/paste.
 		addCaretListener(new CaretListener() {
 			public void caretUpdate(CaretEvent e) {
 			    int dot = e.getDot();
 			    int mark = e.getMark();
+			    undo.caretMoved(dot);
 			    if (dot == mark){ // no selection
-			    	piGui.codeIsSelected(false);
+			    	piDocument.codeIsSelected(false);
 			    }
 			    else{ // selection
-			    	piGui.codeIsSelected(true);
+			    	piDocument.codeIsSelected(true);
 			    }
 		    	removeAllHighlights();
 			}
 		});
+		// Ctrl-click jumps to whatever in the verification result covers the clicked position.
+		painter.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				if (e.getButton() == MouseEvent.BUTTON1 && e.isControlDown() && !e.isShiftDown())
+					piDocument.navigateToOffset(xyToOffset(e.getX(), e.getY()));
+			}
+		});
 		/*
 		// Listen for clicks so we can remove highlighting.
 		addMouseListener(new MouseAdapter() {
@@ -183,8 +204,8 @@ public class PiCode extends JEditTextArea implements DocumentListener, DirtyChan
 	 * that could be undone.
 	 */
 	public boolean undo() {
-		undo.undo();
-		piGui.undoChangeHappened(undo);
+		int caret = undo.undo();
+		select(caret, caret);
 		return undo.canUndo();
 	}
 	
@@ -193,8 +214,24 @@ public class PiCode extends JEditTextArea implements DocumentListener, DirtyChan
 	 * that we have made a change.
 	 */
 	public void redo() {
-		undo.redo();
-		piGui.undoChangeHappened(undo);
+		int caret = undo.redo();
+		select(caret, caret);
+	}
+	
+	public UndoJournal getUndoJournal() {
+		return undo;
+	}
+
+	/**
+	 * Groups the edits made until the matching endCompoundEdit
+	 * into one, which undo takes back all at once.  These nest.
+	 */
+	public void beginCompoundEdit() {
+		undo.beginCompoundEdit();
+	}
+
+	public void endCompoundEdit() {
+		undo.endCompoundEdit();
 	}
 	
 	/**
@@ -206,7 +243,6 @@ public class PiCode extends JEditTextArea implements DocumentListener, DirtyChan
 	public void openedNewFile() {
 		removeAllHighlights();
 		undo.discardAllEdits();
-		piGui.undoChangeHappened(undo);
 	}
 	
 	/**
@@ -228,7 +264,7 @@ public class PiCode extends JEditTextArea implements DocumentListener, DirtyChan
 		if (justLoaded) {
 			justLoaded = false;
 		} else {
-			piGui.setDirty(true);
+			piDocument.setDirty(true);
 		}
 	}		
 
@@ -238,7 +274,7 @@ public class PiCode extends JEditTextArea implements DocumentListener, DirtyChan
 	 */
 	public void insertUpdate(DocumentEvent e) {
 		updateScrollBars();
-		piGui.setDirty(true);
+		piDocument.setDirty(true);
 	}
 
 	/**
@@ -249,7 +285,20 @@ public class PiCode extends JEditTextArea implements DocumentListener, DirtyChan
 		updateScrollBars();
 		//TODO: this is a clumsy way to update the scroll bars because it iterates over ever line. if piVC is
 		//ever used with large files, this might pose a problem
-		piGui.setDirty(true);
+		piDocument.setDirty(true);
+	}
+
+	/**
+	 * Returns the revision of the document, which changes
+	 * whenever its text does.
+	 */
+	public int getRevision() {
+		return revision;
+	}
+
+	private void revisionChanged() {
+		revision++;
+		piDocument.codeChanged();
 	}
 
 	public void dirtyChanged(boolean dirty) {
@@ -0,0 +1,859 @@
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.KeyEvent;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import javax.swing.*;
+
+import data_structures.BasicPath;
+import data_structures.PiError;
+import data_structures.Step;
+import data_structures.VerificationAtom;
+import data_structures.VerificationResult;
+import language.Node;
+import language.PiParser;
+import language.PiSyntaxException;
+import language.SemanticChecker;
+
+/**
+ * One open file in the workspace: its code, its verification
+ * results and the compile (if any) running for it.
+ * PiGui shows one document per tab, and forwards the menu and
+ * toolbar actions to whichever one is selected.
+ */
+public class PiDocument extends JSplitPane {
+
+	private PiGui gui;
+	private PiCode piCode;
+	private PiFindBar findBar;
+	private PiErrorOutput piErrorOutput;
+	private PiCompilerOutput piCompilerOutput;
+	private PiTree piTree;
+	private JTabbedPane rightTabbedPane;
+	private PiVCPane vcPane;
+	private File curFile;
+	private boolean dirty;
+	private ArrayList<DirtyChangedListener> dirtyChangedListeners;
+	private Compiler curCompilation;
+	private Timer autoVerifyTimer;
+	private PiParser parser = new PiParser();
+	private Node checkedProgram;  // The tree checkCode last parsed without errors, or null.
+
+	public PiDocument(PiGui gui) {
+		super(JSplitPane.HORIZONTAL_SPLIT);
+		this.gui = gui;
+		dirtyChangedListeners = new ArrayList<DirtyChangedListener>();
+		curFile = null;
+		curCompilation = null;
+		autoVerifyTimer = new Timer(0, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				doAutoVerify();
+			}
+		});
+		autoVerifyTimer.setRepeats(false);
+		installMain();
+		setDirty(false);
+	}
+
+	public File getFile() {
+		return curFile;
+	}
+
+	/**
+	 * The name to show on the document's tab.
+	 */
+	public String getDisplayName() {
+		return (curFile == null ? "Untitled" : curFile.getName());
+	}
+
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	 * Returns true if this is a new document that nobody has typed
+	 * into, which we may as well reuse when opening a file.
+	 */
+	public boolean isPristine() {
+		return curFile == null && !dirty && piCode.getDocumentLength() == 0;
+	}
+
+	public boolean isCompiling() {
+		return curCompilation != null;
+	}
+
+	/**
+	 * Returns true if the running compile was started by verifying
+	 * while typing, and so may be superseded by the user.
+	 */
+	public boolean isBackgroundCompiling() {
+		return curCompilation != null && curCompilation.isBackground;
+	}
+
+	public String getText() {
+		return piCode.getText();
+	}
+
+	/**
+	 * Gets the name of the currently-opened file if there is one.
+	 */
+	public String getCurFilename() {
+		return (curFile == null ? "" : " " + curFile.getName()) ;
+	}
+
+	/**
+	 * Loads the given file into the code panel.
+	 */
+	public void loadFile(File selectedFile) {
+		curFile = selectedFile;
+		try {
+			BufferedReader in = new BufferedReader(new FileReader(selectedFile));
+			piCode.read(in, null);
+			in.close();
+			piCode.openedNewFile();
+			piTree.openedNewFile();
+			piErrorOutput.clear();
+			vcPane.clear();
+			if (curCompilation != null)
+				cancelCompile();
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+		setDirty(false);
+		restoreResult();
+	}
+
+	/**
+	 * Saves what's in the code panel into the
+	 * given file.
+	 */
+	public boolean saveFile(File selectedFile) {
+		try {
+			FileWriter out = new FileWriter(selectedFile);
+			out.write(piCode.getText());
+			out.close();
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		curFile = selectedFile;
+		setDirty(false);
+		return true;
+	}
+
+	/**
+	 * Sets the dirty bit to the specified value and
+	 * notifies anyone who cares about the dirty bit
+	 * changing.
+	 */
+	public void setDirty(boolean b) {
+		dirty = b;
+		for (DirtyChangedListener listener: dirtyChangedListeners)
+			listener.dirtyChanged(dirty);
+		gui.documentChanged(this);
+	}
+
+	/**
+	 * Adds a listener to the list of people who want to
+	 * know when the dirty bit changes.
+	 */
+	public void addDirtyChangedListener(DirtyChangedListener listener) {
+		dirtyChangedListeners.add(listener);
+	}
+
+	/**
+	 * Called when the document is closed.  Anything still
+	 * running for it is abandoned.
+	 */
+	public void close() {
+		autoVerifyTimer.stop();
+		if (curCompilation != null)
+			curCompilation.abandon();
+		curCompilation = null;
+	}
+
+	/**
+	 * Called by the gui when our tab is selected, so the menus
+	 * reflect this document rather than the previous one.
+	 */
+	public void selected() {
+		undoChangeHappened(piCode.getUndoJournal());
+		codeIsSelected(piCode.getSelectionStart() != piCode.getSelectionEnd());
+		nodeSelected(piTree.getSelectedObject());
+		piCode.requestFocus();
+	}
+
+	public void doCompileAndMaybeSubmit(boolean alsoSubmit, String submissionComments) {
+		if (curCompilation != null)
+			curCompilation.abandon();
+		autoVerifyTimer.stop();
+		startCompile(alsoSubmit, submissionComments, false, false);
+	}
+
+	/**
+	 * Verifies the document as part of verifying every open file.
+	 * A compile the user started is left to finish, and an answer
+	 * we already have for the same code is reused.
+	 */
+	public void verify() {
+		if (piCode.getDocumentLength() == 0)
+			return;
+		if (curCompilation != null) {
+			if (!curCompilation.isBackground)
+				return;
+			curCompilation.abandon();
+		}
+		autoVerifyTimer.stop();
+		startCompile(false, null, false, true);
+	}
+
+	/**
+	 * Shows the answer we got the last time this code was verified
+	 * with the same options, if we still have it, without asking the
+	 * server.  Like verifying while typing, anything the user does
+	 * takes over from it.
+	 */
+	private void restoreResult() {
+		if (piCode.getDocumentLength() == 0 || curCompilation != null)
+			return;
+		curCompilation = new Compiler(new CompileRequest(piCode.getText(), Config.getBooleanValue("generate_runtime_assertions"), Config.getBooleanValue("find_inductive_core")));
+		curCompilation.isBackground = true;
+		curCompilation.useCachedResult = true;
+		curCompilation.cacheOnly = true;
+		compileStarted();
+		VerificationService.execute(curCompilation);
+	}
+
+	private void startCompile(boolean alsoSubmit, String submissionComments, boolean isBackground, boolean useCachedResult) {
+		String code = piCode.getText();
+		if (!checkCode(code))
+			return;
+		CompileRequest request = new CompileRequest(code, Config.getBooleanValue("generate_runtime_assertions"), Config.getBooleanValue("find_inductive_core"));
+		if (alsoSubmit)
+			request.submit(submissionComments);
+		curCompilation = new Compiler(request);
+		curCompilation.program = checkedProgram;
+		curCompilation.isBackground = isBackground;
+		curCompilation.useCachedResult = useCachedResult;
+		compileStarted();
+		VerificationService.execute(curCompilation);
+	}
+
+	/**
+	 * Checks the code before it is sent, so a syntax error or an
+	 * error the server's semantic checker would find is shown
+	 * straight away, instead of after a round trip to the server
+	 * that could only have found the same errors.  The parser keeps
+	 * the declarations it parsed last time, so this only reparses
+	 * what has been edited since.  Returns whether the code passed.
+	 * The tree it parsed is kept in checkedProgram, so the compile
+	 * can test the contracts without parsing the code again.
+	 */
+	private boolean checkCode(String code) {
+		checkedProgram = null;
+		boolean checkSyntax = Config.getBooleanValue("check_syntax_locally");
+		boolean checkTypes = Config.getBooleanValue("check_types_locally");
+		if (!checkSyntax && !checkTypes)
+			return true;
+		ArrayList<PiError> errors;
+		try {
+			Node program = parser.parse(code);
+			errors = (checkTypes ? SemanticChecker.check(program, code) : new ArrayList<PiError>());
+			if (errors.isEmpty())
+				checkedProgram = program;
+		} catch (PiSyntaxException e) {
+			if (!checkSyntax)
+				return true;
+			errors = new ArrayList<PiError>();
+			errors.add(e.getError(code));
+		}
+		if (errors.isEmpty())
+			return true;
+		piCode.removeAllHighlights();
+		handleError(errors);
+		compileEnded();
+		return false;
+	}
+
+	public void doReport(PiReport.ReportType type, String comment, boolean includeProgram) {
+		String code = null;
+		if(includeProgram){
+			code = piCode.getText();
+		}
+		if (curCompilation != null)
+			curCompilation.abandon();
+		curCompilation = new Compiler(new CompileRequest(type, code, comment));
+		compileStarted();
+		VerificationService.execute(curCompilation);
+	}
+
+	/**
+	 * Called by piCode whenever the text changes.  If we are
+	 * verifying while typing, this (re)starts the countdown to
+	 * the next background verification, so a burst of edits
+	 * only costs one request.
+	 */
+	public void codeChanged() {
+		if (autoVerifyTimer != null && Config.getBooleanValue("auto_verify")) {
+			autoVerifyTimer.setInitialDelay(getAutoVerifyDelay());
+			autoVerifyTimer.restart();
+		}
+	}
+
+	/**
+	 * Called when verifying while typing is switched on or off.
+	 */
+	public void autoVerifyChanged() {
+		if (Config.getBooleanValue("auto_verify"))
+			codeChanged();
+		else
+			autoVerifyTimer.stop();
+	}
+
+	private int getAutoVerifyDelay() {
+		try {
+			return Math.max(0, Integer.parseInt(Config.getValue("auto_verify_delay_ms")));
+		} catch (NumberFormatException e) {
+			return 1000;
+		}
+	}
+
+	/**
+	 * Verifies the current revision of the code in the background.
+	 * There is at most one request outstanding for the buffer: a
+	 * background verification of an older revision is abandoned,
+	 * while one the user asked for (or a submission or report) is
+	 * left alone and we try again once it has finished.
+	 */
+	private void doAutoVerify() {
+		if (!Config.getBooleanValue("auto_verify") || piCode.getDocumentLength() == 0)
+			return;
+		if (curCompilation != null) {
+			if (!curCompilation.isBackground) {
+				codeChanged();
+				return;
+			}
+			if (curCompilation.revision == piCode.getRevision())
+				return;
+			curCompilation.abandon();
+		}
+		startCompile(false, null, true, true);
+	}
+
+	/**
+	 * Sets up the document when we start a compile.
+	 */
+	private void compileStarted() {
+		assert(curCompilation != null);
+		piCode.removeAllHighlights();
+		gui.documentChanged(this);
+	}
+
+	/**
+	 * Sets up the document for when a compile finishes.
+	 * This must be called on the Swing thread.
+	 */
+	private void compileEnded() {
+		curCompilation = null;
+		gui.documentChanged(this);
+	}
+
+	/**
+	 * Cancels the currently-running compilation.
+	 */
+	public void cancelCompile() {
+		if (curCompilation != null)
+			curCompilation.abandon();
+		compileEnded();
+	}
+
+	/**
+	 * A compile and the wait for its response.  It runs on the
+	 * thread pool shared by all documents, so it does not block
+	 * the Swing thread and so the number of compiles talking to
+	 * the server at once stays bounded however many files are open.
+	 */
+	private class Compiler implements Runnable {
+
+		private CompileRequest request;
+		private String code;  // Store the code since we can't get it from piCode.
+		private Node program;  // The code's syntax tree, if checkCode parsed it.
+		private String filename;  // Store the filename since we can't get it from curFile off the Swing thread.
+		private int revision;  // The revision of piCode that code was taken from.
+		private boolean isBackground;  // Started by verifying while typing rather than by the user.
+		private boolean useCachedResult;  // Whether an earlier answer for the same request will do.
+		private boolean cacheOnly;  // Only show an earlier answer; never ask the server.
+		private PerformanceMetrics.Stopwatch stopwatch;  // Used by the compile thread, then by the Swing thread once it has the response.
+
+		public Compiler(CompileRequest request) {
+			this.request = request;
+			this.code = request.getCode();
+			this.filename = getCurFilename();
+			this.revision = piCode.getRevision();
+		}
+
+		/**
+		 * Gives up on this compile: closes the connection so a blocked
+		 * read returns, and makes sure nothing it gets back is shown.
+		 * A compile still waiting for a thread never starts.
+		 */
+		public void abandon() {
+			request.abandon();
+		}
+
+		public void run() {
+			if (request.isAbandoned())
+				return;
+			stopwatch = new PerformanceMetrics.Stopwatch();
+			final String result = request.getServerAddress();
+			if (result != null) {
+				try {
+					request.build();
+					stopwatch.lap(PerformanceMetrics.Phase.BUILD);
+					byte[] bytes = (useCachedResult ? request.getCachedResult() : null);
+					if (bytes == null && cacheOnly) {
+						SwingUtilities.invokeLater(new Runnable() {
+							public void run() {
+								if (curCompilation == Compiler.this)
+									compileEnded();
+							}
+						});
+						return;
+					}
+					if (bytes == null && request.isCacheable() && testedLocally())
+						return;
+					if (bytes == null)
+						bytes = request.send(stopwatch);
+					handleServerResponse(this, bytes);
+				} catch (final java.net.ConnectException ex){
+					if (request.isAbandoned())
+						return;
+					SwingUtilities.invokeLater(new Runnable() {
+						public void run() {
+							if (curCompilation != Compiler.this)
+								return;
+							compileEnded();
+							String message = "You attempted to connect to " + result + ". Ensure that a piVC server is running\nand that the server address in the Settings menu is set to the proper address.";
+							if(Config.environmentKeyExists("server_address")){
+								message = "You attempted to connect to " + result + ". Ensure that a piVC server is running at this address.";
+							}
+							JOptionPane.showMessageDialog(gui, ex.getMessage() + "\n\n" + message, "Connection Error", JOptionPane.ERROR_MESSAGE);
+						}
+					});
+				} catch (final java.io.IOException ex){
+					if (request.isAbandoned())
+						return;
+					SwingUtilities.invokeLater(new Runnable() {
+						public void run() {
+							if (curCompilation != Compiler.this)
+								return;
+							compileEnded();
+							String message = "There has been an error in the connection with the server.";
+							JOptionPane.showMessageDialog(gui, message + "\n\n" + ex.toString(), "Connection Error", JOptionPane.ERROR_MESSAGE);
+						}
+					});
+					ex.printStackTrace();
+				} catch (Exception ex) {
+					ex.printStackTrace();
+				} finally {
+					request.close();
+				}
+			}
+		}
+
+		/**
+		 * Tests the code's contracts here first.  If that finds
+		 * counterexamples, we show them instead of asking the server,
+		 * whose answer could only be that the code is not valid.
+		 * Abandoning the compile stops the test.  Returns whether it
+		 * found any.
+		 */
+		private boolean testedLocally() {
+			VerificationResult result = VerificationService.findCounterexamples(code, program, filename, code.length(), request.getAbandonedFlag());
+			stopwatch.lap(PerformanceMetrics.Phase.TEST);
+			if (result == null)
+				return false;
+			final PiTree.PreparedTree prepared = PiTree.prepareTree(result);
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					if (curCompilation != Compiler.this) {
+						stopwatch.finish(PerformanceMetrics.Phase.DISPLAY);
+						return;
+					}
+					if (!isBackground || revision == piCode.getRevision()) {
+						piCompilerOutput.setText("Testing found counterexamples, so the code was not sent to the server.");
+						handleVerificationResult(prepared);
+					}
+					compileEnded();
+					stopwatch.finish(PerformanceMetrics.Phase.DISPLAY);
+				}
+			});
+			return true;
+		}
+	}
+
+	/**
+	 * Handles a response from the server by parsing it.
+	 * This is called from the Compiler thread which is not
+	 * on the Swing thread.  We parse the response and build
+	 * the tree and its indices here, and only swap the finished
+	 * model in on the Swing thread, so big results don't freeze
+	 * the editor.  Responses for compiles that have since been
+	 * cancelled are dropped.
+	 */
+	private void handleServerResponse(final Compiler compiler, byte[] bytes) {
+		ServerResponse parsed = null;
+		PiTree.PreparedTree prepared = null;
+		try {
+			parsed = compiler.request.read(bytes, compiler.filename);
+			if (parsed != null && parsed.getVerificationResult() != null)
+				prepared = PiTree.prepareTree(parsed.getVerificationResult());
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+		compiler.stopwatch.lap(PerformanceMetrics.Phase.PARSE);
+		final String text = compiler.request.getResponseText();
+		final ServerResponse response = parsed;
+		final PiTree.PreparedTree preparedTree = prepared;
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				// We record even the responses we drop, so that every
+				// round trip counted in PARSE is counted in the total.
+				if (curCompilation != compiler) {
+					compiler.stopwatch.finish(PerformanceMetrics.Phase.DISPLAY);
+					return;
+				}
+				if (compiler.isBackground && compiler.revision != piCode.getRevision()) {
+					// The code has changed since we sent it, and the timer
+					// will ask about the new revision soon.
+					compileEnded();
+					compiler.stopwatch.finish(PerformanceMetrics.Phase.DISPLAY);
+					return;
+				}
+				piCompilerOutput.setText(text);
+				if (response != null) {
+					if (preparedTree != null)
+						handleVerificationResult(preparedTree);
+					else if (response.getErrors() != null)
+						handleError(response.getErrors());
+					else if (response.getCompilerError() != null)
+						handleCompilerError(response.getCompilerError());
+				}
+				rightTabbedPane.repaint();
+				compileEnded();
+				compiler.stopwatch.finish(PerformanceMetrics.Phase.DISPLAY);
+				if (response != null && response.getMessages() != null && !compiler.isBackground) {
+					for (String message: response.getMessages()) {
+						JOptionPane.showMessageDialog(gui, message, "Message", JOptionPane.INFORMATION_MESSAGE);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Shows a response we got some other way than by compiling
+	 * the document, such as by verifying the project.
+	 */
+	public void showResponse(ServerResponse response) {
+		if (response.getVerificationResult() != null)
+			handleVerificationResult(PiTree.prepareTree(response.getVerificationResult()));
+		else if (response.getErrors() != null)
+			handleError(response.getErrors());
+		else if (response.getCompilerError() != null)
+			handleCompilerError(response.getCompilerError());
+	}
+
+	/**
+	 * Handles a response from the server that contains
+	 * verification conditions and basic paths.
+	 */
+	public void handleVerificationResult(PiTree.PreparedTree preparedTree) {
+		piErrorOutput.clear();
+		vcPane.setNothing();
+		piTree.handleVerificationResult(preparedTree);
+		rightTabbedPane.setSelectedIndex(0);
+	}
+
+	/**
+	 * Handles a response from the server that contains
+	 * a list of errors.
+	 */
+	public void handleError(ArrayList<PiError> errors) {
+		piTree.clear();
+		vcPane.clear();
+		piErrorOutput.setErrors(errors);
+		rightTabbedPane.setSelectedIndex(1);
+	}
+
+	/**
+	 * Handles a response from the server that contains
+	 * an error/exception in our compiler.
+	 */
+	public void handleCompilerError(PiError compilerError) {
+		piTree.clear();
+		vcPane.clear();
+		piErrorOutput.setCompilerError(compilerError);
+		rightTabbedPane.setSelectedIndex(1);
+	}
+
+	/**
+	 * Called when some kind of change relating to undo/redo happened.
+	 * The menus only care if we are the document being shown.
+	 */
+	public void undoChangeHappened(UndoJournal undoJournal) {
+		if (gui.isCurrentDocument(this))
+			gui.undoChangeHappened(undoJournal);
+	}
+
+	/**
+	 * Undo the last change made and set the dirty
+	 * bit to false if there are no more things
+	 * that can be undone (i.e. we have undone everything
+	 * we did).
+	 */
+	public void undo() {
+		boolean canUndoMore = piCode.undo();
+		if (!canUndoMore)
+			setDirty(false);
+	}
+
+	/**
+	 * Redo the last change made.
+	 */
+	public void redo() {
+		piCode.redo();
+	}
+
+	/**
+	 * Cuts text from the code pane.
+	 */
+	public void cut() {
+		piCode.cut();
+	}
+
+	/**
+	 * Copies text from the code pane.
+	 */
+	public void copy() {
+		piCode.copy();
+	}
+
+	/**
+	 * Pastes text into the code pane.
+	 */
+	public void paste() {
+		piCode.paste();
+	}
+
+	/**
+	 * Shows the find bar, with the replace controls if replace is true.
+	 */
+	public void find(boolean replace) {
+		findBar.open(replace);
+	}
+
+	public void findNext(boolean forward) {
+		findBar.findNext(forward);
+	}
+
+	/**
+	 * Folds the block the caret is in, or unfolds it if it is folded.
+	 */
+	public void toggleFold() {
+		piCode.toggleFold(piCode.getCaretLine());
+	}
+
+	public void unfoldAll() {
+		piCode.unfoldAll();
+	}
+
+	/**
+	 * Called when we select or unselect code.
+	 */
+	public void codeIsSelected(boolean isSelected) {
+		if (gui.isCurrentDocument(this))
+			gui.codeIsSelected(isSelected);
+	}
+
+	public PiVCPane getVCPane(){
+		return vcPane;
+	}
+
+	/**
+	 * Called when a new node in the tree is selected.
+	 */
+	public void nodeSelected(Object obj) {
+		if (gui.isCurrentDocument(this))
+			gui.nodeSelected(obj);
+	}
+
+	/**
+	 * Selects whatever in the current verification result
+	 * covers the given offset in the code.
+	 */
+	public void navigateToOffset(int offset) {
+		if (piTree.selectObjectAt(offset))
+			rightTabbedPane.setSelectedIndex(0);
+	}
+
+	/**
+	 * Display the selected basic path over time.
+	 */
+	public void displaySelectedBasicPath() {
+		VerificationAtom atom = (VerificationAtom)piTree.getSelectedObject();
+		BasicPath bp = atom.getBP();
+		if(bp!=null){
+			BasicPathHighlighter basicPathHighlighter = new BasicPathHighlighter(bp);
+			basicPathHighlighter.start();
+		}
+	}
+
+	/**
+	 * Show or hide the raw xml tab of the JTabbedPane
+	 * on the right.
+	 */
+	public void showHideRawXml(boolean show) {
+		if (show) {
+			if (rightTabbedPane.getTabCount() < 3) {
+				rightTabbedPane.addTab("Raw XML", new JScrollPane(piCompilerOutput));
+				rightTabbedPane.setMnemonicAt(2, KeyEvent.VK_R);
+			}
+		} else if (rightTabbedPane.getTabCount() >= 3)
+			rightTabbedPane.removeTabAt(2);
+	}
+
+	public void increaseFont() {
+		piCode.increaseFont();
+		piTree.increaseFont();
+		vcPane.increaseFont();
+		piErrorOutput.increaseFont();
+	}
+
+	public void decreaseFont() {
+		piCode.decreaseFont();
+		piTree.decreaseFont();
+		vcPane.decreaseFont();
+		piErrorOutput.decreaseFont();
+	}
+
+	/**
+	 * Creates the code panel and the results next to it.
+	 */
+	private void installMain() {
+		JPanel codePanel = new JPanel();
+
+		piCode = new PiCode(this);
+
+		piCode.setPreferredSize(new Dimension(PiGui.DEFAULT_WIDTH / 2, PiGui.DEFAULT_HEIGHT));
+
+		codePanel.setLayout(new BorderLayout());
+
+		findBar = new PiFindBar(piCode);
+		codePanel.add(piCode, BorderLayout.CENTER);
+		codePanel.add(findBar, BorderLayout.SOUTH);
+		codePanel.setBorder(BorderFactory.createCompoundBorder(
+				BorderFactory.createTitledBorder("Code"),
+				BorderFactory.createEmptyBorder(5, 5, 5, 5)));
+
+		rightTabbedPane = new JTabbedPane();
+		rightTabbedPane.setPreferredSize(new Dimension(PiGui.DEFAULT_WIDTH/2, PiGui.DEFAULT_HEIGHT));
+
+		piTree = new PiTree(this, piCode);
+		vcPane = new PiVCPane(piCode);
+
+		JScrollPane vcPaneWithScrollBars = vcPane.getPiVCPaneInScrollPane();
+
+		vcPaneWithScrollBars.setBorder(BorderFactory.createTitledBorder("Verification Condition"));
+
+		JSplitPane verify = new JSplitPane(JSplitPane.VERTICAL_SPLIT,piTree.getTreeInScrollPane(),vcPaneWithScrollBars);
+		verify.setOneTouchExpandable(true);
+		verify.setContinuousLayout(true);
+		verify.setDividerLocation(3*PiGui.DEFAULT_HEIGHT/4);
+
+		piErrorOutput = new PiErrorOutput(piCode);
+
+		piCompilerOutput = new PiCompilerOutput();
+
+		rightTabbedPane.addTab("Verify", verify);
+		rightTabbedPane.setMnemonicAt(0, KeyEvent.VK_V);
+		rightTabbedPane.addTab("Compilation Errors", piErrorOutput.getErrorOutputInScrollPane());
+		rightTabbedPane.setMnemonicAt(1, KeyEvent.VK_E);
+		showHideRawXml(Config.getBooleanValue("show_raw_xml"));
+		rightTabbedPane.setPreferredSize(new Dimension(PiGui.DEFAULT_WIDTH/2, 3*PiGui.DEFAULT_HEIGHT/4));
+
+		setLeftComponent(codePanel);
+		setRightComponent(rightTabbedPane);
+		setOneTouchExpandable(true);
+		setContinuousLayout(true);
+	}
+
+	/**
+	 * A thread that highlights a basic path one step at a
+	 * time, in order, pausing slightly at each step so the user
+	 * can tell the direction.  We always take the same total time
+	 * to highlight the path, regardless of how many steps there are.
+	 */
+	private class BasicPathHighlighter extends Thread {
+
+		// In milliseconds.
+		private static final int TOTAL_BASIC_PATH_HIGHLIGHT_TIME = 500;
+
+		private BasicPath basicPath;
+
+		public BasicPathHighlighter(BasicPath basicPath) {
+			this.basicPath = basicPath;
+		}
+
+		@Override
+		public void run() {
+			// First, remove all highlights
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					piCode.removeAllHighlights();
+				}
+			});
+			// Now highlight each step one at a time.
+			long pauseTime = TOTAL_BASIC_PATH_HIGHLIGHT_TIME / ((long)basicPath.getNumSteps());
+			for (int i = 0; i < basicPath.getNumSteps(); i++) {
+				final Step step = basicPath.getStep(i);
+				// Highlight the step
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						piCode.highlight(step.getLocation(), PiCode.yellowHP);
+					}
+				});
+				// Sleep for a bit
+				try {
+					Thread.sleep(pauseTime);
+				} catch (InterruptedException e) {}
+				// Unhighlight it
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						piCode.removeAllHighlights();
+					}
+				});
+			}
+			/* At end, highlight whatever is currently selected.
+			 * We do this in case the user selected something different
+			 * as we were highlighting this path.
+			 */
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					piTree.reselectSelectedNode();
+				}
+			});
+		}
+
+	}
+
+}
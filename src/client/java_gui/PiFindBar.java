@@ -0,0 +1,465 @@
+import java.awt.Color;
+import java.awt.FlowLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.KeyEvent;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.PatternSyntaxException;
+
+import javax.swing.AbstractAction;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JTextField;
+import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+
+import org.syntax.jedit.SyntaxDocument;
+
+import data_structures.Location;
+
+/**
+ * The find and replace bar under a document's code.  It searches
+ * as the user types, selecting the first match after where the
+ * search started and highlighting all of them.  Regular expressions
+ * are searched on a thread of their own, and a search still running
+ * when the user types again is cancelled.  We only highlight the
+ * first TextSearch.MAX_MATCHES matches, but replace every one.
+ */
+public class PiFindBar extends JPanel {
+
+	public static Color findHP = new Color(0xFFFF80);
+
+	private static ExecutorService finder;  // searches for regular expressions, one at a time
+
+	private PiCode piCode;
+	private JTextField findField, replaceField;
+	private JLabel replaceLabel;
+	private JButton replaceButton, replaceAllButton;
+	private JCheckBox matchCase, regex;
+	private JLabel status;
+
+	private int anchor;  // where the incremental search started
+	private ArrayList<TextSearch.Match> matches;
+	private TextSearch search;  // what matches were found with
+	private int matchesRevision = -1;  // the revision of piCode they were found in
+	private TextSearch.CancellableText running;  // the text a regular expression search is running over
+	private int pendingStep;  // what to select once the running search is done: 0 from the anchor, 1 next, -1 previous
+	private boolean pendingReplaceAll;  // whether to replace every match once they are found
+
+	public PiFindBar(PiCode piCode) {
+		super(new FlowLayout(FlowLayout.LEFT, 5, 2));
+		this.piCode = piCode;
+
+		findField = new JTextField(20);
+		findField.getDocument().addDocumentListener(new DocumentListener() {
+			public void insertUpdate(DocumentEvent e) {
+				startSearch(0);
+			}
+			public void removeUpdate(DocumentEvent e) {
+				startSearch(0);
+			}
+			public void changedUpdate(DocumentEvent e) {
+			}
+		});
+		findField.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				findNext(true);
+			}
+		});
+		findField.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, ActionEvent.SHIFT_MASK), "findPrevious");
+		findField.getActionMap().put("findPrevious", new AbstractAction() {
+			public void actionPerformed(ActionEvent e) {
+				findNext(false);
+			}
+		});
+		replaceField = new JTextField(15);
+		replaceField.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				replace();
+			}
+		});
+
+		matchCase = new JCheckBox("Match case");
+		regex = new JCheckBox("Regular expression");
+		ActionListener optionsChanged = new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				startSearch(0);
+			}
+		};
+		matchCase.addActionListener(optionsChanged);
+		regex.addActionListener(optionsChanged);
+
+		JButton next = new JButton("Next");
+		next.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				findNext(true);
+			}
+		});
+		JButton previous = new JButton("Previous");
+		previous.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				findNext(false);
+			}
+		});
+		replaceButton = new JButton("Replace");
+		replaceButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				replace();
+			}
+		});
+		replaceAllButton = new JButton("Replace all");
+		replaceAllButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				replaceAll();
+			}
+		});
+		JButton close = new JButton("Close");
+		close.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				close();
+			}
+		});
+
+		status = new JLabel();
+		replaceLabel = new JLabel("Replace:");
+
+		add(new JLabel("Find:"));
+		add(findField);
+		add(next);
+		add(previous);
+		add(replaceLabel);
+		add(replaceField);
+		add(replaceButton);
+		add(replaceAllButton);
+		add(matchCase);
+		add(regex);
+		add(close);
+		add(status);
+
+		getInputMap(JComponent.WHEN_ANCESTOR_OF_FOCUSED_COMPONENT).put(KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), "close");
+		getActionMap().put("close", new AbstractAction() {
+			public void actionPerformed(ActionEvent e) {
+				close();
+			}
+		});
+		setVisible(false);
+	}
+
+	/**
+	 * Shows the bar, with the replace controls if replace is true,
+	 * and starts searching from the caret for the selected text, or
+	 * for whatever was last searched for.
+	 */
+	public void open(boolean replace) {
+		replaceLabel.setVisible(replace);
+		replaceField.setVisible(replace);
+		replaceButton.setVisible(replace);
+		replaceAllButton.setVisible(replace);
+		setVisible(true);
+		revalidate();
+		anchor = piCode.getSelectionStart();
+		String selected = piCode.getSelectedText();
+		if (selected != null && selected.length() > 0 && selected.indexOf('\n') < 0)
+			findField.setText(selected);
+		else
+			startSearch(0);
+		findField.selectAll();
+		findField.requestFocusInWindow();
+	}
+
+	/**
+	 * Hides the bar and the highlights, and goes back to the code.
+	 */
+	public void close() {
+		cancelSearch();
+		setVisible(false);
+		piCode.removeAllHighlights();
+		piCode.requestFocus();
+	}
+
+	/**
+	 * Selects the next (or previous) match after the selection,
+	 * going round to the other end of the document if need be.
+	 */
+	public void findNext(boolean forward) {
+		if (!isVisible()) {
+			open(false);
+			return;
+		}
+		if (matchesAreCurrent())
+			step(forward ? 1 : -1);
+		else
+			startSearch(forward ? 1 : -1);
+	}
+
+	/**
+	 * Replaces the selection if it is a match, and moves on to the next.
+	 */
+	public void replace() {
+		if (search == null || !matchesAreCurrent()) {
+			startSearch(1);
+			return;
+		}
+		String selected = piCode.getSelectedText();
+		String replacement = null;
+		if (selected != null) {
+			try {
+				replacement = search.replace(selected, replaceField.getText());
+			} catch (RuntimeException e) {
+				status.setText(e.getMessage());
+				return;
+			}
+		}
+		if (replacement != null) {
+			int start = piCode.getSelectionStart();
+			SyntaxDocument document = piCode.getDocument();
+			piCode.beginCompoundEdit();
+			// The replacement goes in exactly as written, without indenting it
+			document.setAutoIndent(false);
+			try {
+				document.remove(start, selected.length());
+				document.insertString(start, replacement, null);
+			} catch (BadLocationException e) {
+				e.printStackTrace();
+			} finally {
+				document.setAutoIndent(true);
+				piCode.endCompoundEdit();
+			}
+			piCode.select(start + replacement.length(), start + replacement.length());
+		}
+		startSearch(1);
+	}
+
+	/**
+	 * Replaces every match, as one edit that can be undone at once.
+	 */
+	public void replaceAll() {
+		pendingStep = -2;
+		pendingReplaceAll = true;
+		search();
+	}
+
+	/**
+	 * Replaces the given matches, which must be every one in the
+	 * document, and searches again.
+	 */
+	private void replaceMatches(ArrayList<TextSearch.Match> all) {
+		pendingReplaceAll = false;
+		if (all.isEmpty()) {
+			found(all, piCode.getRevision());
+			return;
+		}
+		String replacement = replaceField.getText();
+		SyntaxDocument document = piCode.getDocument();
+		int count = all.size();
+		piCode.beginCompoundEdit();
+		document.setAutoIndent(false);
+		try {
+			for (int i = all.size() - 1; i >= 0; i--) {
+				TextSearch.Match match = all.get(i);
+				document.remove(match.start, match.end - match.start);
+				document.insertString(match.start, (match.replacement != null ? match.replacement : replacement), null);
+			}
+		} catch (BadLocationException e) {
+			e.printStackTrace();
+		} finally {
+			document.setAutoIndent(true);
+			piCode.endCompoundEdit();
+		}
+		startSearch(-2);
+		status.setText("Replaced " + count + (count == 1 ? " match" : " matches"));
+	}
+
+	private boolean matchesAreCurrent() {
+		return matches != null && matchesRevision == piCode.getRevision();
+	}
+
+	/**
+	 * Searches for what is in the find field and selects a match as
+	 * step says (see pendingStep; -2 selects nothing).
+	 */
+	private void startSearch(int step) {
+		pendingStep = step;
+		pendingReplaceAll = false;
+		search();
+	}
+
+	/**
+	 * Searches the document, at once for plain text, or in the
+	 * background for a regular expression.  For a replace all we
+	 * find every match, and otherwise only as many as we highlight.
+	 */
+	private void search() {
+		cancelSearch();
+		matches = null;
+		findField.setForeground(null);
+		String text = findField.getText();
+		if (text.length() == 0) {
+			search = null;
+			piCode.removeAllHighlights();
+			status.setText("");
+			return;
+		}
+		try {
+			search = new TextSearch(text, matchCase.isSelected(), regex.isSelected());
+		} catch (PatternSyntaxException e) {
+			search = null;
+			findField.setForeground(Color.RED);
+			status.setText(e.getDescription());
+			return;
+		}
+		final int revision = piCode.getRevision();
+		final int limit = (pendingReplaceAll ? Integer.MAX_VALUE : TextSearch.MAX_MATCHES);
+		if (!search.isRegex()) {
+			ArrayList<TextSearch.Match> found = search.findAll(piCode.getDocument(), limit);
+			if (pendingReplaceAll)
+				replaceMatches(found);
+			else
+				found(found, revision);
+			return;
+		}
+		final TextSearch regexSearch = search;
+		final String replacement = replaceField.getText();
+		final TextSearch.CancellableText code = new TextSearch.CancellableText(piCode.getText());
+		running = code;
+		status.setText("Searching...");
+		getFinder().execute(new Runnable() {
+			public void run() {
+				ArrayList<TextSearch.Match> found = null;
+				String error = null;
+				try {
+					found = regexSearch.findAll(code, replacement, limit);
+				} catch (java.util.concurrent.CancellationException e) {
+					return;
+				} catch (RuntimeException e) {
+					// A bad group reference in the replacement, say
+					error = e.getMessage();
+				} catch (StackOverflowError e) {
+					error = "The expression is too complicated to search for";
+				}
+				final ArrayList<TextSearch.Match> finalFound = found;
+				final String finalError = error;
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						if (running != code)
+							return;
+						running = null;
+						if (finalFound == null)
+							status.setText(finalError);
+						else if (revision != piCode.getRevision())
+							search();
+						else if (pendingReplaceAll)
+							replaceMatches(finalFound);
+						else
+							found(finalFound, revision);
+					}
+				});
+			}
+		});
+	}
+
+	private static synchronized ExecutorService getFinder() {
+		if (finder == null) {
+			finder = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "Find");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return finder;
+	}
+
+	private void cancelSearch() {
+		if (running != null) {
+			running.cancel();
+			running = null;
+		}
+	}
+
+	private void found(ArrayList<TextSearch.Match> found, int revision) {
+		matches = found;
+		matchesRevision = revision;
+		if (pendingStep == 0) {
+			int i = 0;
+			while (i < matches.size() && matches.get(i).start < anchor)
+				i++;
+			select(matches.isEmpty() ? -1 : i % matches.size());
+		} else if (pendingStep == 1 || pendingStep == -1) {
+			step(pendingStep);
+		} else {
+			select(-1);
+		}
+	}
+
+	/**
+	 * Selects the match after (or before) the selection.
+	 */
+	private void step(int direction) {
+		if (matches.isEmpty()) {
+			select(-1);
+			return;
+		}
+		int selectionStart = piCode.getSelectionStart();
+		int selectionEnd = piCode.getSelectionEnd();
+		int i;
+		if (direction > 0) {
+			i = 0;
+			while (i < matches.size() && (matches.get(i).start < selectionEnd
+					|| (matches.get(i).start == selectionStart && matches.get(i).end == selectionEnd)))
+				i++;
+			i = i % matches.size();
+		} else {
+			i = matches.size() - 1;
+			while (i >= 0 && matches.get(i).start >= selectionStart)
+				i--;
+			i = (i + matches.size()) % matches.size();
+		}
+		anchor = matches.get(i).start;
+		select(i);
+	}
+
+	/**
+	 * Selects the index'th match (none if index is -1), highlights all
+	 * of them and says how many there are.
+	 */
+	private void select(int index) {
+		if (index >= 0) {
+			TextSearch.Match match = matches.get(index);
+			piCode.select(match.start, match.end);
+		}
+		// Selecting clears the highlights, so put them back afterwards.
+		piCode.highlight(getLocations(), findHP);
+		if (matches.isEmpty()) {
+			findField.setForeground(Color.RED);
+			status.setText("Not found");
+		} else {
+			String count = (matches.size() >= TextSearch.MAX_MATCHES ? "at least " + matches.size() : String.valueOf(matches.size()));
+			status.setText(index >= 0 ? (index + 1) + " of " + count : count + (matches.size() == 1 ? " match" : " matches"));
+		}
+	}
+
+	private ArrayList<Location> getLocations() {
+		ArrayList<Location> locations = new ArrayList<Location>(matches.size());
+		Element root = piCode.getDocument().getDefaultRootElement();
+		for (TextSearch.Match match: matches) {
+			int startRow = root.getElementIndex(match.start);
+			int endRow = root.getElementIndex(match.end);
+			locations.add(new Location(match.start, startRow, match.start - root.getElement(startRow).getStartOffset(),
+					match.end, endRow, match.end - root.getElement(endRow).getStartOffset()));
+		}
+		return locations;
+	}
+
+}
@@ -8,7 +8,6 @@ import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.KeyStroke;
-import javax.swing.undo.UndoManager;
 
 public class PiMenu extends JMenuBar implements DirtyChangedListener {
 	
@@ -23,6 +22,7 @@ public class PiMenu extends JMenuBar implements DirtyChangedListener {
 	private JCheckBoxMenuItem runtimeAssertions;
 	private JCheckBoxMenuItem findInductiveCore;
 	private JCheckBoxMenuItem autoSaveCompile;
+	private JCheckBoxMenuItem autoVerify;
         //private JCheckBoxMenuItem showRawXml;
 	
 	public PiMenu(PiGui piGui) {
@@ -83,6 +83,16 @@ public class PiMenu extends JMenuBar implements DirtyChangedListener {
 		});
 		file.add(saveAs);		
 
+		JMenuItem close = new JMenuItem("Close");
+		close.setMnemonic(KeyEvent.VK_C);
+		close.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_W, ActionEvent.CTRL_MASK));
+		close.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				piGui.closeFile();
+			}
+		});
+		file.add(close);
+
 		JMenuItem quit = new JMenuItem("Quit");
 		quit.setMnemonic(KeyEvent.VK_Q);
 		quit.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Q, ActionEvent.CTRL_MASK));
@@ -156,6 +166,70 @@ public class PiMenu extends JMenuBar implements DirtyChangedListener {
 		});
 		editMenu.add(paste);
 		
+		editMenu.addSeparator();
+		
+		JMenuItem find = new JMenuItem("Find...");
+		find.setMnemonic(KeyEvent.VK_F);
+		find.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F, ActionEvent.CTRL_MASK));
+		find.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				piGui.find(false);
+			}
+		});
+		editMenu.add(find);
+		
+		JMenuItem findNext = new JMenuItem("Find Next");
+		findNext.setMnemonic(KeyEvent.VK_N);
+		findNext.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0));
+		findNext.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				piGui.findNext(true);
+			}
+		});
+		editMenu.add(findNext);
+		
+		JMenuItem findPrevious = new JMenuItem("Find Previous");
+		findPrevious.setMnemonic(KeyEvent.VK_V);
+		findPrevious.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F3, ActionEvent.SHIFT_MASK));
+		findPrevious.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				piGui.findNext(false);
+			}
+		});
+		editMenu.add(findPrevious);
+		
+		JMenuItem replace = new JMenuItem("Replace...");
+		replace.setMnemonic(KeyEvent.VK_E);
+		replace.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_H, ActionEvent.CTRL_MASK));
+		replace.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				piGui.find(true);
+			}
+		});
+		editMenu.add(replace);
+		
+		editMenu.addSeparator();
+		
+		JMenuItem toggleFold = new JMenuItem("Fold/Unfold Block");
+		toggleFold.setMnemonic(KeyEvent.VK_O);
+		toggleFold.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_PERIOD, ActionEvent.CTRL_MASK));
+		toggleFold.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				piGui.toggleFold();
+			}
+		});
+		editMenu.add(toggleFold);
+		
+		JMenuItem unfoldAll = new JMenuItem("Unfold All");
+		unfoldAll.setMnemonic(KeyEvent.VK_A);
+		unfoldAll.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_PERIOD, ActionEvent.CTRL_MASK | ActionEvent.SHIFT_MASK));
+		unfoldAll.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				piGui.unfoldAll();
+			}
+		});
+		editMenu.add(unfoldAll);
+		
 		add(editMenu);
 	}
 	
@@ -173,6 +247,26 @@ public class PiMenu extends JMenuBar implements DirtyChangedListener {
 		});
 		actionsMenu.add(compileMenuItem);
 		
+		JMenuItem verifyAll = new JMenuItem("Verify all open files");
+		verifyAll.setMnemonic(KeyEvent.VK_V);
+		verifyAll.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F, ActionEvent.CTRL_MASK | ActionEvent.SHIFT_MASK));
+		verifyAll.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				piGui.doVerifyAll();
+			}
+		});
+		actionsMenu.add(verifyAll);
+		
+		JMenuItem verifyProject = new JMenuItem("Verify project");
+		verifyProject.setMnemonic(KeyEvent.VK_P);
+		verifyProject.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_P, ActionEvent.CTRL_MASK | ActionEvent.SHIFT_MASK));
+		verifyProject.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				piGui.doVerifyProject();
+			}
+		});
+		actionsMenu.add(verifyProject);
+		
 		cancelCompileMenuItem = new JMenuItem("Abandon compile");
 		cancelCompileMenuItem.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
@@ -199,6 +293,17 @@ public class PiMenu extends JMenuBar implements DirtyChangedListener {
 		displayPath.setEnabled(false);
 		analyzeMenu.add(displayPath);
 		
+		analyzeMenu.addSeparator();
+		
+		JMenuItem performance = new JMenuItem("Performance");
+		performance.setMnemonic(KeyEvent.VK_P);
+		performance.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				piGui.doShowPerformance();
+			}
+		});
+		analyzeMenu.add(performance);
+		
 		add(analyzeMenu);
 	}
 	
@@ -233,6 +338,16 @@ public class PiMenu extends JMenuBar implements DirtyChangedListener {
         autoSaveCompile.setState(Config.getBooleanValue("auto_save_compile"));
         settingsMenu.add(autoSaveCompile);    
         
+		autoVerify = new JCheckBoxMenuItem("Verify while typing");
+		autoVerify.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				Config.setBooleanValue("auto_verify", autoVerify.getState());
+				piGui.autoVerifyChanged();
+			}
+		});
+		autoVerify.setState(Config.getBooleanValue("auto_verify"));
+		settingsMenu.add(autoVerify);
+        
 		settingsMenu.addSeparator();
 
 		// TODO: Turn this into a command-line option.
@@ -342,15 +457,15 @@ public class PiMenu extends JMenuBar implements DirtyChangedListener {
 	 * We enable/disable the undo/redo menus and change the name as
 	 * appropriate,
 	 */
-	public void undoChangeHappened(UndoManager undoManager) {
-		undo.setEnabled(undoManager.canUndo());
-        if (undoManager.canUndo())
-            undo.setText(undoManager.getUndoPresentationName());
+	public void undoChangeHappened(UndoJournal undoJournal) {
+		undo.setEnabled(undoJournal.canUndo());
+        if (undoJournal.canUndo())
+            undo.setText(undoJournal.getUndoPresentationName());
         else
             undo.setText("Undo");
-		redo.setEnabled(undoManager.canRedo());
-        if (undoManager.canRedo())
-        	redo.setText(undoManager.getRedoPresentationName());
+		redo.setEnabled(undoJournal.canRedo());
+        if (undoJournal.canRedo())
+        	redo.setText(undoJournal.getRedoPresentationName());
         else
         	redo.setText("Redo");
 	}
@@ -375,7 +490,15 @@ public class PiMenu extends JMenuBar implements DirtyChangedListener {
 	 * Enables or disables the compile menu item.
 	 */
 	public void isCompiling(boolean isCompiling) {
-		compileMenuItem.setEnabled(!isCompiling);
+		isCompiling(isCompiling, !isCompiling);
+	}
+
+	/**
+	 * Like isCompiling(boolean), but lets a compile that is already
+	 * running (such as a background verification) be superseded.
+	 */
+	public void isCompiling(boolean isCompiling, boolean canCompile) {
+		compileMenuItem.setEnabled(canCompile);
 		cancelCompileMenuItem.setEnabled(isCompiling);
 	}
 	
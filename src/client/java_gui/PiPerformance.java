@@ -0,0 +1,87 @@
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Shows how long each phase of a compile has taken so far.
+ */
+public class PiPerformance extends PiDialog {
+
+	private static final String[] COLUMNS = {"Phase", "Count", "Mean (ms)", "Median (ms)", "90% (ms)", "99% (ms)", "Max (ms)"};
+
+	private AbstractTableModel model;
+
+	public PiPerformance(PiGui parent) {
+		super(parent, "Performance");
+
+		model = new AbstractTableModel() {
+			public int getRowCount() {
+				return PerformanceMetrics.Phase.values().length;
+			}
+			public int getColumnCount() {
+				return COLUMNS.length;
+			}
+			@Override
+			public String getColumnName(int column) {
+				return COLUMNS[column];
+			}
+			public Object getValueAt(int row, int column) {
+				PerformanceMetrics.Phase phase = PerformanceMetrics.Phase.values()[row];
+				LatencyHistogram histogram = PerformanceMetrics.getHistogram(phase);
+				switch (column) {
+				case 0: return phase.getDescription();
+				case 1: return Long.valueOf(histogram.getCount());
+				case 2: return format(histogram.getMeanMillis());
+				case 3: return format(histogram.getMedianMillis());
+				case 4: return format(histogram.get90thPercentileMillis());
+				case 5: return format(histogram.get99thPercentileMillis());
+				default: return format(histogram.getMaxMillis());
+				}
+			}
+		};
+		JTable table = new JTable(model);
+		JScrollPane scrollPane = new JScrollPane(table);
+		scrollPane.setPreferredSize(new Dimension(600, table.getRowHeight() * (PerformanceMetrics.Phase.values().length + 2)));
+
+		JButton refresh = new JButton("Refresh");
+		refresh.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				model.fireTableDataChanged();
+			}
+		});
+		JButton reset = new JButton("Reset");
+		reset.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				PerformanceMetrics.reset();
+				model.fireTableDataChanged();
+			}
+		});
+		JButton closeButton = new JButton("Close");
+		closeButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				close();
+			}
+		});
+		Box buttons = Box.createHorizontalBox();
+		buttons.add(Box.createHorizontalGlue());
+		buttons.add(refresh);
+		buttons.add(reset);
+		buttons.add(closeButton);
+
+		JPanel all = new JPanel(new BorderLayout());
+		all.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+		all.add(scrollPane, BorderLayout.CENTER);
+		all.add(buttons, BorderLayout.SOUTH);
+		add(all);
+		launch();
+	}
+
+	private static String format(double millis) {
+		return String.format("%.1f", millis);
+	}
+
+}
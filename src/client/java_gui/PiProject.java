@@ -0,0 +1,368 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The .pi files under a directory, and which of them call
+ * functions or use predicates defined in which others.
+ * The server compiles one piece of code at a time (after the
+ * contents of included.pi), so to verify a file that uses
+ * definitions from other files we send it followed by those
+ * files.  Everything the server reports past the end of the
+ * file's own text belongs to them.
+ */
+public class PiProject {
+
+	private static final int MAX_FILES = 1000;
+	private static final long MAX_FILE_SIZE = 1024 * 1024;
+
+	private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList(
+			"if", "else", "while", "for", "return", "forall", "exists", "predicate",
+			"int", "bool", "float", "void", "true", "false", "div", "mod", "new", "class"));
+
+	private File root;
+	private TreeMap<File,SourceFile> files = new TreeMap<File,SourceFile>();
+	private HashMap<File,Integer> components = new HashMap<File,Integer>();  // strongly connected component of each file
+
+	public PiProject(File root) {
+		this.root = root;
+	}
+
+	public File getRoot() {
+		return root;
+	}
+
+	/**
+	 * (Re)reads every .pi file under the root and rebuilds the
+	 * dependency graph.  For files in the given map we use the
+	 * text there (what is in an editor) rather than what is on disk.
+	 * This reads files, so it should not be called on the Swing thread.
+	 */
+	public synchronized void scan(Map<File,String> openFiles) {
+		TreeMap<File,SourceFile> scanned = new TreeMap<File,SourceFile>();
+		findFiles(root, scanned);
+		for (SourceFile sourceFile: scanned.values()) {
+			String text = openFiles.get(sourceFile.file);
+			try {
+				sourceFile.setText(text != null ? text : readFile(sourceFile.file));
+			} catch (IOException e) {
+				e.printStackTrace();
+				sourceFile.setText("");
+			}
+		}
+		HashMap<String,File> definers = new HashMap<String,File>();
+		for (SourceFile sourceFile: scanned.values()) {
+			for (String name: sourceFile.definitions.keySet()) {
+				if (!definers.containsKey(name))
+					definers.put(name, sourceFile.file);
+			}
+		}
+		for (SourceFile sourceFile: scanned.values()) {
+			for (String name: sourceFile.references) {
+				File definer = definers.get(name);
+				if (definer != null && !sourceFile.definitions.containsKey(name)) {
+					sourceFile.dependencies.add(definer);
+					sourceFile.callees.put(name, definer);
+				}
+			}
+		}
+		files = scanned;
+		findComponents();
+	}
+
+	public synchronized List<File> getFiles() {
+		return new ArrayList<File>(files.keySet());
+	}
+
+	/**
+	 * Returns the files that define something the given file uses.
+	 */
+	public synchronized Set<File> getDependencies(File file) {
+		SourceFile sourceFile = files.get(file);
+		return (sourceFile == null ? new TreeSet<File>() : new TreeSet<File>(sourceFile.dependencies));
+	}
+
+	/**
+	 * Returns true if the two files depend on each other, directly
+	 * or not, so neither can wait for the other to be verified.
+	 */
+	public synchronized boolean isMutuallyDependent(File a, File b) {
+		return components.get(a).equals(components.get(b));
+	}
+
+	/**
+	 * Returns the file's own text, as it was when we last scanned.
+	 */
+	public synchronized String getText(File file) {
+		return files.get(file).text;
+	}
+
+	/**
+	 * Returns what we send the server to verify the file: its text,
+	 * then that of everything it depends on, directly or not.
+	 */
+	public synchronized String getCodeToVerify(File file) {
+		StringBuilder code = new StringBuilder(files.get(file).text);
+		for (File dependency: getTransitiveDependencies(file)) {
+			code.append('\n');
+			code.append(files.get(dependency).text);
+		}
+		return code.toString();
+	}
+
+	/**
+	 * Returns a key that changes whenever the file's text or the
+	 * contract (annotations and signature) of something it uses
+	 * from another file does, so we can tell when its results
+	 * are stale.  Changes to the bodies of those functions do not
+	 * change what is proved about the file.
+	 */
+	public synchronized String getVerificationKey(File file) {
+		SourceFile sourceFile = files.get(file);
+		StringBuilder key = new StringBuilder(sourceFile.text);
+		for (Map.Entry<String,File> callee: new TreeMap<String,File>(sourceFile.callees).entrySet()) {
+			key.append('\0');
+			key.append(files.get(callee.getValue()).definitions.get(callee.getKey()));
+		}
+		return hash(key.toString());
+	}
+
+	private List<File> getTransitiveDependencies(File file) {
+		LinkedHashMap<File,File> seen = new LinkedHashMap<File,File>();
+		ArrayList<File> queue = new ArrayList<File>();
+		queue.add(file);
+		seen.put(file, file);
+		for (int i = 0; i < queue.size(); i++) {
+			for (File dependency: files.get(queue.get(i)).dependencies) {
+				if (seen.put(dependency, dependency) == null)
+					queue.add(dependency);
+			}
+		}
+		queue.remove(0);
+		return queue;
+	}
+
+	private void findFiles(File dir, Map<File,SourceFile> found) {
+		File[] children = dir.listFiles();
+		if (children == null)
+			return;
+		Arrays.sort(children);
+		for (File child: children) {
+			if (found.size() >= MAX_FILES)
+				return;
+			if (child.getName().startsWith("."))
+				continue;
+			if (child.isDirectory())
+				findFiles(child, found);
+			else if (child.getName().endsWith(".pi") && child.length() <= MAX_FILE_SIZE)
+				found.put(child, new SourceFile(child));
+		}
+	}
+
+	/**
+	 * Reads the file the way the editor does, so a file and the
+	 * same file opened in a tab give the same text.
+	 */
+	private static String readFile(File file) throws IOException {
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		StringBuilder text = new StringBuilder();
+		try {
+			String line;
+			while ((line = in.readLine()) != null)
+				text.append(line).append('\n');
+		} finally {
+			in.close();
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Numbers the strongly connected components of the dependency
+	 * graph (Tarjan's algorithm).
+	 */
+	private void findComponents() {
+		components = new HashMap<File,Integer>();
+		HashMap<File,Integer> index = new HashMap<File,Integer>();
+		HashMap<File,Integer> lowLink = new HashMap<File,Integer>();
+		ArrayList<File> stack = new ArrayList<File>();
+		HashSet<File> onStack = new HashSet<File>();
+		for (File file: files.keySet()) {
+			if (!index.containsKey(file))
+				strongConnect(file, index, lowLink, stack, onStack);
+		}
+	}
+
+	private void strongConnect(File file, Map<File,Integer> index, Map<File,Integer> lowLink, List<File> stack, Set<File> onStack) {
+		index.put(file, index.size());
+		lowLink.put(file, index.get(file));
+		stack.add(file);
+		onStack.add(file);
+		for (File dependency: files.get(file).dependencies) {
+			if (!index.containsKey(dependency)) {
+				strongConnect(dependency, index, lowLink, stack, onStack);
+				lowLink.put(file, Math.min(lowLink.get(file), lowLink.get(dependency)));
+			} else if (onStack.contains(dependency))
+				lowLink.put(file, Math.min(lowLink.get(file), index.get(dependency)));
+		}
+		if (lowLink.get(file).equals(index.get(file))) {
+			Integer component = Integer.valueOf(components.size());
+			File member;
+			do {
+				member = stack.remove(stack.size() - 1);
+				onStack.remove(member);
+				components.put(member, component);
+			} while (member != file);
+		}
+	}
+
+	private static String hash(String text) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(text.getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder(hash.length * 2);
+			for (byte b: hash) {
+				hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+				hex.append(Character.forDigit(b & 0xf, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * One .pi file: its text, what it defines and what it uses.
+	 */
+	private static class SourceFile {
+
+		private File file;
+		private String text;
+		private HashMap<String,String> definitions = new HashMap<String,String>();  // name -> its contract
+		private TreeSet<String> references = new TreeSet<String>();
+		private TreeSet<File> dependencies = new TreeSet<File>();
+		private HashMap<String,File> callees = new HashMap<String,File>();  // used names defined in other files
+
+		public SourceFile(File file) {
+			this.file = file;
+		}
+
+		public void setText(String text) {
+			this.text = text;
+			scanDefinitions();
+		}
+
+		/**
+		 * Finds the functions and predicates the file defines, and
+		 * the names it calls or applies that it does not define.  We
+		 * only need to know which names are used, so rather than parse
+		 * we look at tokens: a name followed by ( is a use, and a
+		 * function is defined where such a header is followed by a body.
+		 * The contract of a function is everything from the end of the
+		 * previous declaration to its body, which includes its
+		 * annotations; the contract of a predicate is the whole thing.
+		 */
+		private void scanDefinitions() {
+			List<String> tokens = tokenize(text);
+			int depth = 0;
+			int declarationStart = 0;
+			for (int i = 0; i < tokens.size(); i++) {
+				String token = tokens.get(i);
+				if (token.equals("{")) {
+					if (depth == 0 && i > 0 && tokens.get(i - 1).equals(")")) {
+						int open = findOpenParen(tokens, i - 1);
+						if (open > 0 && isName(tokens.get(open - 1))) {
+							String name = tokens.get(open - 1);
+							definitions.put(name, join(tokens, declarationStart, i));
+						}
+					}
+					depth++;
+				} else if (token.equals("}")) {
+					depth = Math.max(0, depth - 1);
+					if (depth == 0)
+						declarationStart = i + 1;
+				} else if (token.equals(";") && depth == 0) {
+					if (tokens.get(declarationStart).equals("predicate") && declarationStart + 1 < i) {
+						String name = tokens.get(declarationStart + 1);
+						definitions.put(name, join(tokens, declarationStart, i + 1));
+					}
+					declarationStart = i + 1;
+				} else if (isName(token) && i + 1 < tokens.size() && tokens.get(i + 1).equals("(")) {
+					references.add(token);
+				}
+			}
+			references.removeAll(definitions.keySet());
+		}
+
+		private static int findOpenParen(List<String> tokens, int close) {
+			int depth = 0;
+			for (int i = close; i >= 0; i--) {
+				if (tokens.get(i).equals(")"))
+					depth++;
+				else if (tokens.get(i).equals("(") && --depth == 0)
+					return i;
+			}
+			return -1;
+		}
+
+		private static boolean isName(String token) {
+			return Character.isJavaIdentifierStart(token.charAt(0)) && !KEYWORDS.contains(token);
+		}
+
+		private static String join(List<String> tokens, int from, int to) {
+			StringBuilder joined = new StringBuilder();
+			for (int i = from; i < to; i++) {
+				if (i > from)
+					joined.append(' ');
+				joined.append(tokens.get(i));
+			}
+			return joined.toString();
+		}
+
+		/**
+		 * Splits the text into names, numbers and single characters
+		 * of punctuation, leaving out whitespace and comments.
+		 */
+		private static List<String> tokenize(String text) {
+			ArrayList<String> tokens = new ArrayList<String>();
+			int n = text.length();
+			for (int i = 0; i < n; ) {
+				char c = text.charAt(i);
+				if (Character.isWhitespace(c)) {
+					i++;
+				} else if (c == '/' && i + 1 < n && text.charAt(i + 1) == '/') {
+					while (i < n && text.charAt(i) != '\n')
+						i++;
+				} else if (c == '/' && i + 1 < n && text.charAt(i + 1) == '*') {
+					int end = text.indexOf("*/", i + 2);
+					i = (end < 0 ? n : end + 2);
+				} else if (Character.isJavaIdentifierPart(c)) {
+					int start = i;
+					while (i < n && Character.isJavaIdentifierPart(text.charAt(i)))
+						i++;
+					tokens.add(text.substring(start, i));
+				} else {
+					tokens.add(String.valueOf(c));
+					i++;
+				}
+			}
+			return tokens;
+		}
+
+	}
+
+}
@@ -0,0 +1,207 @@
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.swing.BorderFactory;
+import javax.swing.Icon;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTree;
+import javax.swing.ToolTipManager;
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.DefaultTreeCellRenderer;
+import javax.swing.tree.DefaultTreeModel;
+import javax.swing.tree.TreePath;
+import javax.swing.tree.TreeSelectionModel;
+
+import data_structures.Function;
+import data_structures.VerificationResult;
+
+/**
+ * Shows the status of every file in the project, and of the
+ * functions in those that have been verified.  Double-clicking
+ * a file opens it.
+ */
+public class PiProjectTree extends JPanel implements ProjectVerifier.Listener {
+
+	private PiGui piGui;
+	private ProjectVerifier verifier;
+	private DefaultTreeModel treeModel;
+	private JTree tree;
+
+	public PiProjectTree(PiGui piGui, File root) {
+		super(new BorderLayout());
+		this.piGui = piGui;
+		verifier = new ProjectVerifier(new PiProject(root), this);
+		treeModel = new DefaultTreeModel(new DefaultMutableTreeNode(root.getName()));
+		tree = new JTree(treeModel);
+		tree.getSelectionModel().setSelectionMode(TreeSelectionModel.SINGLE_TREE_SELECTION);
+		tree.setCellRenderer(new ProjectTreeCellRenderer());
+		ToolTipManager.sharedInstance().registerComponent(tree);
+		tree.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				if (e.getClickCount() != 2)
+					return;
+				TreePath path = tree.getPathForLocation(e.getX(), e.getY());
+				if (path == null)
+					return;
+				for (Object node: path.getPath()) {
+					Object obj = ((DefaultMutableTreeNode)node).getUserObject();
+					if (obj instanceof File)
+						openFile((File)obj);
+				}
+			}
+		});
+		JScrollPane scrollPane = new JScrollPane(tree);
+		scrollPane.setBorder(BorderFactory.createTitledBorder("Project"));
+		add(scrollPane);
+	}
+
+	public File getRoot() {
+		return verifier.getProject().getRoot();
+	}
+
+	/**
+	 * Verifies whatever has changed since the last time.
+	 */
+	public void verify() {
+		verifier.verify(piGui.getOpenFiles());
+	}
+
+	/**
+	 * Opens the file, and shows its results if they are for the
+	 * text that is in it.
+	 */
+	private void openFile(File file) {
+		PiDocument document = piGui.openProjectFile(file);
+		ServerResponse response = verifier.getResponse(file);
+		if (response != null && document.getText().equals(verifier.getVerifiedText(file)))
+			document.showResponse(response);
+	}
+
+	/**
+	 * Rebuilds the tree, keeping the files that were expanded open.
+	 */
+	public void projectChanged(ProjectVerifier verifier) {
+		PiProject project = verifier.getProject();
+		DefaultMutableTreeNode root = new DefaultMutableTreeNode(project.getRoot().getName());
+		for (File file: project.getFiles()) {
+			DefaultMutableTreeNode fileNode = new DefaultMutableTreeNode(file);
+			ServerResponse response = verifier.getResponse(file);
+			if (response != null && response.getVerificationResult() != null) {
+				VerificationResult result = response.getVerificationResult();
+				for (int i = 0; i < result.getNumFunctions(); i++)
+					fileNode.add(new DefaultMutableTreeNode(result.getFunction(i)));
+			} else if (response != null && response.getErrors() != null && !response.getErrors().isEmpty()) {
+				int n = response.getErrors().size();
+				fileNode.add(new DefaultMutableTreeNode(n + (n == 1 ? " error" : " errors")));
+			}
+			root.add(fileNode);
+		}
+		HashSet<Object> expanded = new HashSet<Object>();
+		for (int row = 0; row < tree.getRowCount(); row++) {
+			if (tree.isExpanded(row))
+				expanded.add(((DefaultMutableTreeNode)tree.getPathForRow(row).getLastPathComponent()).getUserObject());
+		}
+		treeModel.setRoot(root);
+		for (int i = 0; i < root.getChildCount(); i++) {
+			DefaultMutableTreeNode fileNode = (DefaultMutableTreeNode)root.getChildAt(i);
+			if (expanded.contains(fileNode.getUserObject()))
+				tree.expandPath(new TreePath(fileNode.getPath()));
+		}
+		tree.expandRow(0);
+	}
+
+	/**
+	 * Draws files with their status and functions with their validity.
+	 */
+	private class ProjectTreeCellRenderer extends DefaultTreeCellRenderer {
+
+		@Override
+		public Color getBackgroundNonSelectionColor(){
+			return null;
+		}
+
+		@Override
+		public Color getBackground(){
+			return null;
+		}
+
+		@Override
+		@SuppressWarnings("hiding")
+		public Component getTreeCellRendererComponent(JTree tree, Object value,
+				boolean sel, boolean expanded, boolean leaf, int row, boolean hasFocus) {
+			super.getTreeCellRendererComponent(tree, value, sel, expanded, leaf, row, hasFocus);
+			Object obj = ((DefaultMutableTreeNode)value).getUserObject();
+			setToolTipText(null);
+			if (obj instanceof File) {
+				File file = (File)obj;
+				ProjectVerifier.Status status = verifier.getStatus(file);
+				setIcon(getStatusIcon(status));
+				setText(getRelativeName(file) + getStatusText(status));
+				setToolTipText(getToolTip(file));
+			} else if (obj instanceof Function) {
+				Function function = (Function)obj;
+				setIcon(PiTree.getValidityIcon(function.getValidity()));
+				setText(function.getName());
+			} else {
+				setIcon(null);
+				setText(obj.toString());
+			}
+			return this;
+		}
+
+		private String getRelativeName(File file) {
+			String rootPath = getRoot().getPath();
+			String path = file.getPath();
+			if (path.startsWith(rootPath + File.separator))
+				return path.substring(rootPath.length() + 1);
+			return file.getName();
+		}
+
+		private String getStatusText(ProjectVerifier.Status status) {
+			switch (status) {
+			case WAITING: return " (waiting)";
+			case VERIFYING: return " (verifying)";
+			case ERRORS: return " (errors)";
+			case BLOCKED: return " (not verified)";
+			case FAILED: return " (failed)";
+			default: return "";
+			}
+		}
+
+		private String getToolTip(File file) {
+			StringBuilder tip = new StringBuilder("<html>");
+			String message = verifier.getMessage(file);
+			if (message != null)
+				tip.append(message).append("<br>");
+			Set<File> dependencies = verifier.getProject().getDependencies(file);
+			if (dependencies.isEmpty())
+				tip.append("Uses nothing from other files.");
+			else {
+				tip.append("Uses definitions from:");
+				for (File dependency: dependencies)
+					tip.append("<br>&nbsp;&nbsp;").append(getRelativeName(dependency));
+			}
+			return tip.append("</html>").toString();
+		}
+
+		private Icon getStatusIcon(ProjectVerifier.Status status) {
+			switch (status) {
+			case VALID: return PiTree.getValidityIcon(VerificationResult.validityT.VALID);
+			case INVALID: return PiTree.getValidityIcon(VerificationResult.validityT.INVALID);
+			case UNKNOWN: return PiTree.getValidityIcon(VerificationResult.validityT.UNKNOWN);
+			case TIMEOUT: return PiTree.getValidityIcon(VerificationResult.validityT.TIMEOUT);
+			case ERRORS: return PiTree.getValidityIcon(VerificationResult.validityT.INVALID);
+			default: return null;
+			}
+		}
+	}
+
+}
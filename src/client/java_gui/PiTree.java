@@ -5,6 +5,7 @@ import java.awt.Rectangle;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.TreeSet;
 
 import javax.swing.ImageIcon;
@@ -22,6 +23,7 @@ import javax.swing.tree.TreePath;
 import javax.swing.tree.TreeSelectionModel;
 
 import data_structures.BasicPath;
+import data_structures.Conjunct;
 import data_structures.VerificationAtom;
 import data_structures.Counterexample;
 import data_structures.Function;
@@ -41,23 +43,27 @@ public class PiTree extends JPanel {
 	private DefaultTreeModel treeModel;
 	private JTree tree;
 	private DefaultMutableTreeNode root;
-	private PiGui piGui;
+	private PiDocument piDocument;
 	private PiCode piCode;
 	private DefaultMutableTreeNode selectedNode, prevSelectedNode;
 	private TreeSet<TreePath> viewableObjects; // All of a viewable nodes parents are expanded, but may or may not be displayed
 	private boolean isExpandingNewlyAddedObjects;
+	private VerificationResult verificationResult;
+	private IdentityHashMap<Object,DefaultMutableTreeNode> nodesByObject; // Conjuncts map to the node of their verification atom
 	private static PiObjectComparator piObjectComparator = new PiObjectComparator();
 	
-	public PiTree(PiGui piGui, PiCode piCode) {
+	public PiTree(PiDocument piDocument, PiCode piCode) {
 		super();
 	    root = null;
 	    treeModel = new DefaultTreeModel(root);
 	    tree = new JTree(treeModel);
-		this.piGui = piGui;
+		this.piDocument = piDocument;
 	    this.piCode = piCode;
 	    selectedNode = prevSelectedNode = null;
 	    viewableObjects = new TreeSet<TreePath>(piObjectComparator);
 	    isExpandingNewlyAddedObjects = false;
+	    verificationResult = null;
+	    nodesByObject = new IdentityHashMap<Object,DefaultMutableTreeNode>();
 		initTree();
 	}
 	
@@ -84,7 +90,7 @@ public class PiTree extends JPanel {
 					selectedNode = null;
 					tree.clearSelection();
 					nodeSelected(null);
-					piGui.nodeSelected(null);
+					piDocument.nodeSelected(null);
 				}
 			}
 		});
@@ -95,7 +101,7 @@ public class PiTree extends JPanel {
 		        prevSelectedNode = selectedNode;
 		        selectedNode = node;
 		        Object obj = (node == null ? null : node.getUserObject());
-		        piGui.nodeSelected(obj);
+		        piDocument.nodeSelected(obj);
 		        if (node == null)
 		        	return;
 		        nodeSelected(obj);
@@ -152,93 +158,135 @@ public class PiTree extends JPanel {
 		return new JScrollPane(tree);
 	}
 	
+	/**
+	 * Builds the tree nodes for a verification result, along with
+	 * its location index.  The nodes are not yet attached to any
+	 * JTree, so this does not touch the GUI and should be called
+	 * off the Swing thread: only the final handleVerificationResult
+	 * needs to run on it.
+	 */
+	public static PreparedTree prepareTree(VerificationResult verificationResult) {
+		PreparedTree prepared = new PreparedTree(verificationResult);
+		prepared.addFunctions();
+		verificationResult.getLocationIndex();
+		return prepared;
+	}
+	
 	/**
 	 * Fills out the tree based on the compiler's information, basic
-	 * paths, VCs, and all.
+	 * paths, VCs, and all, by swapping in a tree built by prepareTree.
+	 * This must be called on the Swing thread.
 	 */
-	public void handleVerificationResult(VerificationResult verificationResult) {
-		root = new DefaultMutableTreeNode(verificationResult);
+	public void handleVerificationResult(PreparedTree prepared) {
+		verificationResult = prepared.verificationResult;
+		nodesByObject = prepared.nodesByObject;
+		root = prepared.root;
 		treeModel.setRoot(root);
-		addFunctions(verificationResult);
+		for (int i = 0; i < root.getChildCount(); i++)
+			tree.makeVisible(new TreePath(((DefaultMutableTreeNode)root.getChildAt(i)).getPath()));
 		expandPreviouslyExpandedNodes();
 	}
 	
 	/**
-	 * Adds the functions inside the VerificationResult to the tree as children of the root.
+	 * The nodes for one verification result, built before
+	 * they are shown in the tree.
 	 */
-	private void addFunctions(VerificationResult verificationResult) {
-		for (int i = 0; i < verificationResult.getNumFunctions(); i++) {
-			Function function = verificationResult.getFunction(i);
-			DefaultMutableTreeNode fnNode = new DefaultMutableTreeNode(function);
-			treeModel.insertNodeInto(fnNode, root, root.getChildCount());
-			VerificationAtomCollection correctness = function.getCorrectness();
-			DefaultMutableTreeNode correctnessNode = new DefaultMutableTreeNode(correctness);
-			treeModel.insertNodeInto(correctnessNode, fnNode, fnNode.getChildCount());
-			addVerificationAtomCollection(correctness, correctnessNode);
-			Termination termination = function.getTermination();
-			if (termination != null) {
-				DefaultMutableTreeNode terminationNode = new DefaultMutableTreeNode(termination);
-				treeModel.insertNodeInto(terminationNode, fnNode, fnNode.getChildCount());
-				addTermination(termination, terminationNode);
-			}
-			tree.makeVisible(new TreePath(fnNode.getPath()));
+	public static class PreparedTree {
+		
+		private VerificationResult verificationResult;
+		private DefaultMutableTreeNode root;
+		private IdentityHashMap<Object,DefaultMutableTreeNode> nodesByObject;
+		
+		private PreparedTree(VerificationResult verificationResult) {
+			this.verificationResult = verificationResult;
+			root = new DefaultMutableTreeNode(verificationResult);
+			nodesByObject = new IdentityHashMap<Object,DefaultMutableTreeNode>();
 		}
-	}
-
-	/**
-	 * Adds the basic paths and VCs inside a function to the tree as its children.
-	 */
-	private void addVerificationAtomCollection(VerificationAtomCollection parent, DefaultMutableTreeNode parentNode) {
-		for (int i = 0; i < parent.getNumAtoms(); i++) {
-			VerificationAtom atom = parent.getAtom(i);
-			DefaultMutableTreeNode atomNode = new DefaultMutableTreeNode(atom);
-			treeModel.insertNodeInto(atomNode, parentNode, parentNode.getChildCount());
-			BasicPath bp = atom.getBP();
-			if(bp!=null){
-				addSteps(bp, atomNode);
+		
+		/**
+		 * Adds the functions inside the VerificationResult to the tree as children of the root.
+		 */
+		private void addFunctions() {
+			for (int i = 0; i < verificationResult.getNumFunctions(); i++) {
+				Function function = verificationResult.getFunction(i);
+				DefaultMutableTreeNode fnNode = new DefaultMutableTreeNode(function);
+				root.add(fnNode);
+				nodesByObject.put(function, fnNode);
+				VerificationAtomCollection correctness = function.getCorrectness();
+				DefaultMutableTreeNode correctnessNode = new DefaultMutableTreeNode(correctness);
+				fnNode.add(correctnessNode);
+				addVerificationAtomCollection(correctness, correctnessNode);
+				Termination termination = function.getTermination();
+				if (termination != null) {
+					DefaultMutableTreeNode terminationNode = new DefaultMutableTreeNode(termination);
+					fnNode.add(terminationNode);
+					addTermination(termination, terminationNode);
+				}
 			}
-			if (atom.getValidity() == VerificationResult.validityT.INVALID)
-				addCounterexample(atom.getCounterexample(), atomNode);
-		}		
-	}
-
-	/**
-	 * Adds the steps inside a basic path to the tree as its children.
-	 */
-	private void addSteps(BasicPath basicPath, DefaultMutableTreeNode atomNode) {
-		DefaultMutableTreeNode parentStepNode = new DefaultMutableTreeNode("Steps");
-		treeModel.insertNodeInto(parentStepNode, atomNode, atomNode.getChildCount());
-		for (int i = 0; i < basicPath.getNumSteps(); i++) {
-			Step step = basicPath.getStep(i);
-			DefaultMutableTreeNode stepNode = new DefaultMutableTreeNode(step);
-			treeModel.insertNodeInto(stepNode, parentStepNode, parentStepNode.getChildCount());
-		}		
-	}
+		}
 	
-	/**
-	 * Adds a counterexample (a list of variables and their values) inside
-	 * a basic path in the tree.
-	 */
-	private void addCounterexample(Counterexample counterexample, DefaultMutableTreeNode basicPathNode) {
-		DefaultMutableTreeNode parentCounterexampleNode = new DefaultMutableTreeNode("Counterexample");
-		treeModel.insertNodeInto(parentCounterexampleNode, basicPathNode, basicPathNode.getChildCount());
-		for (int i = 0; i < counterexample.getNumVariables(); i++) {
-			Counterexample.Variable variable = counterexample.getVariable(i);
-			DefaultMutableTreeNode varNode = new DefaultMutableTreeNode(variable);
-			treeModel.insertNodeInto(varNode, parentCounterexampleNode, parentCounterexampleNode.getChildCount());
-		}		
-	}
+		/**
+		 * Adds the basic paths and VCs inside a function to the tree as its children.
+		 */
+		private void addVerificationAtomCollection(VerificationAtomCollection parent, DefaultMutableTreeNode parentNode) {
+			for (int i = 0; i < parent.getNumAtoms(); i++) {
+				VerificationAtom atom = parent.getAtom(i);
+				DefaultMutableTreeNode atomNode = new DefaultMutableTreeNode(atom);
+				parentNode.add(atomNode);
+				nodesByObject.put(atom, atomNode);
+				for (Conjunct[] implies: atom.getVC().getConjuncts())
+					for (Conjunct conjunct: implies)
+						nodesByObject.put(conjunct, atomNode);
+				BasicPath bp = atom.getBP();
+				if(bp!=null){
+					addSteps(bp, atomNode);
+				}
+				if (atom.getValidity() == VerificationResult.validityT.INVALID)
+					addCounterexample(atom.getCounterexample(), atomNode);
+			}		
+		}
 	
-	private void addTermination(Termination termination, DefaultMutableTreeNode terminationNode) {
-		VerificationAtomCollection decreasing = termination.getDecreasing();
-		DefaultMutableTreeNode decreasingNode = new DefaultMutableTreeNode(decreasing);
-		treeModel.insertNodeInto(decreasingNode, terminationNode, terminationNode.getChildCount());
-		addVerificationAtomCollection(decreasing, decreasingNode);
+		/**
+		 * Adds the steps inside a basic path to the tree as its children.
+		 */
+		private void addSteps(BasicPath basicPath, DefaultMutableTreeNode atomNode) {
+			DefaultMutableTreeNode parentStepNode = new DefaultMutableTreeNode("Steps");
+			atomNode.add(parentStepNode);
+			for (int i = 0; i < basicPath.getNumSteps(); i++) {
+				Step step = basicPath.getStep(i);
+				DefaultMutableTreeNode stepNode = new DefaultMutableTreeNode(step);
+				parentStepNode.add(stepNode);
+				nodesByObject.put(step, stepNode);
+			}		
+		}
+		
+		/**
+		 * Adds a counterexample (a list of variables and their values) inside
+		 * a basic path in the tree.
+		 */
+		private void addCounterexample(Counterexample counterexample, DefaultMutableTreeNode basicPathNode) {
+			DefaultMutableTreeNode parentCounterexampleNode = new DefaultMutableTreeNode("Counterexample");
+			basicPathNode.add(parentCounterexampleNode);
+			for (int i = 0; i < counterexample.getNumVariables(); i++) {
+				Counterexample.Variable variable = counterexample.getVariable(i);
+				DefaultMutableTreeNode varNode = new DefaultMutableTreeNode(variable);
+				parentCounterexampleNode.add(varNode);
+				nodesByObject.put(variable, varNode);
+			}		
+		}
+		
+		private void addTermination(Termination termination, DefaultMutableTreeNode terminationNode) {
+			VerificationAtomCollection decreasing = termination.getDecreasing();
+			DefaultMutableTreeNode decreasingNode = new DefaultMutableTreeNode(decreasing);
+			terminationNode.add(decreasingNode);
+			addVerificationAtomCollection(decreasing, decreasingNode);
+			
+			VerificationAtomCollection nonnegative = termination.getNonnegative();
+			DefaultMutableTreeNode nonnegativeNode = new DefaultMutableTreeNode(nonnegative);
+			terminationNode.add(nonnegativeNode);
+			addVerificationAtomCollection(nonnegative, nonnegativeNode);
+		}
 		
-		VerificationAtomCollection nonnegative = termination.getNonnegative();
-		DefaultMutableTreeNode nonnegativeNode = new DefaultMutableTreeNode(nonnegative);
-		treeModel.insertNodeInto(nonnegativeNode, terminationNode, terminationNode.getChildCount());
-		addVerificationAtomCollection(nonnegative, nonnegativeNode);
 	}
 	
 	/**
@@ -270,7 +318,7 @@ public class PiTree extends JPanel {
 			prevSelectedNode = selectedNode;
 			selectedNode = node;
 			nodeSelected(node.getUserObject());
-			piGui.nodeSelected(node.getUserObject());
+			piDocument.nodeSelected(node.getUserObject());
 			tree.getSelectionModel().addSelectionPath(pathToNode);
 		}
 		for (int i = 0; i < node.getChildCount(); i++)
@@ -307,9 +355,9 @@ public class PiTree extends JPanel {
 		// highlight vc
 		VerificationCondition currVC = getCorrespondingVC();
 		if (currVC == null)
-			piGui.getVCPane().setNothing();
+			piDocument.getVCPane().setNothing();
 		else
-			piGui.getVCPane().setVC(currVC);
+			piDocument.getVCPane().setVC(currVC);
 	}
 	
 	private VerificationCondition getCorrespondingVC(){
@@ -328,6 +376,32 @@ public class PiTree extends JPanel {
 		}
 	}
 	
+	/**
+	 * Selects the innermost node whose location covers the given
+	 * offset in the code.  If that is a conjunct, we select its
+	 * verification atom and then the conjunct in the VC pane.
+	 * Returns whether or not anything covered the offset.
+	 */
+	public boolean selectObjectAt(int offset) {
+		if (verificationResult == null)
+			return false;
+		for (Object obj: verificationResult.getLocationIndex().getObjectsCovering(offset)) {
+			DefaultMutableTreeNode node = nodesByObject.get(obj);
+			if (node == null)
+				continue;
+			TreePath path = new TreePath(node.getPath());
+			if (node == selectedNode)  // No selection event, but the click removed our highlights.
+				nodeSelected(node.getUserObject());
+			else
+				tree.setSelectionPath(path);
+			tree.scrollPathToVisible(path);
+			if (obj instanceof Conjunct)
+				piDocument.getVCPane().selectConjunct((Conjunct)obj);
+			return true;
+		}
+		return false;
+	}
+	
 	/**
 	 * Reselects (i.e. highlights) the currently-selected node.
 	 * We use this in the BasicPathHighlighter in case the 
@@ -352,6 +426,8 @@ public class PiTree extends JPanel {
 	 * Empties out the tree.
 	 */
 	public void clear() {
+		verificationResult = null;
+		nodesByObject = new IdentityHashMap<Object,DefaultMutableTreeNode>();
 		root = null;
 		treeModel.setRoot(root);
 		prevSelectedNode = selectedNode;
@@ -366,6 +442,30 @@ public class PiTree extends JPanel {
 		viewableObjects.clear();
 	}
 	
+	private static ImageIcon valid, invalid, unknown, timeout;
+	
+	/**
+	 * Returns the icon we show next to anything with the given
+	 * validity.  The project tree uses the same ones.
+	 */
+	static synchronized ImageIcon getValidityIcon(VerificationResult.validityT validity) {
+		if (valid == null) {
+			valid = new ImageIcon(Utils.getURL("images/valid.jpg"));
+			invalid = new ImageIcon(Utils.getURL("images/invalid.jpg"));
+			unknown = new ImageIcon(Utils.getURL("images/unknown.jpg"));
+			timeout = new ImageIcon(Utils.getURL("images/timeout.jpg"));
+		}
+		if (validity == VerificationResult.validityT.VALID)
+			return valid;
+		else if (validity == VerificationResult.validityT.INVALID)
+			return invalid;
+		else if (validity == VerificationResult.validityT.UNKNOWN)
+			return unknown;
+		else if (validity == VerificationResult.validityT.TIMEOUT)
+			return timeout;
+		else throw new RuntimeException("Unrecognized validity");
+	}
+	
 	/**
 	 * A class that lets us customize how we draw nodes.
 	 * We can specify a node's text and image.
@@ -382,28 +482,6 @@ public class PiTree extends JPanel {
 			return null;
 		}		
 		
-		private ImageIcon valid, invalid, unknown, timeout;
-		
-		public MyTreeCellRenderer() {
-			valid = new ImageIcon(Utils.getURL("images/valid.jpg"));
-			invalid = new ImageIcon(Utils.getURL("images/invalid.jpg"));
-			unknown = new ImageIcon(Utils.getURL("images/unknown.jpg"));
-			timeout = new ImageIcon(Utils.getURL("images/timeout.jpg"));
-	        //setBackgroundNonSelectionColor(Color.WHITE);//this did the trick
-		}
-		
-		private ImageIcon getProperIcon(VerificationResult.validityT validity) {
-			if (validity == VerificationResult.validityT.VALID)
-				return valid;
-			else if (validity == VerificationResult.validityT.INVALID)
-				return invalid;
-			else if (validity == VerificationResult.validityT.UNKNOWN)
-				return unknown;
-			else if (validity == VerificationResult.validityT.TIMEOUT)
-				return timeout;
-			else throw new RuntimeException("Unrecognized validity");
-		}
-		
 		/**
 		 * Does the actual specification.
 		 */
@@ -415,24 +493,24 @@ public class PiTree extends JPanel {
 			Object obj = ((DefaultMutableTreeNode)value).getUserObject();
 			if (obj instanceof VerificationResult) {
 				VerificationResult verificationResult = (VerificationResult)obj;
-				setIcon(getProperIcon(verificationResult.getValidity()));
+				setIcon(getValidityIcon(verificationResult.getValidity()));
 				String name = verificationResult.getFilename() != "" ? verificationResult.getFilename() : "Program";
 				setText(name);
 			} else if (obj instanceof Function) {
 				Function function = (Function)obj;
-				setIcon(getProperIcon(function.getValidity()));
+				setIcon(getValidityIcon(function.getValidity()));
 				setText(function.getName());
 			} else if (obj instanceof VerificationAtomCollection) {
 				VerificationAtomCollection vcCollection = (VerificationAtomCollection)obj;
-				setIcon(getProperIcon(vcCollection.getValidity()));
+				setIcon(getValidityIcon(vcCollection.getValidity()));
 				setText(vcCollection.getLabel());
 			} else if (obj instanceof Termination) {
 				Termination termination = (Termination)obj;
-				setIcon(getProperIcon(termination.getValidity()));
+				setIcon(getValidityIcon(termination.getValidity()));
 				setText("Termination");
 			} else if (obj instanceof VerificationAtom) {
 				VerificationAtom atom = (VerificationAtom)obj;
-				setIcon(getProperIcon(atom.getValidity()));
+				setIcon(getValidityIcon(atom.getValidity()));
 				String name = atom.getIdentifier().replace("\\u2192", '\u2192' + "");
 				setText(name);
 			} else if (obj instanceof Step) {
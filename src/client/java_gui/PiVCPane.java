@@ -75,6 +75,19 @@ public class PiVCPane extends JPanel {
 		}	
 	}
 	
+	/**
+	 * Selects the given conjunct if it is displayed
+	 * and highlights its location.
+	 */
+	public void selectConjunct(Conjunct conjunct) {
+		int index = model.indexOf(conjunct);
+		if (index == -1)
+			return;
+		selectionModel.select(index);
+		list.ensureIndexIsVisible(index);
+		conjunctClicked(conjunct);
+	}
+	
 	/**
 	 * Add the return of this into the tabbed pane:
 	 * do not add the PiErrorOutput object itself.
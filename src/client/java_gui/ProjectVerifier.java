@@ -0,0 +1,369 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.swing.SwingUtilities;
+
+import data_structures.Function;
+import data_structures.PiError;
+import data_structures.VerificationResult;
+import language.Node;
+import language.PiParser;
+import language.PiSyntaxException;
+import language.SemanticChecker;
+
+/**
+ * Verifies every file of a PiProject.  A file is only sent once
+ * everything it depends on has been verified without errors (files
+ * that depend on each other go together), and files that are ready
+ * are verified at the same time on the shared compile threads.
+ * A file whose text and callee contracts have not changed since we
+ * last verified it keeps its result.
+ * Everything here except the compiles themselves runs on the Swing
+ * thread.
+ */
+public class ProjectVerifier {
+
+	public enum Status { WAITING, VERIFYING, VALID, INVALID, UNKNOWN, TIMEOUT, ERRORS, BLOCKED, FAILED };
+
+	/**
+	 * Told whenever the status of a file changes.
+	 */
+	public interface Listener {
+		public void projectChanged(ProjectVerifier verifier);
+	}
+
+	private PiProject project;
+	private Listener listener;
+	private HashMap<File,FileState> states = new HashMap<File,FileState>();
+	private int generation;  // incremented by every run, so answers to an earlier one are ignored
+
+	public ProjectVerifier(PiProject project, Listener listener) {
+		this.project = project;
+		this.listener = listener;
+	}
+
+	public PiProject getProject() {
+		return project;
+	}
+
+	/**
+	 * Rescans the project and verifies whatever has changed.
+	 * The open files map holds the text of files that are open in
+	 * an editor, which may not have been saved.
+	 */
+	public void verify(final Map<File,String> openFiles) {
+		final int run = ++generation;
+		new Thread("Project scanner") {
+			@Override
+			public void run() {
+				project.scan(openFiles);
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						if (run == generation)
+							scanned();
+					}
+				});
+			}
+		}.start();
+	}
+
+	public Status getStatus(File file) {
+		FileState state = states.get(file);
+		return (state == null ? Status.WAITING : state.status);
+	}
+
+	/**
+	 * Returns the last answer for the file, with anything that
+	 * belongs to the files appended to it left out, or null.
+	 */
+	public ServerResponse getResponse(File file) {
+		FileState state = states.get(file);
+		return (state == null ? null : state.response);
+	}
+
+	/**
+	 * Returns the text the file had when it was last verified.
+	 */
+	public String getVerifiedText(File file) {
+		FileState state = states.get(file);
+		return (state == null ? null : state.text);
+	}
+
+	/**
+	 * Returns why the file was not verified, if it wasn't.
+	 */
+	public String getMessage(File file) {
+		FileState state = states.get(file);
+		return (state == null ? null : state.message);
+	}
+
+	private void scanned() {
+		HashMap<File,FileState> oldStates = states;
+		states = new HashMap<File,FileState>();
+		for (File file: project.getFiles()) {
+			String key = project.getVerificationKey(file);
+			FileState state = oldStates.get(file);
+			if (state == null || !key.equals(state.key) || !isFinished(state.status) || state.status == Status.BLOCKED || state.status == Status.FAILED)
+				state = new FileState(key);
+			states.put(file, state);
+		}
+		dispatchReady();
+		listener.projectChanged(this);
+	}
+
+	/**
+	 * Starts verifying every waiting file whose dependencies are
+	 * done, and gives up on those whose dependencies have errors.
+	 */
+	private void dispatchReady() {
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (File file: project.getFiles()) {
+				FileState state = states.get(file);
+				if (state.status != Status.WAITING)
+					continue;
+				boolean ready = true;
+				String blockedBy = null;
+				for (File dependency: project.getDependencies(file)) {
+					if (project.isMutuallyDependent(file, dependency))
+						continue;
+					Status status = states.get(dependency).status;
+					if (!isFinished(status))
+						ready = false;
+					else if (status == Status.ERRORS || status == Status.BLOCKED || status == Status.FAILED)
+						blockedBy = dependency.getName();
+				}
+				if (blockedBy != null) {
+					state.status = Status.BLOCKED;
+					state.message = "Not verified since " + blockedBy + " did not verify.";
+					changed = true;
+				} else if (ready) {
+					state.text = project.getText(file);
+					state.status = Status.VERIFYING;
+					VerificationService.execute(new FileCompiler(file, state, project.getCodeToVerify(file), state.text.length(), generation));
+				}
+			}
+		}
+	}
+
+	private static boolean isFinished(Status status) {
+		return status != Status.WAITING && status != Status.VERIFYING;
+	}
+
+	private void finished(File file, FileState state, int run, ServerResponse response, String message) {
+		if (run != generation || states.get(file) != state)
+			return;
+		state.response = response;
+		state.message = message;
+		state.status = statusOf(response);
+		dispatchReady();
+		listener.projectChanged(this);
+	}
+
+	private static Status statusOf(ServerResponse response) {
+		if (response == null || response.getCompilerError() != null)
+			return Status.FAILED;
+		if (response.getErrors() != null)
+			return Status.ERRORS;
+		VerificationResult result = response.getVerificationResult();
+		if (result == null)
+			return Status.FAILED;
+		switch (result.getValidity()) {
+		case VALID: return Status.VALID;
+		case INVALID: return Status.INVALID;
+		case TIMEOUT: return Status.TIMEOUT;
+		default: return Status.UNKNOWN;
+		}
+	}
+
+	/**
+	 * Keeps only what lies in the first ownLength characters of
+	 * the code we sent, which is the file itself.
+	 */
+	private static ServerResponse restrictTo(ServerResponse response, int ownLength) {
+		ServerResponse restricted = new ServerResponse(response.getMessages());
+		restricted.setCompilerError(response.getCompilerError());
+		if (response.getErrors() != null) {
+			ArrayList<PiError> errors = new ArrayList<PiError>();
+			for (PiError error: response.getErrors()) {
+				if (error.getLocation() == null || error.getLocation().getStartByte() < ownLength)
+					errors.add(error);
+			}
+			restricted.setErrors(errors);
+		}
+		VerificationResult result = response.getVerificationResult();
+		if (result != null) {
+			ArrayList<Function> functions = new ArrayList<Function>();
+			VerificationResult.validityT validity = VerificationResult.validityT.VALID;
+			for (int i = 0; i < result.getNumFunctions(); i++) {
+				Function function = result.getFunction(i);
+				if (function.getLocation().getStartByte() < ownLength) {
+					functions.add(function);
+					validity = worse(validity, function.getValidity());
+				}
+			}
+			restricted.setVerificationResult(new VerificationResult(result.getFilename(), validity, functions));
+		}
+		return restricted;
+	}
+
+	private static VerificationResult.validityT worse(VerificationResult.validityT a, VerificationResult.validityT b) {
+		return (rank(a) >= rank(b) ? a : b);
+	}
+
+	private static int rank(VerificationResult.validityT validity) {
+		switch (validity) {
+		case INVALID: return 3;
+		case TIMEOUT: return 2;
+		case UNKNOWN: return 1;
+		default: return 0;
+		}
+	}
+
+	/**
+	 * What we know about one file in the current run.
+	 */
+	private static class FileState {
+		private String key;
+		private Status status = Status.WAITING;
+		private String text;
+		private ServerResponse response;
+		private String message;
+
+		public FileState(String key) {
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Verifies one file (with its dependencies appended) on the
+	 * shared compile threads.  It sends the same request a document
+	 * would for the same code, so they share cached answers.
+	 */
+	private class FileCompiler implements Runnable {
+
+		private File file;
+		private FileState state;
+		private String code;
+		private int ownLength;
+		private int run;
+		private CompileRequest request;
+		private Node program;  // The code's syntax tree, if checkCode parsed it.
+
+		public FileCompiler(File file, FileState state, String code, int ownLength, int run) {
+			this.file = file;
+			this.state = state;
+			this.code = code;
+			this.ownLength = ownLength;
+			this.run = run;
+			this.request = new CompileRequest(code, Config.getBooleanValue("generate_runtime_assertions"), Config.getBooleanValue("find_inductive_core"));
+		}
+
+		public void run() {
+			final ServerResponse errors = checkCode();
+			if (errors != null) {
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						finished(file, state, run, errors, null);
+					}
+				});
+				return;
+			}
+			ServerResponse response = null;
+			String message = null;
+			final PerformanceMetrics.Stopwatch stopwatch = new PerformanceMetrics.Stopwatch();
+			try {
+				request.build();
+				stopwatch.lap(PerformanceMetrics.Phase.BUILD);
+				byte[] bytes = request.getCachedResult();
+				if (bytes == null && testedLocally(stopwatch))
+					return;
+				if (bytes == null)
+					bytes = request.send(stopwatch);
+				ServerResponse parsed = request.read(bytes, " " + file.getName());
+				if (parsed != null) {
+					response = restrictTo(parsed, ownLength);
+					if (response.getMessages() != null && response.getMessages().length > 0)
+						message = response.getMessages()[0];
+					else if (response.getErrors() != null && response.getErrors().isEmpty())
+						message = "There are errors in the files it depends on.";
+				}
+			} catch (IOException e) {
+				message = "Could not reach the server at " + request.getServerAddress() + ": " + e.getMessage();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+				message = e.toString();
+			} finally {
+				request.close();
+			}
+			stopwatch.lap(PerformanceMetrics.Phase.PARSE);
+			final ServerResponse finalResponse = response;
+			final String finalMessage = message;
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					finished(file, state, run, finalResponse, finalMessage);
+					stopwatch.finish(PerformanceMetrics.Phase.DISPLAY);
+				}
+			});
+		}
+
+		/**
+		 * Returns the errors the server would report in the first
+		 * ownLength characters of the code we would send for a file,
+		 * which are the file's own, or null if we find none (or are not
+		 * checking).  The tree it parses is kept in program, so the
+		 * contract test does not parse the code again.
+		 */
+		private ServerResponse checkCode() {
+			boolean checkSyntax = Config.getBooleanValue("check_syntax_locally");
+			boolean checkTypes = Config.getBooleanValue("check_types_locally");
+			if (!checkSyntax && !checkTypes)
+				return null;
+			ArrayList<PiError> errors = new ArrayList<PiError>();
+			try {
+				Node parsed = new PiParser().parse(code);
+				if (checkTypes) {
+					for (PiError error: SemanticChecker.check(parsed, code)) {
+						if (error.getLocation().getStartByte() < ownLength)
+							errors.add(error);
+					}
+				}
+				program = parsed;
+			} catch (PiSyntaxException e) {
+				if (checkSyntax && e.getEnd() <= ownLength)
+					errors.add(e.getError(code));
+			}
+			if (errors.isEmpty())
+				return null;
+			ServerResponse response = new ServerResponse(null);
+			response.setErrors(errors);
+			return response;
+		}
+
+		/**
+		 * Tests the contracts of the file's own functions before
+		 * asking the server, and if that finds counterexamples, they
+		 * are the file's result.  Returns whether it did.
+		 */
+		private boolean testedLocally(final PerformanceMetrics.Stopwatch stopwatch) {
+			VerificationResult result = VerificationService.findCounterexamples(code, program, " " + file.getName(), ownLength, request.getAbandonedFlag());
+			stopwatch.lap(PerformanceMetrics.Phase.TEST);
+			if (result == null)
+				return false;
+			final ServerResponse response = new ServerResponse(null);
+			response.setVerificationResult(result);
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					finished(file, state, run, response, null);
+					stopwatch.finish(PerformanceMetrics.Phase.DISPLAY);
+				}
+			});
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,197 @@
+/**
+ * Writes a piVC_transmission straight into a UTF-8 byte buffer,
+ * escaping as it goes, so a request costs one pass over the code.
+ * The first Transmission.HEADER_LENGTH bytes of the buffer are left
+ * free for the frame header, so the whole frame can be sent with a
+ * single write.  Buffers are kept for reuse between compiles.
+ */
+public class RequestWriter {
+
+	private static final int INITIAL_SIZE = 16 * 1024;
+	private static final int MAX_KEPT_SIZE = 1024 * 1024;  // don't hold on to the buffer for a huge program
+
+	private static byte[] spareBuffer;
+
+	private byte[] buffer;
+	private int length;
+
+	private RequestWriter(byte[] buffer) {
+		this.buffer = buffer;
+		this.length = Transmission.HEADER_LENGTH;
+	}
+
+	/**
+	 * Returns an empty writer, reusing a buffer if one is free.
+	 */
+	public static synchronized RequestWriter obtain() {
+		byte[] buffer = spareBuffer;
+		spareBuffer = null;
+		return new RequestWriter(buffer != null ? buffer : new byte[INITIAL_SIZE]);
+	}
+
+	/**
+	 * Hands the buffer back for reuse.  The writer must not be used afterwards.
+	 */
+	public void release() {
+		synchronized (RequestWriter.class) {
+			if (buffer.length <= MAX_KEPT_SIZE)
+				spareBuffer = buffer;
+		}
+		buffer = null;
+	}
+
+	/**
+	 * The frame so far: header space followed by the payload.
+	 */
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Writes a start tag with the given attribute names and values.
+	 */
+	public RequestWriter startElement(String tag, String... attributes) {
+		appendRaw('<');
+		appendRaw(tag);
+		appendAttributes(attributes);
+		appendRaw('>');
+		return this;
+	}
+
+	/**
+	 * Writes an element with no content.
+	 */
+	public RequestWriter emptyElement(String tag, String... attributes) {
+		appendRaw('<');
+		appendRaw(tag);
+		appendAttributes(attributes);
+		appendRaw("/>");
+		return this;
+	}
+
+	public RequestWriter endElement(String tag) {
+		appendRaw("</");
+		appendRaw(tag);
+		appendRaw('>');
+		return this;
+	}
+
+	/**
+	 * Writes an element containing only the given text.
+	 */
+	public RequestWriter textElement(String tag, String text) {
+		return startElement(tag).text(text).endElement(tag);
+	}
+
+	public RequestWriter text(String text) {
+		appendEscaped(text, false);
+		return this;
+	}
+
+	/**
+	 * Writes text that the server must receive exactly as it is.
+	 * The server's xml parser drops line breaks and leading spaces from
+	 * ordinary text, but keeps CDATA sections intact, so we use one of
+	 * those unless the text itself contains "]]>".  In that case we
+	 * fall back to putting a &#8; (which the server removes) after every
+	 * line break, so that the next line starts with something other
+	 * than whitespace.
+	 */
+	public RequestWriter verbatim(String text) {
+		if (text.indexOf("]]>") < 0) {
+			appendRaw("<![CDATA[");
+			appendUtf8(text, 0, text.length());
+			appendRaw("]]>");
+		} else {
+			int lineStart = 0;
+			int newline;
+			while ((newline = text.indexOf('\n', lineStart)) >= 0) {
+				appendEscaped(text.substring(lineStart, newline + 1), false);
+				appendRaw("&#8;");
+				lineStart = newline + 1;
+			}
+			appendEscaped(text.substring(lineStart), false);
+		}
+		return this;
+	}
+
+	private void appendAttributes(String[] attributes) {
+		for (int i = 0; i + 1 < attributes.length; i += 2) {
+			appendRaw(' ');
+			appendRaw(attributes[i]);
+			appendRaw("=\"");
+			appendEscaped(attributes[i + 1], true);
+			appendRaw('"');
+		}
+	}
+
+	private void appendEscaped(String text, boolean inAttribute) {
+		int start = 0;
+		for (int i = 0; i < text.length(); i++) {
+			String entity;
+			switch (text.charAt(i)) {
+			case '<': entity = "&lt;"; break;
+			case '>': entity = "&gt;"; break;
+			case '&': entity = "&amp;"; break;
+			case '"': entity = (inAttribute ? "&quot;" : null); break;
+			default: entity = null;
+			}
+			if (entity != null) {
+				appendUtf8(text, start, i);
+				appendRaw(entity);
+				start = i + 1;
+			}
+		}
+		appendUtf8(text, start, text.length());
+	}
+
+	private void appendUtf8(String text, int start, int end) {
+		ensureCapacity(length + (end - start) * 3);
+		byte[] buf = buffer;
+		int pos = length;
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				buf[pos++] = (byte)c;
+			} else if (c < 0x800) {
+				buf[pos++] = (byte)(0xc0 | (c >> 6));
+				buf[pos++] = (byte)(0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, text.charAt(++i));
+				buf[pos++] = (byte)(0xf0 | (codePoint >> 18));
+				buf[pos++] = (byte)(0x80 | ((codePoint >> 12) & 0x3f));
+				buf[pos++] = (byte)(0x80 | ((codePoint >> 6) & 0x3f));
+				buf[pos++] = (byte)(0x80 | (codePoint & 0x3f));
+			} else {
+				if (Character.isSurrogate(c))
+					c = '\ufffd';  // an unpaired surrogate has no encoding of its own
+				buf[pos++] = (byte)(0xe0 | (c >> 12));
+				buf[pos++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+				buf[pos++] = (byte)(0x80 | (c & 0x3f));
+			}
+		}
+		length = pos;
+	}
+
+	// Only for markup, which is ASCII.
+	private void appendRaw(String markup) {
+		ensureCapacity(length + markup.length());
+		for (int i = 0; i < markup.length(); i++)
+			buffer[length++] = (byte)markup.charAt(i);
+	}
+
+	private void appendRaw(char c) {
+		ensureCapacity(length + 1);
+		buffer[length++] = (byte)c;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > buffer.length)
+			buffer = java.util.Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+	}
+
+}
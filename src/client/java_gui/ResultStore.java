@@ -0,0 +1,115 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Server answers kept on disk between runs, one deflated file per
+ * request key in the directory named by result_store_location, so
+ * a file that has not changed since it was last verified shows its
+ * results as soon as it is opened.  The directory is kept under
+ * result_store_size bytes by deleting the answers used longest ago.
+ */
+public class ResultStore {
+
+	private static final String SUFFIX = ".result";
+
+	private File dir;
+	private long maxBytes;
+
+	public ResultStore(File dir, long maxBytes) {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns the stored answer for the key, or null.
+	 */
+	public byte[] get(String key) {
+		if (maxBytes <= 0)
+			return null;
+		File file = new File(dir, key + SUFFIX);
+		if (!file.isFile())
+			return null;
+		try {
+			InputStream in = new InflaterInputStream(new FileInputStream(file));
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream((int)file.length() * 4);
+			try {
+				byte[] buffer = new byte[8192];
+				int n;
+				while ((n = in.read(buffer)) > 0)
+					bytes.write(buffer, 0, n);
+			} finally {
+				in.close();
+			}
+			file.setLastModified(System.currentTimeMillis());
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			// A partly written or corrupt entry is the same as none.
+			file.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the answer.  It is written to a temporary file first, so
+	 * a client that dies halfway through never leaves a broken entry.
+	 */
+	public synchronized void put(String key, byte[] response) {
+		if (maxBytes <= 0 || (!dir.isDirectory() && !dir.mkdirs()))
+			return;
+		File file = new File(dir, key + SUFFIX);
+		try {
+			File temp = File.createTempFile("result", ".tmp", dir);
+			OutputStream out = new DeflaterOutputStream(new FileOutputStream(temp));
+			try {
+				out.write(response);
+			} finally {
+				out.close();
+			}
+			if (!temp.renameTo(file)) {
+				file.delete();
+				if (!temp.renameTo(file))
+					temp.delete();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		trim();
+	}
+
+	/**
+	 * Deletes the least recently used answers until the rest fit.
+	 */
+	private void trim() {
+		File[] files = dir.listFiles();
+		if (files == null)
+			return;
+		long bytes = 0;
+		for (File file: files)
+			bytes += file.length();
+		if (bytes <= maxBytes)
+			return;
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File a, File b) {
+				long diff = a.lastModified() - b.lastModified();
+				return (diff < 0 ? -1 : (diff > 0 ? 1 : 0));
+			}
+		});
+		for (int i = 0; i < files.length && bytes > maxBytes; i++) {
+			if (files[i].getName().endsWith(SUFFIX)) {
+				bytes -= files[i].length();
+				files[i].delete();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,55 @@
+import java.util.ArrayList;
+
+import data_structures.PiError;
+import data_structures.VerificationResult;
+
+/**
+ * What we got back from the server for one transmission,
+ * already parsed into our own data structures.
+ * At most one of the verification result, the errors
+ * and the compiler error is set.
+ */
+public class ServerResponse {
+	
+	private String[] messages;
+	private VerificationResult verificationResult;
+	private ArrayList<PiError> errors;
+	private PiError compilerError;
+	
+	public ServerResponse(String[] messages) {
+		this.messages = messages;
+	}
+	
+	/**
+	 * Returns the custom messages the server sent,
+	 * or null if there were none.
+	 */
+	public String[] getMessages() {
+		return messages;
+	}
+	
+	public VerificationResult getVerificationResult() {
+		return verificationResult;
+	}
+	
+	public void setVerificationResult(VerificationResult verificationResult) {
+		this.verificationResult = verificationResult;
+	}
+	
+	public ArrayList<PiError> getErrors() {
+		return errors;
+	}
+	
+	public void setErrors(ArrayList<PiError> errors) {
+		this.errors = errors;
+	}
+	
+	public PiError getCompilerError() {
+		return compilerError;
+	}
+	
+	public void setCompilerError(PiError compilerError) {
+		this.compilerError = compilerError;
+	}
+
+}
@@ -1,5 +1,6 @@
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -12,6 +13,7 @@ import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
 
 import data_structures.BasicPath;
+import data_structures.CodeOffsets;
 import data_structures.VerificationAtom;
 import data_structures.Conjunct;
 import data_structures.Counterexample;
@@ -27,11 +29,20 @@ import data_structures.VerificationResult.validityT;
 
 public class ServerResponseParser {
 	
-	private PiGui piGui;
 	private DocumentBuilder builder;
 	
-	public ServerResponseParser(PiGui piGui) {
-		this.piGui = piGui;
+	private StringTable stringTable;  // only lives for the duration of a single parse
+	private CodeOffsets codeOffsets;  // translates the server's byte offsets while we parse a result
+	
+	private static final HashMap<String,validityT> VALIDITIES = new HashMap<String,validityT>();
+	static {
+		VALIDITIES.put("valid", validityT.VALID);
+		VALIDITIES.put("invalid", validityT.INVALID);
+		VALIDITIES.put("unknown", validityT.UNKNOWN);
+		VALIDITIES.put("timeout", validityT.TIMEOUT);
+	}
+	
+	public ServerResponseParser() {
 		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
 		try {
 			builder = factory.newDocumentBuilder();
@@ -43,10 +54,15 @@ public class ServerResponseParser {
 
 	/**
 	 * Parse the given text from the server into our own data structures.
+	 * This does not touch the GUI, so it may be called from any thread,
+	 * but the DocumentBuilder is not thread-safe, so threads that parse
+	 * at the same time should each have their own parser.
 	 * @param filename the name of the currently-opened file
 	 * or null if it has no name.
+	 * @param codeOffsets the offsets of the code we sent.
+	 * @return the parsed response, or null if the text was not valid xml.
 	 */
-	public String[] parse(String text, String filename) {
+	public ServerResponse parse(String text, String filename, CodeOffsets codeOffsets) {
 		Document xml = null;
 		StringReader reader = new StringReader(text);
 		InputSource inputSource = new InputSource(reader);
@@ -71,27 +87,53 @@ public class ServerResponseParser {
 				messages = parseMessages(child);
 			}			
 		}		
+		ServerResponse response = new ServerResponse(messages);
 		if(result!=null){
-			String status = result.getAttributes().getNamedItem("status").getTextContent();
-			if (status.equals("valid") || status.equals("invalid") || status.equals("unknown") || status.equals("timeout")){
-				parseNormal(result, filename);
-			}
-			else if (status.equals("error")){
-				parseErrors(result);
-			}
-			else if (status.equals("compiler_error")){
-				parseCompilerError(result);
+			stringTable = new StringTable();
+			this.codeOffsets = codeOffsets;
+			try {
+				String status = getAttribute(result, "status");
+				if (VALIDITIES.containsKey(status)){
+					response.setVerificationResult(parseNormal(result, filename));
+				}
+				else if (status.equals("error")){
+					response.setErrors(parseErrors(result));
+				}
+				else if (status.equals("compiler_error")){
+					response.setCompilerError(parseCompilerError(result));
+				}
+			} finally {
+				stringTable = null;
+				this.codeOffsets = null;
 			}
 		}
-		return messages;
+		return response;
+	}
+	
+	private String intern(String str) {
+		return stringTable.intern(str);
+	}
+	
+	/**
+	 * Returns the value of the named attribute of the node,
+	 * or null if it has no such attribute.
+	 */
+	private static String getAttribute(Node node, String name) {
+		Node attribute = node.getAttributes().getNamedItem(name);
+		return (attribute == null ? null : attribute.getNodeValue());
+	}
+	
+	/**
+	 * Maps the status attribute of the node straight to its validity.
+	 */
+	private static validityT getValidity(Node node) {
+		return validityStringToValidity(getAttribute(node, "status"));
 	}
 
 	/**
-	 * Makes a VerificationResult object from a <result> tag
-	 * and passes it onto the main GUI.
+	 * Makes a VerificationResult object from a <result> tag.
 	 */
-	private void parseNormal(Node result, String filename) {
-		String valid = result.getAttributes().getNamedItem("status").getTextContent();
+	private VerificationResult parseNormal(Node result, String filename) {
 		ArrayList<Function> functions = new ArrayList<Function>();
 		NodeList children = result.getChildNodes();
 		for (int i = 0; i < children.getLength(); i++) {
@@ -99,21 +141,24 @@ public class ServerResponseParser {
 			if ("function".equals(child.getNodeName()))  // Element node
 				functions.add(parseFunction(child));
 		}
-		VerificationResult verificationResult = new VerificationResult(filename, validityStringToValidity(valid), functions);
-		piGui.handleVerificationResult(verificationResult);
+		return new VerificationResult(filename, getValidity(result), functions);
 	}
 
-	private VerificationResult.validityT validityStringToValidity(String validity){
-		if(validity.equals("valid"))
-			return VerificationResult.validityT.VALID;
-		else if (validity.equals("invalid"))
-			return VerificationResult.validityT.INVALID;
-		else if (validity.equals("unknown"))
-			return VerificationResult.validityT.UNKNOWN;
-		else if (validity.equals("timeout"))
-			return VerificationResult.validityT.TIMEOUT;
-		else
+	static VerificationResult.validityT validityStringToValidity(String validity){
+		validityT result = VALIDITIES.get(validity);
+		if (result == null)
 			throw new RuntimeException("Unrecognized validity type.");
+		return result;
+	}
+
+	/**
+	 * Maps a conjunct's status to its validity.  Conjunct statuses were
+	 * always read without regard to case, so the rare one the table
+	 * misses goes to VerificationResult.parseValidity.
+	 */
+	static VerificationResult.validityT conjunctValidity(String status){
+		validityT result = VALIDITIES.get(status);
+		return result != null ? result : VerificationResult.parseValidity(status);
 	}
 	
 	
@@ -136,8 +181,7 @@ public class ServerResponseParser {
 	 * Makes and returns a Function object from a <function> tag.
 	 */
 	private Function parseFunction(Node function) {
-		String name = function.getAttributes().getNamedItem("name").getTextContent();
-		String valid = function.getAttributes().getNamedItem("status").getTextContent();
+		String name = intern(getAttribute(function, "name"));
 		VerificationAtomCollection correctness = null;
 		Termination termination = null;
 		Location location = null;
@@ -153,15 +197,14 @@ public class ServerResponseParser {
 		}
 		if (correctness == null || location == null)
 			throw new RuntimeException("Invalid function tag");
-		return new Function(name, validityStringToValidity(valid), correctness, termination, location);
+		return new Function(name, getValidity(function), correctness, termination, location);
 	}
 	
 	/**
 	 * Makes and returns a Correctness object from a <correctness> tag.
 	 */
 	private VerificationAtomCollection parseVerificationAtomCollection(Node collection, String label) {
-		String valid = collection.getAttributes().getNamedItem("status").getTextContent();
-		VerificationResult.validityT validity = validityStringToValidity(valid);
+		VerificationResult.validityT validity = getValidity(collection);
 		ArrayList<VerificationAtom> atoms = new ArrayList<VerificationAtom>();
 		NodeList children = collection.getChildNodes();
 		for (int i = 0; i < children.getLength(); i++) {
@@ -178,8 +221,7 @@ public class ServerResponseParser {
 	 * Makes and returns a Correctness object from a <termination> tag.
 	 */
 	private Termination parseTermination(Node termination) {
-		String valid = termination.getAttributes().getNamedItem("status").getTextContent();
-		VerificationResult.validityT validity = validityStringToValidity(valid);
+		VerificationResult.validityT validity = getValidity(termination);
 		VerificationAtomCollection decreasing = null;
 		VerificationAtomCollection nonnegative = null;
 		NodeList children = termination.getChildNodes();
@@ -214,7 +256,7 @@ public class ServerResponseParser {
 						for(int i2=0; i2<children.getLength(); ++i2){
 							Node child = children.item(i2);
 							if(child.getNodeName().equals("text")){
-								str = child.getTextContent();
+								str = intern(child.getTextContent());
 							}
 							if(child.getNodeName().equals("location")){
 								loc = parseLocation(child);
@@ -224,10 +266,10 @@ public class ServerResponseParser {
 						for(int i2=0; i2<attributes.getLength(); ++i2){
 							Node child = attributes.item(i2);
 							if(child.getNodeName().equals("status")){
-								status = VerificationResult.parseValidity(child.getNodeValue());
+								status = conjunctValidity(child.getNodeValue());
 							}
 							if(child.getNodeName().equals("in_inductive_core")){
-								inInductiveCore = new Boolean(Boolean.parseBoolean(child.getNodeValue()));
+								inInductiveCore = Boolean.valueOf(child.getNodeValue());
 							}
 						}						
 
@@ -252,9 +294,8 @@ public class ServerResponseParser {
 	 * Makes and returns a BasicPath object from a <verification_atom> tag.
 	 */
 	private VerificationAtom parseVerificationAtom(Node atom) {
-		String valid = atom.getAttributes().getNamedItem("status").getTextContent();
-		String name = atom.getAttributes().getNamedItem("name").getTextContent();
-		VerificationResult.validityT validity = validityStringToValidity(valid);
+		String name = intern(getAttribute(atom, "name"));
+		VerificationResult.validityT validity = getValidity(atom);
 		BasicPath bp = null;
 		VerificationCondition vc = null;
 		Counterexample counterexample = null;
@@ -295,7 +336,7 @@ public class ServerResponseParser {
 	 * Makes and returns a Step object from a <step> tag.
 	 */
 	private Step parseStep(Node step) {
-		String type = step.getAttributes().getNamedItem("type").getTextContent();
+		String type = intern(getAttribute(step, "type"));
 		String text = null;
 		Location location = null;
 		NodeList children = step.getChildNodes();
@@ -304,7 +345,7 @@ public class ServerResponseParser {
 			if ("location".equals(child.getNodeName()))
 				location = parseLocation(child);
 			if ("text".equals(child.getNodeName()))
-				text = child.getTextContent();
+				text = intern(child.getTextContent());
 		}
 		if (type == null || text == null || location == null)
 			throw new RuntimeException("Invalid step tag");
@@ -329,7 +370,7 @@ public class ServerResponseParser {
 	 * Makes and returns a Counterexample.Variable object from a <var> tag.
 	 */
 	private Counterexample.Variable parseVariable(Node var) {
-		String text = var.getAttributes().getNamedItem("text").getTextContent();;
+		String text = intern(getAttribute(var, "text"));
 		Location location = null;
 		NodeList children = var.getChildNodes();
 		for (int i = 0; i < children.getLength(); i++) {
@@ -351,26 +392,25 @@ public class ServerResponseParser {
 		for (int i = 0; i < children.getLength(); i++) {
 			Node child = children.item(i);
 			if ("start".equals(child.getNodeName())) {
-				startRow = Integer.valueOf(child.getAttributes().getNamedItem("row").getTextContent());
-				startCol = Integer.valueOf(child.getAttributes().getNamedItem("col").getTextContent());
-				startByte = Integer.valueOf(child.getAttributes().getNamedItem("byte").getTextContent());
+				startRow = Integer.parseInt(getAttribute(child, "row"));
+				startCol = Integer.parseInt(getAttribute(child, "col"));
+				startByte = Integer.parseInt(getAttribute(child, "byte"));
 			}
 			if ("end".equals(child.getNodeName())) {
-				endRow = Integer.valueOf(child.getAttributes().getNamedItem("row").getTextContent());
-				endCol = Integer.valueOf(child.getAttributes().getNamedItem("col").getTextContent());
-				endByte = Integer.valueOf(child.getAttributes().getNamedItem("byte").getTextContent());
+				endRow = Integer.parseInt(getAttribute(child, "row"));
+				endCol = Integer.parseInt(getAttribute(child, "col"));
+				endByte = Integer.parseInt(getAttribute(child, "byte"));
 			}
 		}
 		if (startRow == -1 || startCol == -1 || endRow == -1 || endCol == -1 || startByte == -1 || endByte == -1)
 			throw new RuntimeException("Invalid location tag");
-		return new Location(startByte, startRow, startCol, endByte, endRow, endCol);
+		return codeOffsets.makeLocation(startByte, startRow, startCol, endByte, endRow, endCol);
 	}
 
 	/**
-	 * Parses errors from a <result> tag
-	 * and passes them onto the main GUI.
+	 * Parses errors from a <result> tag.
 	 */
-	private void parseErrors(Node result) {
+	private ArrayList<PiError> parseErrors(Node result) {
 		ArrayList<PiError> errors = new ArrayList<PiError>();
 		NodeList children = result.getChildNodes();
 		for (int i = 0; i < children.getLength(); i++) {
@@ -378,7 +418,7 @@ public class ServerResponseParser {
 			if ("error".equals(child.getNodeName()))  // Element node
 				errors.add(parseError(child));
 		}
-		piGui.handleError(errors);
+		return errors;
 	}
 	
 	/**
@@ -402,10 +442,9 @@ public class ServerResponseParser {
 	}
 	
 	/**
-	 * Parses a compiler error from a <result> tag
-	 * and passes it onto the main GUI.
+	 * Parses a compiler error from a <result> tag.
 	 */
-	private void parseCompilerError(Node result) {
+	private PiError parseCompilerError(Node result) {
 		PiError error = null;
 		NodeList children = result.getChildNodes();
 		for (int i = 0; i < children.getLength(); i++) {
@@ -415,7 +454,7 @@ public class ServerResponseParser {
 		}
 		if (error == null)
 			throw new RuntimeException("Invalid compiler_error tag");
-		piGui.handleCompilerError(error);
+		return error;
 	}
 
 }
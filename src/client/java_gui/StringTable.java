@@ -0,0 +1,29 @@
+import java.util.HashMap;
+
+/**
+ * The same variable names, step texts and conjuncts show up many
+ * times in one server response, so while reading one we share a
+ * single copy of each string between all the objects that use it.
+ * The ServerResponseParser and the BinaryResponseReader each use a
+ * new table for every response they read.
+ */
+public class StringTable {
+
+	private final HashMap<String,String> strings = new HashMap<String,String>();
+
+	/**
+	 * Returns the shared copy of the given string, adding
+	 * it to the table if we haven't seen it yet.
+	 */
+	public String intern(String str) {
+		if (str == null)
+			return null;
+		String shared = strings.get(str);
+		if (shared == null) {
+			strings.put(str, str);
+			shared = str;
+		}
+		return shared;
+	}
+
+}
@@ -0,0 +1,201 @@
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Segment;
+
+/**
+ * Finds the places in some text that match what the user is
+ * looking for.  Plain text is found a line at a time in the
+ * document's own storage (Boyer-Moore-Horspool, so most characters
+ * are never looked at), which is fast enough to redo on every
+ * keystroke.  Regular expressions need the text as a whole, so they
+ * search a copy and can be cancelled, which lets them run off the
+ * Swing thread.
+ */
+public class TextSearch {
+
+	public static final int MAX_MATCHES = 10000;  // the most we highlight
+
+	/**
+	 * Where one match is, and for a regular expression, what
+	 * replacing it should insert.
+	 */
+	public static class Match {
+		public final int start, end;
+		public final String replacement;
+
+		public Match(int start, int end, String replacement) {
+			this.start = start;
+			this.end = end;
+			this.replacement = replacement;
+		}
+	}
+
+	private String text;
+	private boolean matchCase;
+	private Pattern pattern;  // null unless this is a regular expression
+	private char[] folded;  // the text to find, lower-cased unless matchCase
+	private int[] shifts;  // Horspool's shift for each character, by its low byte
+
+	public TextSearch(String text, boolean matchCase, boolean isRegex) throws PatternSyntaxException {
+		this.text = text;
+		this.matchCase = matchCase;
+		if (isRegex) {
+			pattern = Pattern.compile(text, Pattern.MULTILINE | (matchCase ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE));
+		} else {
+			folded = new char[text.length()];
+			for (int i = 0; i < folded.length; i++)
+				folded[i] = fold(text.charAt(i));
+			shifts = new int[256];
+			for (int i = 0; i < shifts.length; i++)
+				shifts[i] = folded.length;
+			for (int i = 0; i < folded.length - 1; i++)
+				shifts[folded[i] & 0xff] = folded.length - 1 - i;
+		}
+	}
+
+	public boolean isRegex() {
+		return pattern != null;
+	}
+
+	/**
+	 * Finds up to limit places where plain text is in the document, a
+	 * line at a time, without copying it.  This must be called on the
+	 * Swing thread (or with the document otherwise locked against edits).
+	 */
+	public ArrayList<Match> findAll(Document document, int limit) {
+		ArrayList<Match> matches = new ArrayList<Match>();
+		if (isRegex() || folded.length == 0)
+			return matches;
+		Element root = document.getDefaultRootElement();
+		Segment segment = new Segment();
+		try {
+			for (int line = 0; line < root.getElementCount() && matches.size() < limit; line++) {
+				Element lineElement = root.getElement(line);
+				int lineStart = lineElement.getStartOffset();
+				document.getText(lineStart, lineElement.getEndOffset() - 1 - lineStart, segment);
+				findInLine(segment.array, segment.offset, segment.count, lineStart - segment.offset, matches, limit);
+			}
+		} catch (BadLocationException e) {
+			e.printStackTrace();
+		}
+		return matches;
+	}
+
+	/**
+	 * Adds the matches in array[from, from + count) to the list,
+	 * converting positions in the array to offsets by adding delta.
+	 */
+	private void findInLine(char[] array, int from, int count, int delta, ArrayList<Match> matches, int limit) {
+		int last = folded.length - 1;
+		int end = from + count;
+		int i = from;
+		while (i + last < end) {
+			int j = last;
+			while (j >= 0 && fold(array[i + j]) == folded[j])
+				j--;
+			if (j < 0) {
+				matches.add(new Match(i + delta, i + delta + folded.length, null));
+				if (matches.size() >= limit)
+					return;
+				i += folded.length;
+			} else {
+				i += shifts[fold(array[i + last]) & 0xff];
+			}
+		}
+	}
+
+	/**
+	 * Finds up to limit matches of a regular expression in the text.  If replacement is not
+	 * null, each match records what replacing it with the replacement
+	 * ($n for groups) would insert.  This throws CancellationException
+	 * if the text's cancel method is called while it searches.
+	 */
+	public ArrayList<Match> findAll(CancellableText text, String replacement, int limit) {
+		ArrayList<Match> matches = new ArrayList<Match>();
+		if (!isRegex())
+			return matches;
+		Matcher matcher = pattern.matcher(text);
+		StringBuffer buffer = new StringBuffer();
+		int appended = 0;
+		while (matches.size() < limit && matcher.find()) {
+			String replaced = null;
+			if (replacement != null) {
+				buffer.setLength(0);
+				matcher.appendReplacement(buffer, replacement);
+				replaced = buffer.substring(matcher.start() - appended);
+				appended = matcher.end();
+			}
+			matches.add(new Match(matcher.start(), matcher.end(), replaced));
+		}
+		return matches;
+	}
+
+	/**
+	 * Returns what replacing the given text, which must be all of a
+	 * match, with the replacement would insert, or null if the text
+	 * does not match.
+	 */
+	public String replace(String matched, String replacement) {
+		if (!isRegex())
+			return (matchCase ? matched.equals(text) : matched.equalsIgnoreCase(text)) ? replacement : null;
+		Matcher matcher = pattern.matcher(matched);
+		if (!matcher.matches())
+			return null;
+		StringBuffer buffer = new StringBuffer();
+		matcher.appendReplacement(buffer, replacement);
+		return buffer.toString();
+	}
+
+	private char fold(char c) {
+		return (matchCase ? c : Character.toLowerCase(c));
+	}
+
+	/**
+	 * Text that a search can be stopped partway through, by another
+	 * thread, which a regular expression that backtracks badly
+	 * otherwise never would be.
+	 */
+	public static class CancellableText implements CharSequence {
+		private String text;
+		private volatile boolean cancelled;
+
+		public CancellableText(String text) {
+			this.text = text;
+		}
+
+		public void cancel() {
+			cancelled = true;
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		public char charAt(int index) {
+			if (cancelled)
+				throw new CancellationException();
+			return text.charAt(index);
+		}
+
+		public int length() {
+			return text.length();
+		}
+
+		public CharSequence subSequence(int start, int end) {
+			return text.subSequence(start, end);
+		}
+
+		@Override
+		public String toString() {
+			return text;
+		}
+	}
+
+}
@@ -0,0 +1,137 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reads and writes the length-prefixed frames that carry a
+ * piVC_transmission to and from the server.
+ * A frame is a 4-byte big-endian length followed by that many bytes.
+ * If the high bit of the length is set, the payload is a zlib
+ * (DEFLATE) stream and the remaining 31 bits are its compressed length.
+ * We advertise that we can read such frames with the accept_encoding
+ * attribute of the envelope.  The gateway compresses its answers to
+ * requests that carry it; the main server never does.  We only compress
+ * our own requests once a server has answered us with a compressed frame.
+ */
+public class Transmission {
+
+	public static final String ACCEPT_ENCODING = "deflate";
+
+	public static final int HEADER_LENGTH = 4;
+
+	private static final int DEFLATE_FLAG = 0x80000000;
+
+	// Addresses of servers we have seen send compressed frames.
+	private static Set<String> deflateServers = new HashSet<String>();
+
+	/**
+	 * Writes the request as one frame, with a single write, compressing
+	 * it if the server at the given address is known to accept
+	 * compressed frames.
+	 */
+	public static void send(OutputStream out, String serverAddress, RequestWriter request) throws IOException {
+		byte[] frame = request.getBuffer();
+		int length = request.getLength();
+		int header = length - HEADER_LENGTH;
+		if (acceptsDeflate(serverAddress)) {
+			frame = deflate(frame, HEADER_LENGTH, length - HEADER_LENGTH);
+			length = frame.length;
+			header = (length - HEADER_LENGTH) | DEFLATE_FLAG;
+		}
+		frame[0] = (byte)(header >>> 24);
+		frame[1] = (byte)(header >>> 16);
+		frame[2] = (byte)(header >>> 8);
+		frame[3] = (byte)header;
+		out.write(frame, 0, length);
+		out.flush();
+	}
+
+	/**
+	 * Reads one frame, inflating it if necessary, and remembers
+	 * whether the server at the given address compresses.
+	 */
+	public static byte[] receive(DataInputStream in, String serverAddress) throws IOException {
+		return receive(in, serverAddress, null);
+	}
+
+	/**
+	 * Like receive(in, serverAddress), but also records how long we
+	 * waited for the server to start answering on the stopwatch.
+	 */
+	public static byte[] receive(DataInputStream in, String serverAddress, PerformanceMetrics.Stopwatch stopwatch) throws IOException {
+		int header = in.readInt();
+		if (stopwatch != null)
+			stopwatch.lap(PerformanceMetrics.Phase.SERVER);
+		boolean deflated = (header & DEFLATE_FLAG) != 0;
+		int len = header & ~DEFLATE_FLAG;
+		byte[] bytes = new byte[len];
+		in.readFully(bytes, 0, len);
+		setAcceptsDeflate(serverAddress, deflated);
+		return (deflated ? inflate(bytes) : bytes);
+	}
+
+	/**
+	 * Forget what we know about a server, for example
+	 * after a connection error.
+	 */
+	public static synchronized void forgetServer(String serverAddress) {
+		deflateServers.remove(serverAddress);
+	}
+
+	private static synchronized boolean acceptsDeflate(String serverAddress) {
+		return deflateServers.contains(serverAddress);
+	}
+
+	private static synchronized void setAcceptsDeflate(String serverAddress, boolean accepts) {
+		if (accepts)
+			deflateServers.add(serverAddress);
+		else
+			deflateServers.remove(serverAddress);
+	}
+
+	/**
+	 * Compresses len bytes of bytes starting at off, into a
+	 * new array that starts with room for the frame header.
+	 */
+	private static byte[] deflate(byte[] bytes, int off, int len) {
+		Deflater deflater = new Deflater();
+		deflater.setInput(bytes, off, len);
+		deflater.finish();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(len / 4 + 64);
+		out.write(new byte[HEADER_LENGTH], 0, HEADER_LENGTH);
+		byte[] buf = new byte[8192];
+		while (!deflater.finished()) {
+			int n = deflater.deflate(buf);
+			out.write(buf, 0, n);
+		}
+		deflater.end();
+		return out.toByteArray();
+	}
+
+	private static byte[] inflate(byte[] bytes) throws IOException {
+		Inflater inflater = new Inflater();
+		inflater.setInput(bytes);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 4);
+		byte[] buf = new byte[8192];
+		try {
+			while (!inflater.finished()) {
+				int n = inflater.inflate(buf);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					throw new IOException("Truncated compressed transmission");
+				out.write(buf, 0, n);
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Malformed compressed transmission: " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+		return out.toByteArray();
+	}
+
+}
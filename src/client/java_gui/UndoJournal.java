@@ -0,0 +1,398 @@
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+
+import org.syntax.jedit.SyntaxDocument;
+
+/**
+ * The undo history of a document.  Rather than keep Swing's edit
+ * objects, it records each change as an offset and a slice of one
+ * shared buffer holding the text that was inserted or removed, and
+ * undoes a change by making the opposite one.
+ * Consecutive typing (or deleting) is merged into one step per word,
+ * and the oldest steps are forgotten once the history would take
+ * more than undo_history_size bytes.
+ */
+public class UndoJournal {
+
+	private static final int INSERT = 0, REMOVE = 1;
+	private static final int RECORD_BYTES = 16;  // four ints per record
+
+	private static final int TYPING = 0, DELETING = 1, EDIT = 2;
+	private static final String[] STEP_NAMES = { "Typing", "Deletion", "Edit" };
+
+	private Journaled document;
+	private long maxBytes;
+	private ChangeListener listener;
+
+	// Each change is a record, kept in parallel arrays.
+	private int[] kinds = new int[64];
+	private int[] offsets = new int[64];
+	private int[] textStarts = new int[64];  // where its text is in the buffer
+	private int[] textLengths = new int[64];
+	private int records;
+
+	private StringBuilder buffer = new StringBuilder();
+
+	// Each step that undo takes back at once is a run of records.
+	private int[] stepStarts = new int[64];
+	private int[] stepKinds = new int[64];
+	private int steps;  // steps[0, current) are done, steps[current, steps) have been undone
+	private int current;
+
+	private int compoundDepth;
+	private int compoundStart = -1;  // the first record of the compound edit being made
+	private boolean applying;  // true while we make changes ourselves
+	private boolean mergeable;  // whether the next step may join the last one
+
+	public UndoJournal() {
+		try {
+			maxBytes = Long.parseLong(Config.getValue("undo_history_size").trim());
+		} catch (NumberFormatException e) {
+			maxBytes = 4 * 1024 * 1024;
+		}
+		document = new Journaled();
+	}
+
+	/**
+	 * Returns the document whose changes we record.
+	 */
+	public SyntaxDocument getDocument() {
+		return document;
+	}
+
+	/**
+	 * Sets who to tell when what can be undone or redone changes.
+	 */
+	public void setChangeListener(ChangeListener listener) {
+		this.listener = listener;
+	}
+
+	public boolean canUndo() {
+		return current > 0;
+	}
+
+	public boolean canRedo() {
+		return current < steps;
+	}
+
+	public String getUndoPresentationName() {
+		return "Undo " + STEP_NAMES[stepKinds[current - 1]];
+	}
+
+	public String getRedoPresentationName() {
+		return "Redo " + STEP_NAMES[stepKinds[current]];
+	}
+
+	/**
+	 * Takes back the last step, and returns the offset where it was.
+	 */
+	public int undo() {
+		current--;
+		int caret = 0;
+		applying = true;
+		try {
+			for (int i = stepEnd(current) - 1; i >= stepStarts[current]; i--) {
+				if (kinds[i] == INSERT) {
+					document.remove(offsets[i], textLengths[i]);
+					caret = offsets[i];
+				} else {
+					document.insertString(offsets[i], getText(i), null);
+					caret = offsets[i] + textLengths[i];
+				}
+			}
+		} catch (BadLocationException e) {
+			e.printStackTrace();
+			discardAllEdits();
+		} finally {
+			applying = false;
+		}
+		mergeable = false;
+		fireChanged();
+		return caret;
+	}
+
+	/**
+	 * Makes the last step taken back again, and returns the offset
+	 * where it ends.
+	 */
+	public int redo() {
+		int caret = 0;
+		applying = true;
+		try {
+			for (int i = stepStarts[current]; i < stepEnd(current); i++) {
+				if (kinds[i] == INSERT) {
+					document.insertString(offsets[i], getText(i), null);
+					caret = offsets[i] + textLengths[i];
+				} else {
+					document.remove(offsets[i], textLengths[i]);
+					caret = offsets[i];
+				}
+			}
+		} catch (BadLocationException e) {
+			e.printStackTrace();
+			discardAllEdits();
+			return caret;
+		} finally {
+			applying = false;
+		}
+		current++;
+		mergeable = false;
+		fireChanged();
+		return caret;
+	}
+
+	public void discardAllEdits() {
+		records = steps = current = 0;
+		buffer.setLength(0);
+		compoundStart = (compoundDepth > 0 ? 0 : -1);
+		mergeable = false;
+		fireChanged();
+	}
+
+	/**
+	 * Called when the caret moves.  Unless it is where the last change
+	 * left it, as it is while typing, the next change starts a new step.
+	 */
+	public void caretMoved(int dot) {
+		if (!mergeable || records == 0)
+			return;
+		int last = records - 1;
+		if (dot != offsets[last] + (kinds[last] == INSERT ? textLengths[last] : 0))
+			mergeable = false;
+	}
+
+	/**
+	 * Groups the changes made until the matching endCompoundEdit
+	 * into one step.  These nest.
+	 */
+	public void beginCompoundEdit() {
+		if (compoundDepth++ == 0)
+			compoundStart = records;
+	}
+
+	public void endCompoundEdit() {
+		if (--compoundDepth > 0)
+			return;
+		int start = compoundStart;
+		compoundStart = -1;
+		if (start >= 0 && start < records)
+			addStep(start);
+	}
+
+	private void recorded(int kind, int offset, String text) {
+		if (applying || text.length() == 0)
+			return;
+		if (current < steps) {
+			// A change after undoing forgets what was undone
+			records = stepStarts[current];
+			steps = current;
+			buffer.setLength(records == 0 ? 0 : textStarts[records - 1] + textLengths[records - 1]);
+			if (compoundStart > records)
+				compoundStart = records;
+			mergeable = false;
+		}
+		ensureRecordCapacity(records + 1);
+		kinds[records] = kind;
+		offsets[records] = offset;
+		textStarts[records] = buffer.length();
+		textLengths[records] = text.length();
+		buffer.append(text);
+		records++;
+		if (compoundDepth == 0)
+			addStep(records - 1);
+	}
+
+	/**
+	 * Makes the records from the given one on into a step, or adds
+	 * them to the last step if they continue what it was typing or
+	 * deleting.
+	 */
+	private void addStep(int start) {
+		int kind = kindOf(start);
+		if (mergeable && current > 0 && kind != EDIT && stepKinds[current - 1] == kind && continues(records - 2, start)) {
+			if (kind == TYPING) {
+				// The text follows on in the buffer, so it is one record
+				textLengths[start - 1] += textLengths[start];
+				records--;
+			}
+		} else {
+			ensureStepCapacity(steps + 1);
+			stepStarts[steps] = start;
+			stepKinds[steps] = kind;
+			steps++;
+			current = steps;
+		}
+		mergeable = (kind != EDIT);
+		trim();
+		fireChanged();
+	}
+
+	/**
+	 * Returns whether the records from the given one on are typing
+	 * (one character, or a new line and its indentation), deleting
+	 * (one character) or something else.
+	 */
+	private int kindOf(int start) {
+		if (start != records - 1)
+			return EDIT;
+		int length = textLengths[start];
+		if (kinds[start] == REMOVE)
+			return (length == 1 ? DELETING : EDIT);
+		if (length == 1)
+			return TYPING;
+		char first = buffer.charAt(textStarts[start]);
+		if (first != '\n')
+			return EDIT;
+		for (int i = 1; i < length; i++) {
+			if (!Character.isWhitespace(buffer.charAt(textStarts[start] + i)))
+				return EDIT;
+		}
+		return TYPING;
+	}
+
+	/**
+	 * Returns whether the record next carries on from the record
+	 * previous in the same place, without starting a new word.
+	 */
+	private boolean continues(int previous, int next) {
+		if (previous < 0)
+			return false;
+		char last = buffer.charAt(textStarts[previous] + textLengths[previous] - 1);
+		char first = buffer.charAt(textStarts[next]);
+		if (Character.isWhitespace(last) && !Character.isWhitespace(first))
+			return false;
+		if (kinds[next] == INSERT)
+			return kinds[previous] == INSERT && offsets[next] == offsets[previous] + textLengths[previous];
+		// Backspace removes the character before the last one, delete the one after
+		return kinds[previous] == REMOVE && (offsets[next] == offsets[previous] - 1 || offsets[next] == offsets[previous]);
+	}
+
+	/**
+	 * Forgets the oldest steps while we are over the memory limit,
+	 * down to three quarters of it so this does not happen on every
+	 * keystroke.
+	 */
+	private void trim() {
+		if (bytes() <= maxBytes || compoundDepth > 0)
+			return;
+		int drop = 0;
+		long dropped = 0;
+		while (drop < current - 1 && bytes() - dropped > maxBytes * 3 / 4) {
+			for (int i = stepStarts[drop]; i < stepEnd(drop); i++)
+				dropped += 2L * textLengths[i] + RECORD_BYTES;
+			drop++;
+		}
+		if (drop == 0)
+			return;
+		int firstRecord = stepStarts[drop];
+		int firstChar = textStarts[firstRecord];
+		buffer.delete(0, firstChar);
+		System.arraycopy(kinds, firstRecord, kinds, 0, records - firstRecord);
+		System.arraycopy(offsets, firstRecord, offsets, 0, records - firstRecord);
+		System.arraycopy(textStarts, firstRecord, textStarts, 0, records - firstRecord);
+		System.arraycopy(textLengths, firstRecord, textLengths, 0, records - firstRecord);
+		records -= firstRecord;
+		for (int i = 0; i < records; i++)
+			textStarts[i] -= firstChar;
+		System.arraycopy(stepStarts, drop, stepStarts, 0, steps - drop);
+		System.arraycopy(stepKinds, drop, stepKinds, 0, steps - drop);
+		steps -= drop;
+		current -= drop;
+		for (int i = 0; i < steps; i++)
+			stepStarts[i] -= firstRecord;
+	}
+
+	private void fireChanged() {
+		if (listener != null)
+			listener.stateChanged(new ChangeEvent(this));
+	}
+
+	private long bytes() {
+		return 2L * buffer.length() + (long)RECORD_BYTES * records;
+	}
+
+	private int stepEnd(int step) {
+		return (step + 1 < steps ? stepStarts[step + 1] : records);
+	}
+
+	private String getText(int record) {
+		return buffer.substring(textStarts[record], textStarts[record] + textLengths[record]);
+	}
+
+	private void ensureRecordCapacity(int n) {
+		if (n <= kinds.length)
+			return;
+		int size = Math.max(n, kinds.length * 2);
+		kinds = grow(kinds, size);
+		offsets = grow(offsets, size);
+		textStarts = grow(textStarts, size);
+		textLengths = grow(textLengths, size);
+	}
+
+	private void ensureStepCapacity(int n) {
+		if (n <= stepStarts.length)
+			return;
+		int size = Math.max(n, stepStarts.length * 2);
+		stepStarts = grow(stepStarts, size);
+		stepKinds = grow(stepKinds, size);
+	}
+
+	private static int[] grow(int[] array, int size) {
+		int[] grown = new int[size];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	/**
+	 * A document that tells the journal about every change.  The text
+	 * of a removal is read just before it goes.
+	 */
+	private class Journaled extends SyntaxDocument {
+
+		@Override
+		protected void insertUpdate(DefaultDocumentEvent chng, AttributeSet attr) {
+			super.insertUpdate(chng, attr);
+			try {
+				recorded(INSERT, chng.getOffset(), getText(chng.getOffset(), chng.getLength()));
+			} catch (BadLocationException e) {
+				e.printStackTrace();
+			}
+		}
+
+		@Override
+		protected void removeUpdate(DefaultDocumentEvent chng) {
+			try {
+				recorded(REMOVE, chng.getOffset(), getText(chng.getOffset(), chng.getLength()));
+			} catch (BadLocationException e) {
+				e.printStackTrace();
+			}
+			super.removeUpdate(chng);
+		}
+
+		@Override
+		public void insertString(int offs, String str, AttributeSet a) throws BadLocationException {
+			// What we put back is put back exactly, without indenting it
+			boolean autoIndent = isAutoIndent();
+			if (applying)
+				setAutoIndent(false);
+			try {
+				super.insertString(offs, str, a);
+			} finally {
+				setAutoIndent(autoIndent);
+			}
+		}
+
+		@Override
+		public void beginCompoundEdit() {
+			UndoJournal.this.beginCompoundEdit();
+		}
+
+		@Override
+		public void endCompoundEdit() {
+			UndoJournal.this.endCompoundEdit();
+		}
+	}
+
+}
@@ -0,0 +1,242 @@
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import data_structures.Function;
+import data_structures.Termination;
+import data_structures.VerificationAtomCollection;
+import data_structures.VerificationResult;
+import language.ContractTester;
+import language.Node;
+import language.PiParser;
+import language.PiSyntaxException;
+
+/**
+ * What every open document shares when it talks to the server:
+ * a response parser for each compile thread, one bounded pool of threads that run
+ * compiles (so verifying many files at once never opens more
+ * than verify_threads connections), and a cache of recent
+ * answers keyed by the request that produced them, backed by a
+ * ResultStore so answers survive a restart.
+ */
+public class VerificationService {
+
+	// The parsers are not thread-safe, so each compile thread has its own.
+	private static ThreadLocal<ServerResponseParser> serverResponseParser = new ThreadLocal<ServerResponseParser>() {
+		@Override
+		protected ServerResponseParser initialValue() {
+			return new ServerResponseParser();
+		}
+	};
+	private static ThreadLocal<BinaryResponseReader> binaryResponseReader = new ThreadLocal<BinaryResponseReader>() {
+		@Override
+		protected BinaryResponseReader initialValue() {
+			return new BinaryResponseReader();
+		}
+	};
+	private static ThreadPoolExecutor executor;
+	private static ResultCache resultCache;
+	private static ResultStore resultStore;
+
+	/**
+	 * Returns the calling thread's xml response parser.
+	 */
+	public static ServerResponseParser getServerResponseParser() {
+		return serverResponseParser.get();
+	}
+
+	/**
+	 * Returns the calling thread's binary response reader.
+	 */
+	public static BinaryResponseReader getBinaryResponseReader() {
+		return binaryResponseReader.get();
+	}
+
+	/**
+	 * Runs the compile on the shared pool.  If every thread is busy it
+	 * waits its turn in the order it was submitted.
+	 */
+	public static synchronized void execute(Runnable compile) {
+		if (executor == null) {
+			int threads = Math.max(1, getIntValue("verify_threads", 4));
+			executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				private int count = 0;
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "Compiler-" + (++count));
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			executor.allowCoreThreadTimeOut(true);
+		}
+		executor.execute(compile);
+	}
+
+	/**
+	 * Returns a key identifying the request to the server at the given
+	 * address, which includes the code and every option that can change
+	 * the answer.  Different servers may answer differently, for example
+	 * when one has a newer prover, so their answers are kept apart.
+	 */
+	public static String keyOf(String serverAddress, RequestWriter request) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(serverAddress.getBytes("UTF-8"));
+			digest.update((byte)0);
+			digest.update(request.getBuffer(), Transmission.HEADER_LENGTH, request.getLength() - Transmission.HEADER_LENGTH);
+			byte[] hash = digest.digest();
+			StringBuilder key = new StringBuilder(hash.length * 2);
+			for (byte b: hash) {
+				key.append(Character.forDigit((b >> 4) & 0xf, 16));
+				key.append(Character.forDigit(b & 0xf, 16));
+			}
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		} catch (UnsupportedEncodingException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the server's answer to an earlier request with the given
+	 * key, or null if we don't have it.  This may read from disk, so
+	 * it should not be called on the Swing thread.
+	 */
+	public static byte[] getCachedResult(String key) {
+		byte[] response = getResultCache().get(key);
+		if (response == null) {
+			response = getResultStore().get(key);
+			if (response != null)
+				getResultCache().put(key, response);
+		}
+		return response;
+	}
+
+	public static void cacheResult(String key, byte[] response) {
+		getResultCache().put(key, response);
+		getResultStore().put(key, response);
+	}
+
+	/**
+	 * Returns true if the server would give the same answer to the
+	 * same request: a verification result in which nothing timed out,
+	 * or errors in the program.  Messages (which is how a busy server
+	 * turns us away) and errors in the compiler itself are not.
+	 */
+	public static boolean isRepeatable(ServerResponse response) {
+		if (response == null || response.getMessages() != null || response.getCompilerError() != null)
+			return false;
+		VerificationResult result = response.getVerificationResult();
+		if (result == null)
+			return response.getErrors() != null;
+		for (int i = 0; i < result.getNumFunctions(); i++) {
+			Function function = result.getFunction(i);
+			if (hasTimeout(function.getCorrectness()))
+				return false;
+			Termination termination = function.getTermination();
+			if (termination != null && (hasTimeout(termination.getDecreasing()) || hasTimeout(termination.getNonnegative())))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean hasTimeout(VerificationAtomCollection collection) {
+		for (int i = 0; i < collection.getNumAtoms(); i++) {
+			if (collection.getAtom(i).getValidity() == VerificationResult.validityT.TIMEOUT)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Tests the contracts of the functions in the first limit
+	 * characters of the code (see ContractTester), and returns a
+	 * result showing the counterexamples, or null if we found none.
+	 * The program is the code's syntax tree, if we have already
+	 * parsed it, or null.  This takes up to test_contracts_ms, or
+	 * until cancelled is set, so it should not be called on the Swing
+	 * thread.
+	 */
+	public static VerificationResult findCounterexamples(String code, Node program, String filename, int limit, AtomicBoolean cancelled) {
+		if (!Config.getBooleanValue("test_contracts_locally"))
+			return null;
+		try {
+			if (program == null)
+				program = new PiParser().parse(code);
+			return ContractTester.test(program, code, filename, limit, Math.max(0, getIntValue("test_contracts_ms", 10)), cancelled);
+		} catch (PiSyntaxException e) {
+			return null;
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	private static synchronized ResultCache getResultCache() {
+		if (resultCache == null)
+			resultCache = new ResultCache(Math.max(0, getIntValue("result_cache_size", 8 * 1024 * 1024)));
+		return resultCache;
+	}
+
+	private static synchronized ResultStore getResultStore() {
+		if (resultStore == null) {
+			String location = Config.getValue("result_store_location");
+			long size = (location.length() == 0 ? 0 : Math.max(0, getIntValue("result_store_size", 64 * 1024 * 1024)));
+			resultStore = new ResultStore(new File(location), size);
+		}
+		return resultStore;
+	}
+
+	private static int getIntValue(String key, int defaultValue) {
+		try {
+			return Integer.parseInt(Config.getValue(key).trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * A least-recently-used map from request keys to responses,
+	 * bounded by the total size of the responses.
+	 */
+	private static class ResultCache {
+
+		private LinkedHashMap<String,byte[]> entries = new LinkedHashMap<String,byte[]>(16, 0.75f, true);
+		private long maxBytes;
+		private long bytes;
+
+		public ResultCache(long maxBytes) {
+			this.maxBytes = maxBytes;
+		}
+
+		public synchronized byte[] get(String key) {
+			return entries.get(key);
+		}
+
+		public synchronized void put(String key, byte[] response) {
+			if (response.length > maxBytes)
+				return;
+			byte[] old = entries.put(key, response);
+			if (old != null)
+				bytes -= old.length;
+			bytes += response.length;
+			Iterator<Map.Entry<String,byte[]>> it = entries.entrySet().iterator();
+			while (bytes > maxBytes && it.hasNext()) {
+				bytes -= it.next().getValue().length;
+				it.remove();
+			}
+		}
+
+	}
+
+}
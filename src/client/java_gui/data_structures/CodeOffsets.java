@@ -0,0 +1,70 @@
+package data_structures;
+
+/**
+ * Turns the positions the server reports into positions in the code
+ * we sent it.  The server counts bytes of the UTF-8 encoding, while
+ * the editor counts characters, so the two differ once the code
+ * contains anything but ASCII.
+ */
+public class CodeOffsets {
+
+	private final int[] charOfByte;  // null if every character is one byte
+
+	public CodeOffsets(String code) {
+		int numBytes = 0;
+		for (int i = 0; i < code.length(); ) {
+			int codePoint = code.codePointAt(i);
+			numBytes += utf8Length(codePoint);
+			i += Character.charCount(codePoint);
+		}
+		if (numBytes == code.length()) {
+			charOfByte = null;
+			return;
+		}
+		charOfByte = new int[numBytes + 1];
+		int b = 0;
+		for (int i = 0; i < code.length(); ) {
+			int codePoint = code.codePointAt(i);
+			for (int n = utf8Length(codePoint); n > 0; n--)
+				charOfByte[b++] = i;
+			i += Character.charCount(codePoint);
+		}
+		charOfByte[b] = code.length();
+	}
+
+	/**
+	 * Returns the offset of the character that the given byte is part of.
+	 */
+	public int charOffset(int byteOffset) {
+		if (charOfByte == null || byteOffset < 0)
+			return byteOffset;
+		return charOfByte[Math.min(byteOffset, charOfByte.length - 1)];
+	}
+
+	/**
+	 * Makes a location from the byte offsets and (zero-based, byte)
+	 * columns the server sent.
+	 */
+	public Location makeLocation(int startByte, int startRow, int startCol, int endByte, int endRow, int endCol) {
+		if (charOfByte == null)
+			return new Location(startByte, startRow, startCol, endByte, endRow, endCol);
+		return new Location(charOffset(startByte), startRow, charColumn(startByte, startCol),
+				charOffset(endByte), endRow, charColumn(endByte, endCol));
+	}
+
+	private int charColumn(int byteOffset, int byteColumn) {
+		return charOffset(byteOffset) - charOffset(byteOffset - byteColumn);
+	}
+
+	public static int utf8Length(int codePoint) {
+		if (codePoint < 0x80)
+			return 1;
+		else if (codePoint < 0x800)
+			return 2;
+		else if (codePoint < 0x10000)
+			return 3;
+		else
+			return 4;
+	}
+
+}
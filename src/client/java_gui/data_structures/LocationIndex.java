@@ -0,0 +1,150 @@
+package data_structures;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * A reverse index from source positions to the objects of a
+ * VerificationResult (functions, verification atoms, steps,
+ * conjuncts and counterexample variables) whose locations
+ * cover them.
+ * The entries are sorted by their start byte and laid out as an
+ * implicit balanced tree in which each node knows the largest end
+ * byte below it, so a lookup costs O(log n + k).
+ */
+public class LocationIndex {
+
+	private int[] starts;
+	private int[] ends;
+	private Object[] owners;
+	private int[] maxEnds;  // largest end byte in the subtree rooted at each index
+
+	public LocationIndex(VerificationResult verificationResult) {
+		ArrayList<Entry> entries = new ArrayList<Entry>();
+		for (int i = 0; i < verificationResult.getNumFunctions(); i++)
+			addFunction(verificationResult.getFunction(i), entries);
+		Entry[] sorted = entries.toArray(new Entry[0]);
+		Arrays.sort(sorted, new Comparator<Entry>() {
+			public int compare(Entry a, Entry b) {
+				return a.start - b.start;
+			}
+		});
+		int n = sorted.length;
+		starts = new int[n];
+		ends = new int[n];
+		owners = new Object[n];
+		maxEnds = new int[n];
+		for (int i = 0; i < n; i++) {
+			starts[i] = sorted[i].start;
+			ends[i] = sorted[i].end;
+			owners[i] = sorted[i].owner;
+		}
+		computeMaxEnds(0, n);
+	}
+
+	/**
+	 * Returns the objects whose locations cover the given offset,
+	 * innermost (shortest location) first.  An object with several
+	 * locations (such as a verification atom) appears only once.
+	 */
+	public List<Object> getObjectsCovering(int offset) {
+		ArrayList<Integer> hits = new ArrayList<Integer>();
+		query(0, starts.length, offset, hits);
+		Integer[] sorted = hits.toArray(new Integer[0]);
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return (ends[a] - starts[a]) - (ends[b] - starts[b]);
+			}
+		});
+		IdentityHashMap<Object,Object> seen = new IdentityHashMap<Object,Object>();
+		ArrayList<Object> objects = new ArrayList<Object>();
+		for (Integer hit: sorted) {
+			Object owner = owners[hit];
+			if (seen.put(owner, owner) == null)
+				objects.add(owner);
+		}
+		return objects;
+	}
+
+	public int getNumLocations() {
+		return starts.length;
+	}
+
+	private void query(int lo, int hi, int offset, List<Integer> hits) {
+		if (lo >= hi)
+			return;
+		int mid = (lo + hi) >>> 1;
+		if (maxEnds[mid] < offset)  // nothing in this subtree reaches the offset
+			return;
+		query(lo, mid, offset, hits);
+		if (starts[mid] > offset)  // everything to the right starts even later
+			return;
+		if (ends[mid] >= offset)
+			hits.add(Integer.valueOf(mid));
+		query(mid + 1, hi, offset, hits);
+	}
+
+	private int computeMaxEnds(int lo, int hi) {
+		if (lo >= hi)
+			return Integer.MIN_VALUE;
+		int mid = (lo + hi) >>> 1;
+		int max = Math.max(ends[mid], Math.max(computeMaxEnds(lo, mid), computeMaxEnds(mid + 1, hi)));
+		maxEnds[mid] = max;
+		return max;
+	}
+
+	private void addFunction(Function function, List<Entry> entries) {
+		add(function.getLocation(), function, entries);
+		addVerificationAtomCollection(function.getCorrectness(), entries);
+		Termination termination = function.getTermination();
+		if (termination != null) {
+			addVerificationAtomCollection(termination.getDecreasing(), entries);
+			addVerificationAtomCollection(termination.getNonnegative(), entries);
+		}
+	}
+
+	private void addVerificationAtomCollection(VerificationAtomCollection collection, List<Entry> entries) {
+		for (int i = 0; i < collection.getNumAtoms(); i++) {
+			VerificationAtom atom = collection.getAtom(i);
+			for (Location location: atom.getLocations())
+				add(location, atom, entries);
+			BasicPath bp = atom.getBP();
+			if (bp != null) {
+				for (int s = 0; s < bp.getNumSteps(); s++)
+					add(bp.getStep(s).getLocation(), bp.getStep(s), entries);
+			}
+			for (Conjunct[] implies: atom.getVC().getConjuncts()) {
+				for (Conjunct conjunct: implies)
+					add(conjunct.getLocation(), conjunct, entries);
+			}
+			Counterexample counterexample = atom.getCounterexample();
+			if (counterexample != null) {
+				for (int v = 0; v < counterexample.getNumVariables(); v++) {
+					Counterexample.Variable variable = counterexample.getVariable(v);
+					add(variable.getLocation(), variable, entries);
+				}
+			}
+		}
+	}
+
+	private void add(Location location, Object owner, List<Entry> entries) {
+		if (location == null || location.isDummy())
+			return;
+		entries.add(new Entry(location.getStartByte(), location.getEndByte(), owner));
+	}
+
+	private static class Entry {
+		private int start, end;
+		private Object owner;
+
+		public Entry(int start, int end, Object owner) {
+			this.start = start;
+			this.end = end;
+			this.owner = owner;
+		}
+	}
+
+}
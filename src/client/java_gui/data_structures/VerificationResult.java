@@ -9,6 +9,7 @@ public class VerificationResult {
 	private String filename;
 	private validityT validity;
 	private ArrayList<Function> functions;
+	private LocationIndex locationIndex;
 	
 	public VerificationResult(String filename, validityT validity, ArrayList<Function> functions) {
 		this.filename = filename;
@@ -31,6 +32,16 @@ public class VerificationResult {
 	public Function getFunction(int index) {
 		return functions.get(index);
 	}
+	
+	/**
+	 * Returns the index from source offsets to the objects
+	 * in this result, building it the first time it is needed.
+	 */
+	public synchronized LocationIndex getLocationIndex() {
+		if (locationIndex == null)
+			locationIndex = new LocationIndex(this);
+		return locationIndex;
+	}
 
 	public static validityT parseValidity(String str) {
 		if (str.equalsIgnoreCase("valid")){
@@ -0,0 +1,313 @@
+package language;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import data_structures.BasicPath;
+import data_structures.Conjunct;
+import data_structures.Counterexample;
+import data_structures.Function;
+import data_structures.Step;
+import data_structures.VerificationAtom;
+import data_structures.VerificationAtomCollection;
+import data_structures.VerificationCondition;
+import data_structures.VerificationResult;
+
+/**
+ * Looks for counterexamples to a program's contracts by running its
+ * functions (see Interpreter) before the program goes to the server.
+ * A wrong invariant or postcondition is usually wrong on some small
+ * input, so each function is run on every small input first and
+ * then on a few random ones, for at most the time allowed, spread
+ * over a fork/join pool.  Of the failures found for a function we keep
+ * the one from the earliest input, so the same code gets the same
+ * counterexample however the work was spread.
+ *
+ * Only functions whose parameters are ints, bools and arrays of them
+ * are tested.
+ */
+public class ContractTester {
+
+	private static final long[] SMALL_INTS = { -1, 0, 1, 2, 3 };
+	private static final int SMALL_LENGTH = 3, SMALL_ELEMENT = 2;  // the longest array and largest element tried in turn
+	private static final int EXHAUSTIVE_TESTS = 20000, CHUNK = 32;
+	private static final int RANDOM_TESTS = 1000, RANDOM_TESTS_PER_SMALL = 10;  // at most, and for each small input
+
+	private static ForkJoinPool pool;
+
+	/**
+	 * Tests the functions that start before limit in the given
+	 * program, parsed from the given code, for at most the given
+	 * number of milliseconds, or until cancelled is set.  Returns a
+	 * result holding the functions that failed, with the
+	 * counterexamples, or null if none did.
+	 */
+	public static VerificationResult test(Node program, String code, String filename, int limit, long millis, AtomicBoolean cancelled) {
+		Interpreter interpreter = new Interpreter(SemanticChecker.getIncludes(), program);
+		long deadline = System.nanoTime() + millis * 1000000;
+		final ArrayList<Search> searches = new ArrayList<Search>();
+		ArrayList<Campaign> campaigns = new ArrayList<Campaign>();
+		for (int i = 0; i < program.getChildCount(); i++) {
+			Node decl = program.getChild(i);
+			if (decl.getKind() != Node.FN_DECL || decl.getStart() >= limit)
+				continue;
+			Campaign campaign = Campaign.of(decl);
+			if (campaign == null)
+				continue;
+			campaigns.add(campaign);
+			searches.add(new Search(interpreter, campaign, 0, campaign.size(), deadline, cancelled));
+		}
+		if (searches.isEmpty())
+			return null;
+		getPool().invoke(new RecursiveAction() {
+			@Override
+			protected void compute() {
+				invokeAll(searches);
+			}
+		});
+		if (cancelled.get())
+			return null;
+		LineMap lines = new LineMap(code);
+		ArrayList<Function> functions = new ArrayList<Function>();
+		for (Campaign campaign: campaigns) {
+			if (campaign.failure != null)
+				functions.add(describe(campaign.failure, lines));
+		}
+		if (functions.isEmpty())
+			return null;
+		return new VerificationResult(filename, VerificationResult.validityT.INVALID, functions);
+	}
+
+	private static synchronized ForkJoinPool getPool() {
+		if (pool == null)
+			pool = new ForkJoinPool();
+		return pool;
+	}
+
+	/**
+	 * Makes a failure into a function whose correctness has one
+	 * invalid basic path, as the server would report it.
+	 */
+	private static Function describe(Interpreter.Failure failure, LineMap lines) {
+		ArrayList<Step> steps = new ArrayList<Step>();
+		for (Interpreter.PathStep step: failure.path)
+			steps.add(new Step(step.type, step.text, lines.getLocation(step.node)));
+		Conjunct[][] conjuncts = {
+			{ new Conjunct(SemanticChecker.show(failure.from), null, null, lines.getLocation(failure.from)) },
+			{ new Conjunct(SemanticChecker.show(failure.goal), null, null, lines.getLocation(failure.goal)) }
+		};
+		HashMap<String,Node> decls = new HashMap<String,Node>();
+		findDecls(failure.function, decls);
+		ArrayList<Counterexample.Variable> variables = new ArrayList<Counterexample.Variable>();
+		for (Map.Entry<String,Object> variable: failure.variables.entrySet()) {
+			Node decl = decls.get(variable.getKey());
+			variables.add(new Counterexample.Variable(variable.getKey() + " = " + Interpreter.format(variable.getValue()),
+					decl == null ? null : lines.getLocation(decl)));
+		}
+		VerificationResult.validityT invalid = VerificationResult.validityT.INVALID;
+		ArrayList<VerificationAtom> atoms = new ArrayList<VerificationAtom>();
+		atoms.add(new VerificationAtom(new BasicPath(steps), new VerificationCondition(conjuncts, invalid), invalid,
+				new Counterexample(variables), failure.fromName + " \\u2192 " + failure.goalName + " (found by testing)",
+				lines.getLocation(failure.goal)));
+		Node function = failure.function;
+		return new Function(function.getChild(1).getName(), invalid,
+				new VerificationAtomCollection(invalid, atoms, "Correctness"), null, lines.getLocation(function));
+	}
+
+	/**
+	 * Finds the first declaration of each name in a function, for the
+	 * locations of the variables in a counterexample.
+	 */
+	private static void findDecls(Node node, HashMap<String,Node> decls) {
+		if (node.getKind() == Node.VAR_DECL && !decls.containsKey(node.getChild(1).getName()))
+			decls.put(node.getChild(1).getName(), node);
+		for (int i = 0; i < node.getChildCount(); i++) {
+			if (node.getChild(i) != null)
+				findDecls(node.getChild(i), decls);
+		}
+	}
+
+	/**
+	 * The inputs we try on one function, numbered: first every
+	 * combination of small values, then random ones.  Larger values
+	 * rarely break a contract that every small one keeps, so we only
+	 * try RANDOM_TESTS_PER_SMALL random inputs for each small one.
+	 */
+	private static class Campaign {
+		private final Node function;
+		private final Node[] types;
+		private final Object[][] smallValues;
+		private final long exhaustive;  // how many inputs are small ones
+		private final boolean complete;  // whether they are all the inputs there are
+		private long failedAt = Long.MAX_VALUE;
+		private Interpreter.Failure failure;
+
+		private Campaign(Node function, Node[] types, Object[][] smallValues, long exhaustive, boolean complete) {
+			this.function = function;
+			this.types = types;
+			this.smallValues = smallValues;
+			this.exhaustive = exhaustive;
+			this.complete = complete;
+		}
+
+		/**
+		 * Returns the campaign for a function, or null if we cannot
+		 * make up values for its parameters.
+		 */
+		public static Campaign of(Node function) {
+			Node params = function.getChild(2);
+			Node[] types = new Node[params.getChildCount()];
+			Object[][] smallValues = new Object[types.length][];
+			long exhaustive = 1;
+			boolean complete = true;
+			for (int i = 0; i < types.length; i++) {
+				types[i] = params.getChild(i).getChild(0);
+				smallValues[i] = smallValues(types[i]);
+				if (smallValues[i] == null)
+					return null;
+				exhaustive = Math.min(exhaustive * smallValues[i].length, EXHAUSTIVE_TESTS + 1);
+				complete &= (types[i].getKind() == Node.BOOL_TYPE);
+			}
+			if (exhaustive > EXHAUSTIVE_TESTS) {
+				exhaustive = EXHAUSTIVE_TESTS;
+				complete = false;
+			}
+			return new Campaign(function, types, smallValues, exhaustive, complete);
+		}
+
+		public long size() {
+			return exhaustive + (complete ? 0 : Math.min(RANDOM_TESTS, exhaustive * RANDOM_TESTS_PER_SMALL));
+		}
+
+		public Object[] inputs(long number) {
+			Object[] inputs = new Object[types.length];
+			if (number < exhaustive) {
+				for (int i = types.length - 1; i >= 0; i--) {
+					inputs[i] = smallValues[i][(int)(number % smallValues[i].length)];
+					number /= smallValues[i].length;
+				}
+			} else {
+				Random random = new Random(number * 0x9E3779B97F4A7C15L);
+				for (int i = 0; i < types.length; i++)
+					inputs[i] = randomValue(types[i], random);
+			}
+			return inputs;
+		}
+
+		public synchronized long getFailedAt() {
+			return failedAt;
+		}
+
+		public synchronized void failed(long number, Interpreter.Failure failure) {
+			if (number < failedAt) {
+				failedAt = number;
+				this.failure = failure;
+			}
+		}
+	}
+
+	private static Object[] smallValues(Node type) {
+		switch (type.getKind()) {
+		case Node.INT_TYPE:
+			Object[] ints = new Object[SMALL_INTS.length];
+			for (int i = 0; i < ints.length; i++)
+				ints[i] = Long.valueOf(SMALL_INTS[i]);
+			return ints;
+		case Node.BOOL_TYPE:
+			return new Object[] { Boolean.FALSE, Boolean.TRUE };
+		case Node.ARRAY_TYPE:
+			Object[] elements = smallValues(type.getChild(0));
+			if (elements == null || type.getChild(0).getKind() == Node.ARRAY_TYPE)
+				return null;
+			if (type.getChild(0).getKind() == Node.INT_TYPE)
+				elements = Arrays.copyOfRange(elements, 1, 2 + SMALL_ELEMENT);  // 0 up to SMALL_ELEMENT
+			ArrayList<Object> arrays = new ArrayList<Object>();
+			for (int length = 0; length <= SMALL_LENGTH; length++)
+				addArrays(new Object[length], 0, elements, arrays);
+			return arrays.toArray();
+		default:
+			return null;
+		}
+	}
+
+	private static void addArrays(Object[] array, int from, Object[] elements, ArrayList<Object> arrays) {
+		if (from == array.length) {
+			arrays.add(array.clone());
+			return;
+		}
+		for (Object element: elements) {
+			array[from] = element;
+			addArrays(array, from + 1, elements, arrays);
+		}
+	}
+
+	/**
+	 * Makes up a value of the given type.  Ints are mostly small, and
+	 * half the arrays of ints are sorted, since so many
+	 * preconditions ask for that.
+	 */
+	private static Object randomValue(Node type, Random random) {
+		switch (type.getKind()) {
+		case Node.INT_TYPE:
+			return Long.valueOf(random.nextInt(4) == 0 ? random.nextInt(101) - 50 : random.nextInt(17) - 8);
+		case Node.BOOL_TYPE:
+			return Boolean.valueOf(random.nextBoolean());
+		default:
+			Node element = type.getChild(0);
+			Object[] array = new Object[random.nextInt(9)];
+			for (int i = 0; i < array.length; i++)
+				array[i] = randomValue(element, random);
+			if (element.getKind() == Node.INT_TYPE && random.nextBoolean())
+				Arrays.sort(array);
+			return array;
+		}
+	}
+
+	/**
+	 * Runs a range of a campaign's inputs, split in halves until the
+	 * pieces are small.  It stops once time is up or the test is
+	 * cancelled, and does not try inputs after one that has already
+	 * failed.
+	 */
+	private static class Search extends RecursiveAction {
+		private final Interpreter interpreter;
+		private final Campaign campaign;
+		private final long from, to, deadline;
+		private final AtomicBoolean cancelled;
+
+		public Search(Interpreter interpreter, Campaign campaign, long from, long to, long deadline, AtomicBoolean cancelled) {
+			this.interpreter = interpreter;
+			this.campaign = campaign;
+			this.from = from;
+			this.to = to;
+			this.deadline = deadline;
+			this.cancelled = cancelled;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > CHUNK) {
+				long middle = (from + to) >>> 1;
+				invokeAll(new Search(interpreter, campaign, from, middle, deadline, cancelled),
+						new Search(interpreter, campaign, middle, to, deadline, cancelled));
+				return;
+			}
+			for (long number = from; number < to; number++) {
+				if (number >= campaign.getFailedAt() || System.nanoTime() - deadline > 0 || cancelled.get())
+					return;
+				Interpreter.Failure failure = interpreter.run(campaign.function, campaign.inputs(number), deadline);
+				if (failure != null) {
+					campaign.failed(number, failure);
+					return;
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,861 @@
+package language;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * Runs Pi functions on concrete inputs, checking their annotations
+ * on the way: each loop invariant every time round, the assertions,
+ * the preconditions of the functions called and, at the end, the
+ * postcondition.  An annotation that is false on a run from an input
+ * meeting the precondition makes a basic path the server would find
+ * invalid too, so we only say so when we are sure:
+ * <ul>
+ * <li>Wherever the verifier leaves a value open (an element out of
+ *     bounds or never assigned, a variable never assigned, a global)
+ *     or models it differently (floats, which it takes for reals,
+ *     division that is not exact, overflow), the run gives up.
+ * <li>A quantifier is only taken to hold when its guard bounds each
+ *     variable it ranges over, so that we can try every value that
+ *     matters.  It is found not to hold whenever we try a value for
+ *     which it does not.
+ * <li>A call runs the function called, but the run gives up unless
+ *     the result meets the callee's postcondition, since that is all
+ *     the verifier knows about it.  The callee's own annotations are
+ *     not checked; testing the callee does that.
+ * </ul>
+ * Ranking functions are not checked.
+ *
+ * An int is a Long and a bool a Boolean.  An array is an Object[]
+ * that is never changed once made, since arrays are values in Pi;
+ * an element we know nothing about is null.
+ * An Interpreter can run any number of functions at once.
+ */
+public class Interpreter {
+
+	private static final int MAX_STEPS = 200000, MAX_DEPTH = 100, MAX_INSTANCES = 100000, MAX_PATH = 1000;
+	private static final int MAX_ARRAY = 10000;
+	private static final int SPAN = 10;  // how far we look for a counterexample to a quantifier with no bound
+
+	/**
+	 * A false annotation and how the run got there: the annotation the
+	 * basic path started from, the steps taken since then and the
+	 * variables in scope.
+	 */
+	static class Failure {
+		final Node function;
+		final Node from, goal;  // the expressions of the annotations
+		final String fromName, goalName;
+		final ArrayList<PathStep> path;
+		final LinkedHashMap<String,Object> variables;
+
+		Failure(Node function, Node from, String fromName, Node goal, String goalName, ArrayList<PathStep> path,
+				LinkedHashMap<String,Object> variables) {
+			this.function = function;
+			this.from = from;
+			this.fromName = fromName;
+			this.goal = goal;
+			this.goalName = goalName;
+			this.path = path;
+			this.variables = variables;
+		}
+	}
+
+	/**
+	 * A step of a basic path, written as the server writes it.
+	 */
+	static class PathStep {
+		final String type, text;
+		final Node node;
+
+		PathStep(String type, String text, Node node) {
+			this.type = type;
+			this.text = text;
+			this.node = node;
+		}
+	}
+
+	/**
+	 * Thrown, without a stack trace, to leave a run or part of one.
+	 */
+	private static class Signal extends RuntimeException {
+		@Override
+		public Throwable fillInStackTrace() {
+			return this;
+		}
+	}
+
+	private static class Failed extends Signal {
+		final Failure failure;
+
+		Failed(Failure failure) {
+			this.failure = failure;
+		}
+	}
+
+	private static final Signal UNDEFINED = new Signal();  // a value the verifier leaves open
+	private static final Signal GIVE_UP = new Signal();  // the run has gone on too long
+	private static final Signal BREAK = new Signal(), RETURN = new Signal();
+	private static final Object UNBOUND = new Object();  // a quantified variable not yet given a value
+
+	private HashMap<String,Node> functions = new HashMap<String,Node>();
+	private HashMap<String,Node> predicates = new HashMap<String,Node>();
+	private HashMap<Node,String> annotationNames = new HashMap<Node,String>();
+
+	/**
+	 * Makes an interpreter for the given program, with the
+	 * predicates of included.pi (if not null).
+	 */
+	public Interpreter(Node included, Node program) {
+		if (included != null)
+			addDecls(included);
+		addDecls(program);
+	}
+
+	private void addDecls(Node program) {
+		for (int i = 0; i < program.getChildCount(); i++) {
+			Node decl = program.getChild(i);
+			if (decl.getKind() == Node.FN_DECL) {
+				functions.put(decl.getChild(1).getName(), decl);
+				nameAnnotations(decl);
+			} else if (decl.getKind() == Node.PREDICATE) {
+				predicates.put(decl.getChild(0).getName(), decl);
+			}
+		}
+	}
+
+	/**
+	 * Names the annotations in a function's body as the server's
+	 * semantic checker does: by their label, or else by the function
+	 * and a count.
+	 */
+	private void nameAnnotations(Node function) {
+		ArrayList<Node> annotations = new ArrayList<Node>();
+		findAnnotations(function.getChild(6), annotations);
+		Collections.sort(annotations, new Comparator<Node>() {
+			public int compare(Node a, Node b) {
+				return a.getStart() - b.getStart();
+			}
+		});
+		String prefix = function.getChild(1).getName() + ".";
+		int count = 0;
+		for (Node annotation: annotations)
+			annotationNames.put(annotation, annotation.getName() != null ? annotation.getName() : prefix + count++);
+	}
+
+	private static void findAnnotations(Node node, ArrayList<Node> annotations) {
+		if (node.getKind() == Node.ANNOTATION)
+			annotations.add(node);
+		for (int i = 0; i < node.getChildCount(); i++) {
+			if (node.getChild(i) != null)
+				findAnnotations(node.getChild(i), annotations);
+		}
+	}
+
+	/**
+	 * Runs the function on the given arguments, giving up at the
+	 * deadline (a System.nanoTime()).  Returns how it went wrong, or
+	 * null if it did not: if it met its contract, if the arguments do
+	 * not meet its precondition, or if we could not tell.
+	 */
+	public Failure run(Node function, Object[] args, long deadline) {
+		try {
+			new Run(function, args, deadline).start();
+		} catch (Failed e) {
+			return e.failure;
+		} catch (RuntimeException e) {
+			// Given up, or code the server would not accept.
+		}
+		return null;
+	}
+
+	/**
+	 * Formats a value as it is shown in a counterexample.
+	 */
+	static String format(Object value) {
+		if (value == null)
+			return "?";
+		if (!(value instanceof Object[]))
+			return value.toString();
+		StringBuilder text = new StringBuilder("[");
+		Object[] array = (Object[])value;
+		for (int i = 0; i < array.length; i++)
+			text.append(i > 0 ? ", " : "").append(format(array[i]));
+		return text.append(']').toString();
+	}
+
+	/**
+	 * The state of one run.
+	 */
+	private class Run {
+
+		private final Node function;
+		private final Object[] inputs;
+		private final long deadline;
+		private ArrayList<HashMap<String,Object>> scopes = new ArrayList<HashMap<String,Object>>();
+		private boolean checking = true;  // false while running a function called by the one tested
+		private int steps, depth;
+		private Object returned;
+
+		// The basic path we are on
+		private Node from;
+		private String fromName;
+		private ArrayList<PathStep> path = new ArrayList<PathStep>();
+
+		public Run(Node function, Object[] inputs, long deadline) {
+			this.function = function;
+			this.inputs = inputs;
+			this.deadline = deadline;
+		}
+
+		public void start() {
+			String name = function.getChild(1).getName();
+			Node pre = function.getChild(3).getChild(0);
+			bindParams(function.getChild(2), inputs);
+			if (!Boolean.TRUE.equals(truth(pre)))
+				return;
+			from = pre;
+			fromName = name + ".pre";
+			record("annotation", "@" + fromName + ": " + SemanticChecker.show(pre), pre);
+			Object result = runBody(function);
+			enterScope().put("rv", result);
+			Node post = function.getChild(4).getChild(0);
+			Boolean holds = truth(post);
+			if (holds == null)
+				throw UNDEFINED;
+			if (!holds)
+				fail(post, name + ".post");
+		}
+
+		// Statements
+
+		private void exec(Node stmt) {
+			tick();
+			switch (stmt.getKind()) {
+			case Node.BLOCK:
+				enterScope();
+				try {
+					for (int i = 0; i < stmt.getChildCount(); i++)
+						exec(stmt.getChild(i));
+				} finally {
+					exitScope();
+				}
+				return;
+			case Node.VAR_DECL:
+				scopes.get(scopes.size() - 1).put(stmt.getChild(1).getName(), null);
+				return;
+			case Node.EXPR_STMT:
+				perform(stmt.getChild(0));
+				return;
+			case Node.IF:
+				if (decide(stmt.getChild(0)))
+					exec(stmt.getChild(1));
+				else if (stmt.getChild(2) != null)
+					exec(stmt.getChild(2));
+				return;
+			case Node.WHILE:
+				loop(stmt.getChild(0), null, stmt.getChild(1), stmt.getChild(2));
+				return;
+			case Node.FOR:
+				perform(stmt.getChild(0));
+				loop(stmt.getChild(1), stmt.getChild(2), stmt.getChild(3), stmt.getChild(4));
+				return;
+			case Node.BREAK:
+				throw BREAK;
+			case Node.RETURN:
+				Node value = stmt.getChild(0);
+				if (value.getKind() != Node.EMPTY_EXPR)
+					record("expr", "rv := " + SemanticChecker.show(value), value);
+				returned = (value.getKind() == Node.EMPTY_EXPR ? null : eval(value));
+				throw RETURN;
+			case Node.ASSERT:
+				check(stmt.getChild(0), false);
+				return;
+			default:
+				throw UNDEFINED;
+			}
+		}
+
+		/**
+		 * Counts a step, and gives up if there have been too many or
+		 * time is up.
+		 */
+		private void tick() {
+			if (++steps > MAX_STEPS || ((steps & 1023) == 0 && System.nanoTime() - deadline > 0))
+				throw GIVE_UP;
+		}
+
+		private void perform(Node expr) {
+			if (expr.getKind() == Node.EMPTY_EXPR)
+				return;
+			record("expr", SemanticChecker.show(expr), expr);
+			eval(expr);
+		}
+
+		/**
+		 * Evaluates a condition in the code, and notes which way we
+		 * went.
+		 */
+		private boolean decide(Node condition) {
+			Boolean holds = truth(condition);
+			if (holds == null)
+				throw UNDEFINED;
+			String shown = SemanticChecker.show(condition);
+			record("assume", "Assume " + (holds ? shown : "!(" + shown + ")"), condition);
+			return holds;
+		}
+
+		private void loop(Node condition, Node step, Node body, Node annotation) {
+			while (true) {
+				check(annotation, true);
+				if (!decide(condition))
+					return;
+				try {
+					exec(body);
+				} catch (Signal signal) {
+					if (signal == BREAK)
+						return;
+					throw signal;
+				}
+				if (step != null)
+					perform(step);
+			}
+		}
+
+		/**
+		 * Checks an annotation in the body of the function tested.  A
+		 * loop invariant is where a basic path ends and the next one
+		 * starts.
+		 */
+		private void check(Node annotation, boolean cutPoint) {
+			if (!checking)
+				return;
+			Node expr = annotation.getChild(0);
+			String name = annotationNames.get(annotation);
+			Boolean holds = truth(expr);
+			if (holds == null)
+				throw UNDEFINED;
+			if (!holds)
+				fail(expr, name);
+			if (cutPoint) {
+				path.clear();
+				from = expr;
+				fromName = name;
+			}
+			record("annotation", "@" + name + ": " + SemanticChecker.show(expr), expr);
+		}
+
+		private void record(String type, String text, Node node) {
+			if (checking && path.size() < MAX_PATH)
+				path.add(new PathStep(type, text, node));
+		}
+
+		private void fail(Node goal, String goalName) {
+			record("annotation", "@" + goalName + ": " + SemanticChecker.show(goal), goal);
+			LinkedHashMap<String,Object> variables = new LinkedHashMap<String,Object>();
+			for (HashMap<String,Object> scope: scopes) {
+				for (String name: scope.keySet()) {
+					Object value = scope.get(name);
+					if (value != null && value != UNBOUND)
+						variables.put(name, value);
+				}
+			}
+			throw new Failed(new Failure(function, from, fromName, goal, goalName, path, variables));
+		}
+
+		// Calls
+
+		private Object call(Node call) {
+			String name = call.getChild(0).getName();
+			Object[] args = new Object[call.getChildCount() - 1];
+			for (int i = 0; i < args.length; i++)
+				args[i] = eval(call.getChild(i + 1));
+			Node predicate = predicates.get(name);
+			if (predicate != null) {
+				Boolean holds = holds(predicate, args);
+				if (holds == null)
+					throw UNDEFINED;
+				return holds;
+			}
+			Node callee = functions.get(name);
+			if (callee == null)
+				throw UNDEFINED;
+			return callFunction(callee, args);
+		}
+
+		private Boolean holds(Node predicate, Object[] args) {
+			if (++depth > MAX_DEPTH)
+				throw GIVE_UP;
+			ArrayList<HashMap<String,Object>> callerScopes = scopes;
+			scopes = new ArrayList<HashMap<String,Object>>();
+			try {
+				bindParams(predicate.getChild(1), args);
+				return truth(predicate.getChild(2));
+			} finally {
+				scopes = callerScopes;
+				depth--;
+			}
+		}
+
+		/**
+		 * Calls a function.  If its precondition does not hold and it
+		 * was called by the function tested, that is a failure of the
+		 * function tested.
+		 */
+		private Object callFunction(Node callee, Object[] args) {
+			if (++depth > MAX_DEPTH)
+				throw GIVE_UP;
+			ArrayList<HashMap<String,Object>> callerScopes = scopes;
+			boolean wasChecking = checking;
+			scopes = new ArrayList<HashMap<String,Object>>();
+			try {
+				bindParams(callee.getChild(2), args);
+				Node pre = callee.getChild(3).getChild(0);
+				Boolean pass = truth(pre);
+				if (pass == null || (!pass && !wasChecking))
+					throw UNDEFINED;
+				if (!pass) {
+					scopes = callerScopes;
+					fail(pre, callee.getChild(1).getName() + ".pre");
+				}
+				checking = false;
+				Object result = runBody(callee);
+				enterScope().put("rv", result);
+				if (!Boolean.TRUE.equals(truth(callee.getChild(4).getChild(0))))
+					throw UNDEFINED;
+				return result;
+			} finally {
+				scopes = callerScopes;
+				checking = wasChecking;
+				depth--;
+			}
+		}
+
+		private Object runBody(Node function) {
+			returned = null;
+			try {
+				exec(function.getChild(6));
+			} catch (Signal signal) {
+				if (signal != RETURN)
+					throw signal;
+			}
+			return returned;
+		}
+
+		private void bindParams(Node params, Object[] args) {
+			if (params.getChildCount() != args.length)
+				throw UNDEFINED;
+			HashMap<String,Object> scope = enterScope();
+			for (int i = 0; i < args.length; i++)
+				scope.put(params.getChild(i).getChild(1).getName(), args[i]);
+		}
+
+		// Expressions
+
+		private Object eval(Node expr) {
+			switch (expr.getKind()) {
+			case Node.IDENTIFIER:
+				return lookup(expr.getName());
+			case Node.CONST_INT: case Node.CONST_BOOL:
+				return expr.getValue();
+			case Node.ARRAY_LVAL: {
+				Object[] array = asArray(eval(expr.getChild(0)));
+				Object element = array[index(array, eval(expr.getChild(1)))];
+				if (element == null)
+					throw UNDEFINED;
+				return element;
+			}
+			case Node.ASSIGN: {
+				Object value = eval(expr.getChild(1));
+				assign(expr.getChild(0), value);
+				return value;
+			}
+			case Node.CALL:
+				return call(expr);
+			case Node.PLUS: case Node.MINUS: case Node.TIMES: case Node.DIV: case Node.IDIV: case Node.MOD:
+				return arithmetic(expr.getKind(), asLong(eval(expr.getChild(0))), asLong(eval(expr.getChild(1))));
+			case Node.UMINUS: {
+				long value = asLong(eval(expr.getChild(0)));
+				if (value == Long.MIN_VALUE)
+					throw UNDEFINED;
+				return -value;
+			}
+			case Node.ARRAY_UPDATE: {
+				Object[] array = asArray(eval(expr.getChild(0)));
+				Object[] updated = array.clone();
+				updated[index(array, eval(expr.getChild(1)))] = eval(expr.getChild(2));
+				return updated;
+			}
+			case Node.LENGTH:
+				return Long.valueOf(asArray(eval(expr.getChild(0))).length);
+			case Node.NEW_ARRAY: {
+				long size = asLong(eval(expr.getChild(1)));
+				if (size < 0 || size > MAX_ARRAY)
+					throw UNDEFINED;
+				return new Object[(int)size];
+			}
+			case Node.LT: case Node.LE: case Node.GT: case Node.GE: case Node.EQ: case Node.NE:
+			case Node.AND: case Node.OR: case Node.NOT: case Node.IFF: case Node.IMPLIES:
+			case Node.FORALL: case Node.EXISTS:
+				Boolean holds = truth(expr);
+				if (holds == null)
+					throw UNDEFINED;
+				return holds;
+			default:
+				throw UNDEFINED;
+			}
+		}
+
+		private Object arithmetic(int kind, long a, long b) {
+			long result;
+			switch (kind) {
+			case Node.PLUS:
+				result = a + b;
+				if (((a ^ result) & (b ^ result)) < 0)
+					throw UNDEFINED;
+				return result;
+			case Node.MINUS:
+				result = a - b;
+				if (((a ^ b) & (a ^ result)) < 0)
+					throw UNDEFINED;
+				return result;
+			case Node.TIMES:
+				result = a * b;
+				if (a != 0 && (result / a != b || (a == -1 && b == Long.MIN_VALUE)))
+					throw UNDEFINED;
+				return result;
+			case Node.DIV:
+				// Exact division means the same whatever the verifier takes / for.
+				if (b == 0 || a % b != 0 || (a == Long.MIN_VALUE && b == -1))
+					throw UNDEFINED;
+				return a / b;
+			default:
+				// div and % round differently from Java on negative numbers.
+				if (a < 0 || b <= 0)
+					throw UNDEFINED;
+				return (kind == Node.IDIV ? a / b : a % b);
+			}
+		}
+
+		/**
+		 * Returns whether a bool expression holds, or null if we
+		 * cannot tell.  The connectives are those of three-valued
+		 * logic, so "false && x" is false whatever x is.
+		 */
+		private Boolean truth(Node expr) {
+			Boolean a, b;
+			switch (expr.getKind()) {
+			case Node.CONST_BOOL:
+				return (Boolean)expr.getValue();
+			case Node.AND: case Node.OR:
+				boolean decisive = (expr.getKind() == Node.OR);  // the value that settles it
+				a = truth(expr.getChild(0));
+				if (a != null && a == decisive)
+					return a;
+				b = truth(expr.getChild(1));
+				if (b != null && b == decisive)
+					return b;
+				return (a == null || b == null ? null : a);
+			case Node.IMPLIES:
+				a = truth(expr.getChild(0));
+				if (a != null && !a)
+					return true;
+				b = truth(expr.getChild(1));
+				if (b != null && b)
+					return true;
+				return (a == null || b == null ? null : Boolean.FALSE);
+			case Node.IFF:
+				a = truth(expr.getChild(0));
+				b = truth(expr.getChild(1));
+				return (a == null || b == null ? null : a.booleanValue() == b.booleanValue());
+			case Node.NOT:
+				a = truth(expr.getChild(0));
+				return (a == null ? null : !a);
+			case Node.LT: case Node.LE: case Node.GT: case Node.GE:
+				try {
+					long x = asLong(eval(expr.getChild(0))), y = asLong(eval(expr.getChild(1)));
+					switch (expr.getKind()) {
+					case Node.LT: return x < y;
+					case Node.LE: return x <= y;
+					case Node.GT: return x > y;
+					default: return x >= y;
+					}
+				} catch (Signal signal) {
+					if (signal != UNDEFINED)
+						throw signal;
+					return null;
+				}
+			case Node.EQ: case Node.NE:
+				try {
+					Boolean same = same(eval(expr.getChild(0)), eval(expr.getChild(1)));
+					return (same == null ? null : same == (expr.getKind() == Node.EQ));
+				} catch (Signal signal) {
+					if (signal != UNDEFINED)
+						throw signal;
+					return null;
+				}
+			case Node.FORALL: case Node.EXISTS:
+				return quantify(expr);
+			default:
+				try {
+					Object value = eval(expr);
+					return (value instanceof Boolean ? (Boolean)value : null);
+				} catch (Signal signal) {
+					if (signal != UNDEFINED)
+						throw signal;
+					return null;
+				}
+			}
+		}
+
+		/**
+		 * Returns whether two values are equal, or null if we cannot
+		 * tell.  Arrays are only known to differ, since the verifier's
+		 * arrays have elements beyond their length.
+		 */
+		private Boolean same(Object a, Object b) {
+			if (a instanceof Long && b instanceof Long || a instanceof Boolean && b instanceof Boolean)
+				return a.equals(b);
+			if (a instanceof Object[] && b instanceof Object[]) {
+				Object[] x = (Object[])a, y = (Object[])b;
+				for (int i = 0; i < x.length && i < y.length; i++) {
+					if (x[i] != null && y[i] != null && Boolean.FALSE.equals(same(x[i], y[i])))
+						return false;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Evaluates a quantifier by trying every value of its variables
+		 * that its guard allows: the antecedents of a forall, the
+		 * conjuncts of an exists.
+		 */
+		private Boolean quantify(Node quantifier) {
+			boolean forall = (quantifier.getKind() == Node.FORALL);
+			int n = quantifier.getChildCount() - 1;
+			Node body = quantifier.getChild(n);
+			String[] names = new String[n];
+			HashMap<String,Object> scope = enterScope();
+			try {
+				for (int i = 0; i < n; i++) {
+					names[i] = quantifier.getChild(i).getName();
+					scope.put(names[i], UNBOUND);
+				}
+				ArrayList<Node> guard = new ArrayList<Node>();
+				Node rest = body;
+				if (forall) {
+					for (; rest.getKind() == Node.IMPLIES; rest = rest.getChild(1))
+						conjuncts(rest.getChild(0), guard);
+				} else {
+					conjuncts(rest, guard);
+				}
+				long[] low = new long[n], high = new long[n];
+				boolean bounded = bound(names, guard, low, high);
+				long[] values = new long[n];
+				long count = 1;
+				for (int i = 0; i < n; i++) {
+					if (low[i] == Long.MIN_VALUE)
+						low[i] = (high[i] == Long.MAX_VALUE ? -1 : high[i] - SPAN);
+					if (high[i] == Long.MAX_VALUE)
+						high[i] = low[i] + SPAN;
+					if (high[i] < low[i])
+						return forall;  // nothing meets the guard
+					if (high[i] - low[i] >= MAX_INSTANCES)
+						return null;
+					count *= high[i] - low[i] + 1;
+					if (count > MAX_INSTANCES)
+						return null;
+					values[i] = low[i];
+				}
+				boolean unknown = !bounded;
+				while (true) {
+					tick();
+					for (int i = 0; i < n; i++)
+						scope.put(names[i], Long.valueOf(values[i]));
+					Boolean holds = truth(body);
+					if (holds == null)
+						unknown = true;
+					else if (holds != forall)
+						return holds;
+					int i = n - 1;
+					while (i >= 0 && values[i] == high[i]) {
+						values[i] = low[i];
+						i--;
+					}
+					if (i < 0)
+						break;
+					values[i]++;
+				}
+				return (unknown ? null : forall);
+			} finally {
+				exitScope();
+			}
+		}
+
+		private void conjuncts(Node expr, ArrayList<Node> conjuncts) {
+			if (expr.getKind() == Node.AND) {
+				conjuncts(expr.getChild(0), conjuncts);
+				conjuncts(expr.getChild(1), conjuncts);
+			} else {
+				conjuncts.add(expr);
+			}
+		}
+
+		/**
+		 * Finds bounds on the quantified variables from comparisons in
+		 * the guard, of a variable with something we can evaluate or
+		 * with another of the variables.  A missing bound is
+		 * Long.MIN_VALUE or Long.MAX_VALUE.  Returns whether every
+		 * variable is bounded on both sides.
+		 */
+		private boolean bound(String[] names, ArrayList<Node> guard, long[] low, long[] high) {
+			int n = names.length;
+			Arrays.fill(low, Long.MIN_VALUE);
+			Arrays.fill(high, Long.MAX_VALUE);
+			ArrayList<int[]> order = new ArrayList<int[]>();  // {i, j, d}: variable i + d <= variable j
+			for (Node comparison: guard) {
+				int kind = comparison.getKind();
+				if (kind != Node.LT && kind != Node.LE && kind != Node.GT && kind != Node.GE && kind != Node.EQ)
+					continue;
+				Node left = comparison.getChild(0), right = comparison.getChild(1);
+				if (kind == Node.GT || kind == Node.GE) {
+					Node swap = left;
+					left = right;
+					right = swap;
+					kind = (kind == Node.GT ? Node.LT : Node.LE);
+				}
+				int strict = (kind == Node.LT ? 1 : 0);
+				int l = indexOf(names, left), r = indexOf(names, right);
+				if (l >= 0 && r >= 0) {
+					order.add(new int[] { l, r, strict });
+					if (kind == Node.EQ)
+						order.add(new int[] { r, l, 0 });
+				} else if (l >= 0) {
+					Long value = constant(right);
+					if (value != null) {
+						high[l] = Math.min(high[l], value - strict);
+						if (kind == Node.EQ)
+							low[l] = Math.max(low[l], value);
+					}
+				} else if (r >= 0) {
+					Long value = constant(left);
+					if (value != null) {
+						low[r] = Math.max(low[r], value + strict);
+						if (kind == Node.EQ)
+							high[r] = Math.min(high[r], value);
+					}
+				}
+			}
+			for (int round = 0; round < n; round++) {
+				for (int[] o: order) {
+					if (low[o[0]] != Long.MIN_VALUE)
+						low[o[1]] = Math.max(low[o[1]], low[o[0]] + o[2]);
+					if (high[o[1]] != Long.MAX_VALUE)
+						high[o[0]] = Math.min(high[o[0]], high[o[1]] - o[2]);
+				}
+			}
+			for (int i = 0; i < n; i++) {
+				if (low[i] == Long.MIN_VALUE || high[i] == Long.MAX_VALUE)
+					return false;
+			}
+			return true;
+		}
+
+		private int indexOf(String[] names, Node expr) {
+			if (expr.getKind() == Node.IDENTIFIER) {
+				for (int i = 0; i < names.length; i++) {
+					if (names[i].equals(expr.getName()))
+						return i;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Returns the value of an int expression that does not depend
+		 * on the variables being bounded, or null.  Values near the
+		 * ends of the range of a long are no use as bounds.
+		 */
+		private Long constant(Node expr) {
+			try {
+				Object value = eval(expr);
+				if (value instanceof Long && (Long)value > -Long.MAX_VALUE / 2 && (Long)value < Long.MAX_VALUE / 2)
+					return (Long)value;
+			} catch (Signal signal) {
+				if (signal != UNDEFINED)
+					throw signal;
+			}
+			return null;
+		}
+
+		// Variables
+
+		private HashMap<String,Object> enterScope() {
+			HashMap<String,Object> scope = new HashMap<String,Object>();
+			scopes.add(scope);
+			return scope;
+		}
+
+		private void exitScope() {
+			scopes.remove(scopes.size() - 1);
+		}
+
+		private Object lookup(String name) {
+			for (int i = scopes.size() - 1; i >= 0; i--) {
+				HashMap<String,Object> scope = scopes.get(i);
+				if (scope.containsKey(name)) {
+					Object value = scope.get(name);
+					if (value == null || value == UNBOUND)
+						throw UNDEFINED;
+					return value;
+				}
+			}
+			throw UNDEFINED;  // a global, which could have any value
+		}
+
+		private void assign(Node lvalue, Object value) {
+			if (lvalue.getKind() == Node.ARRAY_LVAL) {
+				Object[] array = asArray(eval(lvalue.getChild(0)));
+				Object[] updated = array.clone();
+				updated[index(array, eval(lvalue.getChild(1)))] = value;
+				assign(lvalue.getChild(0), updated);
+				return;
+			}
+			if (lvalue.getKind() != Node.IDENTIFIER)
+				throw UNDEFINED;
+			for (int i = scopes.size() - 1; i >= 0; i--) {
+				HashMap<String,Object> scope = scopes.get(i);
+				if (scope.containsKey(lvalue.getName())) {
+					scope.put(lvalue.getName(), value);
+					return;
+				}
+			}
+			throw UNDEFINED;
+		}
+
+		private long asLong(Object value) {
+			if (!(value instanceof Long))
+				throw UNDEFINED;
+			return (Long)value;
+		}
+
+		private Object[] asArray(Object value) {
+			if (!(value instanceof Object[]))
+				throw UNDEFINED;
+			return (Object[])value;
+		}
+
+		private int index(Object[] array, Object index) {
+			long i = asLong(index);
+			if (i < 0 || i >= array.length)
+				throw UNDEFINED;
+			return (int)i;
+		}
+	}
+
+}
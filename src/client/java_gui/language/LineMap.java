@@ -0,0 +1,50 @@
+package language;
+
+import data_structures.Location;
+
+/**
+ * Where the lines of some code start, to turn character offsets into
+ * the rows and columns of a Location.
+ */
+public class LineMap {
+
+	private int[] lineStarts = new int[64];
+	private int lines;
+
+	public LineMap(String text) {
+		lineStarts[lines++] = 0;
+		for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) {
+			if (lines == lineStarts.length) {
+				int[] grown = new int[lines * 2];
+				System.arraycopy(lineStarts, 0, grown, 0, lines);
+				lineStarts = grown;
+			}
+			lineStarts[lines++] = i + 1;
+		}
+	}
+
+	/**
+	 * Returns the (zero-based) row of the given offset.
+	 */
+	public int getRow(int offset) {
+		int low = 0, high = lines - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (lineStarts[mid] <= offset)
+				low = mid;
+			else
+				high = mid - 1;
+		}
+		return low;
+	}
+
+	public Location getLocation(int start, int end) {
+		int startRow = getRow(start), endRow = getRow(end);
+		return new Location(start, startRow, start - lineStarts[startRow], end, endRow, end - lineStarts[endRow]);
+	}
+
+	public Location getLocation(Node node) {
+		return getLocation(node.getStart(), node.getEnd());
+	}
+
+}
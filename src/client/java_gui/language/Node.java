@@ -0,0 +1,141 @@
+package language;
+
+/**
+ * A node of the syntax tree of a Pi program.  As in the server's
+ * ast.ml, what a node's children are depends on its kind:
+ * <ul>
+ * <li>PROGRAM: the declarations.
+ * <li>VAR_DECL: the type and the IDENTIFIER; its value is
+ *     Boolean.TRUE for a global declared ":= ?".
+ * <li>FN_DECL: the return type, the IDENTIFIER, PARAMS, PRE, POST,
+ *     the RANKING (or null) and the body.
+ * <li>PREDICATE: the IDENTIFIER, PARAMS and the expression.
+ * <li>CLASS_DECL: the IDENTIFIER, then the members.
+ * <li>PARAMS: a VAR_DECL for each parameter.
+ * <li>ARRAY_TYPE: the element type.  CLASS_TYPE is named.
+ * <li>EXPR_STMT, RETURN: the expression (EMPTY_EXPR if none).
+ * <li>IF: the condition, the then part and the else part (or null).
+ * <li>WHILE: the condition, the body, the ANNOTATION and the
+ *     RANKING (or null).
+ * <li>FOR: the initialisation, the condition, the step, then as
+ *     for WHILE.
+ * <li>ASSERT: the ANNOTATION.  BLOCK: the statements.
+ * <li>PRE, POST, ANNOTATION: the expression; an ANNOTATION is named
+ *     after its label, if it has one.  RANKING: the expressions.
+ * <li>IDENTIFIER is named.  The constants' values are a Long, a
+ *     Double or a Boolean.
+ * <li>CALL: the IDENTIFIER of the function, then the arguments.
+ * <li>FORALL, EXISTS: an IDENTIFIER for each variable, then the body.
+ * <li>ASSIGN: the lvalue and the expression.  ARRAY_LVAL: the array
+ *     and the index.  INSIDE_OBJECT: two IDENTIFIERs.
+ *     ARRAY_UPDATE: the array, the index and the new value.
+ *     NEW_ARRAY: the element type and the size.
+ * <li>The operators have their operands.
+ * </ul>
+ * Positions are character offsets into the code.
+ */
+public class Node {
+
+	// Declarations
+	public static final int PROGRAM = 0, VAR_DECL = 1, FN_DECL = 2, PREDICATE = 3, CLASS_DECL = 4, PARAMS = 5;
+	// Types
+	public static final int INT_TYPE = 10, FLOAT_TYPE = 11, BOOL_TYPE = 12, VOID_TYPE = 13, ARRAY_TYPE = 14,
+		CLASS_TYPE = 15;
+	// Statements
+	public static final int EXPR_STMT = 20, IF = 21, WHILE = 22, FOR = 23, BREAK = 24, RETURN = 25, ASSERT = 26,
+		BLOCK = 27;
+	// Annotations
+	public static final int PRE = 30, POST = 31, ANNOTATION = 32, RANKING = 33;
+	// Expressions
+	public static final int IDENTIFIER = 40, CONST_INT = 41, CONST_FLOAT = 42, CONST_BOOL = 43, ARRAY_LVAL = 44,
+		INSIDE_OBJECT = 45, ASSIGN = 46, CALL = 47, PLUS = 48, MINUS = 49, TIMES = 50, DIV = 51, IDIV = 52,
+		MOD = 53, UMINUS = 54, FORALL = 55, EXISTS = 56, ARRAY_UPDATE = 57, LT = 58, LE = 59, GT = 60, GE = 61,
+		EQ = 62, NE = 63, AND = 64, OR = 65, NOT = 66, IFF = 67, IMPLIES = 68, LENGTH = 69, NEW_ARRAY = 70,
+		EMPTY_EXPR = 71;
+	// A variable declared and assigned in a call's parentheses: the
+	// VAR_DECL and the ASSIGN.  Only ever seen by the parser.
+	static final int DECL_AND_ASSIGN = 80;
+
+	private static final Node[] NO_CHILDREN = new Node[0];
+
+	private final int kind;
+	private int start, end;
+	private String name;
+	private Object value;
+	private Node[] children;
+
+	public Node(int kind, int start, int end, Node... children) {
+		this.kind = kind;
+		this.start = start;
+		this.end = end;
+		this.children = (children.length == 0 ? NO_CHILDREN : children);
+	}
+
+	/**
+	 * Makes a node spanning the given children.
+	 */
+	public Node(int kind, Node... children) {
+		this(kind, children[0].start, children[children.length - 1].end, children);
+	}
+
+	public int getKind() {
+		return kind;
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getEnd() {
+		return end;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Node setName(String name) {
+		this.name = name;
+		return this;
+	}
+
+	public Object getValue() {
+		return value;
+	}
+
+	public Node setValue(Object value) {
+		this.value = value;
+		return this;
+	}
+
+	public int getChildCount() {
+		return children.length;
+	}
+
+	public Node getChild(int i) {
+		return children[i];
+	}
+
+	void setChild(int i, Node child) {
+		children[i] = child;
+	}
+
+	void setEnd(int end) {
+		this.end = end;
+	}
+
+	/**
+	 * Returns a copy of this tree moved by the given number of
+	 * characters, for a declaration whose code has moved.
+	 */
+	Node shifted(int delta) {
+		Node[] shiftedChildren = new Node[children.length];
+		for (int i = 0; i < children.length; i++)
+			shiftedChildren[i] = (children[i] == null ? null : children[i].shifted(delta));
+		Node copy = new Node(kind, start + delta, end + delta, shiftedChildren);
+		copy.name = name;
+		copy.value = value;
+		return copy;
+	}
+
+}
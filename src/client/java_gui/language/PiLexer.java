@@ -0,0 +1,193 @@
+package language;
+
+import java.util.HashMap;
+
+/**
+ * Splits Pi code into tokens the way the server's lexer
+ * (src/language/lexer.mll) does: the longest match wins, and a
+ * keyword wins over an identifier of the same length.
+ * It reads one token at a time from any offset, so a parse can
+ * start in the middle of the code.
+ */
+public class PiLexer {
+
+	public static final int EOF = 0, INT_CONSTANT = 1, FLOAT_CONSTANT = 2, IDENTIFIER = 3, UNKNOWN = 4;
+
+	// Keywords
+	public static final int DEFINE = 10, DECLARE = 11, PRE = 12, POST = 13, BOOL = 14, VOID = 15, TRUE = 16, FALSE = 17,
+		NEW = 18, WHILE = 19, FOR = 20, IF = 21, ELSE = 22, RETURN = 23, BREAK = 24, INT = 25, FLOAT = 26, STRING = 27,
+		NULL = 28, FORALL = 29, EXISTS = 30, DIV = 31, TYPEDEF = 32, CLASS = 33, PREDICATE = 34;
+
+	// Punctuation
+	public static final int DIMS = 40, ASSIGN = 41, LESS_EQUAL = 42, GREATER_EQUAL = 43, EQUAL = 44, NOT_EQUAL = 45,
+		AND = 46, OR = 47, IFF = 48, IMPLIES = 49, LEFT_ARROW = 50, PLUS = 51, MINUS = 52, STAR = 53, SLASH = 54,
+		LESS = 55, GREATER = 56, NOT = 57, SEMICOLON = 58, COMMA = 59, PERIOD = 60, LSQUARE = 61, RSQUARE = 62,
+		LPAREN = 63, RPAREN = 64, LCURLY = 65, RCURLY = 66, QUESTION_MARK = 67, ASSERT = 68, TERMINATION = 69,
+		BAR = 70, MOD = 71, COLON = 72;
+
+	private static final HashMap<String,Integer> KEYWORDS = new HashMap<String,Integer>();
+	static {
+		String[] words = { "define", "declare", "pre", "post", "bool", "void", "true", "false", "new", "while", "for",
+			"if", "else", "return", "break", "int", "float", "string", "null", "forall", "exists", "div", "typedef",
+			"struct", "class", "predicate" };
+		int[] kinds = { DEFINE, DECLARE, PRE, POST, BOOL, VOID, TRUE, FALSE, NEW, WHILE, FOR,
+			IF, ELSE, RETURN, BREAK, INT, FLOAT, STRING, NULL, FORALL, EXISTS, DIV, TYPEDEF,
+			CLASS, CLASS, PREDICATE };
+		for (int i = 0; i < words.length; i++)
+			KEYWORDS.put(words[i], kinds[i]);
+	}
+
+	private final String text;
+	private int offset;  // where the next token is looked for
+	private int kind = -1, start, end;
+
+	public PiLexer(String text, int offset) {
+		this.text = text;
+		this.offset = offset;
+	}
+
+	/**
+	 * Moves to the next token and returns its kind.
+	 */
+	public int next() {
+		skipSpaceAndComments();
+		start = offset;
+		kind = scan();
+		end = offset;
+		return kind;
+	}
+
+	/**
+	 * Returns the kind of the token after the current one, without
+	 * moving to it.
+	 */
+	public int peek() {
+		int savedOffset = offset, savedKind = kind, savedStart = start, savedEnd = end;
+		int peeked = next();
+		offset = savedOffset;
+		kind = savedKind;
+		start = savedStart;
+		end = savedEnd;
+		return peeked;
+	}
+
+	public int getKind() {
+		return kind;
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getEnd() {
+		return end;
+	}
+
+	/**
+	 * Returns the text of the current token.
+	 */
+	public String getLexeme() {
+		return text.substring(start, end);
+	}
+
+	/**
+	 * Returns where the next token will be looked for, which is
+	 * where the current token ends.
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	private void skipSpaceAndComments() {
+		while (offset < text.length()) {
+			char c = text.charAt(offset);
+			if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {  // the server turns \r into \n
+				offset++;
+			} else if (text.startsWith("//", offset)) {
+				int newline = text.indexOf('\n', offset);
+				offset = (newline < 0 ? text.length() : newline + 1);
+			} else if (text.startsWith("/*", offset)) {
+				int close = text.indexOf("*/", offset + 2);
+				if (close < 0)
+					return;  // not a comment after all, but a slash
+				offset = close + 2;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private int scan() {
+		if (offset >= text.length())
+			return EOF;
+		char c = text.charAt(offset);
+		if (isDigit(c)) {
+			while (offset < text.length() && isDigit(text.charAt(offset)))
+				offset++;
+			if (offset + 1 < text.length() && text.charAt(offset) == '.' && isDigit(text.charAt(offset + 1))) {
+				offset++;
+				while (offset < text.length() && isDigit(text.charAt(offset)))
+					offset++;
+				return FLOAT_CONSTANT;
+			}
+			return INT_CONSTANT;
+		}
+		if (isAlpha(c)) {
+			int wordStart = offset;
+			while (offset < text.length() && (isAlpha(text.charAt(offset)) || isDigit(text.charAt(offset)) || text.charAt(offset) == '_'))
+				offset++;
+			Integer keyword = KEYWORDS.get(text.substring(wordStart, offset));
+			return (keyword != null ? keyword : IDENTIFIER);
+		}
+		if (text.startsWith("@post", offset))
+			return symbol(5, POST);
+		if (text.startsWith("@pre", offset))
+			return symbol(4, PRE);
+		if (text.startsWith("<->", offset))
+			return symbol(3, IFF);
+		switch (c) {
+		case '[': return (text.startsWith("[]", offset) ? symbol(2, DIMS) : symbol(1, LSQUARE));
+		case ':': return (text.startsWith(":=", offset) ? symbol(2, ASSIGN) : symbol(1, COLON));
+		case '<':
+			if (text.startsWith("<=", offset))
+				return symbol(2, LESS_EQUAL);
+			return (text.startsWith("<-", offset) ? symbol(2, LEFT_ARROW) : symbol(1, LESS));
+		case '>': return (text.startsWith(">=", offset) ? symbol(2, GREATER_EQUAL) : symbol(1, GREATER));
+		case '!': return (text.startsWith("!=", offset) ? symbol(2, NOT_EQUAL) : symbol(1, NOT));
+		case '&': return (text.startsWith("&&", offset) ? symbol(2, AND) : symbol(1, UNKNOWN));
+		case '|': return (text.startsWith("||", offset) ? symbol(2, OR) : symbol(1, BAR));
+		case '-': return (text.startsWith("->", offset) ? symbol(2, IMPLIES) : symbol(1, MINUS));
+		case '=': return symbol(1, EQUAL);
+		case '+': return symbol(1, PLUS);
+		case '*': return symbol(1, STAR);
+		case '/': return symbol(1, SLASH);
+		case ';': return symbol(1, SEMICOLON);
+		case ',': return symbol(1, COMMA);
+		case '.': return symbol(1, PERIOD);
+		case ']': return symbol(1, RSQUARE);
+		case '(': return symbol(1, LPAREN);
+		case ')': return symbol(1, RPAREN);
+		case '{': return symbol(1, LCURLY);
+		case '}': return symbol(1, RCURLY);
+		case '?': return symbol(1, QUESTION_MARK);
+		case '@': return symbol(1, ASSERT);
+		case '#': return symbol(1, TERMINATION);
+		case '%': return symbol(1, MOD);
+		default: return symbol(1, UNKNOWN);
+		}
+	}
+
+	private int symbol(int length, int symbolKind) {
+		offset += length;
+		return symbolKind;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isAlpha(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+}
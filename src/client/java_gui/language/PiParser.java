@@ -0,0 +1,744 @@
+package language;
+
+import java.util.ArrayList;
+
+/**
+ * Parses Pi code into a tree of Nodes, following the grammar of the
+ * server's parser (src/language/parser.mly) closely enough that code
+ * this rejects would have been rejected there too.
+ *
+ * A parser remembers the declarations it parsed last time.  The next
+ * parse keeps those before the first change and, once it is back in
+ * step after the last change, those after it, so only the
+ * declarations that were edited are parsed again.
+ */
+public class PiParser {
+
+	// How tightly the operators bind, from the precedences in parser.mly
+	private static final int ASSIGN = 2, IFF = 3, OR = 4, AND = 5, QUANTIFIER = 6, EQUALITY = 7, RELATION = 8,
+		SUM = 9, PRODUCT = 11, UNARY = 12;
+
+	private String lastText = "";
+	private ArrayList<Node> lastDecls = new ArrayList<Node>();  // only up to the error, if there was one
+
+	private String text;
+	private PiLexer lexer;
+
+	/**
+	 * Returns the PROGRAM node for the given code.
+	 */
+	public Node parse(String code) throws PiSyntaxException {
+		int oldLength = lastText.length(), newLength = code.length();
+		int shorter = Math.min(oldLength, newLength);
+		int prefix = 0;
+		while (prefix < shorter && lastText.charAt(prefix) == code.charAt(prefix))
+			prefix++;
+		int suffix = 0;
+		while (suffix < shorter - prefix && lastText.charAt(oldLength - 1 - suffix) == code.charAt(newLength - 1 - suffix))
+			suffix++;
+		int delta = newLength - oldLength;
+
+		ArrayList<Node> decls = new ArrayList<Node>();
+		int old = 0;
+		while (old < lastDecls.size() && lastDecls.get(old).getEnd() <= prefix)
+			decls.add(lastDecls.get(old++));
+		text = code;
+		startAt(decls.isEmpty() ? 0 : decls.get(decls.size() - 1).getEnd());
+		try {
+			while (lexer.getKind() != PiLexer.EOF) {
+				int start = lexer.getStart();
+				while (old < lastDecls.size() && lastDecls.get(old).getStart() + delta < start)
+					old++;
+				if (old < lastDecls.size() && lastDecls.get(old).getStart() + delta == start
+						&& lastDecls.get(old).getStart() >= oldLength - suffix) {
+					// Nothing from here on has changed
+					while (old < lastDecls.size())
+						decls.add(lastDecls.get(old++).shifted(delta));
+					startAt(decls.get(decls.size() - 1).getEnd());
+				} else {
+					decls.add(parseDecl());
+				}
+			}
+		} finally {
+			lastText = code;
+			lastDecls = decls;
+			text = null;
+			lexer = null;
+		}
+		return new Node(Node.PROGRAM, 0, newLength, decls.toArray(new Node[decls.size()]));
+	}
+
+	private void startAt(int offset) {
+		lexer = new PiLexer(text, offset);
+		lexer.next();
+	}
+
+	// Declarations
+
+	private Node parseDecl() throws PiSyntaxException {
+		switch (lexer.getKind()) {
+		case PiLexer.PREDICATE:
+			return parsePredicate();
+		case PiLexer.CLASS:
+			return parseClass();
+		case PiLexer.INT: case PiLexer.FLOAT: case PiLexer.BOOL: case PiLexer.IDENTIFIER:
+			return parseGlobal();
+		default:
+			return parseFunction();
+		}
+	}
+
+	/**
+	 * Parses a global variable, which may be declared ":= ?".
+	 */
+	private Node parseGlobal() throws PiSyntaxException {
+		Node type = parseType();
+		Node name = parseIdentifier();
+		boolean annotationFree = (lexer.getKind() == PiLexer.ASSIGN);
+		if (annotationFree) {
+			lexer.next();
+			expect(PiLexer.QUESTION_MARK);
+		}
+		int end = expect(PiLexer.SEMICOLON);
+		return new Node(Node.VAR_DECL, type.getStart(), end, type, name).setValue(annotationFree ? Boolean.TRUE : null);
+	}
+
+	/**
+	 * Parses a function and the annotations before it.  The grammar
+	 * allows a function with no annotations, but the server cannot
+	 * compile one, so we treat it as an error.
+	 */
+	private Node parseFunction() throws PiSyntaxException {
+		int start = lexer.getStart();
+		Node pre = null, post = null, ranking = null;
+		while (true) {
+			int kind = lexer.getKind();
+			if (kind == PiLexer.PRE && pre == null)
+				pre = parseContract(Node.PRE);
+			else if (kind == PiLexer.POST && post == null)
+				post = parseContract(Node.POST);
+			else if (kind == PiLexer.TERMINATION && ranking == null)
+				ranking = parseRanking();
+			else
+				break;
+		}
+		if (pre == null || post == null)
+			throw error();
+		Node returnType;
+		if (lexer.getKind() == PiLexer.VOID)
+			returnType = token(Node.VOID_TYPE);
+		else
+			returnType = parseType();
+		Node name = parseIdentifier();
+		Node params = parseParams();
+		Node body = parseBlock();
+		return new Node(Node.FN_DECL, start, body.getEnd(), returnType, name, params, pre, post, ranking, body);
+	}
+
+	private Node parseContract(int kind) throws PiSyntaxException {
+		int start = lexer.getStart();
+		lexer.next();
+		Node expr = parseExpr(0, true);
+		finish(expr);
+		return new Node(kind, start, expr.getEnd(), expr);
+	}
+
+	private Node parsePredicate() throws PiSyntaxException {
+		int start = lexer.getStart();
+		lexer.next();
+		Node name = parseIdentifier();
+		Node params = parseParams();
+		expect(PiLexer.ASSIGN);
+		Node expr = parseExpr(0, false);
+		int end = expect(PiLexer.SEMICOLON);
+		return new Node(Node.PREDICATE, start, end, name, params, expr);
+	}
+
+	private Node parseClass() throws PiSyntaxException {
+		int start = lexer.getStart();
+		lexer.next();
+		ArrayList<Node> parts = new ArrayList<Node>();
+		parts.add(parseIdentifier());
+		expect(PiLexer.LCURLY);
+		while (lexer.getKind() != PiLexer.RCURLY) {
+			switch (lexer.getKind()) {
+			case PiLexer.PREDICATE:
+				parts.add(parsePredicate());
+				break;
+			case PiLexer.INT: case PiLexer.FLOAT: case PiLexer.BOOL: case PiLexer.IDENTIFIER:
+				Node member = parseVar();
+				parts.add(new Node(Node.VAR_DECL, member.getStart(), expect(PiLexer.SEMICOLON), member.getChild(0), member.getChild(1)));
+				break;
+			default:
+				parts.add(parseFunction());
+			}
+		}
+		int end = expect(PiLexer.RCURLY);
+		return new Node(Node.CLASS_DECL, start, end, parts.toArray(new Node[parts.size()]));
+	}
+
+	private Node parseParams() throws PiSyntaxException {
+		int start = lexer.getStart();
+		expect(PiLexer.LPAREN);
+		ArrayList<Node> params = new ArrayList<Node>();
+		if (lexer.getKind() != PiLexer.RPAREN) {
+			params.add(parseVar());
+			while (lexer.getKind() == PiLexer.COMMA) {
+				lexer.next();
+				params.add(parseVar());
+			}
+		}
+		int end = expect(PiLexer.RPAREN);
+		return new Node(Node.PARAMS, start, end, params.toArray(new Node[params.size()]));
+	}
+
+	/**
+	 * Parses a type and a name into a VAR_DECL.
+	 */
+	private Node parseVar() throws PiSyntaxException {
+		Node type = parseType();
+		return new Node(Node.VAR_DECL, type, parseIdentifier());
+	}
+
+	private Node parseType() throws PiSyntaxException {
+		Node type;
+		switch (lexer.getKind()) {
+		case PiLexer.INT:
+			type = token(Node.INT_TYPE);
+			break;
+		case PiLexer.FLOAT:
+			type = token(Node.FLOAT_TYPE);
+			break;
+		case PiLexer.BOOL:
+			type = token(Node.BOOL_TYPE);
+			break;
+		case PiLexer.IDENTIFIER:
+			String name = lexer.getLexeme();
+			type = token(Node.CLASS_TYPE).setName(name);
+			break;
+		default:
+			throw error();
+		}
+		while (lexer.getKind() == PiLexer.DIMS) {
+			type = new Node(Node.ARRAY_TYPE, type.getStart(), lexer.getEnd(), type);
+			lexer.next();
+		}
+		return type;
+	}
+
+	// Statements
+
+	private Node parseBlock() throws PiSyntaxException {
+		int start = lexer.getStart();
+		expect(PiLexer.LCURLY);
+		ArrayList<Node> stmts = new ArrayList<Node>();
+		while (lexer.getKind() != PiLexer.RCURLY)
+			parseStmt(stmts);
+		int end = expect(PiLexer.RCURLY);
+		return new Node(Node.BLOCK, start, end, stmts.toArray(new Node[stmts.size()]));
+	}
+
+	/**
+	 * Parses a statement that is the body of an if or a loop, where a
+	 * declaration with an assignment becomes a block of its own.
+	 */
+	private Node parseBody() throws PiSyntaxException {
+		ArrayList<Node> stmts = new ArrayList<Node>(2);
+		parseStmt(stmts);
+		return (stmts.size() == 1 ? stmts.get(0) : new Node(Node.BLOCK, stmts.get(0), stmts.get(1)));
+	}
+
+	/**
+	 * Parses a statement, adding it to the list.  A declaration with
+	 * an assignment is added as the declaration and then the
+	 * assignment.
+	 */
+	private void parseStmt(ArrayList<Node> stmts) throws PiSyntaxException {
+		int start = lexer.getStart();
+		switch (lexer.getKind()) {
+		case PiLexer.LCURLY:
+			stmts.add(parseBlock());
+			return;
+		case PiLexer.IF:
+			lexer.next();
+			expect(PiLexer.LPAREN);
+			Node condition = parseExpr(0, false);
+			expect(PiLexer.RPAREN);
+			Node thenPart = parseBody();
+			Node elsePart = null;
+			if (lexer.getKind() == PiLexer.ELSE) {
+				lexer.next();
+				elsePart = parseBody();
+			}
+			stmts.add(new Node(Node.IF, start, (elsePart == null ? thenPart : elsePart).getEnd(), condition, thenPart, elsePart));
+			return;
+		case PiLexer.WHILE: case PiLexer.FOR:
+			stmts.add(parseLoop());
+			return;
+		case PiLexer.BREAK:
+			lexer.next();
+			stmts.add(new Node(Node.BREAK, start, expect(PiLexer.SEMICOLON)));
+			return;
+		case PiLexer.RETURN:
+			lexer.next();
+			Node value = (lexer.getKind() == PiLexer.SEMICOLON ? emptyExpr() : parseExpr(0, false));
+			stmts.add(new Node(Node.RETURN, start, expect(PiLexer.SEMICOLON), value));
+			return;
+		case PiLexer.ASSERT:
+			Node annotation = parseAnnotation();
+			finish(annotation);
+			stmts.add(new Node(Node.ASSERT, start, expect(PiLexer.SEMICOLON), annotation));
+			return;
+		case PiLexer.INT: case PiLexer.FLOAT: case PiLexer.BOOL:
+			parseLocal(stmts);
+			return;
+		case PiLexer.IDENTIFIER:
+			int next = lexer.peek();
+			if (next == PiLexer.IDENTIFIER || next == PiLexer.DIMS) {
+				parseLocal(stmts);
+				return;
+			}
+		}
+		Node expr = (lexer.getKind() == PiLexer.SEMICOLON ? emptyExpr() : parseExpr(0, false));
+		stmts.add(new Node(Node.EXPR_STMT, start, expect(PiLexer.SEMICOLON), expr));
+	}
+
+	private void parseLocal(ArrayList<Node> stmts) throws PiSyntaxException {
+		Node decl = parseVar();
+		if (lexer.getKind() != PiLexer.ASSIGN) {
+			expect(PiLexer.SEMICOLON);
+			stmts.add(decl);
+			return;
+		}
+		lexer.next();
+		Node assign = assignTo(decl, parseExpr(0, false));
+		expect(PiLexer.SEMICOLON);
+		stmts.add(decl);
+		stmts.add(new Node(Node.EXPR_STMT, assign));
+	}
+
+	/**
+	 * Makes the assignment of a value to a variable being declared.
+	 */
+	private Node assignTo(Node decl, Node value) {
+		Node name = decl.getChild(1);
+		Node variable = new Node(Node.IDENTIFIER, name.getStart(), name.getEnd()).setName(name.getName());
+		return new Node(Node.ASSIGN, variable, value);
+	}
+
+	/**
+	 * Parses a while or for loop.  The condition comes after the
+	 * invariant, and since the parser cannot tell where the one ends
+	 * and the other starts, the parenthesised condition is first
+	 * parsed as the arguments of a call at the end of the invariant
+	 * and then taken out of it, as parser.mly does.
+	 */
+	private Node parseLoop() throws PiSyntaxException {
+		boolean isFor = (lexer.getKind() == PiLexer.FOR);
+		int start = lexer.getStart();
+		lexer.next();
+		Node annotation, ranking = null;
+		Node call;  // whose arguments are the condition, or the initialisation, condition and step
+		if (lexer.getKind() == PiLexer.TERMINATION) {
+			ranking = parseRanking();
+			if (lexer.getKind() != PiLexer.ASSERT)
+				throw error();
+			annotation = parseAnnotation();
+			call = takeCondition(annotation);
+		} else if (lexer.getKind() == PiLexer.ASSERT) {
+			annotation = parseAnnotation();
+			if (lexer.getKind() == PiLexer.TERMINATION) {
+				finish(annotation);
+				ranking = parseRanking();
+				int open = lexer.getStart();
+				expect(PiLexer.LPAREN);
+				ArrayList<Node> parts = parseCallInterior();
+				parts.add(0, null);
+				call = new Node(Node.CALL, open, expect(PiLexer.RPAREN), parts.toArray(new Node[parts.size()]));
+			} else {
+				call = takeCondition(annotation);
+			}
+		} else {
+			throw error();
+		}
+		if (call.getChildCount() < (isFor ? 4 : 2))
+			throw error();
+		Node body = parseBody();
+		if (!isFor)
+			return new Node(Node.WHILE, start, body.getEnd(), withoutDecl(call.getChild(1)), body, annotation, ranking);
+		Node loop = new Node(Node.FOR, start, body.getEnd(), withoutDecl(call.getChild(1)), call.getChild(2), call.getChild(3), body, annotation, ranking);
+		if (call.getChild(1).getKind() != Node.DECL_AND_ASSIGN)
+			return loop;
+		// The variable is declared in a block around the loop
+		return new Node(Node.BLOCK, call.getChild(1).getChild(0), loop);
+	}
+
+	/**
+	 * Takes the call at the end of the loop invariant out of it,
+	 * leaving what it was called on, and returns it.
+	 */
+	private Node takeCondition(Node annotation) throws PiSyntaxException {
+		ArrayList<Node> path = new ArrayList<Node>();
+		Node parent = annotation;
+		int index = 0;
+		while (true) {
+			Node node = parent.getChild(index);
+			path.add(parent);
+			int next;
+			switch (node.getKind()) {
+			case Node.CALL:
+				Node callee = node.getChild(0);
+				parent.setChild(index, callee);
+				for (Node outer: path)
+					outer.setEnd(callee.getEnd());
+				finish(annotation);
+				return node;
+			case Node.UMINUS: case Node.NOT:
+				next = 0;
+				break;
+			case Node.FORALL: case Node.EXISTS:
+				next = node.getChildCount() - 1;
+				break;
+			case Node.PLUS: case Node.MINUS: case Node.TIMES: case Node.DIV: case Node.IDIV: case Node.MOD:
+			case Node.LT: case Node.LE: case Node.GT: case Node.GE: case Node.EQ: case Node.NE:
+			case Node.AND: case Node.OR: case Node.IFF: case Node.IMPLIES:
+				next = 1;
+				break;
+			default:
+				throw error();
+			}
+			parent = node;
+			index = next;
+		}
+	}
+
+	private static Node withoutDecl(Node expr) {
+		return (expr.getKind() == Node.DECL_AND_ASSIGN ? expr.getChild(1) : expr);
+	}
+
+	// Annotations
+
+	/**
+	 * Parses an assertion or loop invariant, with its label if it has
+	 * one.  Its calls are not checked until finish is called on it.
+	 */
+	private Node parseAnnotation() throws PiSyntaxException {
+		int start = lexer.getStart();
+		lexer.next();
+		String label = null;
+		if (lexer.getKind() == PiLexer.IDENTIFIER && lexer.peek() == PiLexer.COLON) {
+			label = lexer.getLexeme();
+			lexer.next();
+			lexer.next();
+		}
+		Node expr = parseExpr(0, true);
+		return new Node(Node.ANNOTATION, start, expr.getEnd(), expr).setName(label);
+	}
+
+	private Node parseRanking() throws PiSyntaxException {
+		int start = lexer.getStart();
+		lexer.next();
+		expect(PiLexer.LPAREN);
+		ArrayList<Node> parts = new ArrayList<Node>();
+		parts.add(parseExpr(0, false));
+		while (lexer.getKind() == PiLexer.COMMA) {
+			lexer.next();
+			parts.add(parseExpr(0, false));
+		}
+		int end = expect(PiLexer.RPAREN);
+		return new Node(Node.RANKING, start, end, parts.toArray(new Node[parts.size()]));
+	}
+
+	/**
+	 * Checks the calls in an annotation, now that the one holding a
+	 * loop's condition (if any) has been taken out.
+	 */
+	private void finish(Node node) throws PiSyntaxException {
+		for (int i = 0; i < node.getChildCount(); i++) {
+			if (node.getChild(i) != null)
+				finish(node.getChild(i));
+		}
+		if (node.getKind() == Node.CALL)
+			finishCall(node);
+	}
+
+	/**
+	 * Only a function can be called, and a declaration in the
+	 * arguments only means something to a loop.
+	 */
+	private void finishCall(Node call) throws PiSyntaxException {
+		Node callee = call.getChild(0);
+		if (callee.getKind() != Node.IDENTIFIER)
+			throw errorAtCall(callee);
+		if (call.getChildCount() > 1)
+			call.setChild(1, withoutDecl(call.getChild(1)));
+	}
+
+	// Expressions
+
+	/**
+	 * Parses an expression whose operators all bind more tightly than
+	 * the given strength.  Annotations have their own grammar
+	 * (Annotation in parser.mly), which differs in what can be
+	 * assigned or updated and in having no new.
+	 */
+	private Node parseExpr(int strength, boolean annotation) throws PiSyntaxException {
+		Node left = parseOperand(annotation);
+		int last = -1;
+		while (true) {
+			int op = lexer.getKind();
+			int opStrength = strengthOf(op);
+			if (opStrength <= strength)
+				return left;
+			if (opStrength == last && (last == IFF || last == EQUALITY || last == RELATION))
+				throw error();  // these do not chain
+			lexer.next();
+			Node right = parseExpr(opStrength, annotation);
+			left = new Node(binaryKind(op), left, right);
+			last = opStrength;
+		}
+	}
+
+	private static int strengthOf(int op) {
+		switch (op) {
+		case PiLexer.IFF: case PiLexer.IMPLIES:
+			return IFF;
+		case PiLexer.OR:
+			return OR;
+		case PiLexer.AND:
+			return AND;
+		case PiLexer.EQUAL: case PiLexer.NOT_EQUAL:
+			return EQUALITY;
+		case PiLexer.LESS: case PiLexer.LESS_EQUAL: case PiLexer.GREATER: case PiLexer.GREATER_EQUAL:
+			return RELATION;
+		case PiLexer.PLUS: case PiLexer.MINUS:
+			return SUM;
+		case PiLexer.STAR: case PiLexer.SLASH: case PiLexer.DIV: case PiLexer.MOD:
+			return PRODUCT;
+		default:
+			return -1;
+		}
+	}
+
+	private static int binaryKind(int op) {
+		switch (op) {
+		case PiLexer.IFF: return Node.IFF;
+		case PiLexer.IMPLIES: return Node.IMPLIES;
+		case PiLexer.OR: return Node.OR;
+		case PiLexer.AND: return Node.AND;
+		case PiLexer.EQUAL: return Node.EQ;
+		case PiLexer.NOT_EQUAL: return Node.NE;
+		case PiLexer.LESS: return Node.LT;
+		case PiLexer.LESS_EQUAL: return Node.LE;
+		case PiLexer.GREATER: return Node.GT;
+		case PiLexer.GREATER_EQUAL: return Node.GE;
+		case PiLexer.PLUS: return Node.PLUS;
+		case PiLexer.MINUS: return Node.MINUS;
+		case PiLexer.STAR: return Node.TIMES;
+		case PiLexer.SLASH: return Node.DIV;
+		case PiLexer.DIV: return Node.IDIV;
+		default: return Node.MOD;
+		}
+	}
+
+	/**
+	 * Parses a prefix operator and its operand, or something with
+	 * whatever indexing, calls, updates or assignment follow it.
+	 */
+	private Node parseOperand(boolean annotation) throws PiSyntaxException {
+		int start = lexer.getStart();
+		switch (lexer.getKind()) {
+		case PiLexer.MINUS: case PiLexer.NOT:
+			int kind = (lexer.getKind() == PiLexer.MINUS ? Node.UMINUS : Node.NOT);
+			lexer.next();
+			Node operand = parseExpr(UNARY, annotation);
+			return new Node(kind, start, operand.getEnd(), operand);
+		case PiLexer.FORALL: case PiLexer.EXISTS:
+			return parseQuantifier(annotation);
+		}
+
+		Node node;
+		boolean lvalue = false;
+		switch (lexer.getKind()) {
+		case PiLexer.INT_CONSTANT:
+			try {
+				node = new Node(Node.CONST_INT, start, lexer.getEnd()).setValue(Long.valueOf(lexer.getLexeme()));
+			} catch (NumberFormatException e) {
+				throw error();
+			}
+			lexer.next();
+			break;
+		case PiLexer.FLOAT_CONSTANT:
+			node = new Node(Node.CONST_FLOAT, start, lexer.getEnd()).setValue(Double.valueOf(lexer.getLexeme()));
+			lexer.next();
+			break;
+		case PiLexer.TRUE: case PiLexer.FALSE:
+			node = new Node(Node.CONST_BOOL, start, lexer.getEnd()).setValue(lexer.getKind() == PiLexer.TRUE);
+			lexer.next();
+			break;
+		case PiLexer.IDENTIFIER:
+			node = parseIdentifier();
+			if (lexer.getKind() == PiLexer.PERIOD) {
+				lexer.next();
+				node = new Node(Node.INSIDE_OBJECT, node, parseIdentifier());
+			}
+			lvalue = true;
+			break;
+		case PiLexer.LPAREN:
+			lexer.next();
+			node = parseExpr(0, annotation);
+			expect(PiLexer.RPAREN);
+			break;
+		case PiLexer.BAR:
+			lexer.next();
+			Node array = parseExpr(0, annotation);
+			node = new Node(Node.LENGTH, start, expect(PiLexer.BAR), array);
+			break;
+		case PiLexer.NEW:
+			if (annotation)
+				throw error();
+			lexer.next();
+			Node type = parseType();
+			expect(PiLexer.LSQUARE);
+			Node size = parseExpr(0, false);
+			node = new Node(Node.NEW_ARRAY, start, expect(PiLexer.RSQUARE), type, size);
+			break;
+		default:
+			throw error();
+		}
+
+		while (true) {
+			switch (lexer.getKind()) {
+			case PiLexer.LSQUARE:
+				lexer.next();
+				Node index = parseExpr(0, annotation);
+				node = new Node(Node.ARRAY_LVAL, node.getStart(), expect(PiLexer.RSQUARE), node, index);
+				lvalue = true;
+				break;
+			case PiLexer.LCURLY:
+				if (annotation && !lvalue)
+					return node;  // a loop body, after the condition
+				lexer.next();
+				Node at = parseExpr(0, annotation);
+				expect(PiLexer.LEFT_ARROW);
+				Node value = parseExpr(0, annotation);
+				node = new Node(Node.ARRAY_UPDATE, node.getStart(), expect(PiLexer.RCURLY), node, at, value);
+				lvalue = false;
+				break;
+			case PiLexer.LPAREN:
+				lexer.next();
+				ArrayList<Node> parts = parseCallInterior();
+				parts.add(0, node);
+				node = new Node(Node.CALL, node.getStart(), expect(PiLexer.RPAREN), parts.toArray(new Node[parts.size()]));
+				if (!annotation)
+					finishCall(node);
+				lvalue = false;
+				break;
+			case PiLexer.ASSIGN:
+				if (!lvalue)
+					return node;
+				lexer.next();
+				return new Node(Node.ASSIGN, node, parseExpr(ASSIGN, annotation));
+			default:
+				return node;
+			}
+		}
+	}
+
+	private Node parseQuantifier(boolean annotation) throws PiSyntaxException {
+		int start = lexer.getStart();
+		int kind = (lexer.getKind() == PiLexer.FORALL ? Node.FORALL : Node.EXISTS);
+		lexer.next();
+		ArrayList<Node> parts = new ArrayList<Node>();
+		parts.add(parseIdentifier());
+		while (lexer.getKind() == PiLexer.COMMA) {
+			lexer.next();
+			parts.add(parseIdentifier());
+		}
+		expect(PiLexer.PERIOD);
+		Node body = parseExpr(QUANTIFIER, annotation);
+		parts.add(body);
+		return new Node(kind, start, body.getEnd(), parts.toArray(new Node[parts.size()]));
+	}
+
+	/**
+	 * Parses what is between the parentheses of a call: arguments,
+	 * or the three parts of a for loop, the first of which may
+	 * declare a variable.
+	 */
+	private ArrayList<Node> parseCallInterior() throws PiSyntaxException {
+		ArrayList<Node> parts = new ArrayList<Node>();
+		int kind = lexer.getKind();
+		if (kind == PiLexer.RPAREN)
+			return parts;
+		if (kind == PiLexer.INT || kind == PiLexer.FLOAT || kind == PiLexer.BOOL
+				|| (kind == PiLexer.IDENTIFIER && (lexer.peek() == PiLexer.IDENTIFIER || lexer.peek() == PiLexer.DIMS))) {
+			Node decl = parseVar();
+			expect(PiLexer.ASSIGN);
+			parts.add(new Node(Node.DECL_AND_ASSIGN, decl, assignTo(decl, parseExpr(0, false))));
+		} else {
+			parts.add(kind == PiLexer.SEMICOLON ? emptyExpr() : parseExpr(0, false));
+			if (lexer.getKind() != PiLexer.SEMICOLON) {
+				while (lexer.getKind() == PiLexer.COMMA) {
+					lexer.next();
+					parts.add(parseExpr(0, false));
+				}
+				return parts;
+			}
+		}
+		expect(PiLexer.SEMICOLON);
+		parts.add(parseExpr(0, false));
+		expect(PiLexer.SEMICOLON);
+		parts.add(lexer.getKind() == PiLexer.RPAREN ? emptyExpr() : parseExpr(0, false));
+		return parts;
+	}
+
+	// Tokens
+
+	private Node parseIdentifier() throws PiSyntaxException {
+		if (lexer.getKind() != PiLexer.IDENTIFIER)
+			throw error();
+		String name = lexer.getLexeme();
+		return token(Node.IDENTIFIER).setName(name);
+	}
+
+	/**
+	 * Makes a node of the current token and moves past it.
+	 */
+	private Node token(int kind) {
+		Node node = new Node(kind, lexer.getStart(), lexer.getEnd());
+		lexer.next();
+		return node;
+	}
+
+	private Node emptyExpr() {
+		return new Node(Node.EMPTY_EXPR, lexer.getStart(), lexer.getStart());
+	}
+
+	/**
+	 * Moves past a token of the given kind, returning where it ends.
+	 */
+	private int expect(int kind) throws PiSyntaxException {
+		if (lexer.getKind() != kind)
+			throw error();
+		int end = lexer.getEnd();
+		lexer.next();
+		return end;
+	}
+
+	private PiSyntaxException error() {
+		return new PiSyntaxException(lexer.getStart(), lexer.getEnd(), lexer.getLexeme());
+	}
+
+	/**
+	 * Returns an error on the parenthesis opening the arguments of a
+	 * call on the given expression.
+	 */
+	private PiSyntaxException errorAtCall(Node callee) {
+		PiLexer after = new PiLexer(text, callee.getEnd());
+		while (after.next() == PiLexer.RPAREN)
+			;
+		return new PiSyntaxException(after.getStart(), after.getEnd(), after.getLexeme());
+	}
+
+}
@@ -0,0 +1,42 @@
+package language;
+
+import data_structures.PiError;
+
+/**
+ * Thrown when code does not parse.  Like the server, we report the
+ * first token that could not be parsed.
+ */
+public class PiSyntaxException extends Exception {
+
+	private int start, end;
+	private String lexeme;
+
+	public PiSyntaxException(int start, int end, String lexeme) {
+		super("Error on the following token: " + lexeme);
+		this.start = start;
+		this.end = end;
+		this.lexeme = lexeme;
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getEnd() {
+		return end;
+	}
+
+	public String getLexeme() {
+		return lexeme;
+	}
+
+	/**
+	 * Returns the error the server would have reported for the given
+	 * code.
+	 */
+	public PiError getError(String code) {
+		String escaped = getMessage().replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+		return PiError.makeError("syntax_error", escaped, new LineMap(code).getLocation(start, end));
+	}
+
+}
@@ -0,0 +1,751 @@
+package language;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+
+import data_structures.PiError;
+
+/**
+ * Finds the semantic errors the server's checker
+ * (src/compiler/semantic_checking.ml) would report: names that are
+ * undefined or defined twice, calls that do not fit what they call,
+ * and expressions of the wrong type.  The messages and locations are
+ * the server's, so code with these errors need not be sent at all.
+ *
+ * It leaves out the server's checks on termination arguments and on
+ * cycles among predicates, so code it passes may still have errors.
+ *
+ * A type is the name the server gives it ("int", "bool[]", a class
+ * name).  null is the type of an expression that already has an
+ * error; it matches any type, so one mistake gives one error.
+ */
+public class SemanticChecker {
+
+	private static final String INT = "int", FLOAT = "float", BOOL = "bool", VOID = "void";
+
+	private static Node includes;  // included.pi, which the server puts before every program
+	private static boolean includesLoaded;
+
+	private LineMap lines;
+	private ArrayList<PiError> errors = new ArrayList<PiError>();
+	private ArrayList<HashMap<String,Node>> scopes = new ArrayList<HashMap<String,Node>>();
+	private HashSet<Node> params = new HashSet<Node>();
+
+	// Where we are
+	private boolean inAnnotation, inRanking, inLoop;
+	private String returnType;
+
+	private SemanticChecker(String code) {
+		lines = new LineMap(code);
+	}
+
+	/**
+	 * Returns the semantic errors in the given program, which was
+	 * parsed from the given code.  If we do not have the server's
+	 * included.pi, any name we do not know might be defined there,
+	 * so we do not check at all.
+	 */
+	public static ArrayList<PiError> check(Node program, String code) {
+		Node included = getIncludes();
+		if (included == null)
+			return new ArrayList<PiError>();
+		SemanticChecker checker = new SemanticChecker(code);
+		checker.checkProgram(included, program);
+		return checker.errors;
+	}
+
+	static synchronized Node getIncludes() {
+		if (includesLoaded)
+			return includes;
+		includesLoaded = true;
+		InputStream in = SemanticChecker.class.getResourceAsStream("included.pi");
+		if (in == null)
+			return null;
+		try {
+			Reader reader = new InputStreamReader(in, "UTF-8");
+			StringBuilder text = new StringBuilder();
+			char[] buffer = new char[4096];
+			for (int n = reader.read(buffer); n >= 0; n = reader.read(buffer))
+				text.append(buffer, 0, n);
+			includes = new PiParser().parse(text.toString());
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (PiSyntaxException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+			}
+		}
+		return includes;
+	}
+
+	// Declarations
+
+	private void checkProgram(Node included, Node program) {
+		enterScope();
+		for (int i = 0; i < included.getChildCount(); i++)
+			scopes.get(0).put(nameOf(included.getChild(i)), included.getChild(i));
+		for (int i = 0; i < program.getChildCount(); i++)
+			insertDecl(program.getChild(i));
+		for (int i = 0; i < program.getChildCount(); i++) {
+			Node decl = program.getChild(i);
+			switch (decl.getKind()) {
+			case Node.FN_DECL:
+				checkFunction(decl);
+				break;
+			case Node.PREDICATE:
+				checkPredicate(decl);
+				break;
+			case Node.VAR_DECL:
+				checkType(decl.getChild(0));
+				break;
+			case Node.CLASS_DECL:
+				for (int j = 1; j < decl.getChildCount(); j++) {
+					Node member = decl.getChild(j);
+					if (member.getKind() == Node.VAR_DECL)
+						checkType(member.getChild(0));
+					else
+						declError("Classes can only contain variables. Sorry.", member);
+				}
+				break;
+			}
+		}
+		exitScope();
+	}
+
+	private void checkFunction(Node function) {
+		enterScope();
+		insertParams(function.getChild(2));
+		checkAnnotation(function.getChild(3).getChild(0));
+		checkRanking(function.getChild(5));
+		enterScope();
+		Node type = function.getChild(0);
+		Node rv = new Node(Node.IDENTIFIER, type.getStart(), type.getStart()).setName("rv");
+		scopes.get(scopes.size() - 1).put("rv", new Node(Node.VAR_DECL, type, rv));
+		checkAnnotation(function.getChild(4).getChild(0));
+		exitScope();
+
+		returnType = typeOf(type);
+		inLoop = false;
+		checkStmt(function.getChild(6));
+		if (!VOID.equals(returnType) && !returns(function.getChild(6)))
+			declError("Function " + nameOf(function) + " does not return in all control paths.", function);
+		exitScope();
+	}
+
+	/**
+	 * Returns whether every path through the statement returns.
+	 */
+	private static boolean returns(Node stmt) {
+		switch (stmt.getKind()) {
+		case Node.RETURN:
+			return true;
+		case Node.BLOCK:
+			for (int i = 0; i < stmt.getChildCount(); i++) {
+				if (returns(stmt.getChild(i)))
+					return true;
+			}
+			return false;
+		case Node.IF:
+			return stmt.getChild(2) != null && returns(stmt.getChild(2)) && returns(stmt.getChild(1));
+		default:
+			return false;
+		}
+	}
+
+	private void checkPredicate(Node predicate) {
+		enterScope();
+		insertParams(predicate.getChild(1));
+		Node expr = predicate.getChild(2);
+		if (!BOOL.equals(check(expr, true, false)))
+			error("Predicate " + nameOf(predicate) + " does not evaluate to a boolean.", expr);
+		exitScope();
+	}
+
+	private void insertParams(Node paramList) {
+		for (int i = 0; i < paramList.getChildCount(); i++) {
+			params.add(paramList.getChild(i));
+			insertDecl(paramList.getChild(i));
+		}
+	}
+
+	private void checkType(Node type) {
+		if (type.getKind() == Node.CLASS_TYPE) {
+			Node decl = lookup(type.getName());
+			if (decl == null)
+				error("Undefined type '" + type.getName() + "'", type);
+			else if (decl.getKind() != Node.CLASS_DECL)
+				error("The identifier '" + type.getName() + "' does not refer to a class", type);
+		} else if (type.getKind() == Node.ARRAY_TYPE && type.getChild(0).getKind() == Node.CLASS_TYPE) {
+			error("You can't have arrays of objects. Sorry.", type.getChild(0));
+		}
+	}
+
+	// Annotations
+
+	private void checkAnnotation(Node expr) {
+		String type = check(expr, true, false);
+		if (!matches(type, BOOL))
+			error(typeError(show(expr), type, "bool"), expr);
+	}
+
+	private void checkRanking(Node ranking) {
+		if (ranking == null)
+			return;
+		for (int i = 0; i < ranking.getChildCount(); i++) {
+			Node expr = ranking.getChild(i);
+			String type = check(expr, false, true);
+			if (type != null && !INT.equals(type))
+				error("Ranking annotation must be integral but instead is " + show(type), expr);
+		}
+	}
+
+	// Statements
+
+	private void checkStmt(Node stmt) {
+		switch (stmt.getKind()) {
+		case Node.EXPR_STMT:
+			check(stmt.getChild(0), false, false);
+			break;
+		case Node.VAR_DECL:
+			checkType(stmt.getChild(0));
+			insertDecl(stmt);
+			break;
+		case Node.IF:
+			checkTest(stmt.getChild(0), stmt);
+			checkStmt(stmt.getChild(1));
+			if (stmt.getChild(2) != null)
+				checkStmt(stmt.getChild(2));
+			break;
+		case Node.WHILE:
+			checkAnnotation(stmt.getChild(2).getChild(0));
+			checkRanking(stmt.getChild(3));
+			checkTest(stmt.getChild(0), stmt);
+			checkLoopBody(stmt.getChild(1));
+			break;
+		case Node.FOR:
+			checkAnnotation(stmt.getChild(4).getChild(0));
+			checkRanking(stmt.getChild(5));
+			check(stmt.getChild(0), false, false);
+			checkTest(stmt.getChild(1), stmt);
+			check(stmt.getChild(2), false, false);
+			checkLoopBody(stmt.getChild(3));
+			break;
+		case Node.BREAK:
+			if (!inLoop)
+				error("Break stmt outside of a loop.", stmt);
+			break;
+		case Node.RETURN:
+			String type = check(stmt.getChild(0), false, false);
+			if (!matches(type, returnType))
+				error("Incorrect return type: expected: " + show(returnType) + ", given: " + show(type), stmt);
+			break;
+		case Node.ASSERT:
+			checkAnnotation(stmt.getChild(0).getChild(0));
+			break;
+		case Node.BLOCK:
+			enterScope();
+			for (int i = 0; i < stmt.getChildCount(); i++)
+				checkStmt(stmt.getChild(i));
+			exitScope();
+			break;
+		}
+	}
+
+	private void checkTest(Node test, Node stmt) {
+		String type = check(test, false, false);
+		if (!matches(type, BOOL))
+			error("Test type is " + show(type) + " but should be boolean", stmt);
+	}
+
+	private void checkLoopBody(Node body) {
+		boolean wasInLoop = inLoop;
+		inLoop = true;
+		checkStmt(body);
+		inLoop = wasInLoop;
+	}
+
+	// Expressions
+
+	/**
+	 * Returns the type of an expression at the root of a statement
+	 * or annotation, reporting any errors in it.
+	 */
+	private String check(Node expr, boolean annotation, boolean ranking) {
+		inAnnotation = annotation;
+		inRanking = ranking;
+		return typeOf(expr, true);
+	}
+
+	private String typeOf(Node expr, boolean atRoot) {
+		switch (expr.getKind()) {
+		case Node.ASSIGN:
+			if (inAnnotation || inRanking)
+				error("Assign expr inside an annotation.", expr);
+			else if (!atRoot)
+				error("Assign expr not at the root of a statement.", expr);
+			String left = typeOfLValue(expr.getChild(0));
+			String right = typeOf(expr.getChild(1), false);
+			checkAssignable(expr.getChild(0), expr.getChild(0));
+			sameType(left, right, expr);
+			return left;
+		case Node.CONST_INT:
+			return INT;
+		case Node.CONST_FLOAT:
+			return FLOAT;
+		case Node.CONST_BOOL:
+			return BOOL;
+		case Node.IDENTIFIER: case Node.ARRAY_LVAL: case Node.INSIDE_OBJECT:
+			return typeOfLValue(expr);
+		case Node.CALL:
+			return typeOfCall(expr);
+		case Node.PLUS: case Node.MINUS: case Node.TIMES: case Node.DIV: case Node.MOD:
+			return typeOfArithmetic(expr);
+		case Node.IDIV:
+			String dividend = typeOf(expr.getChild(0), false);
+			String divisor = typeOf(expr.getChild(1), false);
+			if (INT.equals(dividend) && INT.equals(divisor))
+				return INT;
+			error("Integer division must take integer operands.", expr);
+			return null;
+		case Node.UMINUS:
+			String operand = typeOf(expr.getChild(0), false);
+			if (!isNumeric(operand)) {
+				error("Unary minus type is not numeric", expr);
+				return null;
+			}
+			return operand;
+		case Node.FORALL: case Node.EXISTS:
+			if (inAnnotation) {
+				enterScope();
+				for (int i = 0; i < expr.getChildCount() - 1; i++) {
+					Node variable = expr.getChild(i);
+					Node type = new Node(Node.INT_TYPE, variable.getStart(), variable.getStart());
+					scopes.get(scopes.size() - 1).put(variable.getName(), new Node(Node.VAR_DECL, type, variable));
+				}
+				typeOf(expr.getChild(expr.getChildCount() - 1), false);
+				exitScope();
+			} else {
+				error("Quantifier outside of annotation not permitted", expr);
+			}
+			return BOOL;
+		case Node.ARRAY_UPDATE:
+			String array = typeOf(expr.getChild(0), false);
+			String index = typeOf(expr.getChild(1), false);
+			String value = typeOf(expr.getChild(2), false);
+			if (isArray(array)) {
+				String element = elementOf(array);
+				if (!matches(element, value))
+					error(typeError(show(expr.getChild(2)), value, element), expr.getChild(2));
+			} else if (array != null) {
+				error("Array update applied to non-array", expr);
+			}
+			if (!INT.equals(index))
+				error(indexError(expr.getChild(1)), expr.getChild(1));
+			return array;
+		case Node.LT: case Node.LE: case Node.GT: case Node.GE:
+			String lower = typeOf(expr.getChild(0), false);
+			String upper = typeOf(expr.getChild(1), false);
+			sameType(lower, upper, expr);
+			if (!isNumeric(lower))
+				error(typeError("Relational", lower, "numeric"), expr);
+			if (!isNumeric(upper))
+				error(typeError("Relational", upper, "numeric"), expr);
+			return BOOL;
+		case Node.EQ: case Node.NE:
+			sameType(typeOf(expr.getChild(0), false), typeOf(expr.getChild(1), false), expr);
+			return BOOL;
+		case Node.AND: case Node.OR: case Node.IFF: case Node.IMPLIES:
+			String first = typeOf(expr.getChild(0), false);
+			String second = typeOf(expr.getChild(1), false);
+			if (!matches(first, BOOL))
+				error(typeError("Logical", first, "bool"), expr);
+			if (!matches(second, BOOL))
+				error(typeError("Logical", second, "bool"), expr);
+			return BOOL;
+		case Node.NOT:
+			String negated = typeOf(expr.getChild(0), false);
+			if (!matches(negated, BOOL))
+				error(typeError("Logical not", negated, "bool"), expr);
+			return BOOL;
+		case Node.LENGTH:
+			String measured = typeOf(expr.getChild(0), false);
+			if (!isArray(measured))
+				error("Trying to take length of something that is of type '" + show(measured) + "' and not an array", expr);
+			return INT;
+		case Node.NEW_ARRAY:
+			checkType(expr.getChild(0));
+			if (!isInt(typeOf(expr.getChild(1), false)))
+				error("Array initialization size is not an int", expr);
+			return typeOf(expr.getChild(0)) + "[]";
+		default:
+			return VOID;
+		}
+	}
+
+	private String typeOfArithmetic(Node expr) {
+		String left = typeOf(expr.getChild(0), false);
+		String right = typeOf(expr.getChild(1), false);
+		boolean same = sameType(left, right, expr);
+		if (!isNumeric(left)) {
+			error(typeError("Arithmetic", left, "numeric"), expr);
+			return null;
+		}
+		if (!isNumeric(right)) {
+			error(typeError("Arithmetic", right, "numeric"), expr);
+			return null;
+		}
+		return (same ? right : null);
+	}
+
+	private String typeOfLValue(Node lvalue) {
+		switch (lvalue.getKind()) {
+		case Node.IDENTIFIER:
+			return typeOfName(lvalue.getName(), lvalue);
+		case Node.ARRAY_LVAL:
+			Node index = lvalue.getChild(1);
+			if (!INT.equals(typeOf(index, false)))
+				error(indexError(index), lvalue);
+			Node arrayExpr = lvalue.getChild(0);
+			String array = typeOf(arrayExpr, false);
+			if (isArray(array))
+				return elementOf(array);
+			error("'" + show(arrayExpr) + "' is of type '" + show(array) + "' but should be an array", lvalue);
+			return null;
+		default:
+			String object = lvalue.getChild(0).getName();
+			String member = lvalue.getChild(1).getName();
+			String type = typeOfName(object, lvalue);
+			if (type == null)
+				return null;
+			if (!isClass(type)) {
+				error("'" + object + "' is of type '" + type + "' but should be an object", lvalue);
+				return null;
+			}
+			Node decl = lookup(type);
+			if (decl == null || decl.getKind() != Node.CLASS_DECL)
+				return null;
+			for (int i = 1; i < decl.getChildCount(); i++) {
+				Node memberDecl = decl.getChild(i);
+				if (!member.equals(nameOf(memberDecl)))
+					continue;
+				if (memberDecl.getKind() == Node.VAR_DECL)
+					return typeOf(memberDecl.getChild(0));
+				declError("The member '" + member + "' of class '" + type + "' is not a variable", decl);
+				return null;
+			}
+			declError("The class '" + type + "' does not have a member '" + member + "'", decl);
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the type of a variable, reporting errors at the given
+	 * node.
+	 */
+	private String typeOfName(String name, Node at) {
+		Node decl = lookup(name);
+		if (decl == null) {
+			error("Identifier '" + name + "' not defined", at);
+			return null;
+		}
+		switch (decl.getKind()) {
+		case Node.VAR_DECL:
+			if (!inAnnotation && decl.getValue() == Boolean.TRUE)
+				error("These free variables are for use in annotations only.", at);
+			return typeOf(decl.getChild(0));
+		case Node.FN_DECL:
+			error("Using a function as an lval.", at);
+			return typeOf(decl.getChild(0));
+		case Node.PREDICATE:
+			error("Using a predicate as an lval.", at);
+			return BOOL;
+		default:
+			error("Identifier '" + name + "' refers to a class, which doesn't make sense in this context.", at);
+			return null;
+		}
+	}
+
+	/**
+	 * Reports an assignment to a parameter, or to something that is
+	 * not a variable.
+	 */
+	private void checkAssignable(Node lvalue, Node whole) {
+		switch (lvalue.getKind()) {
+		case Node.IDENTIFIER:
+			if (params.contains(lookup(lvalue.getName())))
+				error("Updates to parameters not permitted.", whole);
+			break;
+		case Node.ARRAY_LVAL:
+			Node array = lvalue.getChild(0);
+			int kind = array.getKind();
+			if (kind == Node.IDENTIFIER || kind == Node.ARRAY_LVAL || kind == Node.INSIDE_OBJECT)
+				checkAssignable(array, whole);
+			else
+				error("Illegal LHS of assignment.", whole);
+			break;
+		}
+	}
+
+	private String typeOfCall(Node call) {
+		String word = (inAnnotation ? "predicate" : "function");
+		String name = call.getChild(0).getName();
+		Node decl = lookup(name);
+		if (decl == null) {
+			error("Undefined " + word + " '" + name + "'", call);
+			return null;
+		}
+		switch (decl.getKind()) {
+		case Node.PREDICATE:
+			if (inAnnotation || inRanking) {
+				checkArguments(call, decl.getChild(1));
+				return BOOL;
+			}
+			error("'" + name + "' is not a function", call);
+			return null;
+		case Node.FN_DECL:
+			if (inAnnotation || inRanking) {
+				error("'" + name + "' is not a predicate", call);
+				return null;
+			}
+			checkArguments(call, decl.getChild(2));
+			return typeOf(decl.getChild(0));
+		default:
+			error("'" + name + "' is not a " + word, call);
+			return null;
+		}
+	}
+
+	private void checkArguments(Node call, Node paramList) {
+		int given = call.getChildCount() - 1;
+		if (given != paramList.getChildCount()) {
+			error("Incorrect number of arguments: expected " + paramList.getChildCount() + ", given: " + given, call);
+			return;
+		}
+		for (int i = 0; i < given; i++) {
+			Node argument = call.getChild(i + 1);
+			String type = typeOf(argument, false);
+			String expected = typeOf(paramList.getChild(i).getChild(0));
+			if (!matches(type, expected))
+				error("Incorrect type of argument. Given " + show(type) + ", expected " + expected, argument);
+		}
+	}
+
+	// Types
+
+	private static String typeOf(Node type) {
+		switch (type.getKind()) {
+		case Node.INT_TYPE: return INT;
+		case Node.FLOAT_TYPE: return FLOAT;
+		case Node.BOOL_TYPE: return BOOL;
+		case Node.VOID_TYPE: return VOID;
+		case Node.ARRAY_TYPE: return typeOf(type.getChild(0)) + "[]";
+		default: return type.getName();
+		}
+	}
+
+	private static boolean matches(String a, String b) {
+		return a == null || b == null || a.equals(b);
+	}
+
+	private boolean sameType(String left, String right, Node at) {
+		if (matches(left, right))
+			return true;
+		error("LHS '" + left + "' and RHS '" + right + "' are of different types", at);
+		return false;
+	}
+
+	private static boolean isNumeric(String type) {
+		return type == null || INT.equals(type) || FLOAT.equals(type);
+	}
+
+	private static boolean isInt(String type) {
+		return type == null || INT.equals(type);
+	}
+
+	private static boolean isArray(String type) {
+		return type != null && type.endsWith("[]");
+	}
+
+	private static String elementOf(String array) {
+		return array.substring(0, array.length() - 2);
+	}
+
+	private static boolean isClass(String type) {
+		return !isArray(type) && !INT.equals(type) && !FLOAT.equals(type) && !BOOL.equals(type) && !VOID.equals(type);
+	}
+
+	// Scopes
+
+	private void enterScope() {
+		scopes.add(new HashMap<String,Node>());
+	}
+
+	private void exitScope() {
+		scopes.remove(scopes.size() - 1);
+	}
+
+	private void insertDecl(Node decl) {
+		HashMap<String,Node> scope = scopes.get(scopes.size() - 1);
+		String name = nameOf(decl);
+		if (scope.containsKey(name))
+			declError("A declaration '" + name + "' is already defined", decl);
+		else
+			scope.put(name, decl);
+	}
+
+	private Node lookup(String name) {
+		for (int i = scopes.size() - 1; i >= 0; i--) {
+			Node decl = scopes.get(i).get(name);
+			if (decl != null)
+				return decl;
+		}
+		return null;
+	}
+
+	private static String nameOf(Node decl) {
+		switch (decl.getKind()) {
+		case Node.VAR_DECL: case Node.FN_DECL:
+			return decl.getChild(1).getName();
+		default:
+			return decl.getChild(0).getName();
+		}
+	}
+
+	// Errors
+
+	private void error(String message, Node at) {
+		error(message, at.getStart(), at.getEnd());
+	}
+
+	/**
+	 * Reports an error on a declaration, which the server locates at
+	 * its name and type (or signature) rather than all of its code.
+	 */
+	private void declError(String message, Node decl) {
+		switch (decl.getKind()) {
+		case Node.VAR_DECL:
+			error(message, decl.getChild(0).getStart(), decl.getChild(1).getEnd());
+			break;
+		case Node.FN_DECL:
+			error(message, decl.getChild(0).getStart(), decl.getChild(2).getEnd());
+			break;
+		case Node.PREDICATE:
+			error(message, decl.getStart(), decl.getChild(2).getEnd());
+			break;
+		default:
+			error(message, decl.getStart(), decl.getChild(0).getEnd());
+		}
+	}
+
+	private void error(String message, int start, int end) {
+		String escaped = message.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+		errors.add(PiError.makeError("semantic_error", escaped, lines.getLocation(start, end)));
+	}
+
+	private static String typeError(String what, String given, String expected) {
+		return what + " expr type is '" + show(given) + "' but should be " + expected;
+	}
+
+	private static String indexError(Node index) {
+		return "Array index '" + show(index) + "' must be an integer";
+	}
+
+	private static String show(String type) {
+		return (type == null ? "error" : type);
+	}
+
+	/**
+	 * Returns an expression written out as the server's
+	 * string_of_expr does, for messages.
+	 */
+	static String show(Node expr) {
+		switch (expr.getKind()) {
+		case Node.IDENTIFIER:
+			return expr.getName();
+		case Node.CONST_INT: case Node.CONST_BOOL:
+			return expr.getValue().toString();
+		case Node.CONST_FLOAT:
+			return showFloat((Double)expr.getValue());
+		case Node.ARRAY_LVAL:
+			return show(expr.getChild(0)) + "[" + show(expr.getChild(1)) + "]";
+		case Node.INSIDE_OBJECT:
+			return show(expr.getChild(0)) + "." + show(expr.getChild(1));
+		case Node.ASSIGN:
+			return show(expr.getChild(0)) + " := " + show(expr.getChild(1));
+		case Node.CALL:
+			StringBuilder call = new StringBuilder(show(expr.getChild(0))).append('(');
+			for (int i = 1; i < expr.getChildCount(); i++)
+				call.append(i > 1 ? ", " : "").append(show(expr.getChild(i)));
+			return call.append(')').toString();
+		case Node.UMINUS:
+			return "-" + show(expr.getChild(0));
+		case Node.NOT:
+			return "!(" + show(expr.getChild(0)) + ")";
+		case Node.FORALL: case Node.EXISTS:
+			StringBuilder quantifier = new StringBuilder(expr.getKind() == Node.FORALL ? "forall " : "exists ");
+			for (int i = 0; i < expr.getChildCount() - 1; i++)
+				quantifier.append(i > 0 ? "," : "").append(expr.getChild(i).getName());
+			return quantifier.append(".(").append(show(expr.getChild(expr.getChildCount() - 1))).append(')').toString();
+		case Node.ARRAY_UPDATE:
+			return show(expr.getChild(0)) + "{" + show(expr.getChild(1)) + " <- " + show(expr.getChild(2)) + "}";
+		case Node.LENGTH:
+			return "|" + show(expr.getChild(0)) + "|";
+		case Node.NEW_ARRAY:
+			return "new " + typeOf(expr.getChild(0)) + "[" + show(expr.getChild(1)) + "]";
+		case Node.AND: case Node.OR: case Node.IFF: case Node.IMPLIES:
+			return "(" + show(expr.getChild(0)) + ") " + operator(expr.getKind()) + " (" + show(expr.getChild(1)) + ")";
+		case Node.EMPTY_EXPR:
+			return "";
+		default:
+			return show(expr.getChild(0)) + " " + operator(expr.getKind()) + " " + show(expr.getChild(1));
+		}
+	}
+
+	private static String operator(int kind) {
+		switch (kind) {
+		case Node.PLUS: return "+";
+		case Node.MINUS: return "-";
+		case Node.TIMES: return "*";
+		case Node.DIV: return "/";
+		case Node.IDIV: return "div";
+		case Node.MOD: return "%";
+		case Node.LT: return "<";
+		case Node.LE: return "<=";
+		case Node.GT: return ">";
+		case Node.GE: return ">=";
+		case Node.EQ: return "=";
+		case Node.NE: return "!=";
+		case Node.AND: return "&&";
+		case Node.OR: return "||";
+		case Node.IFF: return "<->";
+		default: return "->";
+		}
+	}
+
+	/**
+	 * Writes a float as OCaml's string_of_float does: to 12
+	 * significant digits, with a point even if it is whole.
+	 */
+	private static String showFloat(double value) {
+		String text = String.format(Locale.US, "%.12g", value);
+		int exponent = text.indexOf('e');
+		String mantissa = (exponent < 0 ? text : text.substring(0, exponent));
+		if (mantissa.indexOf('.') >= 0) {
+			mantissa = mantissa.replaceAll("0+$", "");
+			if (mantissa.endsWith("."))
+				mantissa = mantissa.substring(0, mantissa.length() - 1);
+		}
+		text = mantissa + (exponent < 0 ? "" : text.substring(exponent));
+		return (text.matches("-?[0-9]+") ? text + "." : text);
+	}
+
+}
@@ -0,0 +1,385 @@
+/*
+ * BracketIndex.java - Per-line bracket balance of a document
+ *
+ * You may use and modify this package for any purpose. Redistribution is
+ * permitted, in both source and binary form, provided that this notice
+ * remains intact in all source distributions of this package.
+ */
+
+package org.syntax.jedit;
+
+import javax.swing.text.*;
+import org.syntax.jedit.tokenmarker.*;
+
+/**
+ * How each line of a document changes the nesting of each kind of
+ * bracket, so a matching bracket can be found by skipping whole
+ * lines. For each line and kind of bracket it keeps the closing
+ * brackets left unmatched within the line and the opening brackets
+ * left open at its end. Brackets in comments and literals, as the
+ * token marker sees them, are not counted.
+ *
+ * A line's counts depend on its text and the token the previous
+ * line ends with (whether it starts inside a comment), so the index
+ * remembers both tokens for each line. After an edit only the lines
+ * that changed are counted again, along with those after them whose
+ * starting token changed. This is done lazily, as far down as a
+ * search needs.
+ */
+class BracketIndex
+{
+	public static final String BRACKETS = "()[]{}";
+
+	BracketIndex(SyntaxDocument doc)
+	{
+		this.doc = doc;
+		int count = doc.getDefaultRootElement().getElementCount();
+		ensureCapacity(count);
+		lines = count;
+		for(int i = 0; i < count; i++)
+			dirty[i] = true;
+	}
+
+	/**
+	 * Notes that the given number of lines were inserted at the
+	 * given index.
+	 */
+	public void insertLines(int index, int count)
+	{
+		if(count <= 0)
+			return;
+		ensureCapacity(lines + count);
+		int tail = lines - index;
+		System.arraycopy(startTokens,index,startTokens,index + count,tail);
+		System.arraycopy(endTokens,index,endTokens,index + count,tail);
+		System.arraycopy(dirty,index,dirty,index + count,tail);
+		for(int k = 0; k < KINDS; k++)
+		{
+			System.arraycopy(opens[k],index,opens[k],index + count,tail);
+			System.arraycopy(closes[k],index,closes[k],index + count,tail);
+		}
+		lines += count;
+		linesChanged(index,count);
+	}
+
+	/**
+	 * Notes that the given number of lines were removed at the
+	 * given index.
+	 */
+	public void deleteLines(int index, int count)
+	{
+		if(count <= 0)
+			return;
+		int tail = lines - index - count;
+		System.arraycopy(startTokens,index + count,startTokens,index,tail);
+		System.arraycopy(endTokens,index + count,endTokens,index,tail);
+		System.arraycopy(dirty,index + count,dirty,index,tail);
+		for(int k = 0; k < KINDS; k++)
+		{
+			System.arraycopy(opens[k],index + count,opens[k],index,tail);
+			System.arraycopy(closes[k],index + count,closes[k],index,tail);
+		}
+		lines -= count;
+		validLines = Math.min(validLines,index);
+	}
+
+	/**
+	 * Notes that the text of the given lines changed.
+	 */
+	public void linesChanged(int index, int count)
+	{
+		for(int i = index; i < index + count && i < lines; i++)
+			dirty[i] = true;
+		validLines = Math.min(validLines,index);
+	}
+
+	/**
+	 * Returns the number of unmatched opening brackets of the given
+	 * kind (0 for parentheses, 1 for square brackets, 2 for braces)
+	 * at the end of the given line, counting from its start.
+	 */
+	public int getOpens(int kind, int line)
+	{
+		validate(line);
+		return opens[kind][line];
+	}
+
+	/**
+	 * Returns the number of closing brackets of the given kind in
+	 * the given line that match nothing earlier in the line.
+	 */
+	public int getCloses(int kind, int line)
+	{
+		validate(line);
+		return closes[kind][line];
+	}
+
+	/**
+	 * Returns the line on which the braces left open at the end of
+	 * the given line are closed, or -1 if it leaves none open or
+	 * they are never closed.
+	 */
+	public int getBlockEnd(int line)
+	{
+		validate(line);
+		int count = opens[BRACES][line];
+		if(count == 0)
+			return -1;
+		for(int i = line + 1; i < lines; i++)
+		{
+			validate(i);
+			if(closes[BRACES][i] >= count)
+				return i;
+			count += opens[BRACES][i] - closes[BRACES][i];
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the line that opens the innermost block the given
+	 * line is in, or -1 if it is not in one.
+	 */
+	public int getBlockStart(int line)
+	{
+		validate(line);
+		int count = 1;
+		for(int i = line - 1; i >= 0; i--)
+		{
+			if(opens[BRACES][i] >= count)
+				return i;
+			count += closes[BRACES][i] - opens[BRACES][i];
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the offset of the bracket matching the one at the
+	 * given offset, or -1 if it is unmatched, is not a bracket, or
+	 * is in a comment or literal.
+	 */
+	public int findMatchingBracket(int offset) throws BadLocationException
+	{
+		Element map = doc.getDefaultRootElement();
+		int line = map.getElementIndex(offset);
+		validate(line);
+
+		Element lineElement = map.getElement(line);
+		int lineStart = lineElement.getStartOffset();
+		doc.getText(lineStart,lineElement.getEndOffset() - lineStart - 1,segment);
+		boolean[] code = markCode(line);
+		int column = offset - lineStart;
+		if(column >= segment.count || !code[column])
+			return -1;
+
+		int bracket = BRACKETS.indexOf(segment.array[segment.offset + column]);
+		if(bracket < 0)
+			return -1;
+		int kind = bracket / 2;
+		boolean forward = (bracket % 2 == 0);
+
+		// Within the line itself
+		int match = scanLine(code,kind,forward,column + (forward ? 1 : -1),1);
+		if(match >= 0)
+			return lineStart + match;
+		int count = -match;
+
+		// Skip whole lines until one must hold the match
+		if(forward)
+		{
+			for(int i = line + 1; i < lines; i++)
+			{
+				validate(i);
+				if(closes[kind][i] >= count)
+					return findInLine(i,kind,true,count);
+				count += opens[kind][i] - closes[kind][i];
+			}
+		}
+		else
+		{
+			for(int i = line - 1; i >= 0; i--)
+			{
+				if(opens[kind][i] >= count)
+					return findInLine(i,kind,false,count);
+				count += closes[kind][i] - opens[kind][i];
+			}
+		}
+		return -1;
+	}
+
+	// private members
+	private static final int KINDS = BRACKETS.length() / 2;
+	private static final int BRACES = BRACKETS.indexOf('{') / 2;
+
+	private SyntaxDocument doc;
+	private int lines;
+	private int validLines; // lines [0,validLines) are up to date
+	private byte[] startTokens;
+	private byte[] endTokens;
+	private boolean[] dirty;
+	private int[][] opens = new int[KINDS][];
+	private int[][] closes = new int[KINDS][];
+
+	private Segment segment = new Segment();
+	private TokenMarker.LineInfo info;
+
+	/**
+	 * Brings the counts of the lines up to and including the given
+	 * one up to date.
+	 */
+	private void validate(int line)
+	{
+		if(line < validLines)
+			return;
+		try
+		{
+			Element map = doc.getDefaultRootElement();
+			for(int i = validLines; i <= line; i++)
+			{
+				byte start = (i == 0 ? Token.NULL : endTokens[i - 1]);
+				if(!dirty[i] && startTokens[i] == start)
+					continue;
+				Element lineElement = map.getElement(i);
+				int lineStart = lineElement.getStartOffset();
+				doc.getText(lineStart,lineElement.getEndOffset()
+					- lineStart - 1,segment);
+				count(i,start);
+			}
+		}
+		catch(BadLocationException bl)
+		{
+			bl.printStackTrace();
+		}
+		validLines = line + 1;
+	}
+
+	/**
+	 * Counts the brackets of the line in the segment.
+	 */
+	private void count(int line, byte start)
+	{
+		startTokens[line] = start;
+		dirty[line] = false;
+		boolean[] code = markCode(line);
+		for(int k = 0; k < KINDS; k++)
+		{
+			opens[k][line] = 0;
+			closes[k][line] = 0;
+		}
+		for(int i = 0; i < segment.count; i++)
+		{
+			if(!code[i])
+				continue;
+			int bracket = BRACKETS.indexOf(segment.array[segment.offset + i]);
+			if(bracket < 0)
+				continue;
+			int k = bracket / 2;
+			if(bracket % 2 == 0)
+				opens[k][line]++;
+			else if(opens[k][line] > 0)
+				opens[k][line]--;
+			else
+				closes[k][line]++;
+		}
+	}
+
+	/**
+	 * Tokenizes the line in the segment, starting in the token the
+	 * previous line ends with, and returns which characters are
+	 * code rather than comments or literals. Sets the token the
+	 * line ends with.
+	 */
+	private boolean[] markCode(int line)
+	{
+		TokenMarker tokenMarker = doc.getTokenMarker();
+		if(info == null)
+			info = tokenMarker.new LineInfo();
+		info.token = (line == 0 ? Token.NULL : endTokens[line - 1]);
+		Token tokens = tokenMarker.markTokens(segment,line,info);
+		endTokens[line] = info.token;
+
+		boolean[] code = new boolean[segment.count];
+		int i = 0;
+		for(; tokens != null && tokens.id != Token.END; tokens = tokens.next)
+		{
+			boolean isCode = (tokens.id != Token.COMMENT1
+				&& tokens.id != Token.COMMENT2
+				&& tokens.id != Token.LITERAL1
+				&& tokens.id != Token.LITERAL2
+				&& tokens.id != Token.INVALID);
+			for(int end = Math.min(i + tokens.length,code.length); i < end; i++)
+				code[i] = isCode;
+		}
+		return code;
+	}
+
+	/**
+	 * Scans the line in the segment from the given column, in the
+	 * given direction, for the bracket that closes (or opens) the
+	 * given number of brackets. Returns its column, or minus the
+	 * number still unmatched at the end of the line.
+	 */
+	private int scanLine(boolean[] code, int kind, boolean forward,
+		int column, int count)
+	{
+		char open = BRACKETS.charAt(kind * 2);
+		char close = BRACKETS.charAt(kind * 2 + 1);
+		char same = (forward ? open : close);
+		char other = (forward ? close : open);
+		for(int i = column; i >= 0 && i < segment.count; i += (forward ? 1 : -1))
+		{
+			if(!code[i])
+				continue;
+			char c = segment.array[segment.offset + i];
+			if(c == same)
+				count++;
+			else if(c == other && --count == 0)
+				return i;
+		}
+		return -count;
+	}
+
+	private int findInLine(int line, int kind, boolean forward, int count)
+		throws BadLocationException
+	{
+		Element lineElement = doc.getDefaultRootElement().getElement(line);
+		int lineStart = lineElement.getStartOffset();
+		doc.getText(lineStart,lineElement.getEndOffset() - lineStart - 1,segment);
+		boolean[] code = markCode(line);
+		int match = scanLine(code,kind,forward,forward ? 0 : segment.count - 1,count);
+		return (match >= 0 ? lineStart + match : -1);
+	}
+
+	private void ensureCapacity(int capacity)
+	{
+		if(startTokens != null && startTokens.length >= capacity)
+			return;
+		int size = Math.max(capacity,(startTokens == null ? 0 : startTokens.length * 2));
+		startTokens = grow(startTokens,size);
+		endTokens = grow(endTokens,size);
+		boolean[] dirtyN = new boolean[size];
+		if(dirty != null)
+			System.arraycopy(dirty,0,dirtyN,0,lines);
+		dirty = dirtyN;
+		for(int k = 0; k < KINDS; k++)
+		{
+			opens[k] = grow(opens[k],size);
+			closes[k] = grow(closes[k],size);
+		}
+	}
+
+	private byte[] grow(byte[] array, int size)
+	{
+		byte[] grown = new byte[size];
+		if(array != null)
+			System.arraycopy(array,0,grown,0,lines);
+		return grown;
+	}
+
+	private int[] grow(int[] array, int size)
+	{
+		int[] grown = new int[size];
+		if(array != null)
+			System.arraycopy(array,0,grown,0,lines);
+		return grown;
+	}
+}
@@ -0,0 +1,312 @@
+/*
+ * FoldModel.java - Which lines of a text area are folded away
+ *
+ * You may use and modify this package for any purpose. Redistribution is
+ * permitted, in both source and binary form, provided that this notice
+ * remains intact in all source distributions of this package.
+ */
+
+package org.syntax.jedit;
+
+import java.util.ArrayList;
+
+/**
+ * The folded blocks of a text area, and the mapping between physical
+ * lines (of the document) and virtual lines (as displayed, one per
+ * row). A fold runs from the line a block opens on to the line it
+ * closes on; both stay visible and the lines between are hidden.
+ * Folds may nest, in which case the outer one hides the inner.
+ *
+ * The hidden lines are kept as sorted, merged ranges, with the number
+ * of lines hidden before each, so converting a line either way is a
+ * binary search over the folds and costs nothing per hidden line.
+ */
+class FoldModel
+{
+	/**
+	 * Folds the lines between the given ones. Returns false if
+	 * there are none, or the header is already folded.
+	 */
+	public boolean addFold(int header, int end)
+	{
+		if(end - header < 2 || isFolded(header))
+			return false;
+		int i = 0;
+		while(i < folds.size() && folds.get(i)[0] < header)
+			i++;
+		folds.add(i,new int[] { header, end });
+		ranges = null;
+		return true;
+	}
+
+	/**
+	 * Unfolds the fold whose header is the given line. Returns
+	 * false if there is none.
+	 */
+	public boolean removeFold(int header)
+	{
+		for(int i = 0; i < folds.size(); i++)
+		{
+			if(folds.get(i)[0] == header)
+			{
+				folds.remove(i);
+				ranges = null;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Unfolds every fold that hides the given line. Returns false
+	 * if it was not hidden.
+	 */
+	public boolean showLine(int line)
+	{
+		boolean changed = false;
+		for(int i = folds.size() - 1; i >= 0; i--)
+		{
+			int[] fold = folds.get(i);
+			if(fold[0] < line && line < fold[1])
+			{
+				folds.remove(i);
+				changed = true;
+			}
+		}
+		if(changed)
+			ranges = null;
+		return changed;
+	}
+
+	public void clear()
+	{
+		folds.clear();
+		ranges = null;
+	}
+
+	public boolean isEmpty()
+	{
+		return folds.isEmpty();
+	}
+
+	public boolean isFolded(int header)
+	{
+		return getFoldEnd(header) != -1;
+	}
+
+	/**
+	 * Returns the line the fold with the given header ends on, or
+	 * -1 if it is not folded.
+	 */
+	public int getFoldEnd(int header)
+	{
+		for(int i = 0; i < folds.size(); i++)
+		{
+			if(folds.get(i)[0] == header)
+				return folds.get(i)[1];
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the headers of the folds that touch the given lines,
+	 * so they can be checked after those lines are edited.
+	 */
+	public int[] getFoldsTouching(int first, int last)
+	{
+		int count = 0;
+		int[] headers = new int[folds.size()];
+		for(int i = 0; i < folds.size(); i++)
+		{
+			int[] fold = folds.get(i);
+			if(fold[0] <= last && fold[1] >= first)
+				headers[count++] = fold[0];
+		}
+		int[] touching = new int[count];
+		System.arraycopy(headers,0,touching,0,count);
+		return touching;
+	}
+
+	/**
+	 * Moves the folds after the given line down, as count lines
+	 * were inserted there.
+	 */
+	public void linesInserted(int index, int count)
+	{
+		if(count <= 0 || folds.isEmpty())
+			return;
+		for(int i = 0; i < folds.size(); i++)
+		{
+			int[] fold = folds.get(i);
+			if(fold[0] >= index)
+				fold[0] += count;
+			if(fold[1] >= index)
+				fold[1] += count;
+		}
+		ranges = null;
+	}
+
+	/**
+	 * Moves the folds after the given lines up, as they were
+	 * removed, and drops folds whose header was removed or that no
+	 * longer hide anything.
+	 */
+	public void linesRemoved(int index, int count)
+	{
+		if(count <= 0 || folds.isEmpty())
+			return;
+		int last = index + count - 1;
+		for(int i = folds.size() - 1; i >= 0; i--)
+		{
+			int[] fold = folds.get(i);
+			if(fold[0] >= index && fold[0] <= last)
+			{
+				folds.remove(i);
+				continue;
+			}
+			fold[0] = shift(fold[0],index,last);
+			fold[1] = shift(fold[1],index,last);
+			if(fold[1] - fold[0] < 2)
+				folds.remove(i);
+		}
+		ranges = null;
+	}
+
+	/**
+	 * Returns whether the given physical line is hidden.
+	 */
+	public boolean isHidden(int line)
+	{
+		int k = findRange(line);
+		return k >= 0 && line <= getRanges()[1][k];
+	}
+
+	/**
+	 * Returns the virtual line of the given physical line. A hidden
+	 * line maps to the fold header it is hidden under.
+	 */
+	public int physicalToVirtual(int line)
+	{
+		int k = findRange(line);
+		if(k < 0)
+			return line;
+		int[][] r = getRanges();
+		if(line <= r[1][k])
+			return r[0][k] - 1 - r[2][k];
+		return line - r[2][k] - (r[1][k] - r[0][k] + 1);
+	}
+
+	/**
+	 * Returns the physical line displayed as the given virtual line.
+	 */
+	public int virtualToPhysical(int line)
+	{
+		int[][] r = getRanges();
+		// The last range whose first hidden line would be displayed
+		// at or before this line
+		int low = 0;
+		int high = r[0].length - 1;
+		int k = -1;
+		while(low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			if(r[0][mid] - r[2][mid] <= line)
+			{
+				k = mid;
+				low = mid + 1;
+			}
+			else
+				high = mid - 1;
+		}
+		if(k < 0)
+			return line;
+		return line + r[2][k] + (r[1][k] - r[0][k] + 1);
+	}
+
+	/**
+	 * Returns the number of virtual lines in a document with the
+	 * given number of physical lines.
+	 */
+	public int getVirtualLineCount(int lineCount)
+	{
+		int[][] r = getRanges();
+		int k = r[0].length - 1;
+		if(k < 0)
+			return lineCount;
+		return lineCount - r[2][k] - (r[1][k] - r[0][k] + 1);
+	}
+
+	// private members
+	private ArrayList<int[]> folds = new ArrayList<int[]>();
+
+	// The merged hidden ranges: first lines, last lines, and the
+	// number of lines hidden before each; null when out of date
+	private int[][] ranges;
+
+	private int[][] getRanges()
+	{
+		if(ranges != null)
+			return ranges;
+		int[] starts = new int[folds.size()];
+		int[] ends = new int[folds.size()];
+		int count = 0;
+		for(int i = 0; i < folds.size(); i++)
+		{
+			// Folds are sorted by header, so a fold either starts
+			// after the last range or overlaps its end
+			int start = folds.get(i)[0] + 1;
+			int end = folds.get(i)[1] - 1;
+			if(count > 0 && start <= ends[count - 1] + 1)
+				ends[count - 1] = Math.max(ends[count - 1],end);
+			else
+			{
+				starts[count] = start;
+				ends[count] = end;
+				count++;
+			}
+		}
+		ranges = new int[3][count];
+		int hidden = 0;
+		for(int k = 0; k < count; k++)
+		{
+			ranges[0][k] = starts[k];
+			ranges[1][k] = ends[k];
+			ranges[2][k] = hidden;
+			hidden += ends[k] - starts[k] + 1;
+		}
+		return ranges;
+	}
+
+	/**
+	 * Returns the last range starting at or before the given line,
+	 * or -1.
+	 */
+	private int findRange(int line)
+	{
+		int[] starts = getRanges()[0];
+		int low = 0;
+		int high = starts.length - 1;
+		int k = -1;
+		while(low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			if(starts[mid] <= line)
+			{
+				k = mid;
+				low = mid + 1;
+			}
+			else
+				high = mid - 1;
+		}
+		return k;
+	}
+
+	private static int shift(int line, int index, int last)
+	{
+		if(line > last)
+			return line - (last - index + 1);
+		if(line >= index)
+			return index;
+		return line;
+	}
+}
@@ -590,15 +590,16 @@ public abstract class InputHandler extends KeyAdapter
 				textArea.getCaretLine()) - 1;
 			int lastVisibleLine = textArea.getFirstLine()
 				+ textArea.getVisibleLines();
-			if(lastVisibleLine >= textArea.getLineCount())
+			if(lastVisibleLine >= textArea.getVirtualLineCount())
 			{
-				lastVisibleLine = Math.min(textArea.getLineCount() - 1,
+				lastVisibleLine = Math.min(textArea.getVirtualLineCount() - 1,
 					lastVisibleLine);
 			}
 			else
 				lastVisibleLine -= (textArea.getElectricScroll() + 1);
 
-			int lastVisible = textArea.getLineEndOffset(lastVisibleLine) - 1;
+			int lastVisible = textArea.getLineEndOffset(
+				textArea.virtualToPhysical(lastVisibleLine)) - 1;
 			int lastDocument = textArea.getDocumentLength();
 
 			if(caret == lastDocument)
@@ -674,7 +675,7 @@ public abstract class InputHandler extends KeyAdapter
 			int firstVisibleLine = (firstLine == 0 ? 0 :
 				firstLine + textArea.getElectricScroll());
 			int firstVisible = textArea.getLineStartOffset(
-				firstVisibleLine);
+				textArea.virtualToPhysical(firstVisibleLine));
 
 			if(caret == 0)
 			{
@@ -791,7 +792,9 @@ public abstract class InputHandler extends KeyAdapter
 			int caret = textArea.getCaretPosition();
 			int line = textArea.getCaretLine();
 
-			if(line == textArea.getLineCount() - 1)
+			int virtualLine = textArea.physicalToVirtual(line);
+
+			if(virtualLine == textArea.getVirtualLineCount() - 1)
 			{
 				textArea.getToolkit().beep();
 				return;
@@ -804,8 +807,9 @@ public abstract class InputHandler extends KeyAdapter
 					caret - textArea.getLineStartOffset(line));
 			}
 
-			caret = textArea.getLineStartOffset(line + 1)
-				+ textArea.xToOffset(line + 1,magic);
+			int nextLine = textArea.virtualToPhysical(virtualLine + 1);
+			caret = textArea.getLineStartOffset(nextLine)
+				+ textArea.xToOffset(nextLine,magic);
 			if(select)
 				textArea.select(textArea.getMarkPosition(),caret);
 			else
@@ -826,10 +830,10 @@ public abstract class InputHandler extends KeyAdapter
 		public void actionPerformed(ActionEvent evt)
 		{
 			JEditTextArea textArea = getTextArea(evt);
-			int lineCount = textArea.getLineCount();
+			int lineCount = textArea.getVirtualLineCount();
 			int firstLine = textArea.getFirstLine();
 			int visibleLines = textArea.getVisibleLines();
-			int line = textArea.getCaretLine();
+			int line = textArea.physicalToVirtual(textArea.getCaretLine());
 
 			firstLine += visibleLines;
 
@@ -839,8 +843,8 @@ public abstract class InputHandler extends KeyAdapter
 			textArea.setFirstLine(firstLine);
 
 			int caret = textArea.getLineStartOffset(
-				Math.min(textArea.getLineCount() - 1,
-				line + visibleLines));
+				textArea.virtualToPhysical(Math.min(lineCount - 1,
+				line + visibleLines)));
 			if(select)
 				textArea.select(textArea.getMarkPosition(),caret);
 			else
@@ -956,8 +960,10 @@ public abstract class InputHandler extends KeyAdapter
 					caret - textArea.getLineStartOffset(line));
 			}
 
-			caret = textArea.getLineStartOffset(line - 1)
-				+ textArea.xToOffset(line - 1,magic);
+			int prevLine = textArea.virtualToPhysical(
+				textArea.physicalToVirtual(line) - 1);
+			caret = textArea.getLineStartOffset(prevLine)
+				+ textArea.xToOffset(prevLine,magic);
 			if(select)
 				textArea.select(textArea.getMarkPosition(),caret);
 			else
@@ -980,7 +986,7 @@ public abstract class InputHandler extends KeyAdapter
 			JEditTextArea textArea = getTextArea(evt);
 			int firstLine = textArea.getFirstLine();
 			int visibleLines = textArea.getVisibleLines();
-			int line = textArea.getCaretLine();
+			int line = textArea.physicalToVirtual(textArea.getCaretLine());
 
 			if(firstLine < visibleLines)
 				firstLine = visibleLines;
@@ -988,7 +994,7 @@ public abstract class InputHandler extends KeyAdapter
 			textArea.setFirstLine(firstLine - visibleLines);
 
 			int caret = textArea.getLineStartOffset(
-				Math.max(0,line - visibleLines));
+				textArea.virtualToPhysical(Math.max(0,line - visibleLines)));
 			if(select)
 				textArea.select(textArea.getMarkPosition(),caret);
 			else
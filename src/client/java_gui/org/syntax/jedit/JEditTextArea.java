@@ -90,6 +90,8 @@ public class JEditTextArea extends JComponent implements MouseWheelListener
 		listenerList = new EventListenerList();
 		caretEvent = new MutableCaretEvent();
 		lineSegment = new Segment();
+		lineWidths = new LineWidthCache();
+		folds = new FoldModel();
 		bracketLine = bracketPosition = -1;
 		blink = true;
 
@@ -253,7 +255,7 @@ public class JEditTextArea extends JComponent implements MouseWheelListener
 	{
 		if(vertical != null && visibleLines != 0)
 		{
-			vertical.setValues(firstLine,visibleLines,0,getLineCount());
+			vertical.setValues(firstLine,visibleLines,0,getVirtualLineCount());
 			vertical.setUnitIncrement(2);
 			vertical.setBlockIncrement(visibleLines);
 		}
@@ -270,14 +272,18 @@ public class JEditTextArea extends JComponent implements MouseWheelListener
 	}
 	public int getMaxWidth(){
 		int maxNumChars=0;
-		for(int i=0; i<getLineCount(); ++i){
-			maxNumChars=Math.max(maxNumChars, getLineLength(i));
+		int virtualLines=getVirtualLineCount();
+		for(int i=0; i<virtualLines; ++i){
+			maxNumChars=Math.max(maxNumChars, getLineLength(virtualToPhysical(i)));
 		}
 		return (maxNumChars+1)*painter.getFontMetrics().charWidth('w');
 	}
 	
 	/**
-	 * Returns the line displayed at the text area's origin.
+	 * Returns the line displayed at the text area's origin. This,
+	 * like the other scrolling methods, counts virtual lines (rows
+	 * on screen), which differ from the lines of the document when
+	 * some are folded away.
 	 */
 	public final int getFirstLine()
 	{
@@ -404,6 +410,9 @@ public class JEditTextArea extends JComponent implements MouseWheelListener
 	 */
 	public boolean scrollTo(int line, int offset)
 	{
+		int physicalLine = line;
+		line = physicalToVirtual(line);
+
 		// visibleLines == 0 before the component is realized
 		// we can't do any proper scrolling then, so we have
 		// this hack...
@@ -423,13 +432,13 @@ public class JEditTextArea extends JComponent implements MouseWheelListener
 		else if(line + electricScroll >= firstLine + visibleLines)
 		{
 			newFirstLine = (line - visibleLines) + electricScroll + 1;
-			if(newFirstLine + visibleLines >= getLineCount())
-				newFirstLine = getLineCount() - visibleLines;
+			if(newFirstLine + visibleLines >= getVirtualLineCount())
+				newFirstLine = getVirtualLineCount() - visibleLines;
 			if(newFirstLine < 0)
 				newFirstLine = 0;
 		}
 
-		int x = _offsetToX(line,offset);
+		int x = _offsetToX(physicalLine,offset);
 		int width = painter.getFontMetrics().charWidth('w');
 
 		if(x < 0)
@@ -453,7 +462,7 @@ public class JEditTextArea extends JComponent implements MouseWheelListener
 	public int lineToY(int line)
 	{
 		FontMetrics fm = painter.getFontMetrics();
-		return (line - firstLine) * fm.getHeight()
+		return (physicalToVirtual(line) - firstLine) * fm.getHeight()
 			- (fm.getLeading() + fm.getMaxDescent());
 	}
 
@@ -465,8 +474,117 @@ public class JEditTextArea extends JComponent implements MouseWheelListener
 	{
 		FontMetrics fm = painter.getFontMetrics();
 		int height = fm.getHeight();
-		return Math.max(0,Math.min(getLineCount() - 1,
-			y / height + firstLine));
+		return virtualToPhysical(Math.max(0,Math.min(getVirtualLineCount() - 1,
+			y / height + firstLine)));
+	}
+
+	/**
+	 * Returns the virtual line (row, counting from the top of the
+	 * document) that the given line is displayed on. Lines folded
+	 * away are displayed on their fold's first line. Lines past the
+	 * end of the document continue on from the last virtual line.
+	 * @param line The line
+	 */
+	public int physicalToVirtual(int line)
+	{
+		if(folds.isEmpty())
+			return line;
+		int lineCount = getLineCount();
+		if(line >= lineCount)
+			return getVirtualLineCount() + line - lineCount;
+		return folds.physicalToVirtual(line);
+	}
+
+	/**
+	 * Returns the line displayed on the given virtual line.
+	 * @param line The virtual line
+	 */
+	public int virtualToPhysical(int line)
+	{
+		if(folds.isEmpty())
+			return line;
+		int virtualLines = getVirtualLineCount();
+		if(line >= virtualLines)
+			return getLineCount() + line - virtualLines;
+		return folds.virtualToPhysical(line);
+	}
+
+	/**
+	 * Returns the number of lines displayed, which is the number of
+	 * lines in the document less those folded away.
+	 */
+	public int getVirtualLineCount()
+	{
+		return folds.getVirtualLineCount(getLineCount());
+	}
+
+	/**
+	 * Returns true if the block opening on the given line is folded.
+	 * @param line The line
+	 */
+	public final boolean isFolded(int line)
+	{
+		return folds.isFolded(line);
+	}
+
+	/**
+	 * Returns the last line of the fold whose first line is the
+	 * given one, or -1 if it is not folded.
+	 * @param line The line
+	 */
+	public final int getFoldEnd(int line)
+	{
+		return folds.getFoldEnd(line);
+	}
+
+	/**
+	 * Folds away the lines inside the block opening on the given
+	 * line (or, if no block opens there, the innermost block around
+	 * it), or unfolds it if it is folded. Returns false if there is
+	 * no block to fold.
+	 * @param line The line
+	 */
+	public boolean toggleFold(int line)
+	{
+		if(!folds.removeFold(line))
+		{
+			int header = line;
+			int end = document.getBlockEnd(header);
+			if(end == -1)
+			{
+				header = document.getBlockStart(line);
+				if(header == -1)
+					return false;
+				if(folds.removeFold(header))
+				{
+					foldsChanged();
+					return true;
+				}
+				end = document.getBlockEnd(header);
+			}
+			if(end - header < 2)
+				return false;
+
+			// Keep the caret out of the lines being hidden
+			int caretLine = getCaretLine();
+			if(caretLine > header && caretLine < end)
+				setCaretPosition(getLineEndOffset(header) - 1);
+			folds.addFold(header,end);
+		}
+		foldsChanged();
+		scrollToCaret();
+		return true;
+	}
+
+	/**
+	 * Unfolds every folded block.
+	 */
+	public void unfoldAll()
+	{
+		if(folds.isEmpty())
+			return;
+		folds.clear();
+		foldsChanged();
 	}
 
 	/**
@@ -491,73 +609,9 @@ public class JEditTextArea extends JComponent implements MouseWheelListener
 	 */
 	public int _offsetToX(int line, int offset)
 	{
-		TokenMarker tokenMarker = getTokenMarker();
-
-		/* Use painter's cached info for speed */
-		FontMetrics fm = painter.getFontMetrics();
-
-		getLineText(line,lineSegment);
-
-		int segmentOffset = lineSegment.offset;
-		int x = horizontalOffset;
-
-		/* If syntax coloring is disabled, do simple translation */
-		if(tokenMarker == null)
-		{
-			lineSegment.count = offset;
-			return x + Utilities.getTabbedTextWidth(lineSegment,
-				fm,x,painter,0);
-		}
-		/* If syntax coloring is enabled, we have to do this because
-		 * tokens can vary in width */
-		else
-		{
-			Token tokens;
-			if(painter.currentLineIndex == line
-				&& painter.currentLineTokens != null)
-				tokens = painter.currentLineTokens;
-			else
-			{
-				painter.currentLineIndex = line;
-				tokens = painter.currentLineTokens
-					= tokenMarker.markTokens(lineSegment,line);
-			}
-
-			Toolkit toolkit = painter.getToolkit();
-			Font defaultFont = painter.getFont();
-			SyntaxStyle[] styles = painter.getStyles();
-
-			for(;;)
-			{
-				byte id = tokens.id;
-				if(id == Token.END)
-				{
-					return x;
-				}
-
-				if(id == Token.NULL)
-					fm = painter.getFontMetrics();
-				else
-					fm = styles[id].getFontMetrics(defaultFont);
-
-				int length = tokens.length;
-
-				if(offset + segmentOffset < lineSegment.offset + length)
-				{
-					lineSegment.count = offset - (lineSegment.offset - segmentOffset);
-					return x + Utilities.getTabbedTextWidth(
-						lineSegment,fm,x,painter,0);
-				}
-				else
-				{
-					lineSegment.count = length;
-					x += Utilities.getTabbedTextWidth(
-						lineSegment,fm,x,painter,0);
-					lineSegment.offset += length;
-				}
-				tokens = tokens.next;
-			}
-		}
+		int[] widths = getLineWidths(line);
+		return horizontalOffset + widths[Math.max(0,
+			Math.min(offset,widths.length - 1))];
 	}
 
 	/**
@@ -567,10 +621,28 @@ public class JEditTextArea extends JComponent implements MouseWheelListener
 	 */
 	public int xToOffset(int line, int x)
 	{
-		TokenMarker tokenMarker = getTokenMarker();
+		return LineWidthCache.findOffset(getLineWidths(line),
+			x - horizontalOffset,painter.isBlockCaretEnabled());
+	}
 
-		/* Use painter's cached info for speed */
+	/**
+	 * Returns the x co-ordinate, relative to the horizontal offset,
+	 * at which each character of the line starts, followed by where
+	 * the line ends. Lines are measured once and then remembered
+	 * until the document, the font or the styles change, so painting
+	 * highlights and dragging the mouse do not measure text again.
+	 * @param line The line
+	 */
+	protected int[] getLineWidths(int line)
+	{
+		TokenMarker tokenMarker = getTokenMarker();
 		FontMetrics fm = painter.getFontMetrics();
+		SyntaxStyle[] styles = painter.getStyles();
+
+		int[] widths = lineWidths.get(line,fm,styles,tokenMarker,
+			painter.tabSize);
+		if(widths != null)
+			return widths;
 
 		getLineText(line,lineSegment);
 
@@ -578,41 +650,12 @@ public class JEditTextArea extends JComponent implements MouseWheelListener
 		int segmentOffset = lineSegment.offset;
 		int segmentCount = lineSegment.count;
 
-		int width = horizontalOffset;
-
-		if(tokenMarker == null)
+		/* If syntax coloring is enabled, tokens can vary in width */
+		Token tokens = null;
+		if(tokenMarker != null)
 		{
-			for(int i = 0; i < segmentCount; i++)
-			{
-				char c = segmentArray[i + segmentOffset];
-				int charWidth;
-				if(c == '\t')
-					charWidth = (int)painter.nextTabStop(width,i)
-						- width;
-				else
-					charWidth = fm.charWidth(c);
-
-				if(painter.isBlockCaretEnabled())
-				{
-					if(x - charWidth <= width)
-						return i;
-				}
-				else
-				{
-					if(x - charWidth / 2 <= width)
-						return i;
-				}
-
-				width += charWidth;
-			}
-
-			return segmentCount;
-		}
-		else
-		{
-			Token tokens;
-			if(painter.currentLineIndex == line && painter
-				.currentLineTokens != null)
+			if(painter.currentLineIndex == line
+				&& painter.currentLineTokens != null)
 				tokens = painter.currentLineTokens;
 			else
 			{
@@ -620,53 +663,45 @@ public class JEditTextArea extends JComponent implements MouseWheelListener
 				tokens = painter.currentLineTokens
 					= tokenMarker.markTokens(lineSegment,line);
 			}
+		}
 
-			int offset = 0;
-			Toolkit toolkit = painter.getToolkit();
-			Font defaultFont = painter.getFont();
-			SyntaxStyle[] styles = painter.getStyles();
+		Font defaultFont = painter.getFont();
+		widths = new int[segmentCount + 1];
+		FontMetrics tokenFm = fm;
+		int tokenEnd = segmentCount;
+		if(tokens != null && tokens.id != Token.END)
+			tokenEnd = 0;
 
-			for(;;)
+		for(int i = 0; i < segmentCount; i++)
+		{
+			while(i == tokenEnd)
 			{
-				byte id = tokens.id;
-				if(id == Token.END)
-					return offset;
-
-				if(id == Token.NULL)
-					fm = painter.getFontMetrics();
-				else
-					fm = styles[id].getFontMetrics(defaultFont);
-
-				int length = tokens.length;
-
-				for(int i = 0; i < length; i++)
+				if(tokens.id == Token.END)
 				{
-					char c = segmentArray[segmentOffset + offset + i];
-					int charWidth;
-					if(c == '\t')
-						charWidth = (int)painter.nextTabStop(width,offset + i)
-							- width;
-					else
-						charWidth = fm.charWidth(c);
-
-					if(painter.isBlockCaretEnabled())
-					{
-						if(x - charWidth <= width)
-							return offset + i;
-					}
-					else
-					{
-						if(x - charWidth / 2 <= width)
-							return offset + i;
-					}
-
-					width += charWidth;
+					tokenFm = fm;
+					tokenEnd = segmentCount;
+					break;
 				}
-
-				offset += length;
+				if(tokens.id == Token.NULL)
+					tokenFm = fm;
+				else
+					tokenFm = styles[tokens.id].getFontMetrics(defaultFont);
+				tokenEnd += tokens.length;
 				tokens = tokens.next;
 			}
+
+			char c = segmentArray[segmentOffset + i];
+			if(c == '\t')
+			{
+				widths[i + 1] = (int)painter.nextTabStop(
+					horizontalOffset + widths[i],i) - horizontalOffset;
+			}
+			else
+				widths[i + 1] = widths[i] + tokenFm.charWidth(c);
 		}
+
+		lineWidths.put(line,widths);
+		return widths;
 	}
 
 	/**
@@ -700,6 +735,8 @@ public class JEditTextArea extends JComponent implements MouseWheelListener
 		if(this.document != null)
 			this.document.removeDocumentListener(documentHandler);
 		this.document = document;
+		lineWidths.clear();
+		folds.clear();
 
 		document.addDocumentListener(documentHandler);
 
@@ -1102,6 +1139,10 @@ public class JEditTextArea extends JComponent implements MouseWheelListener
 			int newStartLine = getLineOfOffset(newStart);
 			int newEndLine = getLineOfOffset(newEnd);
 
+			// Never leave the caret or selection in a fold
+			if(folds.showLine(newStartLine) | folds.showLine(newEndLine))
+				foldsChanged();
+
 			if(painter.isBracketHighlightEnabled())
 			{
 				if(bracketLine != -1)
@@ -1520,6 +1561,8 @@ public class JEditTextArea extends JComponent implements MouseWheelListener
 				for(int i = 0; i < repeatCount; i++)
 					buf.append(selection);
 				selection = buf.toString();
+				if(!rectSelect)
+					selection = document.indentLines(selectionStart,selection);
 				setSelectedText(selection);
 			}
 			catch(Exception e)
@@ -1588,7 +1631,7 @@ public class JEditTextArea extends JComponent implements MouseWheelListener
 
 	protected boolean editable;
 
-	protected int firstLine;
+	protected int firstLine; // a virtual line
 	protected int visibleLines;
 	protected int electricScroll;
 
@@ -1603,6 +1646,8 @@ public class JEditTextArea extends JComponent implements MouseWheelListener
 	protected DocumentHandler documentHandler;
 
 	protected Segment lineSegment;
+	protected LineWidthCache lineWidths;
+	protected FoldModel folds;
 
 	protected int selectionStart;
 	protected int selectionStartLine;
@@ -1669,6 +1714,8 @@ public class JEditTextArea extends JComponent implements MouseWheelListener
 
 	protected void documentChanged(DocumentEvent evt)
 	{
+		lineWidths.clear();
+
 		DocumentEvent.ElementChange ch = evt.getChange(
 			document.getDefaultRootElement());
 
@@ -1680,21 +1727,84 @@ public class JEditTextArea extends JComponent implements MouseWheelListener
 				ch.getChildrenRemoved().length;
 
 		int line = getLineOfOffset(evt.getOffset());
+		boolean foldsMoved = (!folds.isEmpty() && updateFolds(ch,line,
+			evt.getOffset() == getLineStartOffset(line)));
+
 		if(count == 0)
 		{
 			painter.invalidateLine(line);
 		}
 		// do magic stuff
-		else if(line < firstLine)
+		else if(physicalToVirtual(line) < firstLine)
 		{
 			setFirstLine(firstLine + count);
 		}
 		// end of magic stuff
 		else
 		{
-			painter.invalidateLineRange(line,firstLine + visibleLines);
+			painter.invalidateLineRange(line,
+				virtualToPhysical(firstLine + visibleLines));
 			updateScrollBars();
 		}
+
+		if(foldsMoved)
+			foldsChanged();
+	}
+
+	/**
+	 * Moves the folds for lines inserted or removed, and checks that
+	 * the folds touching the changed lines still fold a block,
+	 * adjusting or dropping those that do not. Returns true if any
+	 * fold was adjusted or dropped.
+	 * @param ch The change to the lines, or null
+	 * @param line The line the change was made in
+	 * @param atLineStart True if the change was made at the start of
+	 * the line, so the text of the line moved with the lines
+	 * inserted or removed rather than staying ahead of them
+	 */
+	protected boolean updateFolds(DocumentEvent.ElementChange ch,
+		int line, boolean atLineStart)
+	{
+		int first = line;
+		int last = line;
+		if(ch != null)
+		{
+			int count = ch.getChildrenAdded().length
+				- ch.getChildrenRemoved().length;
+			int index = (atLineStart ? line : line + 1);
+			if(count > 0)
+				folds.linesInserted(index,count);
+			else
+				folds.linesRemoved(index,-count);
+			first = ch.getIndex();
+			last = first + ch.getChildrenAdded().length - 1;
+		}
+
+		boolean changed = false;
+		int[] headers = folds.getFoldsTouching(first,last);
+		for(int i = 0; i < headers.length; i++)
+		{
+			int end = document.getBlockEnd(headers[i]);
+			if(end == folds.getFoldEnd(headers[i]))
+				continue;
+			folds.removeFold(headers[i]);
+			if(end != -1)
+				folds.addFold(headers[i],end);
+			changed = true;
+		}
+		return changed;
+	}
+
+	/**
+	 * Called when lines have been folded or unfolded.
+	 */
+	protected void foldsChanged()
+	{
+		int maxFirstLine = Math.max(0,getVirtualLineCount() - visibleLines);
+		if(firstLine > maxFirstLine)
+			firstLine = maxFirstLine;
+		updateScrollBars();
+		painter.repaint();
 	}
 
 	class ScrollLayout implements LayoutManager
@@ -1987,6 +2097,13 @@ public class JEditTextArea extends JComponent implements MouseWheelListener
 			int offset = xToOffset(line,evt.getX());
 			int dot = getLineStartOffset(line) + offset;
 
+			// Clicking a fold's marker unfolds it
+			if(isFolded(line) && evt.getX() >= painter.getFoldMarkerX(line))
+			{
+				toggleFold(line);
+				return;
+			}
+
 			switch(evt.getClickCount())
 			{
 			case 1:
@@ -0,0 +1,106 @@
+/*
+ * LineImageCache.java - Remembers what lines of text look like
+ *
+ * You may use and modify this package for any purpose. Redistribution is
+ * permitted, in both source and binary form, provided that this notice
+ * remains intact in all source distributions of this package.
+ */
+
+package org.syntax.jedit;
+
+import java.awt.Color;
+import java.awt.FontMetrics;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.swing.text.Segment;
+import org.syntax.jedit.tokenmarker.Token;
+
+/**
+ * Images of the text of recently painted lines, with transparent
+ * backgrounds so they can be drawn over the highlights. They are
+ * keyed by the text of the line and its tokens, so lines that read
+ * the same share an image and an edit never shows a stale one.
+ *
+ * Images are only good for the font, styles and color they were
+ * drawn with; the cache clears itself when any of those change.
+ * The images are kept under a budget of pixels, dropping the least
+ * recently drawn first.
+ */
+class LineImageCache
+{
+	/**
+	 * Returns the key of a line with the given text and tokens,
+	 * which may be null if the line is not colorized.
+	 */
+	public static String keyOf(Segment line, Token tokens)
+	{
+		StringBuffer key = new StringBuffer(line.count + 16);
+		key.append(line.array,line.offset,line.count);
+		key.append('\0');
+		for(; tokens != null && tokens.id != Token.END; tokens = tokens.next)
+		{
+			key.append((char)tokens.id);
+			key.append((char)tokens.length);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Returns the image of the line with the given key, or null if
+	 * it has not been drawn with this font, styles and color.
+	 */
+	public BufferedImage get(String key, FontMetrics fm,
+		SyntaxStyle[] styles, Color color)
+	{
+		if(fm != this.fm || styles != this.styles
+			|| !color.equals(this.color))
+		{
+			clear();
+			this.fm = fm;
+			this.styles = styles;
+			this.color = color;
+			return null;
+		}
+		return images.get(key);
+	}
+
+	public void put(String key, BufferedImage image)
+	{
+		BufferedImage old = images.put(key,image);
+		if(old != null)
+			pixels -= size(old);
+		pixels += size(image);
+
+		Iterator<Map.Entry<String,BufferedImage>> iter
+			= images.entrySet().iterator();
+		while(pixels > MAX_PIXELS && iter.hasNext())
+		{
+			pixels -= size(iter.next().getValue());
+			iter.remove();
+		}
+	}
+
+	public void clear()
+	{
+		images.clear();
+		pixels = 0;
+	}
+
+	// private members
+	private static final long MAX_PIXELS = 4 * 1024 * 1024;
+
+	private FontMetrics fm;
+	private SyntaxStyle[] styles;
+	private Color color;
+	private long pixels;
+
+	private LinkedHashMap<String,BufferedImage> images
+		= new LinkedHashMap<String,BufferedImage>(64,0.75f,true);
+
+	private static long size(BufferedImage image)
+	{
+		return (long)image.getWidth() * image.getHeight();
+	}
+}
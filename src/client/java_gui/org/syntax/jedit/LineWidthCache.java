@@ -0,0 +1,101 @@
+/*
+ * LineWidthCache.java - Remembers where each character of a line is drawn
+ *
+ * You may use and modify this package for any purpose. Redistribution is
+ * permitted, in both source and binary form, provided that this notice
+ * remains intact in all source distributions of this package.
+ */
+
+package org.syntax.jedit;
+
+import java.awt.FontMetrics;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The x co-ordinates of the characters of recently measured lines,
+ * so converting between offsets and x co-ordinates does not have
+ * to tokenize and measure the line again. The widths of a line are
+ * kept as an array of count + 1 co-ordinates, relative to the
+ * horizontal offset of the text area; element i is where character
+ * i starts and the last is where the line ends.
+ *
+ * Entries are only good for the text, font, styles and token marker
+ * they were measured with. The text area clears the cache whenever
+ * the document changes (an edit can change the tokens of the lines
+ * after it), and the cache clears itself when any of the others do.
+ */
+class LineWidthCache
+{
+	/**
+	 * Returns the widths of the given line, or null if they have
+	 * not been measured since the last change.
+	 */
+	public int[] get(int line, FontMetrics fm, SyntaxStyle[] styles,
+		Object tokenMarker, int tabSize)
+	{
+		if(fm != this.fm || styles != this.styles
+			|| tokenMarker != this.tokenMarker
+			|| tabSize != this.tabSize)
+		{
+			clear();
+			this.fm = fm;
+			this.styles = styles;
+			this.tokenMarker = tokenMarker;
+			this.tabSize = tabSize;
+			return null;
+		}
+		return lines.get(line);
+	}
+
+	public void put(int line, int[] widths)
+	{
+		lines.put(line,widths);
+	}
+
+	public void clear()
+	{
+		lines.clear();
+	}
+
+	/**
+	 * Returns the offset in the line whose character contains the
+	 * given x co-ordinate (relative to the horizontal offset), or
+	 * the length of the line if it is past the end. A character
+	 * contains an x co-ordinate up to its right edge if blockCaret
+	 * is true, and up to its middle otherwise.
+	 */
+	public static int findOffset(int[] widths, int x, boolean blockCaret)
+	{
+		int low = 0;
+		int high = widths.length - 1;
+		while(low < high)
+		{
+			int mid = (low + high) >>> 1;
+			int edge = (blockCaret ? widths[mid + 1]
+				: widths[mid] + (widths[mid + 1] - widths[mid]) / 2);
+			if(x <= edge)
+				high = mid;
+			else
+				low = mid + 1;
+		}
+		return low;
+	}
+
+	// private members
+	private static final int MAX_LINES = 512;
+
+	private FontMetrics fm;
+	private SyntaxStyle[] styles;
+	private Object tokenMarker;
+	private int tabSize;
+
+	private LinkedHashMap<Integer,int[]> lines
+		= new LinkedHashMap<Integer,int[]>(64,0.75f,true)
+	{
+		protected boolean removeEldestEntry(Map.Entry<Integer,int[]> eldest)
+		{
+			return size() > MAX_LINES;
+		}
+	};
+}
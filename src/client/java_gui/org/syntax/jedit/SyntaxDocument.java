@@ -40,45 +40,162 @@ public class SyntaxDocument extends PlainDocument
 		
 	}*/
 	
-  	@Override
-    public void insertString(int offs, String str, AttributeSet a) throws BadLocationException {
-    	/*
-    	 * If the user enters a newline, we want to tab them in relative
-    	 * to the previous line.  If they press enter after typing a '{',
-    	 * we indent them one extra tab.  Otherwise, we indent them to
-    	 * the level of the previous line.  Note that we count spaces
-    	 * as indentation levels as well.
-    	 */
-    	if ("\n".equals(str)) {
-    		String tabs = getLineTabString(offs - 1);
-    		if (offs >= 1 && getText(offs -1, 1).equals("{"))
-    			tabs += "\t";
-            super.insertString(offs, str + tabs, a);
-        /*
-         * If the user enters a '}', we unindent it by one tab.
-         */
-    	} else if ("}".equals(str) && offs >= 1 && getText(offs -1, 1).equals("\t")) {
-    		remove(offs - 1, 1);
-    		super.insertString(offs - 1, str, a);
-    	} else {
-    		super.insertString(offs, str, a);
-    	}
-    }
-
-  	
-    /**
-     * Returns a string consisting of all the whitespace (tabs or spaces)
-     * at the beginning of the line starting at offs.
-     */
-    private String getLineTabString(int offs) throws BadLocationException {
-		String text = getText(0, getLength());
-		int lastNewlinePos = text.lastIndexOf('\n', offs);
-		String tabs = "";
-		//if (lastNewlinePos != -1) //Note from Jason: I commented this out so that indenting works correctly on from line 0 to line 1
-			for (int i = lastNewlinePos + 1; i < text.length() && (text.charAt(i) == '\t' || text.charAt(i) == ' '); i++)
-				tabs += text.charAt(i);
-		return tabs;
-    }
+	@Override
+	public void insertString(int offs, String str, AttributeSet a) throws BadLocationException {
+		/*
+		 * If the user enters a newline, we want to tab them in relative
+		 * to the previous line.  If they press enter after typing a '{',
+		 * we indent them one extra tab.  Otherwise, we indent them to
+		 * the level of the previous line.  Note that we count spaces
+		 * as indentation levels as well.
+		 */
+		if (!autoIndent) {
+			super.insertString(offs, str, a);
+		} else if ("\n".equals(str)) {
+			String tabs = getLineIndent(getDefaultRootElement().getElementIndex(offs));
+			if (offs >= 1 && getCharAt(offs - 1) == '{')
+				tabs += "\t";
+			super.insertString(offs, str + tabs, a);
+		/*
+		 * If the user enters a '}', we unindent it by one tab.
+		 */
+		} else if ("}".equals(str) && offs >= 1 && getCharAt(offs - 1) == '\t') {
+			beginCompoundEdit();
+			try {
+				remove(offs - 1, 1);
+				super.insertString(offs - 1, str, a);
+			} finally {
+				endCompoundEdit();
+			}
+		} else {
+			super.insertString(offs, str, a);
+		}
+	}
+
+	/**
+	 * Sets whether inserting a newline or a '}' indents it, which is
+	 * not wanted when putting back text exactly as it was.
+	 */
+	public void setAutoIndent(boolean autoIndent) {
+		this.autoIndent = autoIndent;
+	}
+
+	public boolean isAutoIndent() {
+		return autoIndent;
+	}
+
+	/**
+	 * Returns the whitespace (tabs or spaces) at the beginning of
+	 * the given line.  This only reads that line, so it costs the
+	 * same however long the document is.
+	 */
+	public String getLineIndent(int line) throws BadLocationException {
+		Element lineElement = getDefaultRootElement().getElement(line);
+		int start = lineElement.getStartOffset();
+		getText(start, lineElement.getEndOffset() - start - 1, indentSegment);
+		int end = 0;
+		while (end < indentSegment.count && (indentSegment.array[indentSegment.offset + end] == '\t' || indentSegment.array[indentSegment.offset + end] == ' '))
+			end++;
+		return new String(indentSegment.array, indentSegment.offset, end);
+	}
+
+	/**
+	 * Returns the text to insert at offs in place of text that spans
+	 * several lines (such as a paste), with each line after the first
+	 * indented to match the line it is pasted into and the braces
+	 * before it.  If the text goes on a line of its own its first line
+	 * starts where the caret is; otherwise it is left alone.
+	 */
+	public String indentLines(int offs, String text) throws BadLocationException {
+		if (text.indexOf('\n') < 0)
+			return text;
+		int line = getDefaultRootElement().getElementIndex(offs);
+		int lineStart = getDefaultRootElement().getElement(line).getStartOffset();
+		String base = getLineIndent(line);
+		boolean ownLine = (base.length() >= offs - lineStart);
+		if (ownLine)
+			base = base.substring(0, offs - lineStart);
+		StringBuilder indented = new StringBuilder(text.length() + 64);
+		BraceCounter braces = new BraceCounter();
+		int depth = 0;
+		int from = 0;
+		for (boolean first = true; from <= text.length(); first = false) {
+			int to = text.indexOf('\n', from);
+			if (to < 0)
+				to = text.length();
+			String content = text.substring(from, to);
+			if (first && !ownLine) {
+				indented.append(content);
+			} else {
+				content = stripIndent(content);
+				if (content.length() > 0) {
+					int lineDepth = depth - (content.charAt(0) == '}' ? 1 : 0);
+					if (!first)
+						indented.append(base);
+					for (int i = 0; i < lineDepth; i++)
+						indented.append('\t');
+				}
+				indented.append(content);
+			}
+			depth = Math.max(0, depth + braces.count(content));
+			if (to < text.length())
+				indented.append('\n');
+			from = to + 1;
+		}
+		return indented.toString();
+	}
+
+	private static String stripIndent(String line) {
+		int i = 0;
+		while (i < line.length() && (line.charAt(i) == '\t' || line.charAt(i) == ' '))
+			i++;
+		return line.substring(i);
+	}
+
+	private char getCharAt(int offs) throws BadLocationException {
+		getText(offs, 1, indentSegment);
+		return indentSegment.array[indentSegment.offset];
+	}
+
+	/**
+	 * Counts the braces in a line that open or close a block,
+	 * skipping comments (which may span lines) and literals.
+	 */
+	private static class BraceCounter {
+		private boolean inComment;
+
+		public int count(String line) {
+			int depth = 0;
+			char quote = 0;
+			for (int i = 0; i < line.length(); i++) {
+				char c = line.charAt(i);
+				char next = (i + 1 < line.length() ? line.charAt(i + 1) : 0);
+				if (inComment) {
+					if (c == '*' && next == '/') {
+						inComment = false;
+						i++;
+					}
+				} else if (quote != 0) {
+					if (c == '\\')
+						i++;
+					else if (c == quote)
+						quote = 0;
+				} else if (c == '/' && next == '/') {
+					break;
+				} else if (c == '/' && next == '*') {
+					inComment = true;
+					i++;
+				} else if (c == '"' || c == '\'') {
+					quote = c;
+				} else if (c == '{') {
+					depth++;
+				} else if (c == '}') {
+					depth--;
+				}
+			}
+			return depth;
+		}
+	}
 	
 	/**
 	 * Sets the token marker that is to be used to split lines of
@@ -89,6 +206,7 @@ public class SyntaxDocument extends PlainDocument
 	public void setTokenMarker(TokenMarker tm)
 	{
 		tokenMarker = tm;
+		bracketIndex = null;
 		if(tm == null)
 			return;
 		tokenMarker.insertLines(0,getDefaultRootElement()
@@ -140,6 +258,44 @@ public class SyntaxDocument extends PlainDocument
 		}
 	}
 
+	/**
+	 * Returns the offset of the bracket matching the one at the
+	 * specified offset, or -1 if the bracket is unmatched (or if the
+	 * character is not a bracket, or is in a comment or literal).
+	 * This uses an index of how each line nests brackets, so the
+	 * search skips whole lines. It needs a token marker.
+	 * @param offset The offset
+	 */
+	public int findMatchingBracket(int offset) throws BadLocationException
+	{
+		return getBracketIndex().findMatchingBracket(offset);
+	}
+
+	/**
+	 * Returns the line on which the braces left open at the end of
+	 * the given line are closed, or -1 if there are none (or no
+	 * token marker).
+	 * @param line The line
+	 */
+	public int getBlockEnd(int line)
+	{
+		if(tokenMarker == null)
+			return -1;
+		return getBracketIndex().getBlockEnd(line);
+	}
+
+	/**
+	 * Returns the line that opens the innermost block of braces the
+	 * given line is in, or -1 if there is none (or no token marker).
+	 * @param line The line
+	 */
+	public int getBlockStart(int line)
+	{
+		if(tokenMarker == null)
+			return -1;
+		return getBracketIndex().getBlockStart(line);
+	}
+
 	/**
 	 * Starts a compound edit that can be undone in one operation.
 	 * Subclasses that implement undo should override this method;
@@ -168,6 +324,18 @@ public class SyntaxDocument extends PlainDocument
 	// protected members
 	protected TokenMarker tokenMarker;
 
+	// private members
+	private Segment indentSegment = new Segment();
+	private boolean autoIndent = true;
+	private BracketIndex bracketIndex;
+
+	private BracketIndex getBracketIndex()
+	{
+		if(bracketIndex == null)
+			bracketIndex = new BracketIndex(this);
+		return bracketIndex;
+	}
+
 	/**
 	 * We overwrite this method to update the token marker
 	 * state immediately so that any event listeners get a
@@ -187,6 +355,25 @@ public class SyntaxDocument extends PlainDocument
 			}
 		}
 
+		if(bracketIndex != null)
+		{
+			DocumentEvent.ElementChange ch = evt.getChange(
+				getDefaultRootElement());
+			if(ch != null)
+			{
+				int added = ch.getChildrenAdded().length
+					- ch.getChildrenRemoved().length;
+				bracketIndex.insertLines(ch.getIndex() + 1,added);
+				bracketIndex.linesChanged(ch.getIndex(),
+					ch.getChildrenAdded().length);
+			}
+			else
+			{
+				bracketIndex.linesChanged(getDefaultRootElement()
+					.getElementIndex(evt.getOffset()),1);
+			}
+		}
+
 		super.fireInsertUpdate(evt);
 	}
 	
@@ -209,6 +396,25 @@ public class SyntaxDocument extends PlainDocument
 			}
 		}
 
+		if(bracketIndex != null)
+		{
+			DocumentEvent.ElementChange ch = evt.getChange(
+				getDefaultRootElement());
+			if(ch != null)
+			{
+				int removed = ch.getChildrenRemoved().length
+					- ch.getChildrenAdded().length;
+				bracketIndex.deleteLines(ch.getIndex() + 1,removed);
+				bracketIndex.linesChanged(ch.getIndex(),
+					ch.getChildrenAdded().length);
+			}
+			else
+			{
+				bracketIndex.linesChanged(getDefaultRootElement()
+					.getElementIndex(evt.getOffset()),1);
+			}
+		}
+
 		super.fireRemoveUpdate(evt);
 	}
 }
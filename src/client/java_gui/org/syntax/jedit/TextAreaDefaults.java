@@ -44,6 +44,7 @@ public class TextAreaDefaults
 	public boolean eolMarkers;
 	public boolean paintInvalid;
 	public int tabSize;
+	public boolean lineImageCache;
 	
 	public JPopupMenu popup;
 
@@ -81,6 +82,7 @@ public class TextAreaDefaults
 			DEFAULTS.paintInvalid = false; //true;
 			
 			DEFAULTS.tabSize=2;
+			DEFAULTS.lineImageCache = false;
 		}
 
 		return DEFAULTS;
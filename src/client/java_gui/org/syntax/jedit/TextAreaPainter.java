@@ -17,6 +17,7 @@ import javax.swing.ToolTipManager;
 import javax.swing.text.*;
 import javax.swing.JComponent;
 import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
 import java.awt.*;
 
 /**
@@ -64,6 +65,7 @@ public class TextAreaPainter extends JComponent implements TabExpander
 		eolMarkerColor = defaults.eolMarkerColor;
 		eolMarkers = defaults.eolMarkers;
 		tabSize = fm.charWidth(' ')*defaults.tabSize;
+		setLineImageCacheEnabled(defaults.lineImageCache);
 		
 	}
 
@@ -98,6 +100,31 @@ public class TextAreaPainter extends JComponent implements TabExpander
 		repaint();
 	}
 
+	/**
+	 * Returns true if the text of lines is drawn once into images
+	 * that later repaints copy, false if it is drawn every time.
+	 */
+	public final boolean isLineImageCacheEnabled()
+	{
+		return lineImages != null;
+	}
+
+	/**
+	 * Sets whether the text of lines is drawn once into images that
+	 * later repaints copy. This makes repainting the caret and
+	 * highlights cheap, at the cost of memory for the images and of
+	 * subpixel antialiasing, which cannot be drawn into an image with
+	 * a transparent background.
+	 * @param lineImageCache True if images should be used
+	 */
+	public final void setLineImageCacheEnabled(boolean lineImageCache)
+	{
+		if(lineImageCache == (lineImages != null))
+			return;
+		lineImages = (lineImageCache ? new LineImageCache() : null);
+		repaint();
+	}
+
 	/**
 	 * Returns the caret color.
 	 */
@@ -384,7 +411,8 @@ public class TextAreaPainter extends JComponent implements TabExpander
 		gfx.fillRect(clipRect.x,clipRect.y,clipRect.width,clipRect.height);
 
 		// We don't use yToLine() here because that method doesn't
-		// return lines past the end of the document
+		// return lines past the end of the document. These are
+		// virtual lines, so folded lines are never looked at.
 		int height = fm.getHeight();
 		int firstLine = textArea.getFirstLine();
 		int firstInvalid = firstLine + clipRect.y / height;
@@ -401,7 +429,8 @@ public class TextAreaPainter extends JComponent implements TabExpander
 
 			for(int line = firstInvalid; line <= lastInvalid; line++)
 			{
-				paintLine(gfx,tokenMarker,line,x);
+				paintLine(gfx,tokenMarker,
+					textArea.virtualToPhysical(line),x);
 			}
 
 			if(tokenMarker != null && tokenMarker.isNextLineRequested())
@@ -436,8 +465,10 @@ public class TextAreaPainter extends JComponent implements TabExpander
 	 */
 	public final void invalidateLineRange(int firstLine, int lastLine)
 	{
+		int rows = textArea.physicalToVirtual(lastLine)
+			- textArea.physicalToVirtual(firstLine) + 1;
 		repaint(0,textArea.lineToY(firstLine) + fm.getMaxDescent() + fm.getLeading(),
-			getWidth(),(lastLine - firstLine + 1) * fm.getHeight());
+			getWidth(),rows * fm.getHeight());
 	}
 
 	/**
@@ -513,6 +544,11 @@ public class TextAreaPainter extends JComponent implements TabExpander
 	//we might want to use their official system as opposed to our own.
 	protected Highlight highlights;
 
+	protected LineImageCache lineImages;
+
+	protected static final String FOLD_MARKER = "...";
+	protected static final Color FOLD_MARKER_COLOR = Color.gray;
+
 	protected void paintLine(Graphics gfx, TokenMarker tokenMarker,
 		int line, int x)
 	{
@@ -540,6 +576,57 @@ public class TextAreaPainter extends JComponent implements TabExpander
 			paintSyntaxLine(gfx,tokenMarker,line,defaultFont,
 				defaultColor,x,y);
 		}
+
+		if(line >= 0 && textArea.isFolded(line))
+			paintFoldMarker(gfx,line,y);
+	}
+
+	/**
+	 * Returns the x co-ordinate of the marker shown after the first
+	 * line of a fold.
+	 */
+	public int getFoldMarkerX(int line)
+	{
+		return textArea._offsetToX(line,textArea.getLineLength(line))
+			+ fm.charWidth(' ');
+	}
+
+	/**
+	 * Paints the marker after the first line of a fold that stands
+	 * for the lines hidden. If any of those lines are highlighted
+	 * (as by a verification result), the marker is filled with the
+	 * color of the highlight, so it is not lost in the fold.
+	 */
+	protected void paintFoldMarker(Graphics gfx, int line, int y)
+	{
+		int x = getFoldMarkerX(line);
+		int width = fm.stringWidth(FOLD_MARKER) + 4;
+		int height = fm.getHeight();
+		int top = y + fm.getLeading() + fm.getMaxDescent();
+
+		Color highlight = getFoldHighlight(line,textArea.getFoldEnd(line));
+		if(highlight != null)
+		{
+			gfx.setColor(highlight);
+			gfx.fillRect(x,top + 1,width,height - 2);
+		}
+		gfx.setColor(FOLD_MARKER_COLOR);
+		gfx.drawRect(x,top + 1,width - 1,height - 3);
+		gfx.setFont(getFont());
+		gfx.drawString(FOLD_MARKER,x + 2,y + height);
+	}
+
+	/**
+	 * Returns the color of the first custom highlight on the lines
+	 * hidden by a fold, or null if there is none.
+	 */
+	protected Color getFoldHighlight(int header, int end)
+	{
+		for(HighlightLocation h:textArea.highlights){
+			if(h.l.getStartRow() < end && h.l.getEndRow() > header)
+				return h.c;
+		}
+		return null;
 	}
 
 	protected void paintPlainLine(Graphics gfx, int line, Font defaultFont,
@@ -552,7 +639,10 @@ public class TextAreaPainter extends JComponent implements TabExpander
 		gfx.setColor(defaultColor);
 
 		y += fm.getHeight();
-		x = Utilities.drawTabbedText(currentLine,x,y,gfx,this,0);
+		if(lineImages != null)
+			x = paintLineImage(gfx,line,null,x,y);
+		else
+			x = Utilities.drawTabbedText(currentLine,x,y,gfx,this,0);
 
 		if(eolMarkers)
 		{
@@ -573,8 +663,13 @@ public class TextAreaPainter extends JComponent implements TabExpander
 		gfx.setFont(defaultFont);
 		gfx.setColor(defaultColor);
 		y += fm.getHeight();
-		x = SyntaxUtilities.paintSyntaxLine(currentLine,
-			currentLineTokens,styles,this,gfx,x,y);
+		if(lineImages != null)
+			x = paintLineImage(gfx,line,currentLineTokens,x,y);
+		else
+		{
+			x = SyntaxUtilities.paintSyntaxLine(currentLine,
+				currentLineTokens,styles,this,gfx,x,y);
+		}
 		
 		if(eolMarkers)
 		{
@@ -583,6 +678,68 @@ public class TextAreaPainter extends JComponent implements TabExpander
 		}
 	}
 
+	/**
+	 * Draws the text of currentLine from the line image cache,
+	 * drawing it into the cache first if it is not there, and returns
+	 * the x co-ordinate of the end of the line, given the x and the
+	 * baseline y the text would be drawn at. The highlights have
+	 * already been painted underneath, so a repaint that only changes
+	 * them (such as the caret blinking) just copies the image.
+	 */
+	protected int paintLineImage(Graphics gfx, int line, Token tokens,
+		int x, int y)
+	{
+		int[] widths = textArea.getLineWidths(line);
+		int width = widths[widths.length - 1];
+		if(width == 0)
+			return x;
+
+		String key = LineImageCache.keyOf(currentLine,tokens);
+		BufferedImage image = lineImages.get(key,fm,styles,getForeground());
+		if(image == null)
+		{
+			// Leave room for italic glyphs that overhang their advance
+			image = new BufferedImage(width + fm.charWidth('w'),
+				fm.getHeight(),BufferedImage.TYPE_INT_ARGB);
+			Graphics g = image.createGraphics();
+			if(gfx instanceof Graphics2D)
+			{
+				((Graphics2D)g).setRenderingHints(
+					((Graphics2D)gfx).getRenderingHints());
+			}
+			g.setFont(getFont());
+			g.setColor(getForeground());
+
+			// Tab stops in the image are relative to its left edge
+			TabExpander expander = new TabExpander()
+			{
+				public float nextTabStop(float x, int tabOffset)
+				{
+					return ((int)x / tabSize + 1) * tabSize;
+				}
+			};
+			int baseline = fm.getHeight() - fm.getLeading()
+				- fm.getMaxDescent();
+			int offset = currentLine.offset;
+			int count = currentLine.count;
+			if(tokens == null)
+				Utilities.drawTabbedText(currentLine,0,baseline,g,expander,0);
+			else
+			{
+				SyntaxUtilities.paintSyntaxLine(currentLine,tokens,
+					styles,expander,g,0,baseline);
+			}
+			currentLine.offset = offset;
+			currentLine.count = count;
+			g.dispose();
+			lineImages.put(key,image);
+		}
+
+		gfx.drawImage(image,x,y - fm.getHeight() + fm.getLeading()
+			+ fm.getMaxDescent(),null);
+		return x + width;
+	}
+
 	protected void paintHighlight(Graphics gfx, int line, int y)
 	{
 		
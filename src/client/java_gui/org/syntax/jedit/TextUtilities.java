@@ -21,7 +21,9 @@ public class TextUtilities
 	/**
 	 * Returns the offset of the bracket matching the one at the
 	 * specified offset of the document, or -1 if the bracket is
-	 * unmatched (or if the character is not a bracket).
+	 * unmatched (or if the character is not a bracket). Syntax
+	 * documents with a token marker are searched with their
+	 * bracket index, which ignores comments and literals.
 	 * @param doc The document
 	 * @param offset The offset
 	 * @exception BadLocationException If an out-of-bounds access
@@ -32,6 +34,9 @@ public class TextUtilities
 	{
 		if(doc.getLength() == 0)
 			return -1;
+		if(doc instanceof SyntaxDocument
+			&& ((SyntaxDocument)doc).getTokenMarker() != null)
+			return ((SyntaxDocument)doc).findMatchingBracket(offset);
 		char c = doc.getText(offset,1).charAt(0);
 		char cprime; // c` - corresponding character
 		boolean direction; // true = back, false = forward
@@ -106,6 +106,36 @@ public abstract class TokenMarker
 		return firstToken;
 	}
 
+	/**
+	 * Splits a line up into tokens like <code>markTokens</code>, but
+	 * starting in a state the caller keeps track of, and leaving the
+	 * line info and the token list returned by
+	 * <code>markTokens</code> alone. This lets lines that are not
+	 * being painted be looked at without disturbing the painter.
+	 * @param line The line
+	 * @param lineIndex The line number
+	 * @param info On entry, holds the token the previous line ends
+	 * with; on return, the token this line ends with
+	 * @return A new token list
+	 */
+	public Token markTokens(Segment line, int lineIndex, LineInfo info)
+	{
+		Token first = firstToken;
+		Token last = lastToken;
+		firstToken = lastToken = null;
+		try
+		{
+			info.token = markTokensImpl(info.token,line,lineIndex);
+			addToken(0,Token.END);
+			return firstToken;
+		}
+		finally
+		{
+			firstToken = first;
+			lastToken = last;
+		}
+	}
+
 	/**
 	 * An abstract method that splits a line up into tokens. It
 	 * should parse the line, and call <code>addToken()</code> to
@@ -0,0 +1,208 @@
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+/**
+ * Decides which requests go on to the servers, and in what order,
+ * so that interactive compiles stay fast when submissions pile up
+ * at a deadline.
+ * Requests are either interactive (compiles and reports) or
+ * submissions (anything with a submit option), and each kind has its
+ * own bounded queue.  Up to maxConcurrent requests are let through at
+ * once; when a slot frees up, interactive requests get interactiveWeight
+ * turns for every turn a waiting submission gets.  Within a queue,
+ * users take turns (weighted fair queueing on the size of their
+ * programs), so one student resubmitting a large program over and
+ * over does not hold everyone else up.  Users are known by the email
+ * address or name their client sends, or else by where they connect
+ * from.  A request that finds its queue full, or waits longer than
+ * timeoutMillis, is answered straight away with a message asking the
+ * user to try again later.
+ */
+public class AdmissionController implements Forwarder {
+
+	private static final int BYTES_PER_UNIT_OF_COST = 4096;
+
+	private final Forwarder next;
+	private final int maxConcurrent;
+	private final int interactiveWeight;
+	private final long timeoutMillis;
+	private final FairQueue interactive, submissions;
+	private int running;
+	private int interactiveTurns;  // interactive requests let through since the last submission
+	private double averageServiceMillis;
+
+	public AdmissionController(Forwarder next, int maxConcurrent, int interactiveQueueSize, int submissionQueueSize, int interactiveWeight, long timeoutMillis) {
+		this.next = next;
+		this.maxConcurrent = maxConcurrent;
+		this.interactiveWeight = interactiveWeight;
+		this.timeoutMillis = timeoutMillis;
+		this.interactive = new FairQueue(interactiveQueueSize);
+		this.submissions = new FairQueue(submissionQueueSize);
+		this.running = 0;
+		this.interactiveTurns = 0;
+		this.averageServiceMillis = 10 * 1000;
+	}
+
+	public Frame forward(Frame request, String clientAddress) throws IOException {
+		Request parsed = new Request(request);
+		boolean isSubmission = parsed.isSubmission();
+		FairQueue queue = (isSubmission ? submissions : interactive);
+		String user = parsed.getUser();
+		Ticket ticket = new Ticket(user != null ? user : clientAddress, 1 + parsed.getSize() / BYTES_PER_UNIT_OF_COST);
+		synchronized (this) {
+			if (running < maxConcurrent && interactive.isEmpty() && submissions.isEmpty()) {
+				running++;
+			} else if (!queue.offer(ticket)) {
+				return busy(isSubmission);
+			} else {
+				long deadline = System.currentTimeMillis() + timeoutMillis;
+				while (!ticket.admitted) {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0) {
+						queue.remove(ticket);
+						return busy(isSubmission);
+					}
+					try {
+						wait(remaining);
+					} catch (InterruptedException e) {
+						if (ticket.admitted) {
+							// We were given a slot just before the interrupt; pass it on.
+							running--;
+							admitWaiting();
+						} else
+							queue.remove(ticket);
+						throw new java.io.InterruptedIOException("Interrupted while waiting to be admitted.");
+					}
+				}
+			}
+		}
+		long startTime = System.currentTimeMillis();
+		try {
+			return next.forward(request, clientAddress);
+		} finally {
+			synchronized (this) {
+				running--;
+				averageServiceMillis = 0.9 * averageServiceMillis + 0.1 * (System.currentTimeMillis() - startTime);
+				admitWaiting();
+			}
+		}
+	}
+
+	/**
+	 * Lets waiting requests through while there are free slots.
+	 */
+	private void admitWaiting() {
+		boolean admittedAny = false;
+		while (running < maxConcurrent && !(interactive.isEmpty() && submissions.isEmpty())) {
+			FairQueue queue;
+			if (submissions.isEmpty() || (!interactive.isEmpty() && interactiveTurns < interactiveWeight)) {
+				queue = interactive;
+				interactiveTurns++;
+			} else {
+				queue = submissions;
+				interactiveTurns = 0;
+			}
+			queue.poll().admitted = true;
+			running++;
+			admittedAny = true;
+		}
+		if (admittedAny)
+			notifyAll();
+	}
+
+	/**
+	 * Builds the response for a request we cannot take, with a guess at
+	 * how long the user should wait based on how long requests are taking.
+	 */
+	private Frame busy(boolean isSubmission) {
+		int waiting = interactive.size() + submissions.size();
+		long retrySeconds = Math.max(10, Math.round(averageServiceMillis * (1 + waiting / (double)maxConcurrent) / 1000));
+		GatewayConfig.printNetMessage("Turned away a " + (isSubmission ? "submission" : "compile") + " with " + waiting + " requests waiting.");
+		String what = (isSubmission ? "Your program has not been submitted." : "Your program has not been verified.");
+		return Frame.messages("The piVC server is very busy right now. " + what + " Please try again in about " + retrySeconds + " seconds.");
+	}
+
+	/**
+	 * A request waiting to be admitted.
+	 */
+	private static class Ticket {
+		private final String user;
+		private final int cost;
+		private double finishTag;
+		private long sequence;
+		private boolean admitted;
+
+		public Ticket(String user, int cost) {
+			this.user = user;
+			this.cost = cost;
+		}
+	}
+
+	/**
+	 * A bounded queue that serves users in turn: each ticket is tagged
+	 * with when it would finish if every user with waiting requests got
+	 * an equal share, and the ticket with the smallest tag goes first.
+	 */
+	private static class FairQueue {
+		private final int capacity;
+		private final PriorityQueue<Ticket> tickets;
+		private final HashMap<String,Double> lastFinishTags;
+		private double virtualTime;
+		private long nextSequence;
+
+		public FairQueue(int capacity) {
+			this.capacity = capacity;
+			this.tickets = new PriorityQueue<Ticket>(16, new java.util.Comparator<Ticket>() {
+				public int compare(Ticket a, Ticket b) {
+					if (a.finishTag != b.finishTag)
+						return (a.finishTag < b.finishTag ? -1 : 1);
+					return (a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1));
+				}
+			});
+			this.lastFinishTags = new HashMap<String,Double>();
+			this.virtualTime = 0;
+			this.nextSequence = 0;
+		}
+
+		public boolean offer(Ticket ticket) {
+			if (tickets.size() >= capacity)
+				return false;
+			Double lastFinishTag = lastFinishTags.get(ticket.user);
+			double start = Math.max(virtualTime, (lastFinishTag == null ? 0 : lastFinishTag.doubleValue()));
+			ticket.finishTag = start + ticket.cost;
+			ticket.sequence = nextSequence++;
+			lastFinishTags.put(ticket.user, Double.valueOf(ticket.finishTag));
+			tickets.add(ticket);
+			return true;
+		}
+
+		public Ticket poll() {
+			Ticket ticket = tickets.poll();
+			virtualTime = ticket.finishTag - ticket.cost;
+			if (tickets.isEmpty()) {
+				// Nobody is waiting, so nobody is owed anything.
+				lastFinishTags.clear();
+				virtualTime = 0;
+			}
+			return ticket;
+		}
+
+		public void remove(Ticket ticket) {
+			tickets.remove(ticket);
+			if (tickets.isEmpty()) {
+				lastFinishTags.clear();
+				virtualTime = 0;
+			}
+		}
+
+		public boolean isEmpty() {
+			return tickets.isEmpty();
+		}
+
+		public int size() {
+			return tickets.size();
+		}
+	}
+
+}
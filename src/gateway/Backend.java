@@ -0,0 +1,79 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * One main server that the gateway sends requests to, together with
+ * what the pool knows about it.  The pool does all the locking.
+ */
+public class Backend {
+
+	private final String address;
+	private final InetSocketAddress socketAddress;
+	private final int maxConcurrent;
+	private int outstanding;
+	private boolean healthy;
+
+	/**
+	 * Makes a backend from an address of the form host:port.
+	 */
+	public Backend(String address, int maxConcurrent) {
+		String[] parts = address.split(":");
+		if (parts.length != 2)
+			throw new IllegalArgumentException("Backend addresses must be of the form host:port, not " + address + ".");
+		this.address = address.trim();
+		this.socketAddress = new InetSocketAddress(parts[0].trim(), Integer.parseInt(parts[1].trim()));
+		this.maxConcurrent = maxConcurrent;
+		this.outstanding = 0;
+		this.healthy = true;  // until a health check or a request says otherwise
+	}
+
+	/**
+	 * Opens a connection whose reads time out after timeoutMillis.
+	 */
+	public Socket connect(int timeoutMillis) throws IOException {
+		Socket socket = new Socket();
+		try {
+			socket.connect(socketAddress, timeoutMillis);
+			socket.setSoTimeout(timeoutMillis);
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+		return socket;
+	}
+
+	public String getAddress() {
+		return address;
+	}
+
+	int getOutstanding() {
+		return outstanding;
+	}
+
+	boolean hasCapacity() {
+		return healthy && outstanding < maxConcurrent;
+	}
+
+	void acquired() {
+		outstanding++;
+	}
+
+	void released() {
+		outstanding--;
+	}
+
+	boolean isHealthy() {
+		return healthy;
+	}
+
+	void setHealthy(boolean healthy) {
+		this.healthy = healthy;
+	}
+
+	@Override
+	public String toString() {
+		return address + " (" + (healthy ? "up" : "down") + ", " + outstanding + "/" + maxConcurrent + " outstanding)";
+	}
+
+}
@@ -0,0 +1,165 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sends each request to the main server with the fewest outstanding
+ * requests, never giving a server more than its concurrency limit.
+ * When every server is busy, requests wait (up to queue_timeout
+ * seconds) for one to become free.  A background thread checks the
+ * health of each server so we stop routing to servers that are down
+ * and start again once they come back.
+ */
+public class BackendPool implements Forwarder {
+
+	// A request for an empty program: cheap to answer, and unlike
+	// an empty connection it does not make the server report an error.
+	private static final String HEALTH_CHECK_REQUEST =
+		"<piVC_transmission type=\"program_submission_request\" accept_format=\"compact\"><code></code><options></options></piVC_transmission>";
+
+	private static final int MAX_RESPONSE_SIZE = Integer.MAX_VALUE;  // we trust our own servers
+
+	private final List<Backend> backends;
+	private final int backendTimeoutMillis;
+	private final int queueTimeoutMillis;
+	private int nextStart;  // where the next search for a backend starts, so ties are shared out
+
+	public BackendPool(List<Backend> backends, int backendTimeoutMillis, int queueTimeoutMillis) {
+		this.backends = new ArrayList<Backend>(backends);
+		this.backendTimeoutMillis = backendTimeoutMillis;
+		this.queueTimeoutMillis = queueTimeoutMillis;
+		this.nextStart = 0;
+	}
+
+	/**
+	 * Sends the request to a backend and returns its response.  If we
+	 * cannot connect to a backend we mark it as down and try another,
+	 * but once a request has been sent we never send it again, since
+	 * it may have been a submission that was already emailed.
+	 */
+	public Frame forward(Frame request, String clientAddress) throws IOException {
+		IOException lastFailure = null;
+		for (int attempt = 0; attempt < backends.size(); attempt++) {
+			Backend backend = acquire();
+			Socket socket;
+			try {
+				socket = backend.connect(backendTimeoutMillis);
+			} catch (IOException e) {
+				release(backend);
+				setHealthy(backend, false);
+				lastFailure = e;
+				continue;
+			}
+			try {
+				request.write(new DataOutputStream(socket.getOutputStream()));
+				return Frame.read(new DataInputStream(socket.getInputStream()), MAX_RESPONSE_SIZE);
+			} catch (IOException e) {
+				if (!(e instanceof java.net.SocketTimeoutException))
+					setHealthy(backend, false);
+				throw e;
+			} finally {
+				socket.close();
+				release(backend);
+			}
+		}
+		throw (lastFailure != null ? lastFailure : new ConnectException("No verification server is available."));
+	}
+
+	/**
+	 * Waits for the healthy backend with the fewest outstanding
+	 * requests that is under its limit, and counts a request against it.
+	 */
+	private synchronized Backend acquire() throws IOException {
+		long deadline = System.currentTimeMillis() + queueTimeoutMillis;
+		while (true) {
+			Backend best = null;
+			boolean anyHealthy = false;
+			for (int i = 0; i < backends.size(); i++) {
+				Backend backend = backends.get((nextStart + i) % backends.size());
+				anyHealthy |= backend.isHealthy();
+				if (backend.hasCapacity() && (best == null || backend.getOutstanding() < best.getOutstanding()))
+					best = backend;
+			}
+			if (best != null) {
+				nextStart = (nextStart + 1) % backends.size();
+				best.acquired();
+				return best;
+			}
+			if (!anyHealthy)
+				throw new ConnectException("No verification server is available.");
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0)
+				throw new BusyException("All verification servers are busy.");
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				throw new java.io.InterruptedIOException("Interrupted while waiting for a verification server.");
+			}
+		}
+	}
+
+	private synchronized void release(Backend backend) {
+		backend.released();
+		notifyAll();
+	}
+
+	private synchronized void setHealthy(Backend backend, boolean healthy) {
+		if (backend.isHealthy() != healthy) {
+			System.err.println("Verification server " + backend.getAddress() + " is " + (healthy ? "up." : "down."));
+			backend.setHealthy(healthy);
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Starts a daemon thread that checks every backend each
+	 * intervalMillis, giving each check timeoutMillis to answer.
+	 */
+	public void startHealthChecks(final int intervalMillis, final int timeoutMillis) {
+		Thread checker = new Thread("health checks") {
+			@Override
+			public void run() {
+				while (true) {
+					for (Backend backend: backends)
+						setHealthy(backend, check(backend, timeoutMillis));
+					try {
+						Thread.sleep(intervalMillis);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		};
+		checker.setDaemon(true);
+		checker.start();
+	}
+
+	private boolean check(Backend backend, int timeoutMillis) {
+		try {
+			Socket socket = backend.connect(timeoutMillis);
+			try {
+				Frame.of(HEALTH_CHECK_REQUEST).write(new DataOutputStream(socket.getOutputStream()));
+				Frame.read(new DataInputStream(socket.getInputStream()), MAX_RESPONSE_SIZE);
+				return true;
+			} finally {
+				socket.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Thrown when every backend stays at its limit for too long.
+	 */
+	public static class BusyException extends IOException {
+		public BusyException(String message) {
+			super(message);
+		}
+	}
+
+}
@@ -0,0 +1,122 @@
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+
+/**
+ * Makes identical requests that arrive while one of them is still
+ * being verified share that one verification.  The first request
+ * (the leader) is forwarded; the others wait for its response and
+ * are sent the same bytes.
+ * Only plain compiles are shared.  Submissions and reports make the
+ * server send email, so every one of them is forwarded.
+ */
+public class Coalescer implements Forwarder {
+
+	// Old clients put these in to work around a bug in the server's xml parser, which removes them.
+	private static final String BACKSPACE = "&#8;";
+
+	private final Forwarder next;
+	private final HashMap<String,Flight> inFlight;
+	private long coalesced;
+
+	public Coalescer(Forwarder next) {
+		this.next = next;
+		this.inFlight = new HashMap<String,Flight>();
+		this.coalesced = 0;
+	}
+
+	public Frame forward(Frame request, String clientAddress) throws IOException {
+		String key = keyOf(request);
+		if (key == null)
+			return next.forward(request, clientAddress);
+		Flight flight;
+		boolean isLeader;
+		synchronized (this) {
+			flight = inFlight.get(key);
+			isLeader = (flight == null);
+			if (isLeader) {
+				flight = new Flight();
+				inFlight.put(key, flight);
+			} else {
+				coalesced++;
+			}
+		}
+		if (!isLeader) {
+			GatewayConfig.printNetMessage("Sharing the response to an identical request (" + getNumCoalesced() + " shared so far).");
+			return flight.await();
+		}
+		try {
+			Frame response = next.forward(request, clientAddress);
+			flight.complete(response, null);
+			return response;
+		} catch (IOException e) {
+			flight.complete(null, e);
+			throw e;
+		} catch (RuntimeException e) {
+			flight.complete(null, new IOException("The gateway failed while handling an identical request."));
+			throw e;
+		} finally {
+			synchronized (this) {
+				inFlight.remove(key);
+			}
+		}
+	}
+
+	public synchronized long getNumCoalesced() {
+		return coalesced;
+	}
+
+	/**
+	 * Returns the key that identical requests share, or null if
+	 * the request must not be shared.
+	 */
+	static String keyOf(Frame frame) throws IOException {
+		Request request = new Request(frame);
+		if (!request.isCompile())
+			return null;
+		// Who is asking does not change the answer to a plain compile.
+		return sha256(request.getAnonymousEnvelope() + "\0" + request.getCode().replace(BACKSPACE, ""));
+	}
+
+	private static String sha256(String text) {
+		try {
+			return VcCache.toHex(MessageDigest.getInstance("SHA-256").digest(text.getBytes("ISO-8859-1")));
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * The pending response to a request that others are waiting on.
+	 */
+	private static class Flight {
+		private boolean done;
+		private Frame response;
+		private IOException failure;
+
+		public synchronized void complete(Frame response, IOException failure) {
+			this.done = true;
+			this.response = response;
+			this.failure = failure;
+			notifyAll();
+		}
+
+		public synchronized Frame await() throws IOException {
+			while (!done) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					throw new java.io.InterruptedIOException("Interrupted while waiting for an identical request.");
+				}
+			}
+			if (failure != null)
+				throw failure;
+			return response;
+		}
+	}
+
+}
@@ -0,0 +1,15 @@
+import java.io.IOException;
+
+/**
+ * Something that can answer a piVC_transmission request, either by
+ * sending it on to a server or by handing it to another Forwarder.
+ */
+public interface Forwarder {
+
+	/**
+	 * Returns the response to the given request,
+	 * which came from the host at clientAddress.
+	 */
+	public Frame forward(Frame request, String clientAddress) throws IOException;
+
+}
@@ -0,0 +1,141 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * One length-prefixed piVC transmission, kept exactly as it was
+ * read so it can be passed on unchanged.
+ * A frame is a 4-byte big-endian length followed by that many bytes.
+ * If the high bit of the length is set, the bytes are a zlib stream
+ * (see xml_spec.txt).  Only clients compress; we inflate their frames
+ * as we read them, so a frame always holds the transmission itself.
+ */
+public class Frame {
+
+	private static final int DEFLATE_FLAG = 0x80000000;
+
+	private final byte[] bytes;
+
+	private Frame(byte[] bytes) {
+		this.bytes = bytes;
+	}
+
+	/**
+	 * Makes a frame holding the given payload.
+	 */
+	public static Frame of(byte[] payload) {
+		return new Frame(payload);
+	}
+
+	/**
+	 * Makes a frame holding the given xml.
+	 */
+	public static Frame of(String xml) {
+		try {
+			return of(xml.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Reads one frame, inflating it if it is compressed, and refusing
+	 * transmissions longer than maxLength bytes either way.
+	 */
+	public static Frame read(DataInputStream in, int maxLength) throws IOException {
+		int header = in.readInt();
+		int length = header & ~DEFLATE_FLAG;
+		if (length > maxLength)
+			throw new IOException("Transmission of " + length + " bytes is too long.");
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		if ((header & DEFLATE_FLAG) != 0)
+			bytes = inflate(bytes, maxLength);
+		return new Frame(bytes);
+	}
+
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+		out.flush();
+	}
+
+	/**
+	 * Writes the frame compressed, for a client that said it
+	 * can read compressed frames.
+	 */
+	public void writeDeflated(DataOutputStream out) throws IOException {
+		Deflater deflater = new Deflater();
+		deflater.setInput(bytes);
+		deflater.finish();
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4 + 64);
+		byte[] buf = new byte[8192];
+		while (!deflater.finished()) {
+			int n = deflater.deflate(buf);
+			compressed.write(buf, 0, n);
+		}
+		deflater.end();
+		out.writeInt(compressed.size() | DEFLATE_FLAG);
+		compressed.writeTo(out);
+		out.flush();
+	}
+
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Builds a transmission that only carries messages for the user, which
+	 * every client shows.  We use it to report problems in the gateway.
+	 */
+	public static Frame messages(String... messages) {
+		StringBuilder xml = new StringBuilder("<piVC_transmission type=\"messages\"><messages>");
+		for (String message: messages)
+			xml.append("<message>").append(escape(message)).append("</message>");
+		xml.append("</messages></piVC_transmission>");
+		return of(xml.toString());
+	}
+
+	private static byte[] inflate(byte[] bytes, int maxLength) throws IOException {
+		Inflater inflater = new Inflater();
+		inflater.setInput(bytes);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 4);
+		byte[] buf = new byte[8192];
+		try {
+			while (!inflater.finished()) {
+				int n = inflater.inflate(buf);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					throw new IOException("Truncated compressed transmission");
+				if (out.size() + n > maxLength)
+					throw new IOException("Transmission of more than " + maxLength + " bytes is too long.");
+				out.write(buf, 0, n);
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Malformed compressed transmission: " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+		return out.toByteArray();
+	}
+
+	private static String escape(String text) {
+		StringBuilder escaped = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '<': escaped.append("&lt;"); break;
+			case '>': escaped.append("&gt;"); break;
+			case '&': escaped.append("&amp;"); break;
+			case '"': escaped.append("&quot;"); break;
+			default: escaped.append(c);
+			}
+		}
+		return escaped.toString();
+	}
+
+}
@@ -0,0 +1,123 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The gateway's settings, read from a file of key=value lines in the
+ * same format as the servers' conf files.  Lines beginning with # are
+ * comments and empty lines are ignored.
+ */
+public class GatewayConfig {
+
+	public static final String CONFIG_FILE_PATH = "../conf/pivc-gateway.conf";
+
+	//All possible keys must be included in the DEFAULTS array.
+	//Asking for a key that is not listed here is an error.
+	private static final String[][] DEFAULTS = {
+								{"port", "4242"},
+								{"backends", "127.0.0.1:4244"},
+								{"backend_max_concurrent", "4"},
+								{"backend_timeout", "600"},
+								{"queue_timeout", "30"},
+								{"health_check_interval", "10"},
+								{"health_check_timeout", "30"},
+								{"max_request_size", "4194304"},
+								{"worker_threads", "64"},
+								{"coalesce_requests", "true"},
+								{"admission_max_concurrent", "0"},
+								{"interactive_queue_size", "200"},
+								{"submission_queue_size", "200"},
+								{"interactive_weight", "4"},
+								{"admission_timeout", "120"},
+								{"print_net_msgs", "false"},
+								{"dp_cache_port", "4243"},
+								{"dp_server_address", "127.0.0.1:4245"},
+								{"dp_timeout", "120"},
+								{"dp_cache_size", "10000"},
+								{"dp_cache_directory", "../dp_cache"},
+								{"dp_cache_disk_size", "1000000"},
+	};
+
+	private static Map<String,String> settings;
+
+	/**
+	 * Loads the settings from the given file.  Keys that are missing
+	 * from the file keep their defaults.
+	 */
+	public static void load(File file) throws IOException {
+		settings = new HashMap<String,String>();
+		for (String[] keyAndValue: DEFAULTS)
+			settings.put(keyAndValue[0], keyAndValue[1]);
+		BufferedReader input = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = input.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.charAt(0) == '#')
+					continue;
+				int index = line.indexOf('=');
+				if (index < 0)
+					throw new IOException("Invalid line in " + file + ": " + line);
+				String key = line.substring(0, index).trim();
+				if (!settings.containsKey(key))
+					throw new IOException("Unknown key in " + file + ": " + key);
+				settings.put(key, line.substring(index + 1).trim());
+			}
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Resolves a relative path against the directory that
+	 * holds the gateway's jar, like the servers do.
+	 */
+	public static File getAbsoluteFile(String path) {
+		File file = new File(path);
+		if (file.isAbsolute())
+			return file;
+		try {
+			File jar = new File(GatewayConfig.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+			return new File(jar.getParentFile(), path);
+		} catch (Exception e) {
+			return file;
+		}
+	}
+
+	public static String getValue(String key) {
+		String value = settings.get(key);
+		if (value == null)
+			throw new RuntimeException("Invalid key: " + key + ". Every key needs to be included in the defaults list.");
+		return value;
+	}
+
+	public static int getIntValue(String key) {
+		String value = getValue(key);
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new RuntimeException("The value of " + key + " must be an integer, not " + value + ".");
+		}
+	}
+
+	public static boolean getBooleanValue(String key) {
+		String value = getValue(key);
+		if ("true".equals(value))
+			return true;
+		else if ("false".equals(value))
+			return false;
+		throw new RuntimeException("The value of " + key + " must be true or false, not " + value + ".");
+	}
+
+	/**
+	 * Prints a message about network traffic if print_net_msgs is set.
+	 */
+	public static void printNetMessage(String message) {
+		if (getBooleanValue("print_net_msgs"))
+			System.out.println(message);
+	}
+
+}
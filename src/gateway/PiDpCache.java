@@ -0,0 +1,133 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A caching proxy that main servers use as their DP server.
+ * It speaks the DP server's protocol: one VC per connection, answered
+ * by "unsat", "unknown", "non-linear" or "timeout", by "sat" followed
+ * by a counterexample, or by "error" followed by a message.  Answers
+ * that do not depend on the load of the DP server are kept in a
+ * VcCache, so a VC that any main server has asked about before is
+ * answered without running the SMT solver.
+ */
+public class PiDpCache {
+
+	private static final int MAX_VC_SIZE = 64 * 1024 * 1024;
+
+	private final VcCache cache;
+	private final InetSocketAddress dpServer;
+	private final int dpTimeoutMillis;
+
+	public PiDpCache(VcCache cache, String dpServerAddress, int dpTimeoutMillis) {
+		String[] parts = dpServerAddress.split(":");
+		if (parts.length != 2)
+			throw new IllegalArgumentException("The DP server address must be of the form address:port, not " + dpServerAddress + ".");
+		this.cache = cache;
+		this.dpServer = new InetSocketAddress(parts[0].trim(), Integer.parseInt(parts[1].trim()));
+		this.dpTimeoutMillis = dpTimeoutMillis;
+	}
+
+	public static void main(String[] args) throws IOException {
+		File configFile = GatewayConfig.getAbsoluteFile(args.length > 0 ? args[0] : GatewayConfig.CONFIG_FILE_PATH);
+		GatewayConfig.load(configFile);
+		VcCache cache = new VcCache(GatewayConfig.getIntValue("dp_cache_size"),
+			GatewayConfig.getAbsoluteFile(GatewayConfig.getValue("dp_cache_directory")),
+			GatewayConfig.getIntValue("dp_cache_disk_size"));
+		new PiDpCache(cache, GatewayConfig.getValue("dp_server_address"), GatewayConfig.getIntValue("dp_timeout") * 1000)
+			.run(GatewayConfig.getIntValue("dp_cache_port"), GatewayConfig.getIntValue("worker_threads"));
+	}
+
+	/**
+	 * Accepts connections forever, handling each on a pool of workerThreads threads.
+	 */
+	public void run(int port, int workerThreads) throws IOException {
+		ExecutorService workers = Executors.newFixedThreadPool(workerThreads);
+		ServerSocket serverSocket = new ServerSocket(port);
+		System.out.println("Starting DP cache on port " + port + ".");
+		while (true) {
+			final Socket client = serverSocket.accept();
+			workers.execute(new Runnable() {
+				public void run() {
+					handle(client);
+				}
+			});
+		}
+	}
+
+	private void handle(Socket client) {
+		try {
+			client.setSoTimeout(dpTimeoutMillis);
+			Frame vc = Frame.read(new DataInputStream(client.getInputStream()), MAX_VC_SIZE);
+			String key = VcCache.keyOf(vc.getBytes());
+			List<byte[]> answer = cache.get(key);
+			if (answer == null) {
+				answer = askDpServer(vc);
+				if (isCacheable(answer))
+					cache.put(key, answer);
+				GatewayConfig.printNetMessage("Asked the DP server about " + key + " (" + cache.getStatistics() + ").");
+			} else {
+				GatewayConfig.printNetMessage("Answered " + key + " from the cache (" + cache.getStatistics() + ").");
+			}
+			DataOutputStream out = new DataOutputStream(client.getOutputStream());
+			for (byte[] frame: answer)
+				Frame.of(frame).write(out);
+		} catch (IOException e) {
+			GatewayConfig.printNetMessage("Lost connection to " + client.getRemoteSocketAddress() + ": " + e);
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				client.close();
+			} catch (IOException ignored) { }
+		}
+	}
+
+	/**
+	 * Sends the VC to the DP server and returns the frames it answers
+	 * with.  If we cannot reach it, we answer with an error of our own,
+	 * which the main server reports just like one from the DP server.
+	 */
+	private List<byte[]> askDpServer(Frame vc) {
+		List<byte[]> answer = new ArrayList<byte[]>(2);
+		try {
+			Socket socket = new Socket();
+			try {
+				socket.connect(dpServer, dpTimeoutMillis);
+				socket.setSoTimeout(dpTimeoutMillis);
+				vc.write(new DataOutputStream(socket.getOutputStream()));
+				DataInputStream in = new DataInputStream(socket.getInputStream());
+				byte[] response = Frame.read(in, MAX_VC_SIZE).getBytes();
+				answer.add(response);
+				String status = new String(response);
+				if (status.equals("sat") || status.equals("error"))
+					answer.add(Frame.read(in, MAX_VC_SIZE).getBytes());
+			} finally {
+				socket.close();
+			}
+		} catch (IOException e) {
+			answer.clear();
+			answer.add("error".getBytes());
+			answer.add(("The DP cache could not get an answer from the DP server at " + dpServer + ": " + e).getBytes());
+		}
+		return answer;
+	}
+
+	/**
+	 * Timeouts and errors might go away if we ask again, so we only
+	 * keep answers that the solver would give every time.
+	 */
+	private static boolean isCacheable(List<byte[]> answer) {
+		String status = new String(answer.get(0));
+		return status.equals("unsat") || status.equals("sat") || status.equals("unknown") || status.equals("non-linear");
+	}
+
+}
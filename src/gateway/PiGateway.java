@@ -0,0 +1,157 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A gateway that speaks the piVC_transmission protocol and spreads
+ * requests over several main servers.  Clients connect to it exactly
+ * as they would to a main server, one request per connection, so
+ * their server_address only has to point here.
+ */
+public class PiGateway {
+
+	private static final int CLIENT_TIMEOUT_MILLIS = 60 * 1000;  // to send us a request
+	private static final String BUSY_MESSAGE = "The verification servers are too busy to handle your request right now. Please try again in a minute.";
+
+	private final Forwarder forwarder;
+	private final int maxRequestSize;
+
+	public PiGateway(Forwarder forwarder, int maxRequestSize) {
+		this.forwarder = forwarder;
+		this.maxRequestSize = maxRequestSize;
+	}
+
+	public static void main(String[] args) throws IOException {
+		File configFile = GatewayConfig.getAbsoluteFile(args.length > 0 ? args[0] : GatewayConfig.CONFIG_FILE_PATH);
+		GatewayConfig.load(configFile);
+
+		List<Backend> backends = new ArrayList<Backend>();
+		int maxConcurrent = GatewayConfig.getIntValue("backend_max_concurrent");
+		for (String address: GatewayConfig.getValue("backends").split(","))
+			if (address.trim().length() > 0)
+				backends.add(new Backend(address, maxConcurrent));
+		if (backends.isEmpty())
+			throw new RuntimeException("No backends are listed in " + configFile + ".");
+
+		int maxRequestSize = GatewayConfig.getIntValue("max_request_size");
+		BackendPool pool = new BackendPool(backends,
+			GatewayConfig.getIntValue("backend_timeout") * 1000,
+			GatewayConfig.getIntValue("queue_timeout") * 1000);
+		pool.startHealthChecks(GatewayConfig.getIntValue("health_check_interval") * 1000,
+			GatewayConfig.getIntValue("health_check_timeout") * 1000);
+
+		int maxAdmitted = GatewayConfig.getIntValue("admission_max_concurrent");
+		if (maxAdmitted <= 0)
+			maxAdmitted = backends.size() * maxConcurrent;
+		Forwarder forwarder = new AdmissionController(pool, maxAdmitted,
+			GatewayConfig.getIntValue("interactive_queue_size"),
+			GatewayConfig.getIntValue("submission_queue_size"),
+			GatewayConfig.getIntValue("interactive_weight"),
+			GatewayConfig.getIntValue("admission_timeout") * 1000L);
+		// Requests that share a response take up only one place in the queues.
+		if (GatewayConfig.getBooleanValue("coalesce_requests"))
+			forwarder = new Coalescer(forwarder);
+
+		// Every request the admission controller can hold, running or
+		// queued, needs a thread of its own, or its queues never fill.
+		int workerThreads = Math.max(GatewayConfig.getIntValue("worker_threads"), maxAdmitted
+			+ GatewayConfig.getIntValue("interactive_queue_size") + GatewayConfig.getIntValue("submission_queue_size"));
+		new PiGateway(forwarder, maxRequestSize).run(GatewayConfig.getIntValue("port"), workerThreads);
+	}
+
+	/**
+	 * Accepts connections forever, handling each on a pool of workerThreads
+	 * threads.  Connections that find every thread busy wait in a queue of
+	 * the same size; beyond that they are told to try again later.
+	 */
+	public void run(int port, int workerThreads) throws IOException {
+		ThreadPoolExecutor workers = new ThreadPoolExecutor(workerThreads, workerThreads, 60, TimeUnit.SECONDS,
+			new ArrayBlockingQueue<Runnable>(workerThreads), new RejectedExecutionHandler() {
+				public void rejectedExecution(Runnable connection, ThreadPoolExecutor executor) {
+					((Connection)connection).refuse();
+				}
+			});
+		workers.allowCoreThreadTimeOut(true);
+		ServerSocket serverSocket = new ServerSocket(port);
+		System.out.println("Starting gateway on port " + port + ".");
+		while (true)
+			workers.execute(new Connection(serverSocket.accept()));
+	}
+
+	/**
+	 * One client's connection, waiting for a worker thread.
+	 */
+	private class Connection implements Runnable {
+		private final Socket client;
+
+		public Connection(Socket client) {
+			this.client = client;
+		}
+
+		public void run() {
+			handle(client);
+		}
+
+		/**
+		 * Answers without reading the request, since we have no thread to
+		 * spare for it.  This runs on the accepting thread, so it only
+		 * writes the short answer and does not wait for the client.
+		 */
+		public void refuse() {
+			GatewayConfig.printNetMessage("Turned away a connection from " + client.getRemoteSocketAddress() + ": no worker threads are free.");
+			try {
+				Frame.messages(BUSY_MESSAGE).write(new DataOutputStream(client.getOutputStream()));
+				client.shutdownOutput();
+			} catch (IOException ignored) {
+			} finally {
+				try {
+					client.close();
+				} catch (IOException ignored) { }
+			}
+		}
+	}
+
+	private void handle(Socket client) {
+		String clientAddress = client.getRemoteSocketAddress().toString();
+		GatewayConfig.printNetMessage("Accepted network request from " + clientAddress + ".");
+		long startTime = System.currentTimeMillis();
+		try {
+			client.setSoTimeout(CLIENT_TIMEOUT_MILLIS);
+			Frame request = Frame.read(new DataInputStream(client.getInputStream()), maxRequestSize);
+			Frame response;
+			try {
+				response = forwarder.forward(request, client.getInetAddress().getHostAddress());
+			} catch (BackendPool.BusyException e) {
+				response = Frame.messages(BUSY_MESSAGE);
+			} catch (IOException e) {
+				System.err.println("Could not forward request from " + clientAddress + ": " + e);
+				response = Frame.messages("The verification server could not handle your request (" + e.getMessage() + "). Please try again later.");
+			}
+			// Clients that can read compressed frames get one, since the
+			// link to them is usually much slower than the one to the servers.
+			if (Request.acceptsDeflate(request))
+				response.writeDeflated(new DataOutputStream(client.getOutputStream()));
+			else
+				response.write(new DataOutputStream(client.getOutputStream()));
+			GatewayConfig.printNetMessage("Finished processing network request from " + clientAddress + " in " + (System.currentTimeMillis() - startTime) / 1000.0 + " seconds.");
+		} catch (IOException e) {
+			GatewayConfig.printNetMessage("Lost connection to " + clientAddress + ": " + e);
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				client.close();
+			} catch (IOException ignored) { }
+		}
+	}
+
+}
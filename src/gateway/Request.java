@@ -0,0 +1,96 @@
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A piVC_transmission request split into its code and everything
+ * else (the envelope), so we can look for tags in the envelope
+ * without being fooled by code, which a CDATA section lets contain
+ * anything but "]]>".
+ */
+public class Request {
+
+	private static final Pattern USER_ELEMENT = Pattern.compile("<user\\b(?:[^>\"]|\"[^\"]*\")*(?:/>|>.*?</user>)", Pattern.DOTALL);
+	private static final Pattern EMAIL_ADDR = Pattern.compile("<user\\b[^>]*\\bemail_addr=\"([^\"]+)\"");
+	private static final Pattern NAME = Pattern.compile("<user\\b[^>]*\\bname=\"([^\"]+)\"");
+
+	private final String envelope;
+	private final String code;
+
+	/**
+	 * Splits the request.  We only need to find tags, which are ASCII,
+	 * so we read the bytes as ISO-8859-1 whatever their real encoding.
+	 */
+	public Request(Frame frame) throws IOException {
+		String xml = new String(frame.getBytes(), "ISO-8859-1");
+		int codeStart = -1, codeEnd = -1;
+		int open = xml.indexOf("<code");  // only the root tag comes before the code
+		if (open >= 0) {
+			codeStart = xml.indexOf('>', open) + 1;
+			if (codeStart > 0 && xml.charAt(codeStart - 2) != '/') {
+				if (xml.startsWith("<![CDATA[", codeStart)) {
+					int cdataEnd = xml.indexOf("]]>", codeStart);
+					codeEnd = (cdataEnd < 0 ? -1 : xml.indexOf("</code>", cdataEnd));
+				} else {
+					codeEnd = xml.indexOf("</code>", codeStart);
+				}
+			}
+		}
+		if (codeEnd < 0) {
+			envelope = xml;
+			code = "";
+		} else {
+			envelope = xml.substring(0, codeStart) + xml.substring(codeEnd);
+			code = xml.substring(codeStart, codeEnd);
+		}
+	}
+
+	/**
+	 * Returns whether the client that sent the frame can read compressed
+	 * frames, which it says with accept_encoding="deflate" on the root tag.
+	 */
+	public static boolean acceptsDeflate(Frame frame) throws IOException {
+		byte[] bytes = frame.getBytes();
+		int end = 0;
+		while (end < bytes.length && bytes[end] != '>')
+			end++;
+		return new String(bytes, 0, end, "ISO-8859-1").contains("accept_encoding=\"deflate\"");
+	}
+
+	public String getCode() {
+		return code;
+	}
+
+	public boolean isCompile() {
+		return envelope.contains("type=\"program_submission_request\"") && !isSubmission();
+	}
+
+	public boolean isSubmission() {
+		return envelope.contains("<submit");
+	}
+
+	/**
+	 * Returns the envelope without the user element.
+	 */
+	public String getAnonymousEnvelope() {
+		return USER_ELEMENT.matcher(envelope).replaceAll("");
+	}
+
+	/**
+	 * Returns the user's email address or name, or null if there is no user element.
+	 */
+	public String getUser() {
+		Matcher matcher = EMAIL_ADDR.matcher(envelope);
+		if (matcher.find())
+			return matcher.group(1);
+		matcher = NAME.matcher(envelope);
+		if (matcher.find())
+			return matcher.group(1);
+		return null;
+	}
+
+	public int getSize() {
+		return envelope.length() + code.length();
+	}
+
+}
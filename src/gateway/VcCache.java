@@ -0,0 +1,215 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The DP server's answers, keyed by a hash of the VC they answer.
+ * Recently used answers are kept in memory; every answer is also
+ * written to a directory, so they are shared by every main server
+ * that uses us and survive restarts.
+ * An answer is the list of frames the DP server sent back.
+ */
+public class VcCache {
+
+	private final LinkedHashMap<String,List<byte[]>> memory;
+	private final File directory;
+	private final int maxFiles;
+	private int numFiles;
+	private boolean trimming;
+	private long hits, misses;
+
+	/**
+	 * Keeps up to memorySize answers in memory and up to maxFiles in
+	 * the directory, which is created if necessary.
+	 */
+	public VcCache(final int memorySize, File directory, int maxFiles) throws IOException {
+		this.memory = new LinkedHashMap<String,List<byte[]>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,List<byte[]>> eldest) {
+				return size() > memorySize;
+			}
+		};
+		this.directory = directory;
+		this.maxFiles = maxFiles;
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Could not create the cache directory " + directory + ".");
+		String[] names = directory.list();
+		this.numFiles = (names == null ? 0 : names.length);
+	}
+
+	/**
+	 * Returns the key for a VC.  VCs that differ only in
+	 * whitespace get the same key.
+	 */
+	public static String keyOf(byte[] vc) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		boolean pendingSpace = false;
+		boolean started = false;
+		for (byte b: vc) {
+			if (b == ' ' || b == '\t' || b == '\n' || b == '\r') {
+				pendingSpace = started;
+			} else {
+				if (pendingSpace)
+					digest.update((byte)' ');
+				digest.update(b);
+				pendingSpace = false;
+				started = true;
+			}
+		}
+		return toHex(digest.digest());
+	}
+
+	static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b: bytes)
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		return hex.toString();
+	}
+
+	/**
+	 * Returns the cached answer for the key, or null.
+	 */
+	public List<byte[]> get(String key) {
+		List<byte[]> answer;
+		synchronized (this) {
+			answer = memory.get(key);
+		}
+		if (answer == null) {
+			answer = read(new File(directory, key));
+			if (answer != null) {
+				synchronized (this) {
+					memory.put(key, answer);
+				}
+			}
+		}
+		synchronized (this) {
+			if (answer == null)
+				misses++;
+			else
+				hits++;
+		}
+		return answer;
+	}
+
+	public void put(String key, List<byte[]> answer) {
+		synchronized (this) {
+			memory.put(key, answer);
+		}
+		File file = new File(directory, key);
+		if (file.exists())
+			return;
+		if (write(file, answer)) {
+			boolean full;
+			synchronized (this) {
+				full = ++numFiles > maxFiles && !trimming;
+				trimming |= full;
+			}
+			if (full)
+				trimDirectory();
+		}
+	}
+
+	public synchronized String getStatistics() {
+		return hits + " hits, " + misses + " misses, " + memory.size() + " answers in memory, " + numFiles + " on disk";
+	}
+
+	private List<byte[]> read(File file) {
+		if (!file.exists())
+			return null;
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(file));
+			try {
+				int count = in.readInt();
+				List<byte[]> answer = new ArrayList<byte[]>(count);
+				for (int i = 0; i < count; i++) {
+					byte[] frame = new byte[in.readInt()];
+					in.readFully(frame);
+					answer.add(frame);
+				}
+				return answer;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// A damaged or half-deleted file is just a miss.
+			file.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the answer to a temporary file and renames it into place,
+	 * so readers never see half an answer.
+	 */
+	private boolean write(File file, List<byte[]> answer) {
+		File temp = new File(directory, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+		try {
+			DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+			try {
+				out.writeInt(answer.size());
+				for (byte[] frame: answer) {
+					out.writeInt(frame.length);
+					out.write(frame);
+				}
+			} finally {
+				out.close();
+			}
+			if (temp.renameTo(file))
+				return true;
+		} catch (IOException e) {
+			System.err.println("Could not write " + file + ": " + e);
+		}
+		temp.delete();
+		return false;
+	}
+
+	/**
+	 * Deletes the least recently written half of the directory.
+	 */
+	private void trimDirectory() {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			synchronized (this) {
+				trimming = false;
+			}
+			return;
+		}
+		final long[] modified = new long[files.length];
+		Integer[] order = new Integer[files.length];
+		for (int i = 0; i < files.length; i++) {
+			modified[i] = files[i].lastModified();
+			order[i] = Integer.valueOf(i);
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return (modified[a] < modified[b] ? -1 : (modified[a] == modified[b] ? 0 : 1));
+			}
+		});
+		int deleted = 0;
+		for (int i = 0; i < order.length / 2; i++) {
+			if (files[order[i]].delete())
+				deleted++;
+		}
+		synchronized (this) {
+			numFiles = files.length - deleted;
+			trimming = false;
+		}
+	}
+
+}
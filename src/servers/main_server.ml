@@ -10,6 +10,9 @@ open Verify ;;
 exception InvalidXml of string ;;
 exception Main_Server_Timeout ;;
 
+(* How the client asked us to write our response. *)
+type output_format = Pretty_xml_output | Compact_xml_output | Binary_output ;;
+
 (*
  * Code for the main server.
  * Gets input from a client, builds bps and vcs,
@@ -57,6 +60,21 @@ let rec compile vc_cache_and_lock ic oc =
     in
     let xml = Xml.parse_string xml_str in
       check_xml xml;
+      (* Clients that send accept_format="compact" don't need the response pretty-printed,
+         and clients that send accept_format="binary1" can read the binary encoding. *)
+      let output_format =
+        let has_attrib name =
+          try
+            ignore (Xml.attrib xml name);
+            true
+          with Xml.No_attribute(_) -> false
+        in
+        if not (has_attrib "accept_format") then Pretty_xml_output
+        else match Xml.attrib xml "accept_format" with
+            "binary1" -> Binary_output
+          | "compact" -> Compact_xml_output
+          | _ -> Pretty_xml_output
+      in
       let code = 
         match has_child "code" xml with
             true -> let code_node = get_child_node "code" xml in
@@ -126,7 +144,7 @@ let rec compile vc_cache_and_lock ic oc =
                   Some({report_type = report_type; report_comment = report_comment})
               end
       in
-        (code, options, user_info, submission_info, report_info)
+        (code, options, user_info, submission_info, report_info, output_format)
   in    
   let go_exception xml_str ex =
     try
@@ -160,8 +178,10 @@ let rec compile vc_cache_and_lock ic oc =
 	ignore (Unix.alarm (Config.get_value_int "timeout_time"));*)
         let xml_str = get_input ic in
         try
+          let response_format = ref Pretty_xml_output in
           let xml_to_return =
-            let (code, options, user_info, submission_info, report_info) = parse_xml xml_str in
+            let (code, options, user_info, submission_info, report_info, output_format) = parse_xml xml_str in
+            response_format := output_format;
             (*print_endline xml_str;
               print_endline (elem_from_opt code);*)
             match report_info with 
@@ -211,7 +231,13 @@ let rec compile vc_cache_and_lock ic oc =
                           end
                   end
           in
-            send_output oc (string_of_xml_node xml_to_return);
+            let xml_str_to_return =
+              match !response_format with
+                  Pretty_xml_output -> string_of_xml_node xml_to_return
+                | Compact_xml_output -> string_of_xml_node_compact xml_to_return
+                | Binary_output -> binary_of_xml_node xml_to_return
+            in
+            send_output oc xml_str_to_return;
             Config.print "Compilation completed. Response sent back to client.";
         with ex ->
 	  let prettify str =
@@ -67,3 +67,125 @@ and string_of_xml_nodes_with_spacing nodes num_spaces =
     prev_str ^ string_of_xml_node_with_spacing cur_node num_spaces
   in
   List.fold_left fold_fn "" nodes
+
+(* Like string_of_xml_node, but without the indentation and
+   newlines between tags.  Used for clients that ask for it. *)
+and string_of_xml_node_compact node =
+  let buf = Buffer.create 4096 in
+  let rec add_node node =
+    Buffer.add_char buf '<';
+    Buffer.add_string buf (replace_bad_chars node.node_name);
+    Buffer.add_string buf (string_of_attribute_list node.node_attributes);
+    Buffer.add_char buf '>';
+    begin
+      match node.node_contents with
+          Text(str) -> Buffer.add_string buf (replace_bad_chars str)
+        | Empty -> ()
+        | Children(nodes) -> List.iter add_node nodes
+    end;
+    Buffer.add_string buf "</";
+    Buffer.add_string buf node.node_name;
+    Buffer.add_char buf '>'
+  in
+  add_node node;
+  Buffer.contents buf
+
+(* BINARY ENCODING *)
+
+(* A compact alternative to the xml text for clients that ask for
+   accept_format="binary1".  The layout is:
+     "PIVB" version-byte
+     string table: varint count, then each string as varint length + bytes
+     the root node
+   where a node is
+     tag-byte [varint name index if the tag is 0]
+     varint attribute count, then each attribute as
+       attr-byte [varint name index if the attr is 0]
+       a zigzag varint for row/col/byte, otherwise a varint string index
+     content: 0 (empty) | 1 varint string index (text) | 2 varint count nodes (children)
+   The tag and attribute numbers must match the client's BinaryResponseReader. *)
+
+let binary_format_version = 1
+
+let binary_tags = [
+  "piVC_transmission"; "messages"; "message"; "result"; "function";
+  "correctness"; "termination"; "decreasing"; "nonnegative";
+  "verification_atom"; "basic_path"; "step"; "text"; "location";
+  "start"; "end"; "vc"; "implies"; "conjunct"; "counterexample"; "var"; "error" ]
+
+let binary_attributes = [
+  "type"; "status"; "name"; "text"; "in_inductive_core"; "row"; "col"; "byte" ]
+
+let is_int_attribute name = name = "row" || name = "col" || name = "byte"
+
+(* Returns the 1-based position of name in the list, or 0 if it is not there. *)
+let code_of_name names name =
+  let rec find i names = match names with
+      [] -> 0
+    | n :: rest -> if n = name then i else find (i + 1) rest
+  in
+  find 1 names
+
+let add_varint buf n =
+  let rec add n =
+    if n < 0x80 then
+      Buffer.add_char buf (Char.chr n)
+    else
+      begin
+        Buffer.add_char buf (Char.chr ((n land 0x7f) lor 0x80));
+        add (n lsr 7)
+      end
+  in
+  add n
+
+let add_zigzag_varint buf n =
+  add_varint buf (if n >= 0 then n lsl 1 else ((-n) lsl 1) - 1)
+
+let binary_of_xml_node node =
+  let strings = Hashtbl.create 1024 in
+  let string_list = ref [] in
+  let num_strings = ref 0 in
+  let index_of_string str =
+    try Hashtbl.find strings str
+    with Not_found ->
+      let index = !num_strings in
+      Hashtbl.add strings str index;
+      string_list := str :: !string_list;
+      incr num_strings;
+      index
+  in
+  let body = Buffer.create 4096 in
+  let add_name names name =
+    let code = code_of_name names name in
+    add_varint body code;
+    if code = 0 then add_varint body (index_of_string name)
+  in
+  let add_attribute (name, value) =
+    add_name binary_attributes name;
+    if is_int_attribute name then
+      add_zigzag_varint body (int_of_string value)
+    else
+      add_varint body (index_of_string value)
+  in
+  let rec add_node node =
+    add_name binary_tags node.node_name;
+    add_varint body (List.length node.node_attributes);
+    List.iter add_attribute node.node_attributes;
+    match node.node_contents with
+        Empty -> add_varint body 0
+      | Text(str) ->
+          add_varint body 1;
+          add_varint body (index_of_string str)
+      | Children(nodes) ->
+          add_varint body 2;
+          add_varint body (List.length nodes);
+          List.iter add_node nodes
+  in
+  add_node node;
+  let buf = Buffer.create (Buffer.length body + 4096) in
+  Buffer.add_string buf "PIVB";
+  Buffer.add_char buf (Char.chr binary_format_version);
+  add_varint buf !num_strings;
+  List.iter (fun str -> add_varint buf (String.length str); Buffer.add_string buf str) (List.rev !string_list);
+  Buffer.add_buffer buf body;
+  Buffer.contents buf
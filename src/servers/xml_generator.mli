@@ -14,3 +14,5 @@ val add_attribute : string * string -> xml_node -> unit ;;
 val set_text : string -> xml_node -> unit ;;
 val add_child : xml_node -> xml_node -> unit ;;
 val string_of_xml_node : xml_node -> string ;;
+val string_of_xml_node_compact : xml_node -> string ;;
+val binary_of_xml_node : xml_node -> string ;;